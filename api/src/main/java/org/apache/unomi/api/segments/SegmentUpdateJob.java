@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.api.segments;
+
+import org.apache.unomi.api.Item;
+
+import java.util.Date;
+
+/**
+ * Tracks the update of the profiles' segment membership after a segment definition was created, modified or disabled.
+ * The job uses the segment identifier as its own identifier, so there is at most one job per segment. Jobs are
+ * persisted while they are pending or running so that they can be resumed after a restart.
+ * <p>
+ * A pending or running job is leased by the cluster node running it, which renews the lease while the job is active.
+ * Another node only resumes the job once its lease has expired.
+ */
+public class SegmentUpdateJob extends Item {
+
+    /**
+     * The SegmentUpdateJob ITEM_TYPE.
+     *
+     * @see Item for a discussion of ITEM_TYPE
+     */
+    public static final String ITEM_TYPE = "segmentupdatejob";
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The different states a segment update job goes through.
+     */
+    public enum Status {
+        PENDING, RUNNING, COMPLETED, FAILED
+    }
+
+    private Status status = Status.PENDING;
+    private boolean sendProfileUpdatedEvents = true;
+    private long profilesToAdd = 0;
+    private long profilesToRemove = 0;
+    private long profilesAdded = 0;
+    private long profilesRemoved = 0;
+    private double profilesPerSecond = 0;
+    private Date creationDate;
+    private Date startDate;
+    private Date lastUpdateDate;
+    private Date endDate;
+    private String errorMessage;
+    private String leaseOwner;
+    private Date leaseExpirationDate;
+
+    public SegmentUpdateJob() {
+    }
+
+    public SegmentUpdateJob(String segmentId) {
+        super(segmentId);
+    }
+
+    /**
+     * Retrieves the current state of the job
+     * @return the job status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Whether a {@code profileUpdated} event is sent for each profile whose segments were modified by this job
+     * @return {@code true} if events are sent, {@code false} if profiles are updated through a single update by query
+     */
+    public boolean isSendProfileUpdatedEvents() {
+        return sendProfileUpdatedEvents;
+    }
+
+    public void setSendProfileUpdatedEvents(boolean sendProfileUpdatedEvents) {
+        this.sendProfileUpdatedEvents = sendProfileUpdatedEvents;
+    }
+
+    /**
+     * Retrieves the number of profiles that had to be added to the segment when the job started
+     * @return the number of profiles to add
+     */
+    public long getProfilesToAdd() {
+        return profilesToAdd;
+    }
+
+    public void setProfilesToAdd(long profilesToAdd) {
+        this.profilesToAdd = profilesToAdd;
+    }
+
+    /**
+     * Retrieves the number of profiles that had to be removed from the segment when the job started
+     * @return the number of profiles to remove
+     */
+    public long getProfilesToRemove() {
+        return profilesToRemove;
+    }
+
+    public void setProfilesToRemove(long profilesToRemove) {
+        this.profilesToRemove = profilesToRemove;
+    }
+
+    /**
+     * Retrieves the number of profiles added to the segment so far
+     * @return the number of profiles added
+     */
+    public long getProfilesAdded() {
+        return profilesAdded;
+    }
+
+    public void setProfilesAdded(long profilesAdded) {
+        this.profilesAdded = profilesAdded;
+    }
+
+    /**
+     * Retrieves the number of profiles removed from the segment so far
+     * @return the number of profiles removed
+     */
+    public long getProfilesRemoved() {
+        return profilesRemoved;
+    }
+
+    public void setProfilesRemoved(long profilesRemoved) {
+        this.profilesRemoved = profilesRemoved;
+    }
+
+    /**
+     * Retrieves the throughput of the job, computed on the profiles processed since it started
+     * @return the number of profiles updated per second
+     */
+    public double getProfilesPerSecond() {
+        return profilesPerSecond;
+    }
+
+    public void setProfilesPerSecond(double profilesPerSecond) {
+        this.profilesPerSecond = profilesPerSecond;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Date creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    public Date getLastUpdateDate() {
+        return lastUpdateDate;
+    }
+
+    public void setLastUpdateDate(Date lastUpdateDate) {
+        this.lastUpdateDate = lastUpdateDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(Date endDate) {
+        this.endDate = endDate;
+    }
+
+    /**
+     * Retrieves the error that made the job fail, if any
+     * @return the error message or {@code null}
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Retrieves the identifier of the cluster node running the job, while it is pending or running
+     * @return the node identifier or {@code null}
+     */
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    /**
+     * Retrieves the date after which another cluster node may resume the job if it was not renewed by its owner
+     * @return the expiration date of the lease or {@code null}
+     */
+    public Date getLeaseExpirationDate() {
+        return leaseExpirationDate;
+    }
+
+    public void setLeaseExpirationDate(Date leaseExpirationDate) {
+        this.leaseExpirationDate = leaseExpirationDate;
+    }
+}
@@ -21,6 +21,8 @@ import org.apache.unomi.api.*;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.query.Query;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.*;
 
@@ -64,6 +66,17 @@ public interface ProfileService {
      */
     String exportProfilesPropertiesToCsv(Query query);
 
+    /**
+     * Writes a comma-separated values (CSV) formatted version of profiles matching the specified query to the specified writer. When all the matching
+     * profiles are exported (limit of {@code -1}, without offset, sorting or full text search), they are written as they are retrieved instead of being
+     * loaded at once.
+     *
+     * @param query  the query specifying which profiles to export
+     * @param writer the writer the CSV-formatted profiles are written to
+     * @throws IOException if the profiles could not be retrieved or written
+     */
+    void exportProfilesPropertiesToCsv(Query query, Writer writer) throws IOException;
+
     /**
      * Find profiles which have the specified property with the specified value, ordered according to the specified {@code sortBy} String and paged: only
      * {@code size} of them are retrieved, starting with the {@code offset}-th one.
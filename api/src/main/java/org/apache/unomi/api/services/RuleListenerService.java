@@ -36,7 +36,8 @@ public interface RuleListenerService {
     /**
      * Called before a rule's conditions are evaluated. Be careful when implemented this listener because rule's condition
      * are called in very high frequencies and the performance of this listener might have a huge impact on rule's
-     * performance
+     * performance. It is only called for the rules that may match the event: rules whose event condition only matches
+     * other event types, or that belong to another scope, are skipped without being evaluated.
      * @param rule the rule that is being evaluated
      * @param event the event we are processing and evaluating against the rule
      */
@@ -26,11 +26,39 @@ import java.util.concurrent.ScheduledExecutorService;
  */
 public interface SchedulerService {
 
+    /**
+     * The lane for short and frequent tasks, such as the reloading of definitions, rules or segments from the
+     * persistence service. This is the lane used by {@link #getScheduleExecutorService()}.
+     */
+    String REFRESH_LANE = "refresh";
+
+    /**
+     * The lane for long running batch tasks, such as the recalculation of past event conditions, purges or imports.
+     * Tasks in this lane run on their own threads so that they never delay the tasks of the refresh lane. The lane has
+     * a single thread by default, so its tasks run one after the other and a long task delays the next ones.
+     */
+    String BATCH_LANE = "batch";
+
     /**
      * Use this method to get a {@link ScheduledExecutorService}
      * and execute your task with it instead of using {@link java.util.Timer}
      *
-     * @return {@link ScheduledExecutorService}
+     * @return {@link ScheduledExecutorService} of the {@link #REFRESH_LANE}
      */
     ScheduledExecutorService getScheduleExecutorService();
+
+    /**
+     * Retrieves the {@link ScheduledExecutorService} of a specific lane. Each lane has its own pool of threads, except with
+     * the default implementation, which runs the tasks of all the lanes on {@link #getScheduleExecutorService()}.
+     *
+     * @param lane the name of the lane, {@link #REFRESH_LANE} or {@link #BATCH_LANE}
+     * @return the {@link ScheduledExecutorService} of the lane
+     * @throws IllegalArgumentException if no lane exists with this name
+     */
+    default ScheduledExecutorService getScheduleExecutorService(String lane) {
+        if (!REFRESH_LANE.equals(lane) && !BATCH_LANE.equals(lane)) {
+            throw new IllegalArgumentException("Unknown scheduler lane: " + lane);
+        }
+        return getScheduleExecutorService();
+    }
 }
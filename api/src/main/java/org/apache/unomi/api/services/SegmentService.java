@@ -26,6 +26,7 @@ import org.apache.unomi.api.query.Query;
 import org.apache.unomi.api.segments.DependentMetadata;
 import org.apache.unomi.api.segments.Scoring;
 import org.apache.unomi.api.segments.Segment;
+import org.apache.unomi.api.segments.SegmentUpdateJob;
 import org.apache.unomi.api.segments.SegmentsAndScores;
 
 import java.util.List;
@@ -80,12 +81,32 @@ public interface SegmentService {
     Segment getSegmentDefinition(String segmentId);
 
     /**
-     * Persists the specified segment in the context server.
+     * Persists the specified segment in the context server. The segment membership of the existing profiles is then updated asynchronously, the progress of this
+     * update can be followed using {@link #getSegmentUpdateJob(String)}.
+     * <p>
+     * Note that this method returns as soon as the segment is persisted, before the existing profiles are updated: callers that need the profiles to be
+     * updated must wait for the update job of the segment to be {@link SegmentUpdateJob.Status#COMPLETED}. Definitions saved for a segment while its profiles
+     * are being updated are applied one after the other, the last one winning.
      *
      * @param segment the segment to be persisted
      */
     void setSegmentDefinition(Segment segment);
 
+    /**
+     * Retrieves the job updating the profiles' membership for the segment identified by the specified identifier.
+     *
+     * @param segmentId the identifier of the segment
+     * @return the last known update job for this segment or {@code null} if no update was ever performed
+     */
+    SegmentUpdateJob getSegmentUpdateJob(String segmentId);
+
+    /**
+     * Retrieves all the segment update jobs known to this node, including the pending and running ones.
+     *
+     * @return a list of segment update jobs
+     */
+    List<SegmentUpdateJob> getSegmentUpdateJobs();
+
     /**
      * Removes the segment definition identified by the specified identifier. We can specify that we want the operation to be validated beforehand so that we can
      * know if any other segment that might use the segment we're trying to delete as a condition might be impacted. If {@code validate} is set to {@code false}, no
@@ -17,12 +17,16 @@
 package org.apache.unomi.services.actions.groovy;
 
 import groovy.lang.Binding;
+import groovy.lang.Script;
 import groovy.util.GroovyScriptEngine;
+import groovy.util.ResourceException;
+import groovy.util.ScriptException;
 import org.apache.unomi.api.Event;
 import org.apache.unomi.api.actions.Action;
 import org.apache.unomi.api.actions.ActionDispatcher;
 import org.apache.unomi.metrics.MetricAdapter;
 import org.apache.unomi.metrics.MetricsService;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -48,6 +52,8 @@ public class GroovyActionDispatcher implements ActionDispatcher, SynchronousBund
 
     private Map<String, GroovyAction> groovyActionsByName = new ConcurrentHashMap<>();
     private Map<BundleContext, List<GroovyAction>> groovyActionsByBundle = new ConcurrentHashMap<>();
+    private Map<BundleContext, GroovyScriptEngine> scriptEnginesByBundle = new ConcurrentHashMap<>();
+    private Map<GroovyAction, Class<? extends Script>> scriptClasses = new ConcurrentHashMap<>();
     private MetricsService metricsService;
     private BundleContext bundleContext;
 
@@ -76,9 +82,8 @@ public class GroovyActionDispatcher implements ActionDispatcher, SynchronousBund
                         binding.setVariable("groovyAction", groovyAction);
                         binding.setVariable("action", action);
                         binding.setVariable("event", event);
-                        GroovyBundleResourceConnector bundleResourceConnector = new GroovyBundleResourceConnector(groovyAction.getBundleContext());
-                        GroovyScriptEngine engine = new GroovyScriptEngine(bundleResourceConnector, groovyAction.getBundleContext().getBundle().adapt(BundleWiring.class).getClassLoader());
-                        return (Integer) engine.run(groovyAction.getPath(), binding);
+                        Script script = InvokerHelper.createScript(getScriptClass(groovyAction), binding);
+                        return (Integer) script.run();
                     }
                 }.runWithTimer();
             } catch (Exception e) {
@@ -89,6 +94,31 @@ public class GroovyActionDispatcher implements ActionDispatcher, SynchronousBund
         return null;
     }
 
+    /**
+     * Retrieves the compiled class of a Groovy action, compiling it the first time the action is executed. The
+     * compiled classes are kept until the bundle providing the action is stopped.
+     */
+    private Class<? extends Script> getScriptClass(GroovyAction groovyAction) throws ResourceException, ScriptException {
+        Class<? extends Script> scriptClass = scriptClasses.get(groovyAction);
+        if (scriptClass == null) {
+            synchronized (groovyAction) {
+                scriptClass = scriptClasses.get(groovyAction);
+                if (scriptClass == null) {
+                    long startTime = System.currentTimeMillis();
+                    scriptClass = getScriptEngine(groovyAction.getBundleContext()).loadScriptByName(groovyAction.getPath()).asSubclass(Script.class);
+                    scriptClasses.put(groovyAction, scriptClass);
+                    logger.debug("Compiled Groovy action {} in {}ms", groovyAction.getName(), System.currentTimeMillis() - startTime);
+                }
+            }
+        }
+        return scriptClass;
+    }
+
+    private GroovyScriptEngine getScriptEngine(BundleContext bundleContext) {
+        return scriptEnginesByBundle.computeIfAbsent(bundleContext, context -> new GroovyScriptEngine(new GroovyBundleResourceConnector(context),
+                context.getBundle().adapt(BundleWiring.class).getClassLoader()));
+    }
+
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
@@ -155,8 +185,10 @@ public class GroovyActionDispatcher implements ActionDispatcher, SynchronousBund
         }
         for (GroovyAction groovyAction : bundleGroovyActions) {
             groovyActionsByName.remove(groovyAction.getName());
+            scriptClasses.remove(groovyAction);
         }
         groovyActionsByBundle.remove(bundleContext);
+        scriptEnginesByBundle.remove(bundleContext);
     }
 
     private void loadGroovyActions(BundleContext bundleContext) {
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.actions.groovy;
+
+import groovy.lang.Binding;
+import groovy.util.GroovyScriptEngine;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.actions.Action;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.wiring.BundleWiring;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroovyActionDispatcherTest {
+
+    public static final int ITERATIONS = 2000;
+    // creating a script engine for each execution is very slow, so fewer iterations are needed to measure it
+    public static final int ENGINE_ITERATIONS = 200;
+    public static final String ACTION_NAME = "benchmarkAction";
+
+    private GroovyActionDispatcher groovyActionDispatcher;
+    private BundleContext bundleContext;
+    private URL actionURL;
+
+    @Before
+    public void setUp() {
+        actionURL = getClass().getClassLoader().getResource("META-INF/cxs/actions/" + ACTION_NAME + ".groovy");
+        bundleContext = createBundleContext();
+        groovyActionDispatcher = new GroovyActionDispatcher();
+        groovyActionDispatcher.setBundleContext(bundleContext);
+        groovyActionDispatcher.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundleContext.getBundle()));
+    }
+
+    @Test
+    public void testExecuteAction() {
+        Event event = createEvent();
+        assertEquals(Integer.valueOf(4), groovyActionDispatcher.execute(new Action(), event, ACTION_NAME));
+        assertEquals(ACTION_NAME, event.getProperty("lastGroovyAction"));
+
+        event = createEvent();
+        assertEquals(Integer.valueOf(4), groovyActionDispatcher.execute(new Action(), event, ACTION_NAME));
+        assertEquals(ACTION_NAME, event.getProperty("lastGroovyAction"));
+    }
+
+    @Test
+    public void testCompareCachedVsEnginePerExecutionPerformance() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            runEnginePerExecutionTest();
+            runCachedTest();
+        }
+    }
+
+    private void runEnginePerExecutionTest() throws Exception {
+        // this is how the actions were executed before the compiled scripts were cached
+        GroovyAction groovyAction = new GroovyAction(actionURL, bundleContext);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ENGINE_ITERATIONS; i++) {
+            Binding binding = new Binding();
+            binding.setVariable("groovyAction", groovyAction);
+            binding.setVariable("action", new Action());
+            binding.setVariable("event", createEvent());
+            GroovyScriptEngine engine = new GroovyScriptEngine(new GroovyBundleResourceConnector(bundleContext), getClass().getClassLoader());
+            assertEquals(4, engine.run(groovyAction.getPath(), binding));
+        }
+        printResults("Engine per execution", ENGINE_ITERATIONS, System.nanoTime() - startTime);
+    }
+
+    private void runCachedTest() {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(Integer.valueOf(4), groovyActionDispatcher.execute(new Action(), createEvent(), ACTION_NAME));
+        }
+        printResults("Cached script class", ITERATIONS, System.nanoTime() - startTime);
+    }
+
+    private Event createEvent() {
+        return new Event("view", null, new Profile("profileId"), "systemscope", null, null, new Date());
+    }
+
+    private void printResults(String name, int iterations, long totalTime) {
+        System.out.println(name + " executed action " + iterations + " times in " + (totalTime / 1000000L) + "ms (" + (totalTime / iterations) + "ns/execution)");
+    }
+
+    private BundleContext createBundleContext() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        BundleWiring bundleWiring = (BundleWiring) Proxy.newProxyInstance(classLoader, new Class[]{BundleWiring.class}, (proxy, method, args) -> {
+            if ("getClassLoader".equals(method.getName())) {
+                return classLoader;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        BundleContext[] context = new BundleContext[1];
+        Bundle bundle = (Bundle) Proxy.newProxyInstance(classLoader, new Class[]{Bundle.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getBundleContext":
+                    return context[0];
+                case "getBundleId":
+                    return 1L;
+                case "getHeaders":
+                    return new Hashtable<String, String>();
+                case "adapt":
+                    return bundleWiring;
+                case "findEntries":
+                    return Collections.enumeration(Collections.singletonList(actionURL));
+                case "getEntry":
+                    File file = new File((String) args[0]);
+                    return file.exists() ? file.toURI().toURL() : null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        context[0] = (BundleContext) Proxy.newProxyInstance(classLoader, new Class[]{BundleContext.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getBundle":
+                    return bundle;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return context[0];
+    }
+}
@@ -128,16 +128,27 @@ public class PrivacyServiceImpl implements PrivacyService {
         if (sessions.isEmpty()) {
             return false;
         }
-        for (Session session : sessions) {
-            Profile newProfile = getAnonymousProfile(session.getProfile());
-            session.setProfile(newProfile);
-            persistenceService.save(session);
-            List<Event> events = eventService.searchEvents(session.getItemId(), new String[0], null, 0, -1, null).getList();
-            for (Event event : events) {
-                persistenceService.update(event.getItemId(), event.getTimeStamp(), Event.class, "profileId", newProfile.getItemId());
+        // the session and event updates are sent in a single bulk request
+        Map<String, Boolean> writeResults;
+        persistenceService.openWriteBuffer();
+        try {
+            for (Session session : sessions) {
+                Profile newProfile = getAnonymousProfile(session.getProfile());
+                session.setProfile(newProfile);
+                persistenceService.save(session);
+                List<Event> events = eventService.searchEvents(session.getItemId(), new String[0], null, 0, -1, null).getList();
+                for (Event event : events) {
+                    persistenceService.update(event.getItemId(), event.getTimeStamp(), Event.class, "profileId", newProfile.getItemId());
+                }
             }
+        } finally {
+            writeResults = persistenceService.flushWriteBuffer();
         }
 
+        if (writeResults.containsValue(false)) {
+            logger.error("Couldn't anonymize all the sessions and events of profile {}: {}", profileId, writeResults);
+            return false;
+        }
         return true;
     }
 
@@ -158,6 +169,7 @@ public class PrivacyServiceImpl implements PrivacyService {
         if (anonymous) {
             profile.getSystemProperties().remove("goals");
             profile.getSystemProperties().remove("pastEvents");
+            profile.getSystemProperties().remove("pastEventDailyCounts");
         }
         Event profileUpdated = new Event("profileUpdated", null, profile, scope, null, profile, new Date());
         profileUpdated.setPersistent(false);
@@ -18,12 +18,17 @@ package org.apache.unomi.metrics;
 
 import java.util.List;
 
+/**
+ * The calls of a timer made from a given stack trace. When callers are sampled, only one call out of the sampling rate
+ * is recorded, with its count and time multiplied by the sampling rate, so the count and total time are estimates.
+ */
 public interface CallerCount {
 
     String getHash();
     List<String> getCaller();
     long getCount();
     long incCount();
+    long addCount(long count);
     long getTotalTime();
     long addTime(long time);
 }
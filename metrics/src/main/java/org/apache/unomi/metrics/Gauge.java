@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A value sampled on demand, such as a queue depth or a cache size, that other bundles register with the
+ * {@link MetricsService} so that it can be exported along with the timers.
+ */
+public interface Gauge {
+
+    String getName();
+
+    String getDescription();
+
+    /**
+     * @return the labels distinguishing this gauge from the other gauges with the same name, empty if there are none
+     */
+    default Map<String,String> getLabels() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the current value of the gauge, or null if it is not available
+     */
+    Number getValue();
+
+    /**
+     * @return true if the value of this gauge is a count that only ever increases
+     */
+    default boolean isCounter() {
+        return false;
+    }
+
+}
@@ -28,6 +28,34 @@ public interface Metric {
     long getTotalTime();
     long addTotalTime(long time);
 
+    /**
+     * @return the total time spent in the recorded calls, in nanoseconds
+     */
+    long getTotalTimeNanos();
+
+    /**
+     * Records a single timed call: increments the count and adds the duration to the total time and to the latency
+     * histogram.
+     * @param durationNanos the duration of the call, in nanoseconds
+     */
+    void recordNanos(long durationNanos);
+
+    /**
+     * @param percentile the percentile to retrieve, between 0 and 100
+     * @return the recorded latency at the given percentile, in milliseconds
+     */
+    double getPercentile(double percentile);
+
+    /**
+     * @return the p50, p90, p99 and p999 latencies, in milliseconds, keyed by "p50", "p90", "p99" and "p999"
+     */
+    Map<String,Double> getPercentiles();
+
+    /**
+     * @return the largest recorded latency, in milliseconds
+     */
+    double getMaxTime();
+
     Map<String,CallerCount> getCallerCounts();
 
 }
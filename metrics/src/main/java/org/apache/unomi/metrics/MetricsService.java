@@ -17,6 +17,7 @@
 package org.apache.unomi.metrics;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * This is the main interface for the metrics service, that makes it possible to count calls, callers and accumulated
@@ -45,5 +46,57 @@ public interface MetricsService {
 
     void updateTimer(String timerName, long startTime);
 
+    /**
+     * Records a call for the given timer, measured with {@link System#nanoTime()}. This should be preferred over
+     * {@link #updateTimer(String, long)} which only has millisecond resolution.
+     * @param timerName the name of the timer to update
+     * @param startNanoTime the value of {@link System#nanoTime()} when the measured call started
+     */
+    void updateTimerNanos(String timerName, long startNanoTime);
+
+    /**
+     * Registers a gauge whose value is read from the given supplier each time metrics are exported. Gauges are
+     * available even when timers are not activated. Registering a gauge with an existing name replaces it.
+     * @param name the name of the gauge, such as elasticsearch.bulkProcessor.pendingActions
+     * @param description a short human readable description of the gauge
+     * @param valueSupplier the supplier of the current value, it must be cheap and non-blocking
+     */
+    void registerGauge(String name, String description, Supplier<? extends Number> valueSupplier);
+
+    /**
+     * Registers a gauge with labels, so that the values of the same measure for different subjects, such as the size
+     * of the near cache of each item class, are exported as a single metric. Gauges are identified by their name and
+     * labels, registering a gauge with an existing name and labels replaces it.
+     * @param name the name of the gauge, such as elasticsearch.nearCache.size
+     * @param labels the labels of the gauge, such as class=org.apache.unomi.api.Profile
+     * @param description a short human readable description of the gauge, shared by all its labels
+     * @param valueSupplier the supplier of the current value, it must be cheap and non-blocking
+     */
+    void registerGauge(String name, Map<String,String> labels, String description, Supplier<? extends Number> valueSupplier);
+
+    /**
+     * Registers a counter, which is a gauge whose value only ever increases, such as a number of failed actions. It
+     * is exported as a counter instead of a gauge, and unregistered using {@link #unregisterGauge(String)}.
+     * @param name the name of the counter, such as elasticsearch.bulkProcessor.failedActions
+     * @param description a short human readable description of the counter
+     * @param valueSupplier the supplier of the current count, it must be cheap and non-blocking
+     */
+    void registerCounter(String name, String description, Supplier<? extends Number> valueSupplier);
+
+    /**
+     * Registers a counter with labels, see {@link #registerGauge(String, Map, String, Supplier)}.
+     * @param name the name of the counter, such as elasticsearch.nearCache.hits
+     * @param labels the labels of the counter, such as class=org.apache.unomi.api.Profile
+     * @param description a short human readable description of the counter, shared by all its labels
+     * @param valueSupplier the supplier of the current count, it must be cheap and non-blocking
+     */
+    void registerCounter(String name, Map<String,String> labels, String description, Supplier<? extends Number> valueSupplier);
+
+    void unregisterGauge(String name);
+
+    void unregisterGauge(String name, Map<String,String> labels);
+
+    Map<String,Gauge> getGauges();
+
 
 }
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the timers and gauges of a {@link MetricsService} in the Prometheus text exposition format (version 0.0.4),
+ * which is also accepted by OpenMetrics scrapers.
+ *
+ * All the timers are exported as a single <code>unomi_timer_seconds</code> summary, labelled by timer name, with
+ * its 0.5, 0.9, 0.99 and 0.999 quantiles, along with an <code>unomi_timer_max_seconds</code> gauge. Each registered
+ * gauge is exported as <code>unomi_&lt;gauge name&gt;</code>, and each registered counter as
+ * <code>unomi_&lt;counter name&gt;_total</code>, with characters that are not valid in Prometheus metric names
+ * replaced by underscores. Gauges and counters registered with the same name and different labels are exported as
+ * the samples of a single metric. The output is written directly to the provided writer, metric by metric,
+ * without building an intermediate document.
+ */
+public class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String TIMER_METRIC_NAME = "unomi_timer_seconds";
+    private static final String TIMER_MAX_METRIC_NAME = "unomi_timer_max_seconds";
+    private static final String[] QUANTILE_KEYS = { "p50", "p90", "p99", "p999" };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    private final MetricsService metricsService;
+
+    public PrometheusExporter(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void write(Writer writer) throws IOException {
+        writeTimers(writer);
+        writeGauges(writer);
+        writer.flush();
+    }
+
+    private void writeTimers(Writer writer) throws IOException {
+        Map<String, Metric> metrics = metricsService.getMetrics();
+        if (metrics.isEmpty()) {
+            return;
+        }
+        writeHeader(writer, TIMER_METRIC_NAME, "Latency of the Unomi internal timers", "summary");
+        for (Metric metric : metrics.values()) {
+            Map<String, Double> percentiles = metric.getPercentiles();
+            for (int i = 0; i < QUANTILE_KEYS.length; i++) {
+                writer.write(TIMER_METRIC_NAME);
+                writeNameLabel(writer, metric.getName());
+                writer.write(",quantile=\"");
+                writer.write(QUANTILE_LABELS[i]);
+                writer.write("\"} ");
+                writeValue(writer, percentiles.get(QUANTILE_KEYS[i]) / 1000.0);
+            }
+            writer.write(TIMER_METRIC_NAME);
+            writer.write("_sum");
+            writeNameLabel(writer, metric.getName());
+            writer.write("} ");
+            writeValue(writer, metric.getTotalTimeNanos() / 1e9);
+            writer.write(TIMER_METRIC_NAME);
+            writer.write("_count");
+            writeNameLabel(writer, metric.getName());
+            writer.write("} ");
+            writeValue(writer, metric.getTotalCount());
+        }
+        writeHeader(writer, TIMER_MAX_METRIC_NAME, "Maximum latency of the Unomi internal timers", "gauge");
+        for (Metric metric : metrics.values()) {
+            writer.write(TIMER_MAX_METRIC_NAME);
+            writeNameLabel(writer, metric.getName());
+            writer.write("} ");
+            writeValue(writer, metric.getMaxTime() / 1000.0);
+        }
+    }
+
+    private void writeGauges(Writer writer) throws IOException {
+        Map<String, List<Gauge>> gaugesByMetricName = new TreeMap<>();
+        for (Gauge gauge : metricsService.getGauges().values()) {
+            String metricName = toMetricName(gauge.getName());
+            if (gauge.isCounter()) {
+                metricName += "_total";
+            }
+            gaugesByMetricName.computeIfAbsent(metricName, k -> new ArrayList<>()).add(gauge);
+        }
+        for (Map.Entry<String, List<Gauge>> entry : gaugesByMetricName.entrySet()) {
+            String metricName = entry.getKey();
+            boolean headerWritten = false;
+            for (Gauge gauge : entry.getValue()) {
+                Number value;
+                try {
+                    value = gauge.getValue();
+                } catch (RuntimeException e) {
+                    // the service behind the gauge might be stopping, we simply skip it for this scrape
+                    continue;
+                }
+                if (value == null) {
+                    continue;
+                }
+                if (!headerWritten) {
+                    writeHeader(writer, metricName, gauge.getDescription(), gauge.isCounter() ? "counter" : "gauge");
+                    headerWritten = true;
+                }
+                writer.write(metricName);
+                writeLabels(writer, gauge.getLabels());
+                writer.write(' ');
+                writeValue(writer, value);
+            }
+        }
+    }
+
+    private void writeHeader(Writer writer, String metricName, String description, String type) throws IOException {
+        if (description != null) {
+            writer.write("# HELP ");
+            writer.write(metricName);
+            writer.write(' ');
+            for (int i = 0; i < description.length(); i++) {
+                char c = description.charAt(i);
+                if (c == '\\') {
+                    writer.write("\\\\");
+                } else if (c == '\n') {
+                    writer.write("\\n");
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('\n');
+        }
+        writer.write("# TYPE ");
+        writer.write(metricName);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    private void writeNameLabel(Writer writer, String name) throws IOException {
+        writer.write("{name=");
+        writeLabelValue(writer, name);
+    }
+
+    private void writeLabels(Writer writer, Map<String, String> labels) throws IOException {
+        if (labels.isEmpty()) {
+            return;
+        }
+        char separator = '{';
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            writer.write(separator);
+            writer.write(label.getKey());
+            writer.write('=');
+            writeLabelValue(writer, label.getValue());
+            separator = ',';
+        }
+        writer.write('}');
+    }
+
+    private void writeLabelValue(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                writer.write("\\\\");
+            } else if (c == '"') {
+                writer.write("\\\"");
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private void writeValue(Writer writer, Number value) throws IOException {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.write(Long.toString(value.longValue()));
+        } else {
+            double doubleValue = value.doubleValue();
+            if (Double.isNaN(doubleValue)) {
+                writer.write("NaN");
+            } else if (Double.isInfinite(doubleValue)) {
+                writer.write(doubleValue > 0 ? "+Inf" : "-Inf");
+            } else {
+                writer.write(Double.toString(doubleValue));
+            }
+        }
+        writer.write('\n');
+    }
+
+    static String toMetricName(String gaugeName) {
+        StringBuilder metricName = new StringBuilder(gaugeName.length() + 6).append("unomi_");
+        for (int i = 0; i < gaugeName.length(); i++) {
+            char c = gaugeName.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == ':') {
+                metricName.append(c);
+            } else {
+                metricName.append('_');
+            }
+        }
+        return metricName.toString();
+    }
+
+}
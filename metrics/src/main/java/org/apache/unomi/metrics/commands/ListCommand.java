@@ -25,6 +25,7 @@ import org.apache.unomi.metrics.Metric;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @Command(scope = "metrics", name = "list", description = "This will list all the metrics")
@@ -44,13 +45,21 @@ public class ListCommand extends MetricsCommandSupport {
                 "Name",
                 "Callers",
                 "Count",
-                "Time [ms]"
+                "Time [ms]",
+                "p50 [ms]",
+                "p90 [ms]",
+                "p99 [ms]",
+                "p999 [ms]",
+                "Max [ms]"
         };
 
         DataTable dataTable = new DataTable();
         for (Map.Entry<String,Metric> metricEntry : metrics.entrySet()) {
             Metric metric = metricEntry.getValue();
-            dataTable.addRow(metric.getName(), metric.getCallerCounts().size(), metric.getTotalCount(), metric.getTotalTime());
+            Map<String,Double> percentiles = metric.getPercentiles();
+            dataTable.addRow(metric.getName(), metric.getCallerCounts().size(), metric.getTotalCount(), metric.getTotalTime(),
+                    formatTime(percentiles.get("p50")), formatTime(percentiles.get("p90")), formatTime(percentiles.get("p99")),
+                    formatTime(percentiles.get("p999")), formatTime(metric.getMaxTime()));
         }
         dataTable.sort(new DataTable.SortCriteria(3, DataTable.SortOrder.DESCENDING),
                 new DataTable.SortCriteria(2, DataTable.SortOrder.DESCENDING),
@@ -69,14 +78,17 @@ public class ListCommand extends MetricsCommandSupport {
 
         for (DataTable.Row dataTableRow :dataTable.getRows()) {
             List<Object> rowData = new ArrayList<Object>();
-            rowData.add(dataTableRow.getData(0));
-            rowData.add(dataTableRow.getData(1));
-            rowData.add(dataTableRow.getData(2));
-            rowData.add(dataTableRow.getData(3));
+            for (int i = 0; i < headers.length; i++) {
+                rowData.add(dataTableRow.getData(i));
+            }
             Row row = shellTable.addRow();
             row.addContent(rowData);
         }
         shellTable.print(System.out);
         return null;
     }
+
+    private String formatTime(Double timeInMillis) {
+        return timeInMillis == null ? "" : String.format(Locale.ENGLISH, "%.3f", timeInMillis);
+    }
 }
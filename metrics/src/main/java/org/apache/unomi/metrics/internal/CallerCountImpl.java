@@ -53,6 +53,11 @@ public class CallerCountImpl implements CallerCount {
         return count.incrementAndGet();
     }
 
+    @Override
+    public long addCount(long count) {
+        return this.count.addAndGet(count);
+    }
+
     @Override
     public long getTotalTime() {
         return totalTime.get();
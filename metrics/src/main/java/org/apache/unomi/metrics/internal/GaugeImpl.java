@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics.internal;
+
+import org.apache.unomi.metrics.Gauge;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+public class GaugeImpl implements Gauge {
+
+    private String name;
+    private Map<String,String> labels;
+    private String description;
+    private Supplier<? extends Number> valueSupplier;
+    private boolean counter;
+
+    public GaugeImpl(String name, String description, Supplier<? extends Number> valueSupplier) {
+        this(name, Collections.emptyMap(), description, valueSupplier, false);
+    }
+
+    public GaugeImpl(String name, Map<String,String> labels, String description, Supplier<? extends Number> valueSupplier, boolean counter) {
+        this.name = name;
+        this.labels = labels.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new TreeMap<>(labels));
+        this.description = description;
+        this.valueSupplier = valueSupplier;
+        this.counter = counter;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public Number getValue() {
+        return valueSupplier.get();
+    }
+
+    @Override
+    public boolean isCounter() {
+        return counter;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free, log-linear latency histogram in the spirit of HdrHistogram. Values (in nanoseconds) below 16 get their
+ * own bucket, larger values are grouped by power of two and each group is split into 16 linear sub-buckets, which
+ * bounds the relative error of reported percentiles to about 6% over the whole positive long range.
+ *
+ * To keep the footprint small when many timers exist, bucket groups are only allocated once a value falls in them, and
+ * the histogram starts with a single stripe of counters. Like {@link java.util.concurrent.atomic.LongAdder}, additional stripes are only added
+ * when concurrent recordings contend on the same counter.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int GROUP_COUNT = 1 + (63 - SUB_BUCKET_BITS);
+    private static final int MAX_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private volatile Stripe[] stripes = new Stripe[] { new Stripe() };
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    private static class Stripe {
+        private final AtomicReferenceArray<AtomicLongArray> groups = new AtomicReferenceArray<>(GROUP_COUNT);
+
+        private AtomicLongArray getOrCreateGroup(int groupIndex) {
+            AtomicLongArray group = groups.get(groupIndex);
+            if (group == null) {
+                groups.compareAndSet(groupIndex, null, new AtomicLongArray(SUB_BUCKET_COUNT));
+                group = groups.get(groupIndex);
+            }
+            return group;
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucketIndex = bucketIndex(value);
+        int groupIndex = bucketIndex / SUB_BUCKET_COUNT;
+        int subBucketIndex = bucketIndex % SUB_BUCKET_COUNT;
+        Stripe[] currentStripes = stripes;
+        AtomicLongArray group = currentStripes[(int) (Thread.currentThread().getId() & (currentStripes.length - 1))].getOrCreateGroup(groupIndex);
+        long current = group.get(subBucketIndex);
+        if (!group.compareAndSet(subBucketIndex, current, current + 1)) {
+            group.incrementAndGet(subBucketIndex);
+            expandStripes(currentStripes);
+        }
+        max.accumulate(value);
+    }
+
+    private synchronized void expandStripes(Stripe[] contendedStripes) {
+        if (stripes != contendedStripes || contendedStripes.length >= MAX_STRIPES) {
+            return;
+        }
+        Stripe[] newStripes = new Stripe[contendedStripes.length * 2];
+        System.arraycopy(contendedStripes, 0, newStripes, 0, contendedStripes.length);
+        for (int i = contendedStripes.length; i < newStripes.length; i++) {
+            newStripes[i] = new Stripe();
+        }
+        stripes = newStripes;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value at the given percentile (0 to 100). The returned value is the upper bound of the bucket
+     * containing the requested rank, capped by the maximum recorded value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(percentile)[0];
+    }
+
+    /**
+     * Same as {@link #getValueAtPercentile(double)} for several percentiles, which must be in ascending order,
+     * using a single pass over the buckets.
+     */
+    public long[] getValuesAtPercentiles(double... percentiles) {
+        long[] values = new long[percentiles.length];
+        long[] counts = new long[GROUP_COUNT * SUB_BUCKET_COUNT];
+        long recorded = 0;
+        for (Stripe stripe : stripes) {
+            for (int groupIndex = 0; groupIndex < GROUP_COUNT; groupIndex++) {
+                AtomicLongArray group = stripe.groups.get(groupIndex);
+                if (group == null) {
+                    continue;
+                }
+                for (int subBucketIndex = 0; subBucketIndex < SUB_BUCKET_COUNT; subBucketIndex++) {
+                    long bucketCount = group.get(subBucketIndex);
+                    counts[groupIndex * SUB_BUCKET_COUNT + subBucketIndex] += bucketCount;
+                    recorded += bucketCount;
+                }
+            }
+        }
+        if (recorded == 0) {
+            return values;
+        }
+        long maxValue = getMax();
+        int percentileIndex = 0;
+        long seen = 0;
+        for (int i = 0; i < counts.length && percentileIndex < percentiles.length; i++) {
+            seen += counts[i];
+            while (percentileIndex < percentiles.length && seen >= rank(percentiles[percentileIndex], recorded)) {
+                values[percentileIndex++] = Math.min(bucketUpperBound(i), maxValue);
+            }
+        }
+        while (percentileIndex < percentiles.length) {
+            values[percentileIndex++] = maxValue;
+        }
+        return values;
+    }
+
+    private static long rank(double percentile, long recorded) {
+        return Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * recorded));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long upperBound = (1L << exponent) + subBucket * width + width - 1;
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+
+}
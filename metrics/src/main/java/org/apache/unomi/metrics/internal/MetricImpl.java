@@ -19,14 +19,20 @@ package org.apache.unomi.metrics.internal;
 import org.apache.unomi.metrics.CallerCount;
 import org.apache.unomi.metrics.Metric;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MetricImpl implements Metric {
 
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
     private String name;
-    private long totalCount = 0L;
-    private long totalTime = 0L;
+    private LongAdder totalCount = new LongAdder();
+    private LongAdder totalTimeNanos = new LongAdder();
+    private Histogram histogram = new Histogram();
     private Map<String,CallerCount> callerCounts = new ConcurrentHashMap<String, CallerCount>();
 
     public MetricImpl(String name) {
@@ -40,22 +46,57 @@ public class MetricImpl implements Metric {
 
     @Override
     public long getTotalCount() {
-        return totalCount;
+        return totalCount.sum();
     }
 
     @Override
     public long incTotalCount() {
-        return totalCount++;
+        totalCount.increment();
+        return totalCount.sum();
     }
 
     @Override
     public long getTotalTime() {
-        return totalTime;
+        return TimeUnit.NANOSECONDS.toMillis(totalTimeNanos.sum());
+    }
+
+    @Override
+    public long getTotalTimeNanos() {
+        return totalTimeNanos.sum();
     }
 
     @Override
     public long addTotalTime(long time) {
-        return totalTime += time;
+        totalTimeNanos.add(TimeUnit.MILLISECONDS.toNanos(time));
+        return getTotalTime();
+    }
+
+    @Override
+    public void recordNanos(long durationNanos) {
+        totalCount.increment();
+        totalTimeNanos.add(durationNanos);
+        histogram.record(durationNanos);
+    }
+
+    @Override
+    public double getPercentile(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Double> getPercentiles() {
+        long[] values = histogram.getValuesAtPercentiles(50.0, 90.0, 99.0, 99.9);
+        Map<String,Double> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", values[0] / NANOS_PER_MILLI);
+        percentiles.put("p90", values[1] / NANOS_PER_MILLI);
+        percentiles.put("p99", values[2] / NANOS_PER_MILLI);
+        percentiles.put("p999", values[3] / NANOS_PER_MILLI);
+        return percentiles;
+    }
+
+    @Override
+    public double getMaxTime() {
+        return histogram.getMax() / NANOS_PER_MILLI;
     }
 
     @Override
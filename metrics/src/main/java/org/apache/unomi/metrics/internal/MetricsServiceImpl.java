@@ -17,19 +17,27 @@
 package org.apache.unomi.metrics.internal;
 
 import org.apache.unomi.metrics.CallerCount;
+import org.apache.unomi.metrics.Gauge;
 import org.apache.unomi.metrics.Metric;
 import org.apache.unomi.metrics.MetricsService;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class MetricsServiceImpl implements MetricsService {
 
     boolean activated = false;
     Map<String,Metric> metrics = new ConcurrentHashMap<String,Metric>();
     Map<String,Boolean> callersStatus = new ConcurrentHashMap<>();
+    int callerSamplingRate = 100;
+    Map<String,Gauge> gauges = new ConcurrentHashMap<>();
 
     public void setActivated(boolean activated) {
         this.activated = activated;
@@ -53,39 +61,107 @@ public class MetricsServiceImpl implements MetricsService {
         metrics.clear();
     }
 
+    /**
+     * Sets how many timer calls are made for each call whose caller is recorded, as walking the stack on every call is
+     * too expensive. Each recorded call counts for this number of calls in the caller counts and times, which are
+     * therefore estimates unless the rate is 1.
+     * @param callerSamplingRate the number of calls per recorded caller, 1 to record the caller of every call
+     */
+    public void setCallerSamplingRate(int callerSamplingRate) {
+        this.callerSamplingRate = Math.max(1, callerSamplingRate);
+    }
+
+    public int getCallerSamplingRate() {
+        return callerSamplingRate;
+    }
+
     public void updateTimer(String timerName, long startTime) {
         if (!activated) {
             return;
         }
-        long totalTime = System.currentTimeMillis() - startTime;
-        Metric metric = metrics.get(timerName);
-        if (metric == null) {
-            metric = new MetricImpl(timerName);
-            metrics.put(timerName, metric);
+        record(timerName, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - startTime));
+    }
+
+    @Override
+    public void updateTimerNanos(String timerName, long startNanoTime) {
+        if (!activated) {
+            return;
         }
-        metric.incTotalCount();
-        metric.addTotalTime(totalTime);
-        if (isCallerActivated(timerName)) {
-            StackTraceElement[] stackTraceElements = new Throwable().getStackTrace();
-            List<String> stackTraces = new ArrayList<String>();
-            if (stackTraceElements != null && stackTraceElements.length > 2) {
-                // we start at index 2 to remove the internal
-                for (int i = 2; i < stackTraceElements.length; i++) {
-                    stackTraces.add(String.valueOf(stackTraceElements[i]));
-                }
-                String stackTraceHash = Integer.toString(stackTraces.hashCode());
-                CallerCount callerCount = metric.getCallerCounts().get(stackTraceHash);
-                if (callerCount == null) {
-                    callerCount = new CallerCountImpl(stackTraceHash, stackTraces);
-                    callerCount.incCount();
-                    callerCount.addTime(totalTime);
-                    metric.getCallerCounts().put(stackTraceHash, callerCount);
-                } else {
-                    callerCount.incCount();
-                    callerCount.addTime(totalTime);
-                }
-            }
+        record(timerName, System.nanoTime() - startNanoTime);
+    }
+
+    private void record(String timerName, long durationNanos) {
+        Metric metric = metrics.computeIfAbsent(timerName, MetricImpl::new);
+        metric.recordNanos(durationNanos);
+        if (!callersStatus.isEmpty() && isCallerActivated(timerName)
+                && (callerSamplingRate == 1 || ThreadLocalRandom.current().nextInt(callerSamplingRate) == 0)) {
+            recordCaller(metric, TimeUnit.NANOSECONDS.toMillis(durationNanos), callerSamplingRate);
+        }
+    }
+
+    private void recordCaller(Metric metric, long totalTime, int samplingRate) {
+        StackTraceElement[] stackTraceElements = new Throwable().getStackTrace();
+        // we skip the first 4 elements which are internal to this class
+        int firstCallerIndex = 4;
+        if (stackTraceElements == null || stackTraceElements.length <= firstCallerIndex) {
+            return;
         }
+        int hash = 1;
+        for (int i = firstCallerIndex; i < stackTraceElements.length; i++) {
+            hash = 31 * hash + String.valueOf(stackTraceElements[i]).hashCode();
+        }
+        String stackTraceHash = Integer.toString(hash);
+        CallerCount callerCount = metric.getCallerCounts().computeIfAbsent(stackTraceHash, key -> {
+            List<String> stackTraces = new ArrayList<String>(stackTraceElements.length - firstCallerIndex);
+            for (int i = firstCallerIndex; i < stackTraceElements.length; i++) {
+                stackTraces.add(String.valueOf(stackTraceElements[i]));
+            }
+            return new CallerCountImpl(key, stackTraces);
+        });
+        // each sampled call stands for samplingRate calls, so that the counts can be compared to the timer counts
+        callerCount.addCount(samplingRate);
+        callerCount.addTime(totalTime * samplingRate);
+    }
+
+    @Override
+    public void registerGauge(String name, String description, Supplier<? extends Number> valueSupplier) {
+        registerGauge(name, Collections.emptyMap(), description, valueSupplier);
+    }
+
+    @Override
+    public void registerGauge(String name, Map<String, String> labels, String description, Supplier<? extends Number> valueSupplier) {
+        Gauge gauge = new GaugeImpl(name, labels, description, valueSupplier, false);
+        gauges.put(getGaugeKey(name, gauge.getLabels()), gauge);
+    }
+
+    @Override
+    public void registerCounter(String name, String description, Supplier<? extends Number> valueSupplier) {
+        registerCounter(name, Collections.emptyMap(), description, valueSupplier);
+    }
+
+    @Override
+    public void registerCounter(String name, Map<String, String> labels, String description, Supplier<? extends Number> valueSupplier) {
+        Gauge gauge = new GaugeImpl(name, labels, description, valueSupplier, true);
+        gauges.put(getGaugeKey(name, gauge.getLabels()), gauge);
+    }
+
+    @Override
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    @Override
+    public void unregisterGauge(String name, Map<String, String> labels) {
+        gauges.remove(getGaugeKey(name, labels));
+    }
+
+    private String getGaugeKey(String name, Map<String, String> labels) {
+        return labels.isEmpty() ? name : name + new TreeMap<>(labels);
+    }
+
+    @Override
+    public Map<String, Gauge> getGauges() {
+        return gauges;
     }
 
     @Override
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics;
+
+import org.apache.unomi.metrics.internal.MetricsServiceImpl;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusExporterTest {
+
+    @Test
+    public void testExport() throws IOException {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        metricsService.setActivated(true);
+        for (int i = 0; i < 100; i++) {
+            metricsService.updateTimerNanos("org.apache.unomi.Test.\"quoted\"", System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        metricsService.registerGauge("elasticsearch.bulkProcessor.pendingActions", "Pending actions", () -> 42);
+        metricsService.registerCounter("elasticsearch.bulkProcessor.failedActions", "Failed actions", () -> 3L);
+        metricsService.registerCounter("elasticsearch.nearCache.hits", Collections.singletonMap("class", "org.apache.unomi.api.Profile"), "Near cache hits", () -> 12L);
+        metricsService.registerCounter("elasticsearch.nearCache.hits", Collections.singletonMap("class", "org.apache.unomi.api.Session"), "Near cache hits", () -> 5L);
+        metricsService.registerGauge("failing", "Failing gauge", () -> {
+            throw new IllegalStateException("Service stopped");
+        });
+
+        StringWriter writer = new StringWriter();
+        new PrometheusExporter(metricsService).write(writer);
+        String output = writer.toString();
+        System.out.println(output);
+
+        assertTrue(output.contains("# TYPE unomi_timer_seconds summary\n"));
+        assertTrue(output.contains("unomi_timer_seconds_count{name=\"org.apache.unomi.Test.\\\"quoted\\\"\"} 100\n"));
+        assertTrue(output.contains("unomi_timer_seconds{name=\"org.apache.unomi.Test.\\\"quoted\\\"\",quantile=\"0.99\"} "));
+        assertTrue(output.contains("# TYPE unomi_elasticsearch_bulkProcessor_pendingActions gauge\n"));
+        assertTrue(output.contains("unomi_elasticsearch_bulkProcessor_pendingActions 42\n"));
+        assertTrue(output.contains("# TYPE unomi_elasticsearch_bulkProcessor_failedActions_total counter\n"));
+        assertTrue(output.contains("unomi_elasticsearch_bulkProcessor_failedActions_total 3\n"));
+        assertTrue(output.contains("# TYPE unomi_elasticsearch_nearCache_hits_total counter\n"));
+        assertEquals(output.indexOf("# TYPE unomi_elasticsearch_nearCache_hits_total counter\n"), output.lastIndexOf("# TYPE unomi_elasticsearch_nearCache_hits_total"));
+        assertTrue(output.contains("unomi_elasticsearch_nearCache_hits_total{class=\"org.apache.unomi.api.Profile\"} 12\n"));
+        assertTrue(output.contains("unomi_elasticsearch_nearCache_hits_total{class=\"org.apache.unomi.api.Session\"} 5\n"));
+        assertTrue(!output.contains("unomi_failing"));
+
+        metricsService.unregisterGauge("elasticsearch.nearCache.hits", Collections.singletonMap("class", "org.apache.unomi.api.Session"));
+        writer = new StringWriter();
+        new PrometheusExporter(metricsService).write(writer);
+        assertTrue(writer.toString().contains("unomi_elasticsearch_nearCache_hits_total{class=\"org.apache.unomi.api.Profile\"} 12\n"));
+        assertTrue(!writer.toString().contains("org.apache.unomi.api.Session"));
+    }
+
+    @Test
+    public void testMetricName() {
+        assertEquals("unomi_nearCache_org_apache_unomi_api_Profile_size", PrometheusExporter.toMetricName("nearCache.org.apache.unomi.api.Profile.size"));
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE }) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue("Value " + value + " should be below its bucket upper bound", value <= Histogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue("Value " + value + " should be above the previous bucket upper bound", value > Histogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertPercentile(histogram, 50.0, TimeUnit.MICROSECONDS.toNanos(50000));
+        assertPercentile(histogram, 90.0, TimeUnit.MICROSECONDS.toNanos(90000));
+        assertPercentile(histogram, 99.0, TimeUnit.MICROSECONDS.toNanos(99000));
+        assertPercentile(histogram, 99.9, TimeUnit.MICROSECONDS.toNanos(99900));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(100000), histogram.getMax());
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        int threadCount = 16;
+        int recordsPerThread = 100000;
+        MetricImpl metric = new MetricImpl("concurrent");
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        List<Callable<Void>> todo = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            todo.add(() -> {
+                for (int j = 0; j < recordsPerThread; j++) {
+                    metric.recordNanos(1000);
+                }
+                return null;
+            });
+        }
+        long startTime = System.nanoTime();
+        executorService.invokeAll(todo);
+        System.out.println("Recorded " + (threadCount * recordsPerThread) + " values in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + "ms");
+        executorService.shutdown();
+        assertEquals("No update should be lost", threadCount * recordsPerThread, metric.getTotalCount());
+        assertEquals(0.001, metric.getPercentile(50.0), 0.0001);
+    }
+
+    private void assertPercentile(Histogram histogram, double percentile, long expected) {
+        long actual = histogram.getValueAtPercentile(percentile);
+        assertTrue("p" + percentile + "=" + actual + " should be within 7% of " + expected,
+                Math.abs(actual - expected) <= expected * 0.07);
+    }
+
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.unomi.metrics.internal;
 
+import org.apache.unomi.metrics.CallerCount;
 import org.apache.unomi.metrics.MetricsService;
 import org.junit.Test;
 
@@ -31,6 +32,7 @@ import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MetricsServiceTest {
 
@@ -115,6 +117,25 @@ public class MetricsServiceTest {
         System.out.println("Free memory=" + humanReadableByteCount(Runtime.getRuntime().freeMemory(), false));
     }
 
+    @Test
+    public void testSampledCallerCountsAreScaled() {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        metricsService.setActivated(true);
+        metricsService.setCallerActivated("*", true);
+        metricsService.setCallerSamplingRate(10);
+        int calls = 20000;
+        for (int i = 0; i < calls; i++) {
+            metricsService.updateTimerNanos("sampled", System.nanoTime());
+        }
+        long callerCount = 0;
+        for (CallerCount count : metricsService.getMetrics().get("sampled").getCallerCounts().values()) {
+            assertEquals(0, count.getCount() % 10);
+            callerCount += count.getCount();
+        }
+        assertEquals(calls, metricsService.getMetrics().get("sampled").getTotalCount());
+        assertTrue("Caller count " + callerCount + " should estimate " + calls + " calls", Math.abs(callerCount - calls) < calls / 5);
+    }
+
     @Test
     public void testStackTraceGenerationSpeed() {
         long startWithException = System.currentTimeMillis();
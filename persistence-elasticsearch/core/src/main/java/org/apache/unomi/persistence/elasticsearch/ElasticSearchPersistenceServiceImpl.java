@@ -17,7 +17,11 @@
 
 package org.apache.unomi.persistence.elasticsearch;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -37,8 +41,16 @@ import org.apache.unomi.metrics.MetricAdapter;
 import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.persistence.elasticsearch.conditions.*;
 import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.persistence.spi.ScriptExecutor;
 import org.apache.unomi.persistence.spi.aggregate.*;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateRequest;
@@ -47,10 +59,12 @@ import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.update.UpdateRequest;
@@ -58,6 +72,8 @@ import org.elasticsearch.client.*;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.client.core.MainResponse;
+import org.elasticsearch.client.indexlifecycle.LifecyclePolicy;
+import org.elasticsearch.client.indexlifecycle.PutLifecyclePolicyRequest;
 import org.elasticsearch.client.indices.*;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.common.unit.ByteSizeUnit;
@@ -71,7 +87,9 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptException;
 import org.elasticsearch.script.ScriptType;
@@ -92,6 +110,7 @@ import org.elasticsearch.search.aggregations.bucket.terms.IncludeExclude;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.GeoDistanceSortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -105,6 +124,7 @@ import javax.net.ssl.X509TrustManager;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -113,7 +133,13 @@ import java.security.cert.X509Certificate;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 
@@ -124,15 +150,23 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     public static final String NUMBER_OF_REPLICAS = "number_of_replicas";
     public static final String CLUSTER_NAME = "cluster.name";
     public static final String BULK_PROCESSOR_NAME = "bulkProcessor.name";
+    private static final String CACHE_INVALIDATION_TOPIC = "org.apache.unomi.persistence.elasticsearch.cacheInvalidation";
+    private static final String CACHE_INVALIDATION_SEPARATOR = "|";
+    private static final String CACHE_INVALIDATION_ALL = "*";
+    private static final String[] NEAR_CACHE_METRICS = { "size", "hits", "misses", "evictions" };
+    private static final String ITEM_CHANGES_TOPIC = "org.apache.unomi.persistence.elasticsearch.itemChanges";
+    private static final int ITEM_CHANGE_FEED_CAPACITY = 1000;
     public static final String BULK_PROCESSOR_CONCURRENT_REQUESTS = "bulkProcessor.concurrentRequests";
     public static final String BULK_PROCESSOR_BULK_ACTIONS = "bulkProcessor.bulkActions";
     public static final String BULK_PROCESSOR_BULK_SIZE = "bulkProcessor.bulkSize";
     public static final String BULK_PROCESSOR_FLUSH_INTERVAL = "bulkProcessor.flushInterval";
     public static final String BULK_PROCESSOR_BACKOFF_POLICY = "bulkProcessor.backoffPolicy";
     public static final String INDEX_DATE_PREFIX = "date-";
+    public static final String INDEX_ROLLOVER_PREFIX = "rollover-";
     private static final Logger logger = LoggerFactory.getLogger(ElasticSearchPersistenceServiceImpl.class.getName());
     private RestHighLevelClient client;
     private BulkProcessor bulkProcessor;
+    private final ThreadLocal<WriteBuffer> writeBuffers = new ThreadLocal<>();
     private String elasticSearchAddresses;
     private List<String> elasticSearchAddressList = new ArrayList<>();
     private String clusterName;
@@ -147,6 +181,13 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private ConditionESQueryBuilderDispatcher conditionESQueryBuilderDispatcher;
 
     private List<String> itemsMonthlyIndexed;
+    private Set<String> itemsRolloverIndexed = new HashSet<>();
+    private String rolloverMaxSize;
+    private String rolloverMaxDocs;
+    private String rolloverMaxAge;
+    private String rolloverWarmAfter;
+    private String rolloverWarmRequire;
+    private String rolloverDeleteAfter;
     private Map<String, String> routingByType;
 
     private Integer defaultQueryLimit = 10;
@@ -171,10 +212,32 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private MetricsService metricsService;
     private HazelcastInstance hazelcastInstance;
     private Set<String> itemClassesToCacheSet = new HashSet<>();
+    private int nearCacheMaxSize = 10000;
+    private long nearCacheTimeToLive = 60;
+    private final Map<String, NearCache<CachedItem>> nearCaches = new ConcurrentHashMap<>();
+    private final AtomicLong bulkPendingActions = new AtomicLong();
+    private final AtomicLong bulkInFlightRequests = new AtomicLong();
+    private final AtomicLong bulkFailedActions = new AtomicLong();
+    private ITopic<String> cacheInvalidationTopic;
+    private String cacheInvalidationListenerId;
     private String itemClassesToCache;
+    private Set<String> changeFeedItemTypes = new HashSet<>();
+    private long changeFeedFallbackCheckInterval = 10000L;
+    private final Map<String, ItemChangeFeed> changeFeeds = new ConcurrentHashMap<>();
+    private final Map<String, String> changeFeedItemTypesByIndex = new ConcurrentHashMap<>();
+    private ITopic<String> itemChangesTopic;
+    private ScheduledExecutorService changeFeedFallbackExecutor;
+    private String itemChangesListenerId;
     private boolean useBatchingForSave = false;
+    private int scrollSlices = 4;
+    private int scrollPageSize = 1000;
+    private int removeByQuerySlices = 0;
 
-    private Map<String, Map<String, Map<String, Object>>> knownMappings = new HashMap<>();
+    private long propertyMappingCacheTimeToLive = 60000L;
+    private PropertyMappingRegistry propertyMappingRegistry = new PropertyMappingRegistry(this::getPropertiesMapping, propertyMappingCacheTimeToLive);
+
+    private int monthlyIndexLocatorCapacity = 1048576;
+    private MonthlyIndexLocator monthlyIndexLocator;
 
     public void setBundleContext(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
@@ -221,6 +284,41 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.itemsMonthlyIndexed = itemsMonthlyIndexed;
     }
 
+    public void setItemsRolloverIndexed(String itemsRolloverIndexed) {
+        this.itemsRolloverIndexed.clear();
+        if (StringUtils.isNotBlank(itemsRolloverIndexed)) {
+            for (String itemType : itemsRolloverIndexed.split(",")) {
+                if (StringUtils.isNotBlank(itemType)) {
+                    this.itemsRolloverIndexed.add(itemType.trim());
+                }
+            }
+        }
+    }
+
+    public void setRolloverMaxSize(String rolloverMaxSize) {
+        this.rolloverMaxSize = rolloverMaxSize;
+    }
+
+    public void setRolloverMaxDocs(String rolloverMaxDocs) {
+        this.rolloverMaxDocs = rolloverMaxDocs;
+    }
+
+    public void setRolloverMaxAge(String rolloverMaxAge) {
+        this.rolloverMaxAge = rolloverMaxAge;
+    }
+
+    public void setRolloverWarmAfter(String rolloverWarmAfter) {
+        this.rolloverWarmAfter = rolloverWarmAfter;
+    }
+
+    public void setRolloverWarmRequire(String rolloverWarmRequire) {
+        this.rolloverWarmRequire = rolloverWarmRequire;
+    }
+
+    public void setRolloverDeleteAfter(String rolloverDeleteAfter) {
+        this.rolloverDeleteAfter = rolloverDeleteAfter;
+    }
+
     public void setRoutingByType(Map<String, String> routingByType) {
         this.routingByType = routingByType;
     }
@@ -273,6 +371,50 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.hazelcastInstance = hazelcastInstance;
     }
 
+    public void setNearCacheMaxSize(int nearCacheMaxSize) {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+    }
+
+    public void setNearCacheTimeToLive(long nearCacheTimeToLive) {
+        this.nearCacheTimeToLive = nearCacheTimeToLive;
+    }
+
+    public void setChangeFeedItemTypes(String changeFeedItemTypes) {
+        this.changeFeedItemTypes.clear();
+        if (StringUtils.isNotBlank(changeFeedItemTypes)) {
+            for (String itemType : changeFeedItemTypes.split(",")) {
+                if (StringUtils.isNotBlank(itemType)) {
+                    this.changeFeedItemTypes.add(itemType.trim());
+                }
+            }
+        }
+    }
+
+    public void setChangeFeedFallbackCheckInterval(long changeFeedFallbackCheckInterval) {
+        this.changeFeedFallbackCheckInterval = changeFeedFallbackCheckInterval;
+    }
+
+    public void setPropertyMappingCacheTimeToLive(long propertyMappingCacheTimeToLive) {
+        this.propertyMappingCacheTimeToLive = propertyMappingCacheTimeToLive;
+        this.propertyMappingRegistry = new PropertyMappingRegistry(this::getPropertiesMapping, propertyMappingCacheTimeToLive);
+    }
+
+    public void setMonthlyIndexLocatorCapacity(int monthlyIndexLocatorCapacity) {
+        this.monthlyIndexLocatorCapacity = monthlyIndexLocatorCapacity;
+    }
+
+    public void setScrollSlices(int scrollSlices) {
+        this.scrollSlices = scrollSlices;
+    }
+
+    public void setScrollPageSize(int scrollPageSize) {
+        this.scrollPageSize = scrollPageSize;
+    }
+
+    public void setRemoveByQuerySlices(int removeByQuerySlices) {
+        this.removeByQuerySlices = removeByQuerySlices;
+    }
+
     public void setItemClassesToCache(String itemClassesToCache) {
         this.itemClassesToCache = itemClassesToCache;
         if (StringUtils.isNotBlank(itemClassesToCache)) {
@@ -330,6 +472,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     logger.info("Overriding cluster name from system property=" + clusterName);
                 }
 
+                if (monthlyIndexLocatorCapacity > 0) {
+                    monthlyIndexLocator = new MonthlyIndexLocator(monthlyIndexLocatorCapacity);
+                } else if (!itemsRolloverIndexed.isEmpty()) {
+                    logger.warn("The monthly index locator is disabled, each save of a rollover indexed item will search for its index");
+                }
+
                 buildClient();
 
                 MainResponse response = client.info(RequestOptions.DEFAULT);
@@ -353,6 +501,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
 
                 createMonthlyIndexTemplate();
+                createRolloverIndices();
 
                 if (client != null && bulkProcessor == null) {
                     bulkProcessor = getBulkProcessor();
@@ -368,6 +517,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         }.executeInClassLoader();
 
+        registerCacheInvalidationListener();
+        initializeChangeFeeds();
+        registerGauges();
         bundleContext.addBundleListener(this);
 
         logger.info(this.getClass().getName() + " service started successfully.");
@@ -422,6 +574,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
         logger.info("Connecting to ElasticSearch persistence backend using cluster name " + clusterName + " and index prefix " + indexPrefix + "...");
         client = new RestHighLevelClient(clientBuilder);
+        // the new client may be connected to another cluster, none of the known mappings can be trusted anymore
+        propertyMappingRegistry.invalidateAll();
     }
 
     public BulkProcessor getBulkProcessor() {
@@ -432,6 +586,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             @Override
             public void beforeBulk(long executionId,
                                    BulkRequest request) {
+                bulkPendingActions.addAndGet(-request.numberOfActions());
+                bulkInFlightRequests.incrementAndGet();
                 logger.debug("Before Bulk");
             }
 
@@ -439,6 +595,16 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             public void afterBulk(long executionId,
                                   BulkRequest request,
                                   BulkResponse response) {
+                bulkInFlightRequests.decrementAndGet();
+                recordItemChanges(response);
+                recordRolloverIndices(response);
+                if (response.hasFailures()) {
+                    for (BulkItemResponse bulkItemResponse : response.getItems()) {
+                        if (bulkItemResponse.isFailed()) {
+                            bulkFailedActions.incrementAndGet();
+                        }
+                    }
+                }
                 logger.debug("After Bulk");
             }
 
@@ -446,6 +612,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             public void afterBulk(long executionId,
                                   BulkRequest request,
                                   Throwable failure) {
+                bulkInFlightRequests.decrementAndGet();
+                bulkFailedActions.addAndGet(request.numberOfActions());
                 logger.error("After Bulk (failure)", failure);
             }
         };
@@ -506,8 +674,54 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return bulkProcessor;
     }
 
+    private void registerGauges() {
+        if (metricsService == null) {
+            return;
+        }
+        metricsService.registerGauge("elasticsearch.bulkProcessor.pendingActions",
+                "Number of actions added to the ElasticSearch bulk processor that were not sent yet", bulkPendingActions::get);
+        metricsService.registerGauge("elasticsearch.bulkProcessor.inFlightBulks",
+                "Number of bulk requests currently being executed by the ElasticSearch bulk processor", bulkInFlightRequests::get);
+        metricsService.registerCounter("elasticsearch.bulkProcessor.failedActions",
+                "Total number of actions that failed in the ElasticSearch bulk processor", bulkFailedActions::get);
+    }
+
+    private void unregisterGauges() {
+        if (metricsService == null) {
+            return;
+        }
+        metricsService.unregisterGauge("elasticsearch.bulkProcessor.pendingActions");
+        metricsService.unregisterGauge("elasticsearch.bulkProcessor.inFlightBulks");
+        metricsService.unregisterGauge("elasticsearch.bulkProcessor.failedActions");
+        for (String className : nearCaches.keySet()) {
+            for (String metric : NEAR_CACHE_METRICS) {
+                metricsService.unregisterGauge("elasticsearch.nearCache." + metric, getNearCacheMetricLabels(className));
+            }
+        }
+    }
+
+    private void addToBulkProcessor(DocWriteRequest<?> request) {
+        bulkPendingActions.incrementAndGet();
+        bulkProcessor.add(request);
+    }
+
     public void stop() {
 
+        unregisterGauges();
+        if (changeFeedFallbackExecutor != null) {
+            changeFeedFallbackExecutor.shutdownNow();
+            changeFeedFallbackExecutor = null;
+        }
+        if (itemChangesTopic != null) {
+            itemChangesTopic.removeMessageListener(itemChangesListenerId);
+            itemChangesTopic = null;
+        }
+        if (cacheInvalidationTopic != null) {
+            cacheInvalidationTopic.removeMessageListener(cacheInvalidationListenerId);
+            cacheInvalidationTopic = null;
+        }
+        nearCaches.clear();
+
         new InClassLoaderExecute<Object>(null, null) {
             protected Object execute(Object... args) throws IOException {
                 logger.info("Closing ElasticSearch persistence backend...");
@@ -552,6 +766,21 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         conditionESQueryBuilderDispatcher.removeQueryBuilder(conditionESQueryBuilderServiceReference.getProperty("queryBuilderId").toString());
     }
 
+    public void bindScriptExecutor(ServiceReference<ScriptExecutor> scriptExecutorServiceReference) {
+        ConditionContextHelper.setScriptExecutor(bundleContext.getService(scriptExecutorServiceReference));
+    }
+
+    public void unbindScriptExecutor(ServiceReference<ScriptExecutor> scriptExecutorServiceReference) {
+        if (scriptExecutorServiceReference == null) {
+            return;
+        }
+        ScriptExecutor scriptExecutor = bundleContext.getService(scriptExecutorServiceReference);
+        if (scriptExecutor != null) {
+            ConditionContextHelper.unsetScriptExecutor(scriptExecutor);
+            bundleContext.ungetService(scriptExecutorServiceReference);
+        }
+    }
+
     @Override
     public void bundleChanged(BundleEvent event) {
         switch (event.getType()) {
@@ -577,7 +806,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 mappings.put(name, mappingSource);
 
                 String itemIndexName = getIndex(name, new Date());
-                if (!client.indices().exists(new GetIndexRequest(itemIndexName), RequestOptions.DEFAULT)) {
+                if (isRolloverIndexed(name)) {
+                    // the first rollover index is created with its alias once the index templates are created
+                    if (createMapping) {
+                        createMapping(name, mappingSource);
+                    }
+                } else if (!client.indices().exists(new GetIndexRequest(itemIndexName), RequestOptions.DEFAULT)) {
                     logger.info("{} index doesn't exist yet, creating it...", itemIndexName);
                     internalCreateIndex(itemIndexName, mappingSource);
                 } else {
@@ -616,12 +850,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
     @Override
     public <T extends Item> PartialList<T> getAllItems(final Class<T> clazz, int offset, int size, String sortBy) {
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         try {
             return query(QueryBuilders.matchAllQuery(), sortBy, clazz, offset, size, null, null);
         } finally {
             if (metricsService != null && metricsService.isActivated()) {
-                metricsService.updateTimer(this.getClass().getName() + ".getAllItems", startTime);
+                metricsService.updateTimerNanos(this.getClass().getName() + ".getAllItems", startTime);
             }
         }
 
@@ -634,16 +868,39 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
     @Override
     public <T extends Item> T load(final String itemId, final Date dateHint, final Class<T> clazz) {
-        return new InClassLoaderExecute<T>(metricsService, this.getClass().getName() + ".loadItem") {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        String itemKey = loadedItemKey(Item.getItemType(clazz), itemId);
+        if (writeBuffer != null) {
+            Item loadedItem = writeBuffer.loadedItems.get(itemKey);
+            if (clazz.isInstance(loadedItem)) {
+                return clazz.cast(loadedItem);
+            }
+        }
+        T item = new InClassLoaderExecute<T>(metricsService, this.getClass().getName() + ".loadItem") {
             protected T execute(Object... args) throws Exception {
                 try {
+                    flushPendingWrite(itemId);
                     String itemType = Item.getItemType(clazz);
                     T itemFromCache = getFromCache(itemId, clazz);
                     if (itemFromCache != null) {
                         return itemFromCache;
                     }
 
-                    if (itemsMonthlyIndexed.contains(itemType) && dateHint == null) {
+                    boolean monthlyIndexed = itemsMonthlyIndexed.contains(itemType);
+                    String locatedIndex = monthlyIndexed && monthlyIndexLocator != null ? monthlyIndexLocator.locate(itemType, itemId) : null;
+                    if (locatedIndex != null) {
+                        T locatedItem = new MetricAdapter<T>(metricsService, ".loadItemFromLocatedIndex") {
+                            @Override
+                            public T execute(Object... args) throws Exception {
+                                return getFromIndex(locatedIndex, itemId, clazz);
+                            }
+                        }.execute();
+                        if (locatedItem != null) {
+                            return locatedItem;
+                        }
+                    }
+
+                    if (monthlyIndexed && (dateHint == null || isRolloverIndexed(itemType))) {
                         return new MetricAdapter<T>(metricsService, ".loadItemWithQuery") {
                             @Override
                             public T execute(Object... args) throws Exception {
@@ -655,18 +912,15 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             }
                         }.execute();
                     } else {
-                        GetRequest getRequest = new GetRequest(getIndex(itemType, dateHint), itemId);
-                        GetResponse response = client.get(getRequest, RequestOptions.DEFAULT);
-                        if (response.isExists()) {
-                            String sourceAsString = response.getSourceAsString();
-                            final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
-                            value.setItemId(response.getId());
-                            value.setVersion(response.getVersion());
-                            putInCache(itemId, value);
-                            return value;
-                        } else {
+                        String index = getIndex(itemType, dateHint);
+                        if (index.equals(locatedIndex)) {
                             return null;
                         }
+                        T value = getFromIndex(index, itemId, clazz);
+                        if (value != null && monthlyIndexed) {
+                            recordIndex(itemType, itemId, index);
+                        }
+                        return value;
                     }
                 } catch (IndexNotFoundException e) {
                     // this can happen if we are just testing the existence of the item, it is not always an error.
@@ -676,36 +930,87 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        // missing items are not remembered, as a later load may find them with another date hint
+        if (writeBuffer != null && item != null) {
+            writeBuffer.loadedItems.put(itemKey, item);
+        }
+        return item;
+    }
 
+    /**
+     * Gets an item with a direct get on the given index.
+     *
+     * @return the item, or null if it doesn't exist in this index or if the index doesn't exist
+     */
+    private <T extends Item> T getFromIndex(String index, String itemId, Class<T> clazz) throws IOException {
+        try {
+            GetRequest getRequest = new GetRequest(index, itemId);
+            GetResponse response = client.get(getRequest, RequestOptions.DEFAULT);
+            if (response.isExists()) {
+                String sourceAsString = response.getSourceAsString();
+                final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
+                value.setItemId(response.getId());
+                value.setVersion(response.getVersion());
+                fillCache(itemId, value);
+                return value;
+            } else {
+                return null;
+            }
+        } catch (IndexNotFoundException e) {
+            // the index may have been removed since the item was located in it
+            return null;
+        }
+    }
+
+    private void recordIndex(String itemType, String itemId, String index) {
+        if (monthlyIndexLocator != null) {
+            monthlyIndexLocator.record(itemType, itemId, index);
+        }
     }
 
     @Override
     public boolean save(final Item item) {
-        return save(item, useBatchingForSave);
+        return save(item, useBatchingForSave, true);
     }
 
     @Override
     public boolean save(final Item item, final boolean useBatching) {
+        return save(item, useBatching, useBatching);
+    }
+
+    private boolean save(final Item item, final boolean useBatching, final boolean useWriteBuffer) {
         Boolean result =  new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".saveItem") {
             protected Boolean execute(Object... args) throws Exception {
                 try {
-                    String source = ESCustomObjectMapper.getObjectMapper().writeValueAsString(item);
                     String itemType = item.getItemType();
                     String itemId = item.getItemId();
+                    IndexRequest indexRequest = createIndexRequest(item);
+                    String index = indexRequest.index();
                     putInCache(itemId, item);
-                    String index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
-                    IndexRequest indexRequest = new IndexRequest(index);
-                    indexRequest.id(itemId);
-                    indexRequest.source(source, XContentType.JSON);
-                    if (routingByType.containsKey(itemType)) {
-                        indexRequest.routing(routingByType.get(itemType));
+
+                    WriteBuffer writeBuffer = writeBuffers.get();
+                    if (writeBuffer != null && useWriteBuffer) {
+                        writeBuffer.add(itemId, indexRequest);
+                        writeBuffer.loadedItems.put(loadedItemKey(itemType, itemId), item);
+                        return true;
                     }
+                    // an item saved right away while the writes are buffered is read again from the back-end
+                    flushPendingWrite(itemId);
+                    forgetLoadedItem(itemType, itemId);
 
                     try {
                         if (bulkProcessor == null || !useBatching) {
-                            client.index(indexRequest, RequestOptions.DEFAULT);
+                            IndexResponse indexResponse = indexItem(indexRequest);
+                            recordItemChange(itemType, itemId);
+                            if (isRolloverIndexed(itemType)) {
+                                recordIndex(itemType, itemId, indexResponse.getIndex());
+                                // the item is now known to be indexed, its next saves look up its index
+                                item.setVersion(indexResponse.getVersion());
+                            }
                         } else {
-                            bulkProcessor.add(indexRequest);
+                            // a conflicting creation could not be retried from the bulk listener, writing through the
+                            // alias replaces the item in the write index the same way a retry would
+                            addToBulkProcessor(indexRequest.opType(DocWriteRequest.OpType.INDEX));
                         }
                     } catch (IndexNotFoundException e) {
                         logger.error("Could not find index {}, could not register item type {} with id {} ",
@@ -725,6 +1030,219 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    /**
+     * Creates the request saving an item. An item of a rollover indexed type that was already indexed is replaced in
+     * its index, which is not the write index anymore once it was rolled over, so its index is looked up. A new item,
+     * one that was not loaded from the index nor saved by this node, is created through the alias without any lookup,
+     * and its index is recorded from the response. The creation conflicts if the item was created in the write index
+     * meanwhile, it is then written again as a replacement, see {@link #indexItem(IndexRequest)}.
+     */
+    private IndexRequest createIndexRequest(Item item) throws IOException {
+        String source = ESCustomObjectMapper.getObjectMapper().writeValueAsString(item);
+        String itemType = item.getItemType();
+        String index;
+        boolean create = false;
+        if (isRolloverIndexed(itemType)) {
+            String knownIndex = item.getVersion() != null ? getItemIndex(itemType, item.getItemId(), null)
+                    : monthlyIndexLocator != null ? monthlyIndexLocator.locate(itemType, item.getItemId()) : null;
+            create = knownIndex == null;
+            index = create ? getIndex(itemType, null) : knownIndex;
+        } else {
+            index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
+            if (itemsMonthlyIndexed.contains(itemType)) {
+                recordIndex(itemType, item.getItemId(), index);
+            }
+        }
+        IndexRequest indexRequest = new IndexRequest(index);
+        indexRequest.id(item.getItemId());
+        indexRequest.source(source, XContentType.JSON);
+        if (create) {
+            indexRequest.opType(DocWriteRequest.OpType.CREATE);
+        }
+        if (routingByType.containsKey(itemType)) {
+            indexRequest.routing(routingByType.get(itemType));
+        }
+        return indexRequest;
+    }
+
+    private IndexResponse indexItem(IndexRequest indexRequest) throws IOException {
+        try {
+            return client.index(indexRequest, RequestOptions.DEFAULT);
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() != RestStatus.CONFLICT || indexRequest.opType() != DocWriteRequest.OpType.CREATE) {
+                throw e;
+            }
+            // the item was created in the write index meanwhile, it is replaced there
+            return client.index(indexRequest.opType(DocWriteRequest.OpType.INDEX), RequestOptions.DEFAULT);
+        }
+    }
+
+    @Override
+    public Map<String, Boolean> saveAll(final List<? extends Item> items) {
+        Map<String, Boolean> result = new InClassLoaderExecute<Map<String, Boolean>>(metricsService, this.getClass().getName() + ".saveItems") {
+            protected Map<String, Boolean> execute(Object... args) throws Exception {
+                List<DocWriteRequest<?>> requests = new ArrayList<>(items.size());
+                for (Item item : items) {
+                    requests.add(createIndexRequest(item));
+                    putInCache(item.getItemId(), item);
+                    forgetLoadedItem(item.getItemType(), item.getItemId());
+                }
+                return executeBulk(requests);
+            }
+        }.catchingExecuteInClassLoader(true);
+        return result != null ? result : failedResults(items.stream().map(Item::getItemId).collect(Collectors.toList()));
+    }
+
+    @Override
+    public Map<String, Boolean> updateAll(final Date dateHint, final Class<?> clazz, final Map<String, ? extends Map<?, ?>> sources) {
+        Map<String, Boolean> result = new InClassLoaderExecute<Map<String, Boolean>>(metricsService, this.getClass().getName() + ".updateItems") {
+            protected Map<String, Boolean> execute(Object... args) throws Exception {
+                String itemType = Item.getItemType(clazz);
+                List<DocWriteRequest<?>> requests = new ArrayList<>(sources.size());
+                for (Map.Entry<String, ? extends Map<?, ?>> entry : sources.entrySet()) {
+                    requests.add(new UpdateRequest(getItemIndex(itemType, entry.getKey(), dateHint), entry.getKey()).doc(entry.getValue()));
+                    deleteFromCache(entry.getKey(), clazz);
+                    forgetLoadedItem(Item.getItemType(clazz), entry.getKey());
+                }
+                return executeBulk(requests);
+            }
+        }.catchingExecuteInClassLoader(true);
+        return result != null ? result : failedResults(sources.keySet());
+    }
+
+    @Override
+    public void openWriteBuffer() {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer == null) {
+            writeBuffer = new WriteBuffer();
+            writeBuffers.set(writeBuffer);
+        }
+        writeBuffer.depth++;
+    }
+
+    @Override
+    public Map<String, Boolean> flushWriteBuffer() {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer == null || --writeBuffer.depth > 0) {
+            return Collections.emptyMap();
+        }
+        writeBuffers.remove();
+        sendWriteBuffer(writeBuffer);
+        return writeBuffer.results;
+    }
+
+    private static String loadedItemKey(String itemType, String itemId) {
+        return itemType + "/" + itemId;
+    }
+
+    private void forgetLoadedItem(String itemType, String itemId) {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer != null) {
+            writeBuffer.loadedItems.remove(loadedItemKey(itemType, itemId));
+        }
+    }
+
+    private void forgetLoadedItems() {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer != null) {
+            writeBuffer.loadedItems.clear();
+        }
+    }
+
+    private void flushPendingWrite(String itemId) {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer != null && writeBuffer.pendingItemIds.contains(itemId)) {
+            sendWriteBuffer(writeBuffer);
+        }
+    }
+
+    private void flushPendingWrites() {
+        WriteBuffer writeBuffer = writeBuffers.get();
+        if (writeBuffer != null) {
+            sendWriteBuffer(writeBuffer);
+        }
+    }
+
+    /**
+     * Sends the pending writes of a buffer, keeping their results until the buffer is flushed, so that the writes sent
+     * early because the thread read or removed the items are also reported to the caller of the flush.
+     */
+    private void sendWriteBuffer(final WriteBuffer writeBuffer) {
+        if (writeBuffer.requests.isEmpty()) {
+            return;
+        }
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(writeBuffer.requests);
+        final Set<String> itemIds = new HashSet<>(writeBuffer.pendingItemIds);
+        writeBuffer.requests.clear();
+        writeBuffer.pendingItemIds.clear();
+        Map<String, Boolean> results = new InClassLoaderExecute<Map<String, Boolean>>(metricsService, this.getClass().getName() + ".flushWriteBuffer") {
+            protected Map<String, Boolean> execute(Object... args) throws Exception {
+                return executeBulk(requests);
+            }
+        }.catchingExecuteInClassLoader(true);
+        if (results == null) {
+            results = failedResults(itemIds);
+        }
+        for (Map.Entry<String, Boolean> result : results.entrySet()) {
+            writeBuffer.results.merge(result.getKey(), result.getValue(), Boolean::logicalAnd);
+        }
+    }
+
+    private Map<String, Boolean> executeBulk(List<DocWriteRequest<?>> requests) throws IOException {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        if (requests.isEmpty()) {
+            return results;
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        for (DocWriteRequest<?> request : requests) {
+            bulkRequest.add(request);
+        }
+        BulkResponse response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        recordItemChanges(response);
+        recordRolloverIndices(response);
+        List<DocWriteRequest<?>> conflictingCreations = new ArrayList<>();
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            DocWriteRequest<?> request = requests.get(itemResponse.getItemId());
+            if (itemResponse.isFailed() && itemResponse.getFailure().getStatus() == RestStatus.CONFLICT
+                    && request.opType() == DocWriteRequest.OpType.CREATE && request instanceof IndexRequest) {
+                // the item was created in the write index meanwhile, it is replaced there
+                conflictingCreations.add(((IndexRequest) request).opType(DocWriteRequest.OpType.INDEX));
+                continue;
+            }
+            results.put(itemResponse.getId(), !itemResponse.isFailed());
+            if (itemResponse.isFailed()) {
+                logger.error("Bulk write failed for item {} in index {}: {}", itemResponse.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage());
+            }
+        }
+        results.putAll(executeBulk(conflictingCreations));
+        return results;
+    }
+
+    private static Map<String, Boolean> failedResults(Collection<String> itemIds) {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (String itemId : itemIds) {
+            results.put(itemId, false);
+        }
+        return results;
+    }
+
+    /**
+     * The writes of a thread waiting to be sent together in a single bulk request, along with the items loaded or saved
+     * by the thread while the buffer is open, keyed by item type and identifier.
+     */
+    private static class WriteBuffer {
+        private int depth = 0;
+        private final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        private final Set<String> pendingItemIds = new HashSet<>();
+        private final Map<String, Item> loadedItems = new HashMap<>();
+        private final Map<String, Boolean> results = new LinkedHashMap<>();
+
+        private void add(String itemId, DocWriteRequest<?> request) {
+            requests.add(request);
+            pendingItemIds.add(itemId);
+        }
+    }
+
     @Override
     public boolean update(final String itemId, final Date dateHint, final Class clazz, final String propertyName, final Object propertyValue) {
         return update(itemId, dateHint, clazz, Collections.singletonMap(propertyName, propertyValue));
@@ -736,13 +1254,61 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             protected Boolean execute(Object... args) throws Exception {
                 try {
                     String itemType = Item.getItemType(clazz);
-                    UpdateRequest updateRequest = new UpdateRequest(getIndex(itemType, dateHint), itemId);
+                    UpdateRequest updateRequest = new UpdateRequest(getItemIndex(itemType, itemId, dateHint), itemId);
                     updateRequest.doc(source);
-                    if (bulkProcessor == null) {
+                    deleteFromCache(itemId, clazz);
+                    WriteBuffer writeBuffer = writeBuffers.get();
+                    if (writeBuffer != null) {
+                        writeBuffer.add(itemId, updateRequest);
+                        writeBuffer.loadedItems.remove(loadedItemKey(itemType, itemId));
+                    } else if (bulkProcessor == null) {
                         client.update(updateRequest, RequestOptions.DEFAULT);
+                        recordItemChange(itemType, itemId);
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        addToBulkProcessor(updateRequest);
+                    }
+                    return true;
+                } catch (IndexNotFoundException e) {
+                    throw new Exception("No index found for itemType=" + clazz.getName() + "itemId=" + itemId, e);
+                }
+            }
+        }.catchingExecuteInClassLoader(true);
+        if (result == null) {
+            return false;
+        } else {
+            return result;
+        }
+    }
+
+    @Override
+    public boolean updateIfUnchanged(final String itemId, final Date dateHint, final Class<?> clazz, final Map<?, ?> source, final long version) {
+        Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".updateItemIfUnchanged") {
+            protected Boolean execute(Object... args) throws Exception {
+                try {
+                    flushPendingWrite(itemId);
+                    String itemType = Item.getItemType(clazz);
+                    String index = getItemIndex(itemType, itemId, dateHint);
+                    // the version only identifies the state of the item, the update is conditioned on its sequence number
+                    GetRequest getRequest = new GetRequest(index, itemId).fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE);
+                    GetResponse getResponse = client.get(getRequest, RequestOptions.DEFAULT);
+                    if (!getResponse.isExists() || getResponse.getVersion() != version) {
+                        return false;
+                    }
+                    UpdateRequest updateRequest = new UpdateRequest(getResponse.getIndex(), itemId);
+                    updateRequest.doc(source);
+                    updateRequest.setIfSeqNo(getResponse.getSeqNo());
+                    updateRequest.setIfPrimaryTerm(getResponse.getPrimaryTerm());
+                    deleteFromCache(itemId, clazz);
+                    forgetLoadedItem(itemType, itemId);
+                    try {
+                        client.update(updateRequest, RequestOptions.DEFAULT);
+                    } catch (ElasticsearchStatusException e) {
+                        if (e.status() == RestStatus.CONFLICT) {
+                            return false;
+                        }
+                        throw e;
                     }
+                    recordItemChange(itemType, itemId);
                     return true;
                 } catch (IndexNotFoundException e) {
                     throw new Exception("No index found for itemType=" + clazz.getName() + "itemId=" + itemId, e);
@@ -764,6 +1330,9 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     String itemType = Item.getItemType(clazz);
 
                     String index = getIndex(itemType, dateHint);
+                    // the query and scripts must apply to the buffered writes
+                    flushPendingWrites();
+                    forgetLoadedItems();
 
                     for (int i = 0; i < scripts.length; i++) {
                         Script actualScript = new Script(ScriptType.INLINE, "painless", scripts[i], scriptParams[i]);
@@ -777,6 +1346,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         updateByQueryRequest.setSlices(2);
                         updateByQueryRequest.setScript(actualScript);
                         updateByQueryRequest.setQuery(conditionESQueryBuilderDispatcher.buildFilter(conditions[i]));
+                        // the nodes notified of the change reload the items with searches, which must see the update
+                        updateByQueryRequest.setRefresh(changeFeeds.containsKey(itemType));
 
                         BulkByScrollResponse response = client.updateByQuery(updateByQueryRequest, RequestOptions.DEFAULT);
 
@@ -797,6 +1368,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             logger.warn("Update By Query ended with {} noops!", response.getNoops());
                         }
                     }
+                    // the updated items are not known, drop all the cached items of this class once they are all updated,
+                    // so that no node keeps a copy loaded while the update was running
+                    clearCache(clazz);
+                    recordItemChange(itemType, null);
                     return true;
                 } catch (IndexNotFoundException e) {
                     throw new Exception("No index found for itemType=" + clazz.getName(), e);
@@ -820,18 +1395,23 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".updateWithScript") {
             protected Boolean execute(Object... args) throws Exception {
                 try {
+                    // the script must apply to the buffered writes of the item
+                    flushPendingWrite(itemId);
                     String itemType = Item.getItemType(clazz);
 
-                    String index = getIndex(itemType, dateHint);
+                    String index = getItemIndex(itemType, itemId, dateHint);
 
                     Script actualScript = new Script(ScriptType.INLINE, "painless", script, scriptParams);
 
                     UpdateRequest updateRequest = new UpdateRequest(index, itemId);
                     updateRequest.script(actualScript);
+                    deleteFromCache(itemId, clazz);
+                    forgetLoadedItem(itemType, itemId);
                     if (bulkProcessor == null) {
                         client.update(updateRequest, RequestOptions.DEFAULT);
+                        recordItemChange(itemType, itemId);
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        addToBulkProcessor(updateRequest);
                     }
 
                     return true;
@@ -852,10 +1432,15 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".removeItem") {
             protected Boolean execute(Object... args) throws Exception {
                 try {
+                    flushPendingWrite(itemId);
+                    deleteFromCache(itemId, clazz);
                     String itemType = Item.getItemType(clazz);
+                    forgetLoadedItem(itemType, itemId);
 
-                    DeleteRequest deleteRequest = new DeleteRequest(getIndexNameForQuery(itemType), itemId);
+                    String index = isRolloverIndexed(itemType) ? getItemIndex(itemType, itemId, null) : getIndexNameForQuery(itemType);
+                    DeleteRequest deleteRequest = new DeleteRequest(index, itemId);
                     client.delete(deleteRequest, RequestOptions.DEFAULT);
+                    recordItemChange(itemType, itemId);
                     return true;
                 } catch (Exception e) {
                     throw new Exception("Cannot remove", e);
@@ -874,50 +1459,33 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             protected Boolean execute(Object... args) throws Exception {
                 try {
                     String itemType = Item.getItemType(clazz);
-
-                    BulkRequest deleteByScopeBulkRequest = new BulkRequest();
-
-                    final TimeValue keepAlive = TimeValue.timeValueHours(1);
-                    SearchRequest searchRequest = new SearchRequest(getAllIndexForQuery())
-                            .indices(getIndexNameForQuery(itemType))
-                            .scroll(keepAlive);
-                    SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                            .query(conditionESQueryBuilderDispatcher.getQueryBuilder(query))
-                            .size(100);
-                    searchRequest.source(searchSourceBuilder);
-
-                    SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
-
-                    // Scroll until no more hits are returned
-                    while (true) {
-
-                        for (SearchHit hit : response.getHits().getHits()) {
-                            // add hit to bulk delete
-                            deleteFromCache(hit.getId(), clazz);
-                            deleteByScopeBulkRequest.add(Requests.deleteRequest(hit.getIndex()).type(hit.getType()).id(hit.getId()));
-                        }
-
-                        SearchScrollRequest searchScrollRequest = new SearchScrollRequest(response.getScrollId());
-                        searchScrollRequest.scroll(keepAlive);
-                        response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
-
-                        // If we have no more hits, exit
-                        if (response.getHits().getHits().length == 0) {
-                            break;
-                        }
+                    // the query must match the buffered writes
+                    flushPendingWrites();
+                    forgetLoadedItems();
+
+                    DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(getIndexNameForQuery(itemType));
+                    deleteByQueryRequest.setQuery(conditionESQueryBuilderDispatcher.getQueryBuilder(query));
+                    deleteByQueryRequest.setConflicts("proceed");
+                    deleteByQueryRequest.setSlices(removeByQuerySlices);
+                    deleteByQueryRequest.setBatchSize(scrollPageSize);
+                    // the nodes notified of the change reload the items with searches, which must not see the removed items
+                    deleteByQueryRequest.setRefresh(changeFeeds.containsKey(itemType));
+                    BulkByScrollResponse response;
+                    try {
+                        response = client.deleteByQuery(deleteByQueryRequest, RequestOptions.DEFAULT);
+                    } finally {
+                        // the removed items are not known, drop all the cached items of this class once they are removed,
+                        // so that concurrent loads can't cache them again, even if the removal failed part way
+                        clearCache(clazz);
                     }
-
-                    ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
-                    clearScrollRequest.addScrollId(response.getScrollId());
-                    client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
-
-                    // we're done with the scrolling, delete now
-                    if (deleteByScopeBulkRequest.numberOfActions() > 0) {
-                        final BulkResponse deleteResponse = client.bulk(deleteByScopeBulkRequest, RequestOptions.DEFAULT);
-                        if (deleteResponse.hasFailures()) {
-                            // do something
-                            logger.debug("Couldn't remove by query " + query + ":\n{}", deleteResponse.buildFailureMessage());
-                        }
+                    recordItemChange(itemType, null);
+                    if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+                        logger.warn("Couldn't remove all the items matching query {}: {} bulk failures, {} search failures",
+                                query, response.getBulkFailures().size(), response.getSearchFailures().size());
+                        return false;
+                    }
+                    if (response.getVersionConflicts() > 0) {
+                        logger.warn("Remove by query ended with {} version conflicts", response.getVersionConflicts());
                     }
 
                     return true;
@@ -968,12 +1536,18 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             protected Boolean execute(Object... args) throws IOException {
                 boolean executedSuccessfully = true;
                 for (String itemName : itemsMonthlyIndexed) {
+                    boolean rolloverIndexed = isRolloverIndexed(itemName);
                     PutIndexTemplateRequest putIndexTemplateRequest = new PutIndexTemplateRequest("context-"+itemName+"-date-template")
-                            .patterns(Collections.singletonList(getMonthlyIndexForQuery(itemName)))
+                            .patterns(Collections.singletonList(rolloverIndexed ? getRolloverIndexForQuery(itemName) : getMonthlyIndexForQuery(itemName)))
                             .settings("{\n" +
                                     "    \"index\" : {\n" +
                                     "        \"number_of_shards\" : " + monthlyIndexNumberOfShards + ",\n" +
                                     "        \"number_of_replicas\" : " + monthlyIndexNumberOfReplicas + "\n" +
+                                    (rolloverIndexed ?
+                                    "        ,\"lifecycle\" : {\n" +
+                                    "            \"name\" : \"" + getRolloverPolicyName(itemName) + "\",\n" +
+                                    "            \"rollover_alias\" : \"" + getIndex(itemName, null) + "\"\n" +
+                                    "        }\n" : "") +
                                     "    },\n" +
                                     "    \"analysis\": {\n" +
                                     "      \"analyzer\": {\n" +
@@ -999,6 +1573,45 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    /**
+     * Creates the lifecycle policy of each rollover indexed item type, and its first index along with the alias used to
+     * read and write its items when the alias doesn't exist yet. The existing monthly indices of the item type are
+     * added to the alias so that their items can still be read.
+     */
+    private void createRolloverIndices() throws IOException {
+        for (String itemType : itemsMonthlyIndexed) {
+            if (!isRolloverIndexed(itemType)) {
+                continue;
+            }
+            putRolloverPolicy(itemType);
+            String alias = getIndex(itemType, null);
+            if (client.indices().existsAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)) {
+                continue;
+            }
+            String firstIndex = getIndex(itemType + "-" + INDEX_ROLLOVER_PREFIX + "000001");
+            CreateIndexRequest createIndexRequest = new CreateIndexRequest(firstIndex);
+            createIndexRequest.alias(new Alias(alias).writeIndex(true));
+            client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
+            logger.info("Rollover index {} created with alias {}", firstIndex, alias);
+
+            GetIndexRequest getIndexRequest = new GetIndexRequest(getMonthlyIndexForQuery(itemType));
+            getIndexRequest.indicesOptions(IndicesOptions.lenientExpandOpen());
+            String[] monthlyIndices = client.indices().get(getIndexRequest, RequestOptions.DEFAULT).getIndices();
+            if (monthlyIndices.length > 0) {
+                IndicesAliasesRequest indicesAliasesRequest = new IndicesAliasesRequest();
+                indicesAliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.add().indices(monthlyIndices).alias(alias));
+                client.indices().updateAliases(indicesAliasesRequest, RequestOptions.DEFAULT);
+                logger.info("Monthly indices {} added to alias {}", Arrays.toString(monthlyIndices), alias);
+            }
+        }
+    }
+
+    private void putRolloverPolicy(String itemType) throws IOException {
+        LifecyclePolicy policy = RolloverIndices.createPolicy(getRolloverPolicyName(itemType), rolloverMaxSize, rolloverMaxDocs,
+                rolloverMaxAge, rolloverWarmAfter, rolloverWarmRequire, rolloverDeleteAfter);
+        client.indexLifecycle().putLifecyclePolicy(new PutLifecyclePolicyRequest(policy), RequestOptions.DEFAULT);
+    }
+
     public boolean createIndex(final String itemType) {
         String index = getIndex(itemType);
 
@@ -1008,6 +1621,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 boolean indexExists = client.indices().exists(getIndexRequest, RequestOptions.DEFAULT);
                 if (!indexExists) {
                     internalCreateIndex(index, mappings.get(itemType));
+                    propertyMappingRegistry.invalidate(itemType);
                 }
                 return !indexExists;
             }
@@ -1030,6 +1644,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 if (indexExists) {
                     DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(index);
                     client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
+                    propertyMappingRegistry.invalidate(itemType);
                 }
                 return indexExists;
             }
@@ -1081,6 +1696,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         } catch (IOException ioe) {
             logger.error("Error while creating mapping for type " + type + " and source " + source, ioe);
+        } finally {
+            propertyMappingRegistry.invalidate(type);
         }
     }
 
@@ -1149,43 +1766,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     }
 
     public Map<String, Object> getPropertyMapping(String property, String itemType) {
-        Map<String, Map<String, Object>> mappings = knownMappings.get(itemType);
-        Map<String, Object> result = getPropertyMapping(property, mappings);
-        if (result == null) {
-            mappings = getPropertiesMapping(itemType);
-            knownMappings.put(itemType, mappings);
-            result = getPropertyMapping(property, mappings);
-        }
-        return result;
-    }
-
-    private Map<String, Object> getPropertyMapping(String property, Map<String, Map<String, Object>> mappings) {
-        Map<String, Object> propMapping = null;
-        String[] properties = StringUtils.split(property, '.');
-        for (int i = 0; i < properties.length && mappings != null; i++) {
-            String s = properties[i];
-            propMapping = mappings.get(s);
-            if (i == properties.length - 1) {
-                return propMapping;
-            } else {
-                mappings = propMapping != null ? ((Map<String, Map<String, Object>>) propMapping.get("properties")) : null;
-            }
-        }
-        return null;
+        return propertyMappingRegistry.getPropertyMapping(property, itemType);
     }
 
     private String getPropertyNameWithData(String name, String itemType) {
-        Map<String, Object> propertyMapping = getPropertyMapping(name, itemType);
-        if (propertyMapping == null) {
-            return null;
-        }
-        if (propertyMapping != null
-                && "text".equals(propertyMapping.get("type"))
-                && propertyMapping.containsKey("fields")
-                && ((Map) propertyMapping.get("fields")).containsKey("keyword")) {
-            name += ".keyword";
-        }
-        return name;
+        return propertyMappingRegistry.getPropertyNameWithData(name, itemType);
     }
 
     public boolean saveQuery(final String queryName, final String query) {
@@ -1247,17 +1832,22 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
     @Override
     public boolean testMatch(Condition query, Item item) {
-        long startTime = System.currentTimeMillis();
-        try {
-            return conditionEvaluatorDispatcher.eval(query, item);
-        } catch (UnsupportedOperationException e) {
-            logger.error("Eval not supported, continue with query", e);
-        } finally {
-            if (metricsService != null && metricsService.isActivated()) {
-                metricsService.updateTimer(this.getClass().getName() + ".testMatchLocally", startTime);
+        // conditions known to need a query skip the local evaluation, which would only fail after evaluating part of the tree
+        Set<String> nonLocalConditionTypeIds = conditionEvaluatorDispatcher.getNonLocalConditionTypeIds(query);
+        long startTime;
+        if (nonLocalConditionTypeIds.isEmpty()) {
+            startTime = System.nanoTime();
+            try {
+                return conditionEvaluatorDispatcher.eval(query, item);
+            } catch (UnsupportedOperationException e) {
+                logger.error("Eval not supported, continue with query", e);
+            } finally {
+                if (metricsService != null && metricsService.isActivated()) {
+                    metricsService.updateTimerNanos(this.getClass().getName() + ".testMatchLocally", startTime);
+                }
             }
         }
-        startTime = System.currentTimeMillis();
+        startTime = System.nanoTime();
         try {
             final Class<? extends Item> clazz = item.getClass();
             String itemType = Item.getItemType(clazz);
@@ -1268,11 +1858,20 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             return queryCount(builder, itemType) > 0;
         } finally {
             if (metricsService != null && metricsService.isActivated()) {
-                metricsService.updateTimer(this.getClass().getName() + ".testMatchInElasticSearch", startTime);
+                metricsService.updateTimerNanos(this.getClass().getName() + ".testMatchInElasticSearch", startTime);
+                // one timer per condition type, so that the conditions causing these queries can be found from their counts
+                for (String conditionTypeId : nonLocalConditionTypeIds) {
+                    metricsService.updateTimerNanos(this.getClass().getName() + ".testMatchInElasticSearch." + conditionTypeId, startTime);
+                }
             }
         }
     }
 
+    @Override
+    public Set<String> getNonLocalConditionTypeIds(Condition condition) {
+        return conditionEvaluatorDispatcher.getNonLocalConditionTypeIds(condition);
+    }
+
     @Override
     public <T extends Item> List<T> query(final Condition query, String sortBy, final Class<T> clazz) {
         return query(query, sortBy, clazz, 0, -1).getList();
@@ -1288,6 +1887,56 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return query(conditionESQueryBuilderDispatcher.getQueryBuilder(query), sortBy, clazz, offset, size, null, scrollTimeValidity);
     }
 
+    @Override
+    public <T extends Item> long forEach(final Condition query, final Class<T> clazz, final Consumer<? super T> consumer) {
+        Long result = new InClassLoaderExecute<Long>(metricsService, this.getClass().getName() + ".forEach") {
+            protected Long execute(Object... args) throws Exception {
+                return scrollAll(getIndexNameForQuery(Item.getItemType(clazz)), conditionESQueryBuilderDispatcher.getQueryBuilder(query), clazz, consumer);
+            }
+        }.catchingExecuteInClassLoader(true);
+        return result != null ? result : -1L;
+    }
+
+    /**
+     * Reads all the items matching the query with a sliced scroll, passing them to the consumer in the calling thread,
+     * in no particular order.
+     *
+     * @return the number of items passed to the consumer
+     */
+    private <T extends Item> long scrollAll(String index, QueryBuilder query, Class<T> clazz, Consumer<? super T> consumer) throws Exception {
+        return SlicedScroll.scrollAll(slicedScrollClient, index, query, scrollSlices, scrollPageSize, TimeValue.timeValueMinutes(5), searchHit -> {
+            try {
+                final T value = ESCustomObjectMapper.getObjectMapper().readValue(searchHit.getSourceAsString(), clazz);
+                value.setItemId(searchHit.getId());
+                value.setVersion(searchHit.getVersion());
+                consumer.accept(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private final SlicedScroll.Client slicedScrollClient = new SlicedScroll.Client() {
+        @Override
+        public void searchAsync(SearchRequest request, ActionListener<SearchResponse> listener) {
+            client.searchAsync(request, RequestOptions.DEFAULT, listener);
+        }
+
+        @Override
+        public void scrollAsync(SearchScrollRequest request, ActionListener<SearchResponse> listener) {
+            client.scrollAsync(request, RequestOptions.DEFAULT, listener);
+        }
+
+        @Override
+        public void clearScroll(ClearScrollRequest request) {
+            try {
+                client.clearScroll(request, RequestOptions.DEFAULT);
+            } catch (IOException | ElasticsearchException e) {
+                logger.warn("Couldn't clear scrolls", e);
+            }
+        }
+    };
+
     @Override
     public <T extends Item> PartialList<T> queryFullText(final String fulltext, final Condition query, String sortBy, final Class<T> clazz, final int offset, final int size) {
         return query(QueryBuilders.boolQuery().must(QueryBuilders.queryStringQuery(fulltext)).must(conditionESQueryBuilderDispatcher.getQueryBuilder(query)), sortBy, clazz, offset, size, null, null);
@@ -1422,7 +2071,17 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     searchSourceBuilder.version(true);
                     searchRequest.source(searchSourceBuilder);
                     SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
-                    if (size == -1) {
+                    if (size == -1 && sortBy == null && offset == 0 && routing == null && scrollSlices > 1
+                            && response.getHits().getTotalHits().value > (long) scrollPageSize * scrollSlices) {
+                        // the order doesn't matter and each slice gets at least a full page, read all the results with
+                        // parallel slices instead of the scroll that was just opened
+                        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                        clearScrollRequest.addScrollId(response.getScrollId());
+                        client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                        totalHits = response.getHits().getTotalHits().value;
+                        totalHitsRelation = getTotalHitsRelation(response.getHits().getTotalHits());
+                        scrollAll(getIndexNameForQuery(itemType), query, clazz, results::add);
+                    } else if (size == -1) {
                         // Scroll until no more hits are returned
                         while (true) {
 
@@ -1452,12 +2111,16 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         scrollIdentifier = response.getScrollId();
                         totalHits = searchHits.getTotalHits().value;
                         totalHitsRelation = getTotalHitsRelation(searchHits.getTotalHits());
+                        boolean monthlyIndexed = itemsMonthlyIndexed.contains(itemType);
                         for (SearchHit searchHit : searchHits) {
                             String sourceAsString = searchHit.getSourceAsString();
                             final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
                             value.setItemId(searchHit.getId());
                             value.setVersion(searchHit.getVersion());
                             results.add(value);
+                            if (monthlyIndexed) {
+                                recordIndex(itemType, searchHit.getId(), searchHit.getIndex());
+                            }
                         }
                     }
                 } catch (Exception t) {
@@ -1742,6 +2405,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         }
                     }
                 }
+                for (String itemType : itemsMonthlyIndexed) {
+                    if (isRolloverIndexed(itemType)) {
+                        toDelete.addAll(getRolloverIndicesBefore(itemType, date));
+                    }
+                }
                 if (!toDelete.isEmpty()) {
                     DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(toDelete.toArray(new String[toDelete.size()]));
                     client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
@@ -1751,6 +2419,18 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }.catchingExecuteInClassLoader(true);
     }
 
+    private List<String> getRolloverIndicesBefore(String itemType, Date date) throws IOException {
+        GetIndexRequest getIndexRequest = new GetIndexRequest(getRolloverIndexForQuery(itemType));
+        getIndexRequest.indicesOptions(IndicesOptions.lenientExpandOpen());
+        GetIndexResponse getIndexResponse = client.indices().get(getIndexRequest, RequestOptions.DEFAULT);
+        Map<String, Long> creationDates = new HashMap<>();
+        for (String index : getIndexResponse.getIndices()) {
+            String creationDate = getIndexResponse.getSetting(index, "index.creation_date");
+            creationDates.put(index, creationDate != null ? Long.valueOf(creationDate) : null);
+        }
+        return RolloverIndices.getIndicesRolledOverBefore(creationDates, date);
+    }
+
     @Override
     public void purge(final String scope) {
         new InClassLoaderExecute<Void>(metricsService, this.getClass().getName() + ".purgeWithScope") {
@@ -1793,6 +2473,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 // we're done with the scrolling, delete now
                 if (deleteByScopeBulkRequest.numberOfActions() > 0) {
                     final BulkResponse deleteResponse = client.bulk(deleteByScopeBulkRequest, RequestOptions.DEFAULT);
+                    recordItemChanges(deleteResponse);
                     if (deleteResponse.hasFailures()) {
                         // do something
                         logger.warn("Couldn't delete from scope " + scope + ":\n{}", deleteResponse.buildFailureMessage());
@@ -1885,14 +2566,14 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
         public T executeInClassLoader(Object... args) throws Exception {
 
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             ClassLoader tccl = Thread.currentThread().getContextClassLoader();
             try {
                 Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
                 return execute(args);
             } finally {
                 if (metricsService != null && metricsService.isActivated()) {
-                    metricsService.updateTimer(timerName, startTime);
+                    metricsService.updateTimerNanos(timerName, startTime);
                 }
                 Thread.currentThread().setContextClassLoader(tccl);
             }
@@ -1925,17 +2606,47 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         if (!isCacheActiveForClass(className)) {
             return null;
         }
+        NearCache<CachedItem> nearCache = getNearCache(className);
+        CachedItem cachedItem = nearCache.get(itemId);
+        if (cachedItem != null && clazz.isAssignableFrom(cachedItem.type)) {
+            return clazz.cast(cachedItem.toItem());
+        }
         Map<String,T> itemCache = hazelcastInstance.getMap(className);
-        return itemCache.get(itemId);
+        T item = itemCache.get(itemId);
+        if (item != null) {
+            putInNearCache(className, itemId, item);
+        }
+        return item;
     }
 
+    /**
+     * Caches an item that is being written, the other nodes are told to drop the copy they might have in their near
+     * cache.
+     */
     private <T extends Item> T putInCache(String itemId, T item) {
+        return putInCache(itemId, item, true);
+    }
+
+    /**
+     * Caches an item that was just read from ElasticSearch. As it wasn't modified, the copies that the other nodes
+     * might have in their near cache are still valid and no invalidation is published.
+     */
+    private <T extends Item> T fillCache(String itemId, T item) {
+        return putInCache(itemId, item, false);
+    }
+
+    private <T extends Item> T putInCache(String itemId, T item, boolean publishInvalidation) {
         String className = item.getClass().getName();
         if (!isCacheActiveForClass(className)) {
             return null;
         }
         Map<String,T> itemCache = hazelcastInstance.getMap(className);
-        return itemCache.put(itemId, item);
+        T previousItem = itemCache.put(itemId, item);
+        putInNearCache(className, itemId, item);
+        if (publishInvalidation) {
+            publishCacheInvalidation(className, itemId);
+        }
+        return previousItem;
     }
 
     private <T extends Item> T deleteFromCache(String itemId, Class clazz) {
@@ -1944,15 +2655,297 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             return null;
         }
         Map<String,T> itemCache = hazelcastInstance.getMap(className);
+        getNearCache(className).remove(itemId);
+        publishCacheInvalidation(className, itemId);
         return itemCache.remove(itemId);
     }
 
+    private void clearCache(Class clazz) {
+        String className = clazz.getName();
+        if (!isCacheActiveForClass(className)) {
+            return;
+        }
+        hazelcastInstance.getMap(className).clear();
+        getNearCache(className).clear();
+        publishCacheInvalidation(className, CACHE_INVALIDATION_ALL);
+    }
+
+    private NearCache<CachedItem> getNearCache(String className) {
+        return nearCaches.computeIfAbsent(className, k -> {
+            NearCache<CachedItem> nearCache = new NearCache<>(nearCacheMaxSize, nearCacheTimeToLive * 1000L);
+            if (metricsService != null) {
+                Map<String, String> labels = getNearCacheMetricLabels(className);
+                metricsService.registerGauge("elasticsearch.nearCache.size", labels,
+                        "Number of items in the near cache", nearCache::size);
+                metricsService.registerCounter("elasticsearch.nearCache.hits", labels,
+                        "Number of items found in the near cache", nearCache::getHitCount);
+                metricsService.registerCounter("elasticsearch.nearCache.misses", labels,
+                        "Number of items not found in the near cache", nearCache::getMissCount);
+                metricsService.registerCounter("elasticsearch.nearCache.evictions", labels,
+                        "Number of items evicted from the near cache because it was full", nearCache::getEvictionCount);
+            }
+            return nearCache;
+        });
+    }
+
+    private Map<String, String> getNearCacheMetricLabels(String className) {
+        return Collections.singletonMap("class", className);
+    }
+
+    private void putInNearCache(String className, String itemId, Item item) {
+        try {
+            getNearCache(className).put(itemId, new CachedItem(item));
+        } catch (IOException e) {
+            logger.warn("Couldn't serialize item {} of class {} for the near cache", itemId, className, e);
+        }
+    }
+
+    private void publishCacheInvalidation(String className, String itemId) {
+        if (cacheInvalidationTopic != null) {
+            cacheInvalidationTopic.publish(className + CACHE_INVALIDATION_SEPARATOR + itemId);
+        }
+    }
+
+    @Override
+    public long getChangeGeneration(Class<? extends Item> clazz) {
+        String itemType = Item.getItemType(clazz);
+        ItemChangeFeed changeFeed = changeFeeds.get(itemType);
+        if (changeFeed == null) {
+            return -1L;
+        }
+        return changeFeed.getGeneration();
+    }
+
+    @Override
+    public Set<String> getChangedItemIds(Class<? extends Item> clazz, long sinceGeneration) {
+        ItemChangeFeed changeFeed = changeFeeds.get(Item.getItemType(clazz));
+        return changeFeed != null ? changeFeed.getChangedItemIds(sinceGeneration) : null;
+    }
+
+    private void initializeChangeFeeds() {
+        for (String itemType : changeFeedItemTypes) {
+            if (itemsMonthlyIndexed.contains(itemType)) {
+                logger.warn("Changes of monthly indexed item type {} cannot be tracked, ignoring it", itemType);
+                continue;
+            }
+            changeFeeds.put(itemType, new ItemChangeFeed(ITEM_CHANGE_FEED_CAPACITY));
+            changeFeedItemTypesByIndex.put(getIndex(itemType, null), itemType);
+        }
+        if (changeFeedFallbackCheckInterval > 0 && !changeFeeds.isEmpty()) {
+            changeFeedFallbackExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "unomi-change-feed-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            changeFeedFallbackExecutor.scheduleWithFixedDelay(() -> {
+                for (Map.Entry<String, ItemChangeFeed> changeFeedEntry : changeFeeds.entrySet()) {
+                    checkChangeFeedFallback(changeFeedEntry.getKey(), changeFeedEntry.getValue());
+                }
+            }, 0, changeFeedFallbackCheckInterval, TimeUnit.MILLISECONDS);
+        }
+        if (hazelcastInstance == null || changeFeeds.isEmpty()) {
+            return;
+        }
+        itemChangesTopic = hazelcastInstance.getTopic(ITEM_CHANGES_TOPIC);
+        itemChangesListenerId = itemChangesTopic.addMessageListener(new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                if (message.getPublishingMember() != null && message.getPublishingMember().localMember()) {
+                    return;
+                }
+                String change = message.getMessageObject();
+                int separatorPos = change.indexOf(CACHE_INVALIDATION_SEPARATOR);
+                ItemChangeFeed changeFeed = changeFeeds.get(change.substring(0, separatorPos));
+                if (changeFeed != null) {
+                    String itemId = change.substring(separatorPos + 1);
+                    changeFeed.recordChange(CACHE_INVALIDATION_ALL.equals(itemId) ? null : itemId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the change of an item of a tracked type, once it was written to ElasticSearch, and propagates it to the
+     * other nodes of the cluster.
+     * @param itemType the type of the changed item
+     * @param itemId the identifier of the changed item, or null if an unknown set of items changed
+     */
+    private void recordItemChange(String itemType, String itemId) {
+        ItemChangeFeed changeFeed = changeFeeds.get(itemType);
+        if (changeFeed == null) {
+            return;
+        }
+        changeFeed.recordChange(itemId);
+        if (itemChangesTopic != null) {
+            try {
+                itemChangesTopic.publish(itemType + CACHE_INVALIDATION_SEPARATOR + (itemId != null ? itemId : CACHE_INVALIDATION_ALL));
+            } catch (RuntimeException e) {
+                // the other nodes will pick up the change with the fallback check
+                logger.warn("Couldn't publish the change of {} item {}", itemType, itemId, e);
+            }
+        }
+    }
+
+    private void recordItemChanges(BulkResponse response) {
+        if (changeFeedItemTypesByIndex.isEmpty()) {
+            return;
+        }
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            if (!itemResponse.isFailed()) {
+                String itemType = changeFeedItemTypesByIndex.get(itemResponse.getIndex());
+                if (itemType != null) {
+                    recordItemChange(itemType, itemResponse.getId());
+                }
+            }
+        }
+    }
+
+    private void recordRolloverIndices(BulkResponse response) {
+        if (itemsRolloverIndexed.isEmpty() || monthlyIndexLocator == null) {
+            return;
+        }
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            if (!itemResponse.isFailed() && (itemResponse.getOpType() == DocWriteRequest.OpType.INDEX || itemResponse.getOpType() == DocWriteRequest.OpType.CREATE)) {
+                String itemType = getRolloverItemType(itemResponse.getIndex());
+                if (itemType != null) {
+                    recordIndex(itemType, itemResponse.getId(), itemResponse.getIndex());
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes made without going through a persistence service, or whose notification was lost, are detected by
+     * comparing the indexing and deletion counters of the index with the changes recorded by the feed, see
+     * {@link ItemChangeFeed#checkUntrackedWrites(long)}. As the changed items are not known, all the items are then
+     * reloaded, after refreshing the index so that they are visible to searches. The check runs in the background so
+     * that reading the generation of a feed never waits for ElasticSearch.
+     */
+    private void checkChangeFeedFallback(final String itemType, final ItemChangeFeed changeFeed) {
+        new InClassLoaderExecute<Object>(metricsService, this.getClass().getName() + ".checkChangeFeedFallback") {
+            protected Object execute(Object... args) throws Exception {
+                String index = getIndex(itemType, null);
+                Response response = client.getLowLevelClient().performRequest(new Request("GET", "/" + index + "/_stats/indexing"));
+                JsonNode indexingStats = ESCustomObjectMapper.getObjectMapper().readTree(response.getEntity().getContent())
+                        .path("_all").path("primaries").path("indexing");
+                long writeCount = indexingStats.path("index_total").asLong() + indexingStats.path("delete_total").asLong();
+                if (changeFeed.checkUntrackedWrites(writeCount)) {
+                    client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+                    changeFeed.recordChange(null);
+                }
+                return null;
+            }
+        }.catchingExecuteInClassLoader(true);
+    }
+
+    private void registerCacheInvalidationListener() {
+        if (hazelcastInstance == null || itemClassesToCacheSet.isEmpty()) {
+            return;
+        }
+        cacheInvalidationTopic = hazelcastInstance.getTopic(CACHE_INVALIDATION_TOPIC);
+        cacheInvalidationListenerId = cacheInvalidationTopic.addMessageListener(new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                if (message.getPublishingMember() != null && message.getPublishingMember().localMember()) {
+                    return;
+                }
+                String invalidation = message.getMessageObject();
+                int separatorPos = invalidation.indexOf(CACHE_INVALIDATION_SEPARATOR);
+                NearCache<CachedItem> nearCache = nearCaches.get(invalidation.substring(0, separatorPos));
+                if (nearCache == null) {
+                    return;
+                }
+                String itemId = invalidation.substring(separatorPos + 1);
+                if (CACHE_INVALIDATION_ALL.equals(itemId)) {
+                    nearCache.clear();
+                } else {
+                    nearCache.remove(itemId);
+                }
+            }
+        });
+    }
+
+    /**
+     * The near cache keeps the items serialized: callers routinely modify the items they load, so each hit must return
+     * its own copy, like the Hazelcast maps do.
+     */
+    private static class CachedItem {
+        private final Class<? extends Item> type;
+        private final String source;
+        private final String itemId;
+        private final Long version;
+
+        private CachedItem(Item item) throws IOException {
+            this.type = item.getClass();
+            this.source = ESCustomObjectMapper.getObjectMapper().writeValueAsString(item);
+            this.itemId = item.getItemId();
+            this.version = item.getVersion();
+        }
+
+        private Item toItem() {
+            try {
+                Item item = ESCustomObjectMapper.getObjectMapper().readValue(source, type);
+                item.setItemId(itemId);
+                item.setVersion(version);
+                return item;
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't deserialize cached item " + itemId, e);
+            }
+        }
+    }
+
     private String getAllIndexForQuery() {
         return indexPrefix + "*";
     }
 
     private String getIndexNameForQuery(String itemType) {
-        return itemsMonthlyIndexed.contains(itemType) ? getMonthlyIndexForQuery(itemType) : getIndex(itemType, null);
+        return itemsMonthlyIndexed.contains(itemType) && !isRolloverIndexed(itemType) ? getMonthlyIndexForQuery(itemType) : getIndex(itemType, null);
+    }
+
+    private boolean isRolloverIndexed(String itemType) {
+        return itemsRolloverIndexed.contains(itemType) && itemsMonthlyIndexed.contains(itemType);
+    }
+
+    private String getRolloverIndexForQuery(String itemType) {
+        return getIndex(itemType + "-" + INDEX_ROLLOVER_PREFIX) + "*";
+    }
+
+    private String getRolloverPolicyName(String itemType) {
+        return getIndex(itemType + "-rollover-policy");
+    }
+
+    private String getRolloverItemType(String index) {
+        for (String itemType : itemsRolloverIndexed) {
+            if (index.startsWith(getIndex(itemType + "-" + INDEX_ROLLOVER_PREFIX))) {
+                return itemType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the index an item that was already indexed must be saved, updated or removed in. Rollover indexed items are
+     * written through an alias that only targets the latest index, so their actual index is looked up when it is not
+     * remembered, the alias being returned if the item can't be found. An item created through the alias and written
+     * again before the next refresh can't be found by the lookup, it is still written to the same index unless a
+     * rollover happened in between, and its index is remembered from the creation response when the locator is enabled.
+     */
+    private String getItemIndex(String itemType, String itemId, Date dateHint) throws IOException {
+        if (!isRolloverIndexed(itemType)) {
+            return getIndex(itemType, dateHint);
+        }
+        String locatedIndex = monthlyIndexLocator != null ? monthlyIndexLocator.locate(itemType, itemId) : null;
+        if (locatedIndex != null) {
+            return locatedIndex;
+        }
+        SearchRequest searchRequest = new SearchRequest(getIndex(itemType, null));
+        searchRequest.source(new SearchSourceBuilder().query(QueryBuilders.idsQuery().addIds(itemId)).fetchSource(false).size(1));
+        SearchHit[] hits = client.search(searchRequest, RequestOptions.DEFAULT).getHits().getHits();
+        if (hits.length > 0) {
+            recordIndex(itemType, itemId, hits[0].getIndex());
+            return hits[0].getIndex();
+        }
+        return getIndex(itemType, null);
     }
 
     private String getMonthlyIndexForQuery(String itemType) {
@@ -1960,6 +2953,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     }
 
     private String getIndex(String itemType, Date dateHint) {
+        if (isRolloverIndexed(itemType)) {
+            // the alias of the rollover indices
+            return getIndex(itemType);
+        }
         String indexItemTypePart = itemsMonthlyIndexed.contains(itemType) && dateHint != null ? itemType + "-" + getMonthlyIndexPart(dateHint) : itemType;
         return getIndex(indexItemTypePart);
     }
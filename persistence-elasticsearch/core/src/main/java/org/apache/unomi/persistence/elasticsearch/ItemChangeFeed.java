@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The recent changes of an item type: a generation number incremented on each change, along with the identifiers of
+ * the items changed by the last generations. A change with a null item identifier means that an unknown set of items
+ * changed, so that the readers must reload all the items.
+ */
+class ItemChangeFeed {
+
+    private final String[] changedItemIds;
+    private long generation = 0L;
+    private long recordedChanges = 0L;
+    private boolean unknownChangesSinceCheck = false;
+    private boolean checked = false;
+    private long untrackedWrites = 0L;
+
+    ItemChangeFeed(int capacity) {
+        this.changedItemIds = new String[Math.max(1, capacity)];
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized long recordChange(String itemId) {
+        generation++;
+        recordedChanges++;
+        if (itemId == null) {
+            unknownChangesSinceCheck = true;
+        }
+        changedItemIds[(int) (generation % changedItemIds.length)] = itemId;
+        return generation;
+    }
+
+    /**
+     * @return the identifiers of the items changed after the given generation, or null if they are not known anymore
+     */
+    synchronized Set<String> getChangedItemIds(long sinceGeneration) {
+        if (sinceGeneration >= generation) {
+            return Collections.emptySet();
+        }
+        if (sinceGeneration < 0 || generation - sinceGeneration > changedItemIds.length) {
+            return null;
+        }
+        Set<String> itemIds = new HashSet<>();
+        for (long changeGeneration = sinceGeneration + 1; changeGeneration <= generation; changeGeneration++) {
+            String itemId = changedItemIds[(int) (changeGeneration % changedItemIds.length)];
+            if (itemId == null) {
+                return null;
+            }
+            itemIds.add(itemId);
+        }
+        return itemIds;
+    }
+
+    /**
+     * Compares the number of writes counted by the back-end with the number of changes recorded by this feed, which
+     * include the writes of this node and the ones notified by the other nodes, to detect the writes that were not
+     * recorded. The difference is compared with the one of the previous check, unless changes of unknown items were
+     * recorded since, as all the items are then reloaded anyway. A write counted by the back-end but recorded right
+     * after the count was read may be reported as not recorded, which only causes an extra reload.
+     *
+     * @param writeCount the number of writes of the item type counted by the back-end
+     * @return true if writes that were not recorded happened since the previous check
+     */
+    synchronized boolean checkUntrackedWrites(long writeCount) {
+        long currentUntrackedWrites = writeCount - recordedChanges;
+        boolean untrackedWritesFound = checked && !unknownChangesSinceCheck && currentUntrackedWrites > untrackedWrites;
+        untrackedWrites = currentUntrackedWrites;
+        unknownChangesSinceCheck = false;
+        checked = true;
+        return untrackedWritesFound;
+    }
+}
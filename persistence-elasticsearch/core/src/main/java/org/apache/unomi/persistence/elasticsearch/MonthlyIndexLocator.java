@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Remembers the monthly or rollover index of the items of monthly indexed types, so that they can be loaded with a
+ * direct get on their index instead of a search on all the indices of their type. Entries are stored off-heap in a fixed size table, by
+ * 64-bit hash of the item type and identifier, in buckets of a few slots, and new entries replace old ones once their
+ * bucket is full, so an item may not be found anymore, which only costs a search. Buckets are read and written under a
+ * striped lock, so that an entry is never seen with the hash of one item and the index of another.
+ * <p>
+ * A located index is where the item was last indexed or found: an item removed since then is still located, and the
+ * only way to be given the index of another item is a collision of their 64-bit hashes.
+ */
+class MonthlyIndexLocator {
+
+    private static final int SLOT_SIZE = 12;
+    private static final int PROBES = 4;
+    private static final int LOCK_STRIPES = 256;
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final Map<String, Integer> indexCodes = new ConcurrentHashMap<>();
+    private final List<String> indexNames = new CopyOnWriteArrayList<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param capacity the number of entries of the table, rounded up to a power of two
+     */
+    MonthlyIndexLocator(int capacity) {
+        int slotCount = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+        this.mask = slotCount - 1;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Records the index of an item.
+     */
+    void record(String itemType, String itemId, String indexName) {
+        long hash = hash(itemType, itemId);
+        int indexCode = getIndexCode(indexName);
+        int firstSlot = getBucket(hash);
+        synchronized (getLock(firstSlot)) {
+            int targetSlot = firstSlot;
+            for (int i = 0; i < PROBES; i++) {
+                int slot = firstSlot + i;
+                long slotHash = slots.getLong(slot * SLOT_SIZE);
+                if (slotHash == hash || slotHash == 0L) {
+                    targetSlot = slot;
+                    break;
+                }
+            }
+            // when all the slots of the bucket are used by other items, the first one is replaced
+            slots.putLong(targetSlot * SLOT_SIZE, hash);
+            slots.putInt(targetSlot * SLOT_SIZE + 8, indexCode);
+        }
+    }
+
+    /**
+     * @return the index the item was last recorded in, or null if it is unknown
+     */
+    String locate(String itemType, String itemId) {
+        long hash = hash(itemType, itemId);
+        int firstSlot = getBucket(hash);
+        int indexCode = 0;
+        synchronized (getLock(firstSlot)) {
+            for (int i = 0; i < PROBES; i++) {
+                int slot = firstSlot + i;
+                long slotHash = slots.getLong(slot * SLOT_SIZE);
+                if (slotHash == hash) {
+                    indexCode = slots.getInt(slot * SLOT_SIZE + 8);
+                    break;
+                } else if (slotHash == 0L) {
+                    break;
+                }
+            }
+        }
+        return indexCode > 0 && indexCode <= indexNames.size() ? indexNames.get(indexCode - 1) : null;
+    }
+
+    /**
+     * @return the first slot of the bucket of the hash, buckets never overlap
+     */
+    private int getBucket(long hash) {
+        return ((int) (hash ^ (hash >>> 32)) & mask) & ~(PROBES - 1);
+    }
+
+    private Object getLock(int bucket) {
+        return locks[(bucket / PROBES) & (LOCK_STRIPES - 1)];
+    }
+
+    private int getIndexCode(String indexName) {
+        Integer indexCode = indexCodes.get(indexName);
+        if (indexCode == null) {
+            synchronized (indexNames) {
+                indexCode = indexCodes.get(indexName);
+                if (indexCode == null) {
+                    indexNames.add(indexName);
+                    indexCode = indexNames.size();
+                    indexCodes.put(indexName, indexCode);
+                }
+            }
+        }
+        return indexCode;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the item type and identifier, 0 being reserved for empty slots.
+     */
+    static long hash(String itemType, String itemId) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, itemType);
+        hash = (hash ^ '/') * 0x100000001b3L;
+        hash = hash(hash, itemId);
+        return hash == 0L ? 1L : hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size bounded, per node cache used in front of the Hazelcast item maps. Entries expire after a configurable time to
+ * live. Eviction follows the W-TinyLFU scheme: new entries go to a small LRU window, and an entry leaving the window only
+ * replaces the LRU victim of the main region if it was accessed more frequently than that victim, as estimated by a
+ * count-min sketch that is periodically halved so that old popularity fades away.
+ *
+ * @param <V> the type of the cached values
+ */
+class NearCache<V> {
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<String, CacheEntry<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CacheEntry<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    NearCache(int maximumSize, long timeToLiveMillis) {
+        int capacity = Math.max(2, maximumSize);
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    synchronized V get(String key) {
+        sketch.increment(key);
+        CacheEntry<V> entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces the value of the specified key.
+     *
+     * @return the number of entries evicted to make room for the new value
+     */
+    synchronized int put(String key, V value) {
+        CacheEntry<V> entry = new CacheEntry<>(value, timeToLiveMillis > 0 ? System.currentTimeMillis() + timeToLiveMillis : Long.MAX_VALUE);
+        if (main.containsKey(key)) {
+            main.put(key, entry);
+            return 0;
+        }
+        sketch.increment(key);
+        window.put(key, entry);
+        if (window.size() <= windowCapacity) {
+            return 0;
+        }
+        Iterator<Map.Entry<String, CacheEntry<V>>> windowIterator = window.entrySet().iterator();
+        Map.Entry<String, CacheEntry<V>> candidate = windowIterator.next();
+        windowIterator.remove();
+        if (main.size() < mainCapacity) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return 0;
+        }
+        Iterator<Map.Entry<String, CacheEntry<V>>> mainIterator = main.entrySet().iterator();
+        Map.Entry<String, CacheEntry<V>> victim = mainIterator.next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            mainIterator.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions.increment();
+        return 1;
+    }
+
+    synchronized void remove(String key) {
+        if (window.remove(key) == null) {
+            main.remove(key);
+        }
+    }
+
+    synchronized void clear() {
+        window.clear();
+        main.clear();
+    }
+
+    synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long expirationTime;
+
+        private CacheEntry(V value, long expirationTime) {
+            this.value = value;
+            this.expirationTime = expirationTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expirationTime;
+        }
+    }
+
+    /**
+     * A count-min sketch with four rows of counters saturating at 15. All the counters are halved once the number of
+     * increments reaches ten times the cache size.
+     */
+    static class FrequencySketch {
+
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0xb4ce8ae5, 0x7a646e19, 0x2e3ab10b};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 4) - 1) << 1;
+            this.table = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * capacity;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >> 1);
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache of the property mappings of each item type, flattened by property path when they are loaded.
+ * Properties that are not mapped are cached too, so that looking up a property that has no data yet doesn't reload the
+ * mappings. Mappings are reloaded once they are older than the time to live, when the month changes as a new monthly
+ * index is then created, or after they are invalidated.
+ */
+class PropertyMappingRegistry {
+
+    private final Function<String, Map<String, Map<String, Object>>> mappingsLoader;
+    private final long timeToLiveNanos;
+    private final Map<String, ItemTypeMappings> mappingsByItemType = new ConcurrentHashMap<>();
+
+    /**
+     * @param mappingsLoader the function loading the mappings of an item type, returning null if they couldn't be loaded
+     * @param timeToLive     the time to live of the mappings in milliseconds
+     */
+    PropertyMappingRegistry(Function<String, Map<String, Map<String, Object>>> mappingsLoader, long timeToLive) {
+        this.mappingsLoader = mappingsLoader;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+    }
+
+    /**
+     * @return the mapping of the property, or null if the property is not mapped or the mappings couldn't be loaded
+     */
+    Map<String, Object> getPropertyMapping(String property, String itemType) {
+        ItemTypeMappings mappings = getMappings(itemType);
+        return mappings != null ? mappings.mappingsByPath.get(property) : null;
+    }
+
+    /**
+     * @return the name of the field to use to sort or aggregate on the property, which is its keyword sub-field for
+     * text properties, or null if the property is not mapped or the mappings couldn't be loaded
+     */
+    String getPropertyNameWithData(String property, String itemType) {
+        ItemTypeMappings mappings = getMappings(itemType);
+        return mappings != null ? mappings.namesWithDataByPath.get(property) : null;
+    }
+
+    void invalidate(String itemType) {
+        mappingsByItemType.remove(itemType);
+    }
+
+    void invalidateAll() {
+        mappingsByItemType.clear();
+    }
+
+    private ItemTypeMappings getMappings(String itemType) {
+        ItemTypeMappings mappings = mappingsByItemType.get(itemType);
+        if (mappings == null || System.nanoTime() - mappings.loadTime > timeToLiveNanos || !YearMonth.now().equals(mappings.loadMonth)) {
+            // concurrent loads of the same item type are possible but harmless, the last one wins
+            Map<String, Map<String, Object>> propertiesMapping = mappingsLoader.apply(itemType);
+            if (propertiesMapping == null) {
+                return mappings;
+            }
+            mappings = new ItemTypeMappings(propertiesMapping);
+            mappingsByItemType.put(itemType, mappings);
+        }
+        return mappings;
+    }
+
+    private static class ItemTypeMappings {
+        final long loadTime = System.nanoTime();
+        final YearMonth loadMonth = YearMonth.now();
+        final Map<String, Map<String, Object>> mappingsByPath = new HashMap<>();
+        final Map<String, String> namesWithDataByPath = new HashMap<>();
+
+        ItemTypeMappings(Map<String, Map<String, Object>> propertiesMapping) {
+            flatten(propertiesMapping, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void flatten(Map<String, Map<String, Object>> propertiesMapping, String prefix) {
+            for (Map.Entry<String, Map<String, Object>> entry : propertiesMapping.entrySet()) {
+                String path = prefix == null ? entry.getKey() : prefix + "." + entry.getKey();
+                Map<String, Object> propertyMapping = entry.getValue();
+                if (propertyMapping == null) {
+                    continue;
+                }
+                mappingsByPath.put(path, propertyMapping);
+                if ("text".equals(propertyMapping.get("type"))
+                        && propertyMapping.get("fields") instanceof Map
+                        && ((Map) propertyMapping.get("fields")).containsKey("keyword")) {
+                    namesWithDataByPath.put(path, path + ".keyword");
+                } else {
+                    namesWithDataByPath.put(path, path);
+                }
+                if (propertyMapping.get("properties") instanceof Map) {
+                    flatten((Map<String, Map<String, Object>>) propertyMapping.get("properties"), path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.client.indexlifecycle.AllocateAction;
+import org.elasticsearch.client.indexlifecycle.DeleteAction;
+import org.elasticsearch.client.indexlifecycle.ForceMergeAction;
+import org.elasticsearch.client.indexlifecycle.LifecycleAction;
+import org.elasticsearch.client.indexlifecycle.LifecyclePolicy;
+import org.elasticsearch.client.indexlifecycle.Phase;
+import org.elasticsearch.client.indexlifecycle.RolloverAction;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the lifecycle policies of the rollover indexed item types, and selects the rollover indices that can be purged.
+ */
+final class RolloverIndices {
+
+    private RolloverIndices() {
+    }
+
+    /**
+     * Creates a policy rolling over the write index on the given conditions, with optional warm and delete phases. Empty
+     * values disable a condition or a phase.
+     *
+     * @param warmRequire the node attribute, as attribute:value, the indices are moved to in the warm phase
+     */
+    static LifecyclePolicy createPolicy(String name, String maxSize, String maxDocs, String maxAge, String warmAfter, String warmRequire, String deleteAfter) {
+        Map<String, Phase> phases = new HashMap<>();
+        RolloverAction rolloverAction = new RolloverAction(
+                StringUtils.isNotBlank(maxSize) ? ByteSizeValue.parseBytesSizeValue(maxSize, "rollover.maxSize") : null,
+                StringUtils.isNotBlank(maxAge) ? TimeValue.parseTimeValue(maxAge, "rollover.maxAge") : null,
+                StringUtils.isNotBlank(maxDocs) ? Long.valueOf(maxDocs) : null);
+        phases.put("hot", new Phase("hot", TimeValue.ZERO, Collections.singletonMap(RolloverAction.NAME, rolloverAction)));
+        if (StringUtils.isNotBlank(warmAfter)) {
+            Map<String, LifecycleAction> warmActions = new HashMap<>();
+            warmActions.put(ForceMergeAction.NAME, new ForceMergeAction(1));
+            if (StringUtils.isNotBlank(warmRequire)) {
+                String[] attribute = warmRequire.split(":", 2);
+                warmActions.put(AllocateAction.NAME, new AllocateAction(null, null, null,
+                        Collections.singletonMap(attribute[0].trim(), attribute.length > 1 ? attribute[1].trim() : "")));
+            }
+            phases.put("warm", new Phase("warm", TimeValue.parseTimeValue(warmAfter, "rollover.warmAfter"), warmActions));
+        }
+        if (StringUtils.isNotBlank(deleteAfter)) {
+            phases.put("delete", new Phase("delete", TimeValue.parseTimeValue(deleteAfter, "rollover.deleteAfter"),
+                    Collections.singletonMap(DeleteAction.NAME, new DeleteAction())));
+        }
+        return new LifecyclePolicy(name, phases);
+    }
+
+    /**
+     * An index only receives new items until it is rolled over, which is when the next index is created, so an index
+     * whose next index was created before the date only contains older items. The write index is never returned.
+     *
+     * @param creationDates the creation dates of the rollover indices of an item type, by index name
+     * @return the indices only containing items older than the date
+     */
+    static List<String> getIndicesRolledOverBefore(Map<String, Long> creationDates, Date date) {
+        List<String> indices = new ArrayList<>(creationDates.keySet());
+        // the generation suffix is zero padded, so the indices are sorted by generation
+        Collections.sort(indices);
+        List<String> indicesBefore = new ArrayList<>();
+        for (int i = 0; i < indices.size() - 1; i++) {
+            Long nextIndexCreationDate = creationDates.get(indices.get(i + 1));
+            if (nextIndexCreationDate != null && nextIndexCreationDate < date.getTime()) {
+                indicesBefore.add(indices.get(i));
+            }
+        }
+        return indicesBefore;
+    }
+}
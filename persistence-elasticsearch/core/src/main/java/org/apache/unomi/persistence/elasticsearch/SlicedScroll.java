@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Reads all the hits matching a query with a sliced scroll, passing them to a consumer in the calling thread, in no
+ * particular order. The slices are read in parallel: the next page of a slice is requested asynchronously as soon as its
+ * current page is handed to the consumer, so that at most one page per slice is kept in memory while the consumer works.
+ */
+final class SlicedScroll {
+
+    /**
+     * The search operations used by the scroll, implemented by the Elasticsearch client.
+     */
+    interface Client {
+        void searchAsync(SearchRequest request, ActionListener<SearchResponse> listener);
+
+        void scrollAsync(SearchScrollRequest request, ActionListener<SearchResponse> listener);
+
+        void clearScroll(ClearScrollRequest request);
+    }
+
+    private SlicedScroll() {
+    }
+
+    /**
+     * @param slices    the number of slices read in parallel, a single slice reads the index with a plain scroll
+     * @param pageSize  the number of hits per page of each slice
+     * @param keepAlive the keep alive of the scrolls, also the maximum wait for a page
+     * @return the number of hits passed to the consumer
+     */
+    static long scrollAll(Client client, String index, QueryBuilder query, int slices, int pageSize, TimeValue keepAlive,
+                          Consumer<SearchHit> consumer) throws Exception {
+        slices = Math.max(1, slices);
+        // each slice has at most one page pending, so adding a page never blocks the client threads
+        final BlockingQueue<Object> pages = new ArrayBlockingQueue<>(slices);
+        final ActionListener<SearchResponse> listener = ActionListener.wrap(pages::add, pages::add);
+        for (int i = 0; i < slices; i++) {
+            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                    .query(query)
+                    .size(pageSize)
+                    .version(true);
+            if (slices > 1) {
+                searchSourceBuilder.slice(new SliceBuilder(i, slices));
+            }
+            client.searchAsync(new SearchRequest(index).scroll(keepAlive).source(searchSourceBuilder), listener);
+        }
+
+        long count = 0;
+        int pendingSlices = slices;
+        Set<String> scrollIds = new HashSet<>();
+        try {
+            while (pendingSlices > 0) {
+                // a page is never expected later than the keep alive, don't wait forever for a client that was closed
+                Object page = pages.poll(keepAlive.millis(), TimeUnit.MILLISECONDS);
+                if (page == null) {
+                    throw new TimeoutException("No scroll page received from index " + index + " after " + keepAlive);
+                }
+                if (page instanceof Exception) {
+                    throw (Exception) page;
+                }
+                SearchResponse response = (SearchResponse) page;
+                if (response.getScrollId() != null) {
+                    scrollIds.add(response.getScrollId());
+                }
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    pendingSlices--;
+                    continue;
+                }
+                client.scrollAsync(new SearchScrollRequest(response.getScrollId()).scroll(keepAlive), listener);
+                for (SearchHit hit : hits) {
+                    consumer.accept(hit);
+                    count++;
+                }
+            }
+        } finally {
+            // scrolls still running after a failure are not cleared and expire after their keep alive
+            if (!scrollIds.isEmpty()) {
+                ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                clearScrollRequest.scrollIds(new ArrayList<>(scrollIds));
+                client.clearScroll(clearScrollRequest);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.apache.unomi.api.conditions.Condition;
+
+import java.util.Map;
+
+/**
+ * A condition evaluator that can turn a condition into a specialized {@link CompiledCondition}. Evaluators that don't
+ * implement this interface are still usable, the dispatcher then wraps them into a compiled condition that calls
+ * {@link ConditionEvaluator#eval(Condition, org.apache.unomi.api.Item, Map, ConditionEvaluatorDispatcher)}.
+ */
+public interface CompilableConditionEvaluator extends ConditionEvaluator {
+
+    /**
+     * Compiles a condition. Sub-conditions should be compiled through
+     * {@link ConditionEvaluatorDispatcher#compile(Condition, Map)} using the same context.
+     *
+     * @param condition  the condition to compile, with its contextual parameters already resolved
+     * @param context    the parameter values of the parent conditions
+     * @param dispatcher the dispatcher to use to compile sub-conditions
+     * @return the compiled condition
+     */
+    CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher);
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch.conditions;
+
+import org.apache.unomi.api.Item;
+
+/**
+ * A condition that has been compiled by the {@link ConditionEvaluatorDispatcher} into a reusable predicate. Parent
+ * condition parameters and contextual parameter references are resolved at compilation time, so evaluating a compiled
+ * condition only needs the item to test.
+ */
+public interface CompiledCondition {
+
+    CompiledCondition TRUE = item -> true;
+
+    CompiledCondition FALSE = item -> false;
+
+    /**
+     * Evaluates this compiled condition against an item.
+     *
+     * @param item the item to test
+     * @return true if the item matches the condition
+     */
+    boolean eval(Item item);
+
+}
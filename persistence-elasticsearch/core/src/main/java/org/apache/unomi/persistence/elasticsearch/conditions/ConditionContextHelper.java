@@ -24,6 +24,7 @@ import org.apache.logging.log4j.core.util.IOUtils;
 import org.apache.lucene.analysis.charfilter.MappingCharFilterFactory;
 import org.apache.lucene.analysis.util.ClasspathResourceLoader;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.persistence.spi.ScriptExecutor;
 import org.mvel2.MVEL;
 import org.mvel2.ParserConfiguration;
 import org.mvel2.ParserContext;
@@ -32,18 +33,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Serializable;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ConditionContextHelper {
     private static final Logger logger = LoggerFactory.getLogger(ConditionContextHelper.class);
 
-    private static Map<String,Serializable> mvelExpressions = new ConcurrentHashMap<>();
+    private static volatile ScriptExecutor scriptExecutor;
 
     private static MappingCharFilterFactory mappingCharFilterFactory;
     static {
@@ -57,6 +56,27 @@ public class ConditionContextHelper {
         }
     }
 
+    /**
+     * Sets the script executor used to execute the <code>script::</code> parameter values.
+     *
+     * @param scriptExecutor the script executor
+     */
+    public static synchronized void setScriptExecutor(ScriptExecutor scriptExecutor) {
+        ConditionContextHelper.scriptExecutor = scriptExecutor;
+    }
+
+    /**
+     * Clears the script executor if it is the one currently used, so that unbinding an executor that was replaced by
+     * another one keeps the new one.
+     *
+     * @param scriptExecutor the script executor that is not available anymore
+     */
+    public static synchronized void unsetScriptExecutor(ScriptExecutor scriptExecutor) {
+        if (ConditionContextHelper.scriptExecutor == scriptExecutor) {
+            ConditionContextHelper.scriptExecutor = null;
+        }
+    }
+
     public static Condition getContextualCondition(Condition condition, Map<String, Object> context) {
         if (!hasContextualParameter(condition.getParameterValues())) {
             return condition;
@@ -79,13 +99,7 @@ public class ConditionContextHelper {
                 if (s.startsWith("parameter::")) {
                     return context.get(StringUtils.substringAfter(s, "parameter::"));
                 } else if (s.startsWith("script::")) {
-                    String script = StringUtils.substringAfter(s, "script::");
-                    if (!mvelExpressions.containsKey(script)) {
-                        ParserConfiguration parserConfiguration = new ParserConfiguration();
-                        parserConfiguration.setClassLoader(ConditionContextHelper.class.getClassLoader());
-                        mvelExpressions.put(script,MVEL.compileExpression(script, new ParserContext(parserConfiguration)));
-                    }
-                    return MVEL.executeExpression(mvelExpressions.get(script), context);
+                    return executeScript(StringUtils.substringAfter(s, "script::"), context);
                 }
             }
         } else if (value instanceof Map) {
@@ -111,6 +125,44 @@ public class ConditionContextHelper {
         return value;
     }
 
+    private static Object executeScript(String script, Map<String, Object> context) {
+        ScriptExecutor currentScriptExecutor = scriptExecutor;
+        if (currentScriptExecutor != null) {
+            return currentScriptExecutor.execute(script, context);
+        }
+        // the script executor service is not available yet, so the script can't be cached
+        logger.debug("No script executor available, compiling script {} without caching it", script);
+        ParserConfiguration parserConfiguration = new ParserConfiguration();
+        parserConfiguration.setClassLoader(ConditionContextHelper.class.getClassLoader());
+        return MVEL.executeExpression(MVEL.compileExpression(script, new ParserContext(parserConfiguration)), context);
+    }
+
+    /**
+     * Checks if a parameter value contains script references, which must be evaluated each time the condition is used
+     * and therefore can't be resolved when a condition is compiled.
+     *
+     * @param value the parameter value to check
+     * @return true if a script reference was found
+     */
+    public static boolean hasScriptParameter(Object value) {
+        if (value instanceof String) {
+            return ((String) value).startsWith("script::");
+        } else if (value instanceof Map) {
+            for (Object o : ((Map<?, ?>) value).values()) {
+                if (hasScriptParameter(o)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object o : ((List<?>) value)) {
+                if (hasScriptParameter(o)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private static boolean hasContextualParameter(Object value) {
         if (value instanceof String) {
             if (((String) value).startsWith("parameter::") || ((String) value).startsWith("script::")) {
@@ -144,6 +196,10 @@ public class ConditionContextHelper {
     public static String foldToASCII(String s) {
         if (s != null) {
             s = s.toLowerCase();
+            if (isASCII(s)) {
+                // the folding mappings only apply to non ASCII characters
+                return s;
+            }
             StringReader stringReader = new StringReader(s);
             Reader foldedStringReader = mappingCharFilterFactory.create(stringReader);
             try {
@@ -155,6 +211,15 @@ public class ConditionContextHelper {
         return null;
     }
 
+    private static boolean isASCII(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static <T> List<T> foldToASCII(List<T> s) {
         if (s != null) {
             return Lists.transform(s, new Function<T, T>() {
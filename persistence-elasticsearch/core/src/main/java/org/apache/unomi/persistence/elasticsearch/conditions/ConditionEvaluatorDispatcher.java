@@ -17,15 +17,24 @@
 
 package org.apache.unomi.persistence.elasticsearch.conditions;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.metrics.MetricAdapter;
 import org.apache.unomi.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -38,19 +47,38 @@ public class ConditionEvaluatorDispatcher {
 
     private MetricsService metricsService;
 
+    private boolean useCompiledConditions = true;
+
+    // compiled conditions are cached per condition structure, so that conditions built on each call share their compilation
+    private Cache<ConditionKey, CompiledCondition> compiledConditions = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    // condition types that cannot be evaluated locally, per condition structure, with the same lifecycle as compiled conditions
+    private Cache<ConditionKey, Set<String>> nonLocalConditionTypeIds = CacheBuilder.newBuilder().maximumSize(10000).build();
+
     public void setMetricsService(MetricsService metricsService) {
         this.metricsService = metricsService;
     }
 
+    public void setUseCompiledConditions(boolean useCompiledConditions) {
+        this.useCompiledConditions = useCompiledConditions;
+    }
+
     public void addEvaluator(String name, ConditionEvaluator evaluator) {
         evaluators.put(name, evaluator);
+        compiledConditions.invalidateAll();
+        nonLocalConditionTypeIds.invalidateAll();
     }
 
     public void removeEvaluator(String name) {
         evaluators.remove(name);
+        compiledConditions.invalidateAll();
+        nonLocalConditionTypeIds.invalidateAll();
     }
 
     public boolean eval(Condition condition, Item item) {
+        if (useCompiledConditions) {
+            return getCompiledCondition(condition).eval(item);
+        }
         return eval(condition, item, new HashMap<String, Object>());
     }
 
@@ -88,4 +116,187 @@ public class ConditionEvaluatorDispatcher {
         // if no matching
         return false;
     }
+
+    /**
+     * Returns the identifiers of the condition types of a condition tree that have no evaluator, and that make the
+     * evaluation of the condition fall back to a query. The result is cached per condition structure, so a condition
+     * must not be modified once it has been checked.
+     *
+     * @param condition the condition to check, with its condition types resolved
+     * @return the identifiers of the condition types that cannot be evaluated locally, empty if the whole condition
+     * can be evaluated locally
+     */
+    public Set<String> getNonLocalConditionTypeIds(Condition condition) {
+        ConditionKey key = new ConditionKey(condition);
+        Set<String> conditionTypeIds = nonLocalConditionTypeIds.getIfPresent(key);
+        if (conditionTypeIds == null) {
+            conditionTypeIds = new TreeSet<>();
+            collectNonLocalConditionTypeIds(condition, conditionTypeIds);
+            conditionTypeIds = conditionTypeIds.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet(conditionTypeIds);
+            nonLocalConditionTypeIds.put(key, conditionTypeIds);
+        }
+        return conditionTypeIds;
+    }
+
+    private void collectNonLocalConditionTypeIds(Condition condition, Set<String> conditionTypeIds) {
+        for (Object parameterValue : condition.getParameterValues().values()) {
+            if (parameterValue instanceof Condition) {
+                collectNonLocalConditionTypeIds((Condition) parameterValue, conditionTypeIds);
+            } else if (parameterValue instanceof Collection) {
+                for (Object value : (Collection<?>) parameterValue) {
+                    if (value instanceof Condition) {
+                        collectNonLocalConditionTypeIds((Condition) value, conditionTypeIds);
+                    }
+                }
+            }
+        }
+        ConditionType conditionType = condition.getConditionType();
+        if (conditionType == null) {
+            conditionTypeIds.add(condition.getConditionTypeId());
+        } else if (conditionType.getParentCondition() != null) {
+            collectNonLocalConditionTypeIds(conditionType.getParentCondition(), conditionTypeIds);
+        } else if (conditionType.getConditionEvaluator() == null) {
+            conditionTypeIds.add(condition.getConditionTypeId());
+        }
+    }
+
+    /**
+     * Returns the compiled version of a condition, compiling it on first use. Compiled conditions are cached per
+     * condition structure, so that equal conditions with the same resolved condition types share their compilation,
+     * and a condition must not be modified once it has been evaluated.
+     *
+     * @param condition the condition to compile, with its condition types resolved
+     * @return the compiled condition
+     * @throws UnsupportedOperationException if the condition type has no evaluator
+     */
+    public CompiledCondition getCompiledCondition(Condition condition) {
+        ConditionKey key = new ConditionKey(condition);
+        CompiledCondition compiledCondition = compiledConditions.getIfPresent(key);
+        if (compiledCondition == null) {
+            compiledCondition = compile(condition, new HashMap<String, Object>());
+            compiledConditions.put(key, compiledCondition);
+        }
+        return compiledCondition;
+    }
+
+    /**
+     * Compiles a condition into a tree of reusable predicates. Parent conditions are inlined and contextual parameters
+     * are resolved against the context once, except for script parameters that are still evaluated on each use.
+     *
+     * @param condition the condition to compile, with its condition types resolved
+     * @param context   the parameter values of the parent conditions
+     * @return the compiled condition
+     * @throws UnsupportedOperationException if the condition type has no evaluator
+     */
+    public CompiledCondition compile(Condition condition, Map<String, Object> context) {
+        ConditionType conditionType = condition.getConditionType();
+        if (conditionType.getParentCondition() != null) {
+            Map<String, Object> parentContext = new HashMap<>(context);
+            parentContext.putAll(condition.getParameterValues());
+            return compile(conditionType.getParentCondition(), parentContext);
+        }
+
+        String conditionEvaluatorKey = conditionType.getConditionEvaluator();
+        if (conditionEvaluatorKey == null) {
+            throw new UnsupportedOperationException("No evaluator defined for : " + condition.getConditionTypeId());
+        }
+        ConditionEvaluator evaluator = evaluators.get(conditionEvaluatorKey);
+        if (evaluator == null) {
+            return CompiledCondition.FALSE;
+        }
+
+        final Map<String, Object> compilationContext = new HashMap<>(context);
+        if (ConditionContextHelper.hasScriptParameter(condition.getParameterValues())) {
+            return item -> eval(condition, item, new HashMap<>(compilationContext));
+        }
+
+        Condition contextualCondition = ConditionContextHelper.getContextualCondition(condition, compilationContext);
+        if (contextualCondition == null) {
+            return CompiledCondition.TRUE;
+        }
+
+        CompiledCondition compiledCondition;
+        if (evaluator instanceof CompilableConditionEvaluator) {
+            try {
+                compiledCondition = ((CompilableConditionEvaluator) evaluator).compile(contextualCondition, compilationContext, this);
+            } catch (RuntimeException e) {
+                logger.debug("Unable to compile condition with evaluator key={}, it will be evaluated dynamically", conditionEvaluatorKey, e);
+                return item -> eval(condition, item, new HashMap<>(compilationContext));
+            }
+        } else {
+            compiledCondition = item -> evaluator.eval(contextualCondition, item, new HashMap<>(compilationContext), this);
+        }
+        return withTimerAndErrorHandling(conditionEvaluatorKey, compiledCondition);
+    }
+
+    private CompiledCondition withTimerAndErrorHandling(String conditionEvaluatorKey, CompiledCondition compiledCondition) {
+        final String timerName = this.getClass().getName() + ".conditions." + conditionEvaluatorKey;
+        return item -> {
+            long startTime = System.nanoTime();
+            try {
+                return compiledCondition.eval(item);
+            } catch (Exception e) {
+                logger.error("Error executing condition evaluator with key=" + conditionEvaluatorKey, e);
+                return false;
+            } finally {
+                if (metricsService != null && metricsService.isActivated()) {
+                    metricsService.updateTimerNanos(timerName, startTime);
+                }
+            }
+        };
+    }
+
+    /**
+     * Cache key of a condition: conditions are equal when they have the same type identifiers and parameter values, and
+     * the key also requires the same resolved condition type instances, so that a redefined condition type is compiled
+     * again.
+     */
+    private static class ConditionKey {
+        private final Condition condition;
+        private final int hashCode;
+
+        private ConditionKey(Condition condition) {
+            this.condition = condition;
+            this.hashCode = condition.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ConditionKey that = (ConditionKey) o;
+            return hashCode == that.hashCode && condition.equals(that.condition) && sameConditionTypes(condition, that.condition);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean sameConditionTypes(Object value, Object otherValue) {
+            if (value instanceof Condition && otherValue instanceof Condition) {
+                Condition condition = (Condition) value;
+                Condition otherCondition = (Condition) otherValue;
+                if (condition.getConditionType() != otherCondition.getConditionType()) {
+                    return false;
+                }
+                for (Map.Entry<String, Object> parameter : condition.getParameterValues().entrySet()) {
+                    if (!sameConditionTypes(parameter.getValue(), otherCondition.getParameterValues().get(parameter.getKey()))) {
+                        return false;
+                    }
+                }
+            } else if (value instanceof List && otherValue instanceof List) {
+                Iterator<?> iterator = ((List<?>) value).iterator();
+                Iterator<?> otherIterator = ((List<?>) otherValue).iterator();
+                while (iterator.hasNext() && otherIterator.hasNext()) {
+                    if (!sameConditionTypes(iterator.next(), otherIterator.next())) {
+                        return false;
+                    }
+                }
+            }
+            // values that are not conditions were already compared by the condition equality
+            return true;
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ItemChangeFeedTest {
+
+    @Test
+    public void testChangedItemIds() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(4);
+        long generation = changeFeed.getGeneration();
+        assertEquals(Collections.emptySet(), changeFeed.getChangedItemIds(generation));
+
+        changeFeed.recordChange("rule-1");
+        changeFeed.recordChange("rule-2");
+        changeFeed.recordChange("rule-1");
+        assertEquals(generation + 3, changeFeed.getGeneration());
+        assertEquals(new HashSet<>(Arrays.asList("rule-1", "rule-2")), changeFeed.getChangedItemIds(generation));
+        assertEquals(Collections.singleton("rule-1"), changeFeed.getChangedItemIds(generation + 2));
+        assertEquals(Collections.emptySet(), changeFeed.getChangedItemIds(changeFeed.getGeneration()));
+    }
+
+    @Test
+    public void testChangesBeyondCapacityAreUnknown() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(4);
+        for (int i = 0; i < 5; i++) {
+            changeFeed.recordChange("rule-" + i);
+        }
+        assertNull(changeFeed.getChangedItemIds(0));
+        assertEquals(4, changeFeed.getChangedItemIds(1).size());
+        assertNull(changeFeed.getChangedItemIds(-1));
+    }
+
+    @Test
+    public void testChangeOfUnknownItems() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(4);
+        changeFeed.recordChange("rule-1");
+        long generation = changeFeed.getGeneration();
+        changeFeed.recordChange(null);
+        changeFeed.recordChange("rule-2");
+        assertNull(changeFeed.getChangedItemIds(generation));
+        assertEquals(Collections.singleton("rule-2"), changeFeed.getChangedItemIds(generation + 1));
+    }
+
+    @Test
+    public void testRecordedWritesAreNotReportedAsUntracked() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(16);
+        // the first check only reads the initial counters
+        assertFalse(changeFeed.checkUntrackedWrites(100));
+
+        // writes made through the persistence service, by this node or notified by another one
+        changeFeed.recordChange("rule-1");
+        changeFeed.recordChange("rule-2");
+        assertFalse(changeFeed.checkUntrackedWrites(102));
+        assertFalse(changeFeed.checkUntrackedWrites(102));
+
+        // a recorded change that didn't write anything, like an update without effect
+        changeFeed.recordChange("rule-3");
+        assertFalse(changeFeed.checkUntrackedWrites(102));
+    }
+
+    @Test
+    public void testUntrackedWritesAreReported() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(16);
+        assertFalse(changeFeed.checkUntrackedWrites(100));
+
+        changeFeed.recordChange("rule-1");
+        // one recorded write and one made directly in ElasticSearch or whose notification was lost
+        assertTrue(changeFeed.checkUntrackedWrites(102));
+        // reported once
+        assertFalse(changeFeed.checkUntrackedWrites(102));
+    }
+
+    @Test
+    public void testChangeOfUnknownItemsResetsTheCheck() {
+        ItemChangeFeed changeFeed = new ItemChangeFeed(16);
+        assertFalse(changeFeed.checkUntrackedWrites(100));
+
+        // an update by query writing 50 items is recorded as a single change, all the items are reloaded anyway
+        changeFeed.recordChange(null);
+        assertFalse(changeFeed.checkUntrackedWrites(150));
+
+        changeFeed.recordChange("rule-1");
+        assertFalse(changeFeed.checkUntrackedWrites(151));
+        assertTrue(changeFeed.checkUntrackedWrites(152));
+    }
+}
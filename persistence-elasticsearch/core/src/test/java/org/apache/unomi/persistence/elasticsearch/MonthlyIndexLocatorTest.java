@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MonthlyIndexLocatorTest {
+
+    @Test
+    public void testRecordAndLocate() {
+        MonthlyIndexLocator locator = new MonthlyIndexLocator(1024);
+        assertNull(locator.locate("session", "session-1"));
+        locator.record("session", "session-1", "context-session-date-2020-01");
+        locator.record("event", "session-1", "context-event-date-2020-02");
+        assertEquals("context-session-date-2020-01", locator.locate("session", "session-1"));
+        assertEquals("context-event-date-2020-02", locator.locate("event", "session-1"));
+
+        locator.record("session", "session-1", "context-session-date-2020-02");
+        assertEquals("context-session-date-2020-02", locator.locate("session", "session-1"));
+    }
+
+    @Test
+    public void testBoundedCapacity() {
+        MonthlyIndexLocator locator = new MonthlyIndexLocator(64);
+        for (int i = 0; i < 10000; i++) {
+            locator.record("session", "session-" + i, "context-session-date-2020-0" + (i % 9 + 1));
+        }
+        int located = 0;
+        for (int i = 0; i < 10000; i++) {
+            String index = locator.locate("session", "session-" + i);
+            if (index != null) {
+                assertEquals("context-session-date-2020-0" + (i % 9 + 1), index);
+                located++;
+            }
+        }
+        assertTrue(located > 0 && located <= 64);
+        // the most recently recorded item is always located
+        assertEquals("context-session-date-2020-0" + (9999 % 9 + 1), locator.locate("session", "session-9999"));
+    }
+
+    @Test
+    public void testConcurrentRecords() throws InterruptedException {
+        MonthlyIndexLocator locator = new MonthlyIndexLocator(16);
+        AtomicReference<String> mismatch = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    locator.record("session", "session-" + (i % 100), "index-" + (i % 100));
+                    String index = locator.locate("session", "session-" + ((i + thread) % 100));
+                    // an entry is never seen with the index of another item
+                    if (index != null && !index.equals("index-" + ((i + thread) % 100))) {
+                        mismatch.set(index);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(mismatch.get());
+    }
+}
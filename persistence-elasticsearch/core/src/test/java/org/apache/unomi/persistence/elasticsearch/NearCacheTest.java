@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class NearCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        NearCache<String> cache = new NearCache<>(100, 0);
+        assertNull(cache.get("a"));
+        cache.put("a", "valueA");
+        assertEquals("valueA", cache.get("a"));
+        cache.put("a", "newValueA");
+        assertEquals("newValueA", cache.get("a"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testTimeToLive() throws InterruptedException {
+        NearCache<String> cache = new NearCache<>(100, 50);
+        cache.put("a", "valueA");
+        assertEquals("valueA", cache.get("a"));
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        NearCache<String> cache = new NearCache<>(100, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFrequentlyUsedItemsAreKept() {
+        NearCache<String> cache = new NearCache<>(100, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, "value" + i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(cache.get("hot" + i));
+            }
+        }
+        // a scan of items read only once must not flush the popular ones out of the cache
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "value" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertNotNull("hot" + i + " was evicted", cache.get("hot" + i));
+        }
+    }
+}
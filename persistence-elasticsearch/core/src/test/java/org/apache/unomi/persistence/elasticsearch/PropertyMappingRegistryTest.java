@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PropertyMappingRegistryTest {
+
+    private Map<String, Map<String, Object>> createMappings() {
+        Map<String, Object> nameMapping = new HashMap<>();
+        nameMapping.put("type", "text");
+        nameMapping.put("fields", Collections.singletonMap("keyword", Collections.singletonMap("type", "keyword")));
+        Map<String, Object> ageMapping = Collections.singletonMap("type", "long");
+        Map<String, Map<String, Object>> nestedProperties = new HashMap<>();
+        nestedProperties.put("name", nameMapping);
+        nestedProperties.put("age", ageMapping);
+        Map<String, Map<String, Object>> mappings = new HashMap<>();
+        mappings.put("properties", Collections.singletonMap("properties", nestedProperties));
+        return mappings;
+    }
+
+    @Test
+    public void testFlattenedLookups() {
+        PropertyMappingRegistry registry = new PropertyMappingRegistry(itemType -> createMappings(), 60000);
+        assertEquals("long", registry.getPropertyMapping("properties.age", "profile").get("type"));
+        assertEquals("properties.age", registry.getPropertyNameWithData("properties.age", "profile"));
+        assertEquals("properties.name.keyword", registry.getPropertyNameWithData("properties.name", "profile"));
+    }
+
+    @Test
+    public void testMissingPropertiesAreCached() {
+        AtomicInteger loads = new AtomicInteger();
+        PropertyMappingRegistry registry = new PropertyMappingRegistry(itemType -> {
+            loads.incrementAndGet();
+            return createMappings();
+        }, 60000);
+        assertNull(registry.getPropertyMapping("properties.unknown", "profile"));
+        assertNull(registry.getPropertyNameWithData("properties.unknown", "profile"));
+        assertNull(registry.getPropertyMapping("properties.age.unknown", "profile"));
+        assertEquals(1, loads.get());
+
+        registry.invalidate("profile");
+        assertNull(registry.getPropertyMapping("properties.unknown", "profile"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testTimeToLive() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        PropertyMappingRegistry registry = new PropertyMappingRegistry(itemType -> {
+            loads.incrementAndGet();
+            return createMappings();
+        }, 50);
+        registry.getPropertyMapping("properties.age", "profile");
+        Thread.sleep(100);
+        registry.getPropertyMapping("properties.age", "profile");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testFailedLoadsAreNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+        PropertyMappingRegistry registry = new PropertyMappingRegistry(itemType -> {
+            loads.incrementAndGet();
+            return null;
+        }, 60000);
+        assertNull(registry.getPropertyMapping("properties.age", "profile"));
+        assertNull(registry.getPropertyMapping("properties.age", "profile"));
+        assertEquals(2, loads.get());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.elasticsearch.client.indexlifecycle.AllocateAction;
+import org.elasticsearch.client.indexlifecycle.DeleteAction;
+import org.elasticsearch.client.indexlifecycle.ForceMergeAction;
+import org.elasticsearch.client.indexlifecycle.LifecyclePolicy;
+import org.elasticsearch.client.indexlifecycle.RolloverAction;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RolloverIndicesTest {
+
+    @Test
+    public void testHotPhaseOnly() {
+        LifecyclePolicy policy = RolloverIndices.createPolicy("context-session-rollover-policy", "30gb", "", "30d", "", "", "");
+        assertEquals("context-session-rollover-policy", policy.getName());
+        assertEquals(Collections.singleton("hot"), policy.getPhases().keySet());
+        RolloverAction rolloverAction = (RolloverAction) policy.getPhases().get("hot").getActions().get(RolloverAction.NAME);
+        assertEquals(ByteSizeValue.parseBytesSizeValue("30gb", "test"), rolloverAction.getMaxSize());
+        assertEquals(new TimeValue(30, TimeUnit.DAYS), rolloverAction.getMaxAge());
+        assertNull(rolloverAction.getMaxDocs());
+    }
+
+    @Test
+    public void testWarmAndDeletePhases() {
+        LifecyclePolicy policy = RolloverIndices.createPolicy("policy", "", "1000000", "", "7d", "box_type:warm", "90d");
+        assertEquals(3, policy.getPhases().size());
+        assertEquals(Long.valueOf(1000000L), ((RolloverAction) policy.getPhases().get("hot").getActions().get(RolloverAction.NAME)).getMaxDocs());
+        assertEquals(new TimeValue(7, TimeUnit.DAYS), policy.getPhases().get("warm").getMinimumAge());
+        assertEquals(1, ((ForceMergeAction) policy.getPhases().get("warm").getActions().get(ForceMergeAction.NAME)).getMaxNumSegments());
+        AllocateAction allocateAction = (AllocateAction) policy.getPhases().get("warm").getActions().get(AllocateAction.NAME);
+        assertEquals(Collections.singletonMap("box_type", "warm"), allocateAction.getRequire());
+        assertEquals(new TimeValue(90, TimeUnit.DAYS), policy.getPhases().get("delete").getMinimumAge());
+        assertTrue(policy.getPhases().get("delete").getActions().get(DeleteAction.NAME) instanceof DeleteAction);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRolloverConditionRequired() {
+        RolloverIndices.createPolicy("policy", "", "", "", "", "", "");
+    }
+
+    @Test
+    public void testIndicesRolledOverBefore() {
+        Map<String, Long> creationDates = new HashMap<>();
+        creationDates.put("context-session-rollover-000003", 3000L);
+        creationDates.put("context-session-rollover-000001", 1000L);
+        creationDates.put("context-session-rollover-000002", 2000L);
+
+        assertEquals(Collections.emptyList(), RolloverIndices.getIndicesRolledOverBefore(creationDates, new Date(1500L)));
+        assertEquals(Collections.singletonList("context-session-rollover-000001"), RolloverIndices.getIndicesRolledOverBefore(creationDates, new Date(2500L)));
+        // the write index is never purged
+        assertEquals(Arrays.asList("context-session-rollover-000001", "context-session-rollover-000002"),
+                RolloverIndices.getIndicesRolledOverBefore(creationDates, new Date(10000L)));
+    }
+}
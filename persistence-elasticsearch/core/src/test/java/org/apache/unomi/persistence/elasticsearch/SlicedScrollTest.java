@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SlicedScrollTest {
+
+    private final ExecutorService responseExecutor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        responseExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testAllHitsAreReadOnceAcrossSlices() throws Exception {
+        FakeClient client = new FakeClient(3, 20, -1);
+        List<String> ids = new ArrayList<>();
+        long count = SlicedScroll.scrollAll(client, "items", QueryBuilders.matchAllQuery(), 3, 4, TimeValue.timeValueSeconds(10),
+                hit -> ids.add(hit.getId()));
+
+        assertEquals(20, count);
+        assertEquals(20, ids.size());
+        assertEquals(20, new HashSet<>(ids).size());
+        assertEquals(3, client.searches.size());
+        for (SearchRequest searchRequest : client.searches) {
+            assertEquals(4, searchRequest.source().size());
+            assertEquals(3, searchRequest.source().slice().getMax());
+        }
+        assertEquals(client.openedScrollIds(), client.clearedScrollIds);
+    }
+
+    @Test
+    public void testSingleSliceUsesPlainScroll() throws Exception {
+        FakeClient client = new FakeClient(1, 5, -1);
+        List<String> ids = new ArrayList<>();
+        long count = SlicedScroll.scrollAll(client, "items", QueryBuilders.matchAllQuery(), 1, 2, TimeValue.timeValueSeconds(10),
+                hit -> ids.add(hit.getId()));
+
+        assertEquals(5, count);
+        assertEquals(5, ids.size());
+        assertEquals(1, client.searches.size());
+        assertNull(client.searches.get(0).source().slice());
+        assertEquals(client.openedScrollIds(), client.clearedScrollIds);
+    }
+
+    @Test
+    public void testScrollFailureIsThrownAndScrollsCleared() throws Exception {
+        FakeClient client = new FakeClient(2, 20, 1);
+        try {
+            SlicedScroll.scrollAll(client, "items", QueryBuilders.matchAllQuery(), 2, 4, TimeValue.timeValueSeconds(10), hit -> {
+            });
+            fail("The scroll failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("scroll failed", e.getMessage());
+        }
+        assertFalse(client.clearedScrollIds.isEmpty());
+    }
+
+    /**
+     * Serves the hits of each slice page by page, on another thread like the Elasticsearch client. Hits are spread
+     * across the slices by their position.
+     */
+    private class FakeClient implements SlicedScroll.Client {
+        private final int slices;
+        private final int hitCount;
+        private final int failingSlice;
+        private final List<SearchRequest> searches = new CopyOnWriteArrayList<>();
+        private final Set<String> clearedScrollIds = Collections.synchronizedSet(new HashSet<>());
+        private final int[] positions;
+        private int pageSize;
+
+        private FakeClient(int slices, int hitCount, int failingSlice) {
+            this.slices = slices;
+            this.hitCount = hitCount;
+            this.failingSlice = failingSlice;
+            this.positions = new int[slices];
+        }
+
+        @Override
+        public void searchAsync(SearchRequest request, ActionListener<SearchResponse> listener) {
+            searches.add(request);
+            pageSize = request.source().size();
+            SliceBuilder slice = request.source().slice();
+            int sliceId = slice != null ? slice.getId() : 0;
+            responseExecutor.execute(() -> listener.onResponse(nextPage(sliceId)));
+        }
+
+        @Override
+        public void scrollAsync(SearchScrollRequest request, ActionListener<SearchResponse> listener) {
+            int sliceId = Integer.parseInt(request.scrollId().substring("scroll-".length()));
+            if (sliceId == failingSlice) {
+                responseExecutor.execute(() -> listener.onFailure(new IOException("scroll failed")));
+                return;
+            }
+            responseExecutor.execute(() -> listener.onResponse(nextPage(sliceId)));
+        }
+
+        @Override
+        public void clearScroll(ClearScrollRequest request) {
+            clearedScrollIds.addAll(request.getScrollIds());
+        }
+
+        private Set<String> openedScrollIds() {
+            Set<String> scrollIds = new HashSet<>();
+            for (int i = 0; i < slices; i++) {
+                scrollIds.add("scroll-" + i);
+            }
+            return scrollIds;
+        }
+
+        private synchronized SearchResponse nextPage(int sliceId) {
+            List<SearchHit> hits = new ArrayList<>();
+            int position = positions[sliceId];
+            while (hits.size() < pageSize && position * slices + sliceId < hitCount) {
+                hits.add(new SearchHit(position, "item-" + (position * slices + sliceId), new Text("_doc"), Collections.emptyMap()));
+                position++;
+            }
+            positions[sliceId] = position;
+            SearchHits searchHits = new SearchHits(hits.toArray(new SearchHit[0]), new TotalHits(hitCount, TotalHits.Relation.EQUAL_TO), 1f);
+            return new SearchResponse(new InternalSearchResponse(searchHits, null, null, null, false, null, 1),
+                    "scroll-" + sliceId, 1, 1, 0, 1L, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+        }
+    }
+}
@@ -22,9 +22,13 @@ import org.apache.unomi.api.PartialList;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * A service to provide persistence and retrieval of context server entities.
@@ -72,12 +76,27 @@ public interface PersistenceService {
      *
      * @param item the item to persist
      * @param useBatching whether to use batching or not for saving the item. If activating there may be a delay between
-     *                 the call to this method and the actual saving in the persistence backend.
+     *                 the call to this method and the actual saving in the persistence backend. If not, the item is
+     *                 saved right away even if the writes of the current thread are buffered, see {@link #openWriteBuffer()}.
      *
      * @return {@code true} if the item was properly persisted, {@code false} otherwise
      */
     boolean save(Item item, boolean useBatching);
 
+    /**
+     * Persists the specified Items in the context server using a single bulk request. The default implementation saves the items one by one.
+     *
+     * @param items the items to persist
+     * @return a Map with, for each item identifier, {@code true} if the item was properly persisted, {@code false} otherwise
+     */
+    default Map<String, Boolean> saveAll(List<? extends Item> items) {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (Item item : items) {
+            results.put(item.getItemId(), save(item));
+        }
+        return results;
+    }
+
     /**
      * Updates the item of the specified class and identified by the specified identifier with new property values provided as name - value pairs in the specified Map.
      *
@@ -102,6 +121,66 @@ public interface PersistenceService {
      */
     boolean update(String itemId, Date dateHint, Class<?> clazz, String propertyName, Object propertyValue);
 
+    /**
+     * Updates the item of the specified class and identified by the specified identifier with new property values provided as name - value pairs in the specified Map,
+     * only if the item was not modified since it was retrieved with the specified version. This lets a node of a cluster take ownership of an item, such as a job,
+     * without overwriting a concurrent change made by another node.
+     *
+     * @param itemId   the identifier of the item we want to update
+     * @param dateHint a Date helping in identifying where the item is located
+     * @param clazz    the Item subclass of the item to update
+     * @param source   a Map with entries specifying as key the property name to update and as value its new value
+     * @param version  the version of the item when it was retrieved, as returned by {@link Item#getVersion()}
+     * @return {@code true} if the update was successful, {@code false} if the item was modified or removed since it was retrieved, or if the update failed
+     */
+    boolean updateIfUnchanged(String itemId, Date dateHint, Class<?> clazz, Map<?, ?> source, long version);
+
+    /**
+     * Updates several items of the specified class using a single bulk request. Each item is updated with the property values provided as name - value pairs,
+     * as in {@link #update(String, Date, Class, Map)}. The default implementation updates the items one by one.
+     *
+     * @param dateHint a Date helping in identifying where the items are located
+     * @param clazz    the Item subclass of the items to update
+     * @param sources  a Map with entries specifying as key the identifier of an item to update and as value the Map of the properties to update
+     * @return a Map with, for each item identifier, {@code true} if the update was successful, {@code false} otherwise
+     */
+    default Map<String, Boolean> updateAll(Date dateHint, Class<?> clazz, Map<String, ? extends Map<?, ?>> sources) {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Map<?, ?>> source : sources.entrySet()) {
+            results.put(source.getKey(), update(source.getKey(), dateHint, clazz, source.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Starts buffering the writes ({@link #save(Item)} and {@link #update(String, Date, Class, Map)} calls) performed by the current thread, so that they are sent
+     * together in a single bulk request when {@link #flushWriteBuffer()} is called. Loading, removing or updating with a script an item with a pending buffered
+     * write, or updating or removing items by query, flushes the buffer first, so that the current thread always reads its own writes. Calls can be nested, the
+     * writes are only sent when the outermost buffer is flushed.
+     * <p>
+     * A buffered write returns {@code true} as soon as it is buffered, whether it succeeded is only known from the result of {@link #flushWriteBuffer()}.
+     * <p>
+     * While the buffer is open, the items loaded or saved by the current thread are also kept in an identity map, so that loading the same item again returns
+     * the same instance without querying the backend. The changes made to that instance are therefore seen by the later loads of the thread, but they are only
+     * persisted when the item is saved again: a buffered write holds the state of the item when it was saved. The buffer is therefore meant to span a single
+     * logical request. To read an item as persisted, save it with {@link #save(Item, boolean)} without batching, which sends the write right away and drops the
+     * item from the identity map.
+     * <p>
+     * The default implementation doesn't buffer anything, writes are then sent right away.
+     */
+    default void openWriteBuffer() {
+    }
+
+    /**
+     * Sends the writes buffered by the current thread since the matching call to {@link #openWriteBuffer()}. Does nothing if no buffer is open.
+     *
+     * @return a Map with, for each item identifier written while the buffer was open, {@code true} if all its writes were successful, {@code false} otherwise,
+     * empty if no buffer is open or if the buffer is nested in another one that is still open
+     */
+    default Map<String, Boolean> flushWriteBuffer() {
+        return Collections.emptyMap();
+    }
+
     /**
      * Updates the item of the specified class and identified by the specified identifier with a new property value for the specified property name. Same as
      * {@code update(itemId, dateHint, clazz, Collections.singletonMap(propertyName, propertyValue))}
@@ -224,6 +303,18 @@ public interface PersistenceService {
      */
     boolean testMatch(Condition query, Item item);
 
+    /**
+     * Retrieves the condition types of the specified condition tree that cannot be evaluated in memory by {@link #testMatch(Condition, Item)}, which then has to
+     * query the persistence back-end instead. Such a query is slower and only sees the persisted state of the item, so services may use this method to report
+     * the conditions that would be better rewritten. The default implementation reports none.
+     *
+     * @param condition the condition to check, with its condition types resolved
+     * @return the identifiers of the condition types that cannot be evaluated in memory, empty if the whole condition can be evaluated in memory
+     */
+    default Set<String> getNonLocalConditionTypeIds(Condition condition) {
+        return Collections.emptySet();
+    }
+
     /**
      * Same as {@code query(fieldName, fieldValue, sortBy, clazz, 0, -1).getList()}
      *
@@ -373,6 +464,27 @@ public interface PersistenceService {
      */
     <T extends Item> PartialList<T> continueScrollQuery(Class<T> clazz, String scrollIdentifier, String scrollTimeValidity);
 
+    /**
+     * Passes each item satisfying the specified {@link Condition} to the specified consumer, in no particular order, without retrieving all of them in
+     * memory first. This should be preferred to {@link #query(Condition, String, Class)} when all the matching items are processed one by one, such as
+     * for exports or batch updates.
+     *
+     * @param <T>      the type of the Item subclass we want to retrieve
+     * @param query    the {@link Condition} the items must satisfy to be retrieved
+     * @param clazz    the {@link Item} subclass of the items we want to retrieve
+     * @param consumer the consumer called with each matching item, from the calling thread
+     * @return the number of items passed to the consumer, or {@code -1} if the items could not all be retrieved or the consumer failed
+     */
+    default <T extends Item> long forEach(Condition query, Class<T> clazz, Consumer<? super T> consumer) {
+        // implementations that can stream the items should override this method, this one retrieves them all first
+        long count = 0;
+        for (T item : query(query, null, clazz)) {
+            consumer.accept(item);
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Retrieves the same items as {@code query(query, sortBy, clazz, 0, -1)} with the added constraints that the matching elements must also have at least a field matching the
      * specified full text query.
@@ -441,6 +553,30 @@ public interface PersistenceService {
      */
     void refresh();
 
+    /**
+     * Retrieves the change generation of the specified item class. The generation is incremented each time an item of this class is saved, updated or removed,
+     * on any node of the cluster, so that services keeping the items in memory only need to reload them when it changed. Generations are local to each node
+     * and can only be compared with values returned by the same node.
+     *
+     * @param clazz the Item subclass of the items to check
+     * @return the current change generation, or {@code -1} if changes are not tracked for this class, in which case the items must be reloaded periodically
+     */
+    default long getChangeGeneration(Class<? extends Item> clazz) {
+        return -1L;
+    }
+
+    /**
+     * Retrieves the identifiers of the items of the specified class that changed since the given generation, as returned by
+     * {@link #getChangeGeneration(Class)}. The returned items must be loaded again, items that cannot be loaded anymore were removed.
+     *
+     * @param clazz           the Item subclass of the items to check
+     * @param sinceGeneration the generation of the items currently kept in memory
+     * @return the identifiers of the changed items, or {@code null} if they are not known, in which case all the items must be reloaded
+     */
+    default Set<String> getChangedItemIds(Class<? extends Item> clazz, long sinceGeneration) {
+        return null;
+    }
+
     /**
      * Purges all data in the context server up to the specified date, not included.
      *
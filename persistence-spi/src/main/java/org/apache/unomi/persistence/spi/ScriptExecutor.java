@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.spi;
+
+import java.util.Map;
+
+/**
+ * A service compiling and executing the MVEL scripts used in condition and action parameters (<code>script::</code>
+ * values). Compiled scripts are cached so that each script is only compiled once.
+ */
+public interface ScriptExecutor {
+
+    /**
+     * Executes a script, compiling it first if it is not already in the cache.
+     *
+     * @param script  the script to execute
+     * @param context the variables available to the script
+     * @return the result of the script execution
+     */
+    Object execute(String script, Map<String, Object> context);
+
+    /**
+     * Compiles a script and stores it in the cache, so that its first execution doesn't have to wait for the
+     * compilation.
+     *
+     * @param script the script to compile
+     * @throws RuntimeException if the script cannot be compiled
+     */
+    void precompile(String script);
+}
@@ -18,18 +18,24 @@
 package org.apache.unomi.plugins.baseplugin.actions;
 
 import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.actions.Action;
 import org.apache.unomi.api.actions.ActionExecutor;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.persistence.spi.aggregate.DateAggregate;
+import org.apache.unomi.plugins.baseplugin.conditions.PastEventCounters;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class SetEventOccurenceCountAction implements ActionExecutor {
+    private static final String DAY_FORMAT = "yyyy-MM-dd";
+
     private DefinitionsService definitionsService;
 
     private PersistenceService persistenceService;
@@ -45,7 +51,20 @@ public class SetEventOccurenceCountAction implements ActionExecutor {
     @Override
     public int execute(Action action, Event event) {
         final Condition pastEventCondition = (Condition) action.getParameterValues().get("pastEventCondition");
+        final String key = (String) pastEventCondition.getParameter("generatedPropertyKey");
+        final Integer numberOfDays = (Integer) pastEventCondition.getParameter("numberOfDays");
+        final Profile profile = event.getProfile();
+
+        if (!PastEventCounters.hasDailyCounts(profile, key)) {
+            // the counters are only loaded from the stored events the first time, they are then updated in memory
+            PastEventCounters.setDailyCounts(profile, key, numberOfDays, getDailyCountsFromEvents(pastEventCondition, numberOfDays, event));
+        }
+        PastEventCounters.increment(profile, key, numberOfDays, event.getTimeStamp());
 
+        return EventService.PROFILE_UPDATED;
+    }
+
+    private Map<LocalDate, Long> getDailyCountsFromEvents(Condition pastEventCondition, Integer numberOfDays, Event event) {
         Condition andCondition = new Condition(definitionsService.getConditionType("booleanCondition"));
         andCondition.setParameter("operator", "and");
         ArrayList<Condition> conditions = new ArrayList<Condition>();
@@ -60,28 +79,33 @@ public class SetEventOccurenceCountAction implements ActionExecutor {
         c.setParameter("propertyValue", event.getProfileId());
         conditions.add(c);
 
-        if (pastEventCondition.getParameter("numberOfDays") != null) {
-            int i = (Integer) pastEventCondition.getParameter("numberOfDays");
+        // the current event is counted separately, whether it has already been indexed or not
+        Condition currentEventCondition = new Condition(definitionsService.getConditionType("eventPropertyCondition"));
+        currentEventCondition.setParameter("propertyName", "itemId");
+        currentEventCondition.setParameter("comparisonOperator", "notEquals");
+        currentEventCondition.setParameter("propertyValue", event.getItemId());
+        conditions.add(currentEventCondition);
 
+        if (numberOfDays != null) {
             Condition timeCondition = new Condition(definitionsService.getConditionType("eventPropertyCondition"));
             timeCondition.setParameter("propertyName", "timeStamp");
-            timeCondition.setParameter("comparisonOperator", "greaterThan");
-            timeCondition.setParameter("propertyValueDateExpr", "now-" + i + "d");
+            timeCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+            // the daily counters include the whole first day of the window
+            timeCondition.setParameter("propertyValueDateExpr", "now-" + numberOfDays + "d/d");
 
             conditions.add(timeCondition);
         }
 
         andCondition.setParameter("subConditions", conditions);
 
-        long count = persistenceService.queryCount(andCondition, Event.ITEM_TYPE);
-
-        Map<String, Object> pastEvents = (Map<String, Object>) event.getProfile().getSystemProperties().get("pastEvents");
-        if (pastEvents == null) {
-            pastEvents = new LinkedHashMap<>();
-            event.getProfile().getSystemProperties().put("pastEvents", pastEvents);
+        Map<String, Long> eventCountsByDay = persistenceService.aggregateWithOptimizedQuery(andCondition, new DateAggregate("timeStamp", "1d", DAY_FORMAT), Event.ITEM_TYPE);
+        Map<LocalDate, Long> dailyCounts = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : eventCountsByDay.entrySet()) {
+            // skip the special keys such as _filtered
+            if (!entry.getKey().startsWith("_") && entry.getValue() > 0) {
+                dailyCounts.put(LocalDate.parse(entry.getKey()), entry.getValue());
+            }
         }
-        pastEvents.put((String) pastEventCondition.getParameter("generatedPropertyKey"), count + 1);
-
-        return EventService.PROFILE_UPDATED;
+        return dailyCounts;
     }
 }
@@ -20,7 +20,8 @@ package org.apache.unomi.plugins.baseplugin.conditions;
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.conditions.Condition;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompilableConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 import org.elasticsearch.common.geo.GeoDistance;
 import org.elasticsearch.common.unit.DistanceUnit;
@@ -29,7 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 
-public class GeoLocationByPointSessionConditionEvaluator implements ConditionEvaluator {
+public class GeoLocationByPointSessionConditionEvaluator implements CompilableConditionEvaluator {
 
     private static final Logger logger = LoggerFactory.getLogger(GeoLocationByPointSessionConditionEvaluator.class.getName());
 
@@ -66,5 +67,47 @@ public class GeoLocationByPointSessionConditionEvaluator implements ConditionEva
         return false;
     }
 
-
+    @Override
+    public CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        String type = (String) condition.getParameter("type");
+        if ("circle".equals(type)) {
+            final Double circleLatitude = (Double) condition.getParameter("circleLatitude");
+            final Double circleLongitude = (Double) condition.getParameter("circleLongitude");
+            final DistanceUnit.Distance distance = DistanceUnit.Distance.parseDistance(condition.getParameter("distance").toString());
+            return item -> {
+                try {
+                    double latitudeProperty = Double.parseDouble(BeanUtils.getProperty(item, "properties.location.lat"));
+                    double longitudeProperty = Double.parseDouble(BeanUtils.getProperty(item, "properties.location.lon"));
+                    double d = GeoDistance.PLANE.calculate(circleLatitude, circleLongitude, latitudeProperty, longitudeProperty, distance.unit);
+                    return d < distance.value;
+                } catch (Exception e) {
+                    logger.debug("Cannot get properties", e);
+                }
+                return false;
+            };
+        } else if ("rectangle".equals(type)) {
+            Double rectLatitudeNE = (Double) condition.getParameter("rectLatitudeNE");
+            Double rectLongitudeNE = (Double) condition.getParameter("rectLongitudeNE");
+            Double rectLatitudeSW = (Double) condition.getParameter("rectLatitudeSW");
+            Double rectLongitudeSW = (Double) condition.getParameter("rectLongitudeSW");
+            if (rectLatitudeNE != null && rectLongitudeNE != null && rectLatitudeSW != null && rectLongitudeSW != null) {
+                final double maxLatitude = Math.max(rectLatitudeNE, rectLatitudeSW);
+                final double minLatitude = Math.min(rectLatitudeNE, rectLatitudeSW);
+                final double maxLongitude = Math.max(rectLongitudeNE, rectLongitudeSW);
+                final double minLongitude = Math.min(rectLongitudeNE, rectLongitudeSW);
+                return item -> {
+                    try {
+                        double latitudeProperty = Double.parseDouble(BeanUtils.getProperty(item, "properties.location.lat"));
+                        double longitudeProperty = Double.parseDouble(BeanUtils.getProperty(item, "properties.location.lon"));
+                        return latitudeProperty < maxLatitude && latitudeProperty > minLatitude &&
+                                longitudeProperty < maxLongitude && longitudeProperty > minLongitude;
+                    } catch (Exception e) {
+                        logger.debug("Cannot get properties", e);
+                    }
+                    return false;
+                };
+            }
+        }
+        return CompiledCondition.FALSE;
+    }
 }
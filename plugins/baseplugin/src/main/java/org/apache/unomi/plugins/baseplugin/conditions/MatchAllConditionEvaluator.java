@@ -19,15 +19,21 @@ package org.apache.unomi.plugins.baseplugin.conditions;
 
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.conditions.Condition;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompilableConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 
 import java.util.Map;
 
-public class MatchAllConditionEvaluator implements ConditionEvaluator {
+public class MatchAllConditionEvaluator implements CompilableConditionEvaluator {
 
     @Override
     public boolean eval(Condition condition, Item item, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
         return true;
     }
+
+    @Override
+    public CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        return CompiledCondition.TRUE;
+    }
 }
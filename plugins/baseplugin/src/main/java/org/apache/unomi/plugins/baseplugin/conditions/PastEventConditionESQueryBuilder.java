@@ -182,8 +182,9 @@ public class PastEventConditionESQueryBuilder implements ConditionESQueryBuilder
             Condition numberOfDaysCondition = new Condition();
             numberOfDaysCondition.setConditionType(definitionsService.getConditionType("sessionPropertyCondition"));
             numberOfDaysCondition.setParameter("propertyName", "timeStamp");
-            numberOfDaysCondition.setParameter("comparisonOperator", "greaterThan");
-            numberOfDaysCondition.setParameter("propertyValueDateExpr", "now-" + numberOfDays + "d");
+            numberOfDaysCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+            // the window starts at the beginning of its first UTC day, like the daily counters of the profiles
+            numberOfDaysCondition.setParameter("propertyValueDateExpr", "now-" + numberOfDays + "d/d");
             l.add(numberOfDaysCondition);
         }
         return andCondition;
@@ -22,16 +22,18 @@ import org.apache.unomi.api.Item;
 import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.services.DefinitionsService;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompilableConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHelper;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 import org.apache.unomi.persistence.spi.PersistenceService;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class PastEventConditionEvaluator implements ConditionEvaluator {
+public class PastEventConditionEvaluator implements CompilableConditionEvaluator {
 
     private PersistenceService persistenceService;
 
@@ -55,16 +57,7 @@ public class PastEventConditionEvaluator implements ConditionEvaluator {
         long count;
 
         if (parameters.containsKey("generatedPropertyKey")) {
-            String key = (String) parameters.get("generatedPropertyKey");
-            Profile profile = (Profile) item;
-            Map<String,Object> pastEvents = (Map<String, Object>) profile.getSystemProperties().get("pastEvents");
-            if (pastEvents != null) {
-                Number l = (Number) pastEvents.get(key);
-                count = l != null ? l.longValue() : 0L;
-            } else {
-                count = 0;
-            }
-
+            count = getGeneratedPropertyCount(item, (String) parameters.get("generatedPropertyKey"), (Integer) parameters.get("numberOfDays"));
         } else {
             if (eventCondition == null) {
                 throw new IllegalArgumentException("No eventCondition");
@@ -90,8 +83,9 @@ public class PastEventConditionEvaluator implements ConditionEvaluator {
                 Condition numberOfDaysCondition = new Condition();
                 numberOfDaysCondition.setConditionType(definitionsService.getConditionType("sessionPropertyCondition"));
                 numberOfDaysCondition.setParameter("propertyName", "timeStamp");
-                numberOfDaysCondition.setParameter("comparisonOperator", "greaterThan");
-                numberOfDaysCondition.setParameter("propertyValueDateExpr", "now-" + numberOfDays + "d");
+                numberOfDaysCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+                // the window starts at the beginning of its first UTC day, like the daily counters of the profiles
+                numberOfDaysCondition.setParameter("propertyValueDateExpr", "now-" + numberOfDays + "d/d");
                 l.add(numberOfDaysCondition);
             }
             count = persistenceService.queryCount(andCondition, Event.ITEM_TYPE);
@@ -102,4 +96,37 @@ public class PastEventConditionEvaluator implements ConditionEvaluator {
 
         return count > 0 && (count >= minimumEventCount && count <= maximumEventCount);
     }
+
+    @Override
+    public CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        final Map<String, Object> parameters = condition.getParameterValues();
+        if (!parameters.containsKey("generatedPropertyKey")) {
+            // counting the events requires a query, there is nothing to precompute
+            return item -> eval(condition, item, new HashMap<>(context), dispatcher);
+        }
+
+        final String key = (String) parameters.get("generatedPropertyKey");
+        final Integer numberOfDays = (Integer) parameters.get("numberOfDays");
+        final int minimumEventCount = parameters.get("minimumEventCount") == null  ? 0 : (Integer) parameters.get("minimumEventCount");
+        final int maximumEventCount = parameters.get("maximumEventCount") == null  ? Integer.MAX_VALUE : (Integer) parameters.get("maximumEventCount");
+        return item -> {
+            long count = getGeneratedPropertyCount(item, key, numberOfDays);
+            return count > 0 && (count >= minimumEventCount && count <= maximumEventCount);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private long getGeneratedPropertyCount(Item item, String key, Integer numberOfDays) {
+        Profile profile = (Profile) item;
+        if (PastEventCounters.hasDailyCounts(profile, key)) {
+            // the daily counters give an up to date count for the window, even if no event was received recently
+            return PastEventCounters.getCount(profile, key, numberOfDays);
+        }
+        Map<String,Object> pastEvents = (Map<String, Object>) profile.getSystemProperties().get(PastEventCounters.PAST_EVENTS);
+        if (pastEvents != null) {
+            Number l = (Number) pastEvents.get(key);
+            return l != null ? l.longValue() : 0L;
+        }
+        return 0;
+    }
 }
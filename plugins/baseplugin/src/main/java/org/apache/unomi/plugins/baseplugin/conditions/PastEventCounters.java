@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.Profile;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Helper maintaining the past event counters of a profile. For each generated property key, the number of matching
+ * events is stored per day in the <code>pastEventDailyCounts</code> system property, so that the count over a
+ * <code>numberOfDays</code> window can be computed in memory. The total over the window is also copied in the
+ * <code>pastEvents</code> system property, which is the one used to query profiles.
+ *
+ * Days are UTC days, stored as a number of days since the epoch, and a window always includes its whole first day, as
+ * do the queries of the past event conditions, the backfill of the counters and their daily recalculation.
+ * When the past event condition doesn't define a number of days, all the events are counted in a single bucket.
+ * <p>
+ * The daily recalculation of the past event conditions and the purge of the events invalidate the daily counters, which
+ * are then rebuilt from the remaining events on the next matching event of the profile.
+ */
+public final class PastEventCounters {
+
+    public static final String PAST_EVENTS = "pastEvents";
+    public static final String PAST_EVENT_DAILY_COUNTS = "pastEventDailyCounts";
+
+    private static final String DAY = "day";
+    private static final String COUNT = "count";
+    private static final long ALL_DAYS = 0L;
+
+    private PastEventCounters() {
+    }
+
+    /**
+     * Checks if the daily counters of a past event condition have already been initialized for a profile.
+     *
+     * @param profile the profile
+     * @param key     the generated property key of the past event condition
+     * @return true if the profile has daily counters for this key
+     */
+    public static boolean hasDailyCounts(Profile profile, String key) {
+        Map<String, Object> dailyCounts = getDailyCountsByKey(profile, false);
+        return dailyCounts != null && dailyCounts.get(key) != null;
+    }
+
+    /**
+     * Computes the number of events counted for a past event condition from the daily counters of a profile.
+     *
+     * @param profile      the profile
+     * @param key          the generated property key of the past event condition
+     * @param numberOfDays the number of days to count events for, or null to count all the events
+     * @return the number of events
+     */
+    public static long getCount(Profile profile, String key, Integer numberOfDays) {
+        List<Map<String, Object>> buckets = getBuckets(profile, key, false);
+        if (buckets == null) {
+            return 0L;
+        }
+        long firstDay = getFirstDay(numberOfDays);
+        long count = 0L;
+        for (Map<String, Object> bucket : buckets) {
+            if (((Number) bucket.get(DAY)).longValue() >= firstDay) {
+                count += ((Number) bucket.get(COUNT)).longValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Initializes the daily counters of a past event condition, typically from a date histogram of the events
+     * already stored.
+     *
+     * @param profile      the profile
+     * @param key          the generated property key of the past event condition
+     * @param numberOfDays the number of days of the past event condition, or null if all the events are counted
+     * @param countsByDay  the number of events for each day
+     */
+    public static void setDailyCounts(Profile profile, String key, Integer numberOfDays, Map<LocalDate, Long> countsByDay) {
+        List<Map<String, Object>> buckets = getBuckets(profile, key, true);
+        buckets.clear();
+        for (Map.Entry<LocalDate, Long> entry : countsByDay.entrySet()) {
+            addToBucket(buckets, numberOfDays == null ? ALL_DAYS : entry.getKey().toEpochDay(), entry.getValue());
+        }
+        updateCount(profile, key, numberOfDays, buckets);
+    }
+
+    /**
+     * Counts a new event for a past event condition, and removes the days that are not in the condition window
+     * anymore.
+     *
+     * @param profile      the profile
+     * @param key          the generated property key of the past event condition
+     * @param numberOfDays the number of days of the past event condition, or null if all the events are counted
+     * @param eventDate    the date of the event
+     */
+    public static void increment(Profile profile, String key, Integer numberOfDays, Date eventDate) {
+        List<Map<String, Object>> buckets = getBuckets(profile, key, true);
+        long day = numberOfDays == null ? ALL_DAYS : getDay(eventDate != null ? eventDate.toInstant() : Instant.now());
+        addToBucket(buckets, day, 1L);
+        updateCount(profile, key, numberOfDays, buckets);
+    }
+
+    private static void updateCount(Profile profile, String key, Integer numberOfDays, List<Map<String, Object>> buckets) {
+        long firstDay = getFirstDay(numberOfDays);
+        buckets.removeIf(bucket -> ((Number) bucket.get(DAY)).longValue() < firstDay);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> pastEvents = (Map<String, Object>) profile.getSystemProperties().get(PAST_EVENTS);
+        if (pastEvents == null) {
+            pastEvents = new LinkedHashMap<>();
+            profile.getSystemProperties().put(PAST_EVENTS, pastEvents);
+        }
+        pastEvents.put(key, getCount(profile, key, numberOfDays));
+    }
+
+    private static void addToBucket(List<Map<String, Object>> buckets, long day, long count) {
+        for (Map<String, Object> bucket : buckets) {
+            if (((Number) bucket.get(DAY)).longValue() == day) {
+                bucket.put(COUNT, ((Number) bucket.get(COUNT)).longValue() + count);
+                return;
+            }
+        }
+        Map<String, Object> bucket = new LinkedHashMap<>();
+        bucket.put(DAY, day);
+        bucket.put(COUNT, count);
+        buckets.add(bucket);
+    }
+
+    private static long getFirstDay(Integer numberOfDays) {
+        return numberOfDays == null ? ALL_DAYS : getDay(Instant.now()) - numberOfDays;
+    }
+
+    private static long getDay(Instant instant) {
+        return instant.atZone(ZoneOffset.UTC).toLocalDate().toEpochDay();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getBuckets(Profile profile, String key, boolean create) {
+        Map<String, Object> dailyCounts = getDailyCountsByKey(profile, create);
+        if (dailyCounts == null) {
+            return null;
+        }
+        List<Map<String, Object>> buckets = (List<Map<String, Object>>) dailyCounts.get(key);
+        if (buckets == null && create) {
+            buckets = new ArrayList<>();
+            dailyCounts.put(key, buckets);
+        }
+        return buckets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getDailyCountsByKey(Profile profile, boolean create) {
+        Map<String, Object> dailyCounts = (Map<String, Object>) profile.getSystemProperties().get(PAST_EVENT_DAILY_COUNTS);
+        if (dailyCounts == null && create) {
+            dailyCounts = new LinkedHashMap<>();
+            profile.getSystemProperties().put(PAST_EVENT_DAILY_COUNTS, dailyCounts);
+        }
+        return dailyCounts;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.*;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pre-resolved accessor for a simple dotted property path such as <code>properties.address.city</code> or
+ * <code>target.properties.pageInfo.pagePath</code>. The path is split once when the accessor is built, and each
+ * segment is then resolved directly against maps, well-known item getters or cached bean getters, so evaluating it
+ * doesn't allocate nor go through OGNL.
+ * <p>
+ * The getters are cached by a {@link Resolver}, owned by the evaluator using the accessors, so that they are released
+ * with it when its bundle stops rather than holding on to the classes of other bundles.
+ */
+final class PropertyAccessor {
+
+    /**
+     * Returned by {@link #getValue(Object)} when a segment of the path is not a property of the object it is resolved
+     * against, in which case the expression must be evaluated with OGNL, that reports the error.
+     */
+    static final Object UNRESOLVED = new Object();
+
+    private static final String EXPRESSION_CHARACTERS = "()[]{}#@'\",;=!?:+*/<>&|^~%";
+
+    private static final Getter MISSING_GETTER = target -> UNRESOLVED;
+
+    private final Resolver resolver;
+    private final Getter rootGetter;
+    private final boolean wellKnownRoot;
+    private final String[] path;
+
+    private PropertyAccessor(Resolver resolver, Getter rootGetter, boolean wellKnownRoot, String[] path) {
+        this.resolver = resolver;
+        this.rootGetter = rootGetter;
+        this.wellKnownRoot = wellKnownRoot;
+        this.path = path;
+    }
+
+    /**
+     * @return <code>true</code> if the first segment of the path is resolved with one of the well-known item getters
+     * rather than through reflection
+     */
+    boolean isWellKnownRoot() {
+        return wellKnownRoot;
+    }
+
+    /**
+     * @param item the item to get the value from
+     * @return the value of the property, or {@link #UNRESOLVED} if a segment of the path is not a property
+     * @throws Exception if a getter fails
+     */
+    Object getValue(Object item) throws Exception {
+        Object current = rootGetter.get(item);
+        for (String segment : path) {
+            if (current == null) {
+                return null;
+            }
+            if (current instanceof Map) {
+                current = ((Map<?, ?>) current).get(segment);
+            } else {
+                current = resolver.getGetter(current.getClass(), segment).get(current);
+                if (current == UNRESOLVED) {
+                    return UNRESOLVED;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static String[] split(String expression) {
+        if (expression == null || expression.isEmpty() || !Character.isJavaIdentifierStart(expression.charAt(0))) {
+            return null;
+        }
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c) || EXPRESSION_CHARACTERS.indexOf(c) >= 0) {
+                return null;
+            }
+        }
+        String[] segments = expression.split("\\.", -1);
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Builds the accessors and caches the getters they use, per class.
+     */
+    static final class Resolver {
+
+        private final ConcurrentMap<Class<?>, Map<String, Getter>> wellKnownGetters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Class<?>, ConcurrentMap<String, Getter>> beanGetters = new ConcurrentHashMap<>();
+
+        /**
+         * Builds the accessor for an expression evaluated against items of the given class.
+         *
+         * @param itemClass  the class of the items the expression will be evaluated against
+         * @param expression the property expression
+         * @return the accessor, or <code>null</code> if the expression is not a simple property path or if its first
+         * segment cannot be resolved on the item class, in which case it must be evaluated as an OGNL expression
+         */
+        PropertyAccessor build(Class<?> itemClass, String expression) {
+            String[] segments = split(expression);
+            if (segments == null) {
+                return null;
+            }
+            Getter rootGetter = getWellKnownGetters(itemClass).get(segments[0]);
+            boolean wellKnownRoot = rootGetter != null;
+            if (!wellKnownRoot) {
+                rootGetter = getBeanGetter(itemClass, segments[0]);
+                if (rootGetter == MISSING_GETTER) {
+                    return null;
+                }
+            }
+            String[] path = new String[segments.length - 1];
+            System.arraycopy(segments, 1, path, 0, path.length);
+            return new PropertyAccessor(this, rootGetter, wellKnownRoot, path);
+        }
+
+        private Getter getGetter(Class<?> clazz, String name) {
+            Getter getter = getWellKnownGetters(clazz).get(name);
+            return getter != null ? getter : getBeanGetter(clazz, name);
+        }
+
+        private Map<String, Getter> getWellKnownGetters(Class<?> clazz) {
+            Map<String, Getter> getters = wellKnownGetters.get(clazz);
+            if (getters == null) {
+                getters = wellKnownGetters.computeIfAbsent(clazz, PropertyAccessor::resolveWellKnownGetters);
+            }
+            return getters;
+        }
+
+        private Getter getBeanGetter(Class<?> clazz, String name) {
+            ConcurrentMap<String, Getter> getters = beanGetters.get(clazz);
+            if (getters == null) {
+                getters = beanGetters.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>());
+            }
+            Getter getter = getters.get(name);
+            if (getter == null) {
+                getter = getters.computeIfAbsent(name, n -> resolveBeanGetter(clazz, n));
+            }
+            return getter;
+        }
+    }
+
+    private static Map<String, Getter> resolveWellKnownGetters(Class<?> clazz) {
+        // the most used item properties are accessed directly, the other ones go through reflection
+        Map<String, Getter> getters = new HashMap<>();
+        if (Item.class.isAssignableFrom(clazz)) {
+            getters.put("itemId", target -> ((Item) target).getItemId());
+            getters.put("scope", target -> ((Item) target).getScope());
+        }
+        if (Event.class.isAssignableFrom(clazz)) {
+            getters.put("eventType", target -> ((Event) target).getEventType());
+            getters.put("properties", target -> ((Event) target).getProperties());
+            getters.put("target", target -> ((Event) target).getTarget());
+            getters.put("source", target -> ((Event) target).getSource());
+            getters.put("profileId", target -> ((Event) target).getProfileId());
+            getters.put("sessionId", target -> ((Event) target).getSessionId());
+            getters.put("profile", target -> ((Event) target).getProfile());
+            getters.put("session", target -> ((Event) target).getSession());
+            getters.put("timeStamp", target -> ((Event) target).getTimeStamp());
+        } else if (Session.class.isAssignableFrom(clazz)) {
+            getters.put("properties", target -> ((Session) target).getProperties());
+            getters.put("systemProperties", target -> ((Session) target).getSystemProperties());
+            getters.put("profileId", target -> ((Session) target).getProfileId());
+            getters.put("profile", target -> ((Session) target).getProfile());
+            getters.put("timeStamp", target -> ((Session) target).getTimeStamp());
+            getters.put("duration", target -> ((Session) target).getDuration());
+            getters.put("size", target -> ((Session) target).getSize());
+        } else if (Profile.class.isAssignableFrom(clazz)) {
+            getters.put("properties", target -> ((Profile) target).getProperties());
+            getters.put("systemProperties", target -> ((Profile) target).getSystemProperties());
+            getters.put("scores", target -> ((Profile) target).getScores());
+            getters.put("segments", target -> ((Profile) target).getSegments());
+            getters.put("consents", target -> ((Profile) target).getConsents());
+        } else if (CustomItem.class.isAssignableFrom(clazz)) {
+            getters.put("properties", target -> ((CustomItem) target).getProperties());
+        }
+        return getters;
+    }
+
+    private static Getter resolveBeanGetter(Class<?> clazz, String name) {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+            for (PropertyDescriptor propertyDescriptor : beanInfo.getPropertyDescriptors()) {
+                Method readMethod = propertyDescriptor.getReadMethod();
+                if (propertyDescriptor.getName().equals(name) && readMethod != null) {
+                    readMethod.setAccessible(true);
+                    return readMethod::invoke;
+                }
+            }
+        } catch (IntrospectionException | SecurityException e) {
+            // handled as a missing property
+        }
+        return MISSING_GETTER;
+    }
+
+    private interface Getter {
+        Object get(Object target) throws Exception;
+    }
+}
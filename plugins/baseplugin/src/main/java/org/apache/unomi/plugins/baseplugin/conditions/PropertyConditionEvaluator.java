@@ -26,8 +26,9 @@ import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.*;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompilableConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHelper;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 import org.apache.unomi.persistence.spi.PropertyHelper;
 import org.elasticsearch.ElasticsearchParseException;
@@ -36,29 +37,34 @@ import org.elasticsearch.common.joda.JodaDateMathParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
  * Evaluator for property comparison conditions
  */
-public class PropertyConditionEvaluator implements ConditionEvaluator {
+public class PropertyConditionEvaluator implements CompilableConditionEvaluator {
 
     private static final Logger logger = LoggerFactory.getLogger(PropertyConditionEvaluator.class.getName());
 
-    private static final SimpleDateFormat yearMonthDayDateFormat = new SimpleDateFormat("yyyyMMdd");
+    private static final DateTimeFormatter yearMonthDayDateFormat = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
+    private static final JodaDateMathParser dateMathParser = new JodaDateMathParser(Joda.forPattern("strictDateOptionalTime||epoch_millis"));
     public static final String NOT_OPTIMIZED_MARKER = "$$$###NOT_OPTIMIZED###$$$";
 
-    private Map<String, Map<String, ExpressionAccessor>> expressionCache = new HashMap<>(64);
+    private final Map<String, Map<String, ExpressionAccessor>> expressionCache = new ConcurrentHashMap<>(64);
+    private final Map<Class<?>, Map<String, Optional<PropertyAccessor>>> propertyAccessorCache = new ConcurrentHashMap<>(64);
+    private final PropertyAccessor.Resolver propertyAccessorResolver = new PropertyAccessor.Resolver();
     private boolean usePropertyConditionOptimizations = true;
 
     public void setUsePropertyConditionOptimizations(boolean usePropertyConditionOptimizations) {
         this.usePropertyConditionOptimizations = usePropertyConditionOptimizations;
     }
 
-    private int compare(Object actualValue, String expectedValue, Object expectedValueDate, Object expectedValueInteger, Object expectedValueDateExpr) {
-        if (expectedValue == null && expectedValueDate == null && expectedValueInteger == null && getDate(expectedValueDateExpr) == null) {
+    private int compare(Object actualValue, String expectedValue, Date expectedValueDate, Object expectedValueInteger) {
+        if (expectedValue == null && expectedValueDate == null && expectedValueInteger == null) {
             return actualValue == null ? 0 : 1;
         } else if (actualValue == null) {
             return -1;
@@ -67,17 +73,13 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         if (expectedValueInteger != null) {
             return PropertyHelper.getInteger(actualValue).compareTo(PropertyHelper.getInteger(expectedValueInteger));
         } else if (expectedValueDate != null) {
-            return getDate(actualValue).compareTo(getDate(expectedValueDate));
-        } else if (expectedValueDateExpr != null) {
-            return getDate(actualValue).compareTo(getDate(expectedValueDateExpr));
+            return getDate(actualValue).compareTo(expectedValueDate);
         } else {
             return actualValue.toString().compareTo(expectedValue);
         }
     }
 
-    private boolean compareMultivalue(Object actualValue, List<?> expectedValues, List<?> expectedValuesDate, List<?> expectedValuesNumber, List<?> expectedValuesDateExpr, String op) {
-        @SuppressWarnings("unchecked")
-        List<?> expected = ObjectUtils.firstNonNull(expectedValues, expectedValuesDate, expectedValuesNumber);
+    private boolean compareMultivalue(Object actualValue, List<?> expected, Set<?> expectedSet, String op) {
         if (actualValue == null) {
             return expected == null;
         } else if (expected == null) {
@@ -92,7 +94,7 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
             case "in":
                 result = false;
                 for (Object a : actual) {
-                    if (expected.contains(a)) {
+                    if (expectedSet.contains(a)) {
                         result = true;
                         break;
                     }
@@ -110,7 +112,7 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
                 break;
             case "notIn":
                 for (Object a : actual) {
-                    if (expected.contains(a)) {
+                    if (expectedSet.contains(a)) {
                         result = false;
                         break;
                     }
@@ -125,12 +127,12 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
                 }
                 break;
             case "hasNoneOf":
-                if (!Collections.disjoint(actual, expected)) {
+                if (!Collections.disjoint(actual, expectedSet)) {
                     return false;
                 }
                 break;
             case "hasSomeOf":
-                if (Collections.disjoint(actual, expected)) {
+                if (Collections.disjoint(actual, expectedSet)) {
                     return false;
                 }
                 break;
@@ -150,36 +152,12 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         String expectedValue = ConditionContextHelper.foldToASCII((String) condition.getParameter("propertyValue"));
         Object expectedValueInteger = condition.getParameter("propertyValueInteger");
         Object expectedValueDate = condition.getParameter("propertyValueDate");
-        Object expectedValueDateExpr = condition.getParameter("propertyValueDateExpr");
-
-        Object actualValue;
-        if (item instanceof Event && "eventType".equals(name)) {
-            actualValue = ((Event) item).getEventType();
-        } else {
-            try {
-                long time = System.nanoTime();
-                //actualValue = beanUtilsBean.getPropertyUtils().getProperty(item, name);
-                actualValue = getPropertyValue(item, name);
-                time = System.nanoTime() - time;
-                if (time > 5000000L) {
-                    logger.info("eval took {} ms for {} {}", time / 1000000L, item.getClass().getName(), name);
-                }
-            } catch (NullPointerException e) {
-                // property not found
-                actualValue = null;
-            } catch (Exception e) {
-                if (!(e instanceof OgnlException)
-                        || (!StringUtils.startsWith(e.getMessage(),
-                        "source is null for getProperty(null"))) {
-                    logger.warn("Error evaluating value for " + item.getClass().getName() + " " + name, e);
-                }
-                actualValue = null;
-            }
-        }
-        if (actualValue instanceof String) {
-            actualValue = ConditionContextHelper.foldToASCII((String) actualValue);
+        if (expectedValueDate == null) {
+            expectedValueDate = condition.getParameter("propertyValueDateExpr");
         }
 
+        Object actualValue = getActualValue(item, name);
+
         if (op == null) {
             return false;
         } else if (actualValue == null) {
@@ -187,41 +165,36 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         } else if (op.equals("exists")) {
             return true;
         } else if (op.equals("equals")) {
+            Date expectedDate = getDate(expectedValueDate);
             if (actualValue instanceof Collection) {
                 for (Object o : ((Collection<?>) actualValue)) {
                     if (o instanceof String) {
                         o = ConditionContextHelper.foldToASCII((String) o);
                     }
-                    if (compare(o, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) == 0) {
+                    if (compare(o, expectedValue, expectedDate, expectedValueInteger) == 0) {
                         return true;
                     }
                 }
                 return false;
             }
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) == 0;
+            return compare(actualValue, expectedValue, expectedDate, expectedValueInteger) == 0;
         } else if (op.equals("notEquals")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) != 0;
+            return compare(actualValue, expectedValue, getDate(expectedValueDate), expectedValueInteger) != 0;
         } else if (op.equals("greaterThan")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) > 0;
+            return compare(actualValue, expectedValue, getDate(expectedValueDate), expectedValueInteger) > 0;
         } else if (op.equals("greaterThanOrEqualTo")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) >= 0;
+            return compare(actualValue, expectedValue, getDate(expectedValueDate), expectedValueInteger) >= 0;
         } else if (op.equals("lessThan")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) < 0;
+            return compare(actualValue, expectedValue, getDate(expectedValueDate), expectedValueInteger) < 0;
         } else if (op.equals("lessThanOrEqualTo")) {
-            return compare(actualValue, expectedValue, expectedValueDate, expectedValueInteger, expectedValueDateExpr) <= 0;
+            return compare(actualValue, expectedValue, getDate(expectedValueDate), expectedValueInteger) <= 0;
         } else if (op.equals("between")) {
             List<?> expectedValuesInteger = (List<?>) condition.getParameter("propertyValuesInteger");
             List<?> expectedValuesDate = (List<?>) condition.getParameter("propertyValuesDate");
             List<?> expectedValuesDateExpr = (List<?>) condition.getParameter("propertyValuesDateExpr");
-            return compare(actualValue, null,
-                    (expectedValuesDate != null && expectedValuesDate.size() >= 1) ? getDate(expectedValuesDate.get(0)) : null,
-                    (expectedValuesInteger != null && expectedValuesInteger.size() >= 1) ? (Integer) expectedValuesInteger.get(0) : null,
-                    (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 1) ? (String) expectedValuesDateExpr.get(0) : null) >= 0
+            return compare(actualValue, null, getDate(getBound(expectedValuesDate, expectedValuesDateExpr, 0)), getBound(expectedValuesInteger, null, 0)) >= 0
                     &&
-                    compare(actualValue, null,
-                            (expectedValuesDate != null && expectedValuesDate.size() >= 2) ? getDate(expectedValuesDate.get(1)) : null,
-                            (expectedValuesInteger != null && expectedValuesInteger.size() >= 2) ? (Integer) expectedValuesInteger.get(1) : null,
-                            (expectedValuesDateExpr != null && expectedValuesDateExpr.size() >= 2) ? (String) expectedValuesDateExpr.get(1) : null) <= 0;
+                    compare(actualValue, null, getDate(getBound(expectedValuesDate, expectedValuesDateExpr, 1)), getBound(expectedValuesInteger, null, 1)) <= 0;
         } else if (op.equals("contains")) {
             return actualValue.toString().contains(expectedValue);
         } else if (op.equals("notContains")) {
@@ -233,93 +206,243 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         } else if (op.equals("matchesRegex")) {
             return expectedValue != null && Pattern.compile(expectedValue).matcher(actualValue.toString()).matches();
         } else if (op.equals("in") || op.equals("inContains") || op.equals("notIn") || op.equals("hasSomeOf") || op.equals("hasNoneOf") || op.equals("all")) {
-            List<?> expectedValues = ConditionContextHelper.foldToASCII((List<?>) condition.getParameter("propertyValues"));
+            List<?> propertyValues = (List<?>) condition.getParameter("propertyValues");
+            List<?> expectedValues = ObjectUtils.firstNonNull(ConditionContextHelper.foldToASCII(propertyValues),
+                    (List<?>) condition.getParameter("propertyValuesDate"), (List<?>) condition.getParameter("propertyValuesInteger"));
+            return compareMultivalue(actualValue, expectedValues, expectedValues != null ? new HashSet<>(expectedValues) : null, op);
+        } else if ((op.equals("isDay") || op.equals("isNotDay")) && expectedValueDate != null) {
+            Date expectedDate = getDate(expectedValueDate);
+            if (expectedDate == null) {
+                return false;
+            }
+            boolean sameDay = yearMonthDayDateFormat.format(getDate(actualValue).toInstant()).equals(yearMonthDayDateFormat.format(expectedDate.toInstant()));
+            return op.equals("isDay") == sameDay;
+        }
+
+        return false;
+    }
+
+    @Override
+    public CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        return new CompiledPropertyCondition(condition);
+    }
+
+    /**
+     * A property condition with its expected values folded, converted and indexed once, when the condition is
+     * compiled.
+     */
+    private class CompiledPropertyCondition implements CompiledCondition {
+
+        private final String op;
+        private final String name;
+        private final String expectedValue;
+        private final Object expectedValueInteger;
+        private final DateExpression expectedValueDate;
+        private final Pattern expectedPattern;
+
+        private final List<?> expectedValues;
+        private final Set<?> expectedValuesSet;
+        private final Object lowerBoundInteger;
+        private final Object upperBoundInteger;
+        private final DateExpression lowerBoundDate;
+        private final DateExpression upperBoundDate;
+
+        CompiledPropertyCondition(Condition condition) {
+            op = (String) condition.getParameter("comparisonOperator");
+            name = (String) condition.getParameter("propertyName");
+
+            expectedValue = ConditionContextHelper.foldToASCII((String) condition.getParameter("propertyValue"));
+            expectedValueInteger = condition.getParameter("propertyValueInteger");
+            Object propertyValueDate = condition.getParameter("propertyValueDate");
+            expectedValueDate = DateExpression.of(propertyValueDate != null ? propertyValueDate : condition.getParameter("propertyValueDateExpr"));
+            expectedPattern = "matchesRegex".equals(op) && expectedValue != null ? Pattern.compile(expectedValue) : null;
+
+            List<?> propertyValues = (List<?>) condition.getParameter("propertyValues");
             List<?> expectedValuesInteger = (List<?>) condition.getParameter("propertyValuesInteger");
             List<?> expectedValuesDate = (List<?>) condition.getParameter("propertyValuesDate");
             List<?> expectedValuesDateExpr = (List<?>) condition.getParameter("propertyValuesDateExpr");
+            // the folded values are copied, as the helper returns a view folding them on each access
+            expectedValues = ObjectUtils.firstNonNull(propertyValues != null ? new ArrayList<>(ConditionContextHelper.foldToASCII(propertyValues)) : null,
+                    expectedValuesDate, expectedValuesInteger);
+            expectedValuesSet = expectedValues != null ? new HashSet<>(expectedValues) : null;
 
-            return compareMultivalue(actualValue, expectedValues, expectedValuesDate, expectedValuesInteger, expectedValuesDateExpr, op);
-        } else if (op.equals("isDay") && expectedValueDate != null) {
-            return yearMonthDayDateFormat.format(getDate(actualValue)).equals(yearMonthDayDateFormat.format(getDate(expectedValueDate)));
-        } else if (op.equals("isNotDay") && expectedValueDate != null) {
-            return !yearMonthDayDateFormat.format(getDate(actualValue)).equals(yearMonthDayDateFormat.format(getDate(expectedValueDate)));
+            lowerBoundInteger = (expectedValuesInteger != null && expectedValuesInteger.size() >= 1) ? expectedValuesInteger.get(0) : null;
+            upperBoundInteger = (expectedValuesInteger != null && expectedValuesInteger.size() >= 2) ? expectedValuesInteger.get(1) : null;
+            lowerBoundDate = DateExpression.of(getBound(expectedValuesDate, expectedValuesDateExpr, 0));
+            upperBoundDate = DateExpression.of(getBound(expectedValuesDate, expectedValuesDateExpr, 1));
         }
 
-        return false;
+        @Override
+        public boolean eval(Item item) {
+            Object actualValue = getActualValue(item, name);
+
+            if (op == null) {
+                return false;
+            } else if (actualValue == null) {
+                return op.equals("missing");
+            } else if (op.equals("exists")) {
+                return true;
+            } else if (op.equals("equals")) {
+                Date expectedDate = DateExpression.resolve(expectedValueDate);
+                if (actualValue instanceof Collection) {
+                    for (Object o : ((Collection<?>) actualValue)) {
+                        if (o instanceof String) {
+                            o = ConditionContextHelper.foldToASCII((String) o);
+                        }
+                        if (compare(o, expectedValue, expectedDate, expectedValueInteger) == 0) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                return compare(actualValue, expectedValue, expectedDate, expectedValueInteger) == 0;
+            } else if (op.equals("notEquals")) {
+                return compare(actualValue, expectedValue, DateExpression.resolve(expectedValueDate), expectedValueInteger) != 0;
+            } else if (op.equals("greaterThan")) {
+                return compare(actualValue, expectedValue, DateExpression.resolve(expectedValueDate), expectedValueInteger) > 0;
+            } else if (op.equals("greaterThanOrEqualTo")) {
+                return compare(actualValue, expectedValue, DateExpression.resolve(expectedValueDate), expectedValueInteger) >= 0;
+            } else if (op.equals("lessThan")) {
+                return compare(actualValue, expectedValue, DateExpression.resolve(expectedValueDate), expectedValueInteger) < 0;
+            } else if (op.equals("lessThanOrEqualTo")) {
+                return compare(actualValue, expectedValue, DateExpression.resolve(expectedValueDate), expectedValueInteger) <= 0;
+            } else if (op.equals("between")) {
+                return compare(actualValue, null, DateExpression.resolve(lowerBoundDate), lowerBoundInteger) >= 0
+                        &&
+                        compare(actualValue, null, DateExpression.resolve(upperBoundDate), upperBoundInteger) <= 0;
+            } else if (op.equals("contains")) {
+                return actualValue.toString().contains(expectedValue);
+            } else if (op.equals("notContains")) {
+                return !actualValue.toString().contains(expectedValue);
+            } else if (op.equals("startsWith")) {
+                return actualValue.toString().startsWith(expectedValue);
+            } else if (op.equals("endsWith")) {
+                return actualValue.toString().endsWith(expectedValue);
+            } else if (op.equals("matchesRegex")) {
+                return expectedPattern != null && expectedPattern.matcher(actualValue.toString()).matches();
+            } else if (op.equals("in") || op.equals("inContains") || op.equals("notIn") || op.equals("hasSomeOf") || op.equals("hasNoneOf") || op.equals("all")) {
+                return compareMultivalue(actualValue, expectedValues, expectedValuesSet, op);
+            } else if ((op.equals("isDay") || op.equals("isNotDay")) && expectedValueDate != null) {
+                Date expectedDate = expectedValueDate.get();
+                if (expectedDate == null) {
+                    return false;
+                }
+                boolean sameDay = yearMonthDayDateFormat.format(getDate(actualValue).toInstant()).equals(yearMonthDayDateFormat.format(expectedDate.toInstant()));
+                return op.equals("isDay") == sameDay;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A date, or a date math expression such as <code>now-30d</code>, resolved once and then cached for a short
+     * time when it is relative to the current time.
+     */
+    private static class DateExpression {
+
+        private static final long RELATIVE_DATE_TTL_MS = 1000L;
+
+        private final Object value;
+        private final boolean relative;
+        private volatile ResolvedDate resolvedDate;
+
+        private DateExpression(Object value) {
+            this.value = value;
+            this.relative = !(value instanceof Date) && value.toString().contains("now");
+        }
+
+        static DateExpression of(Object value) {
+            return value != null ? new DateExpression(value) : null;
+        }
+
+        static Date resolve(DateExpression dateExpression) {
+            return dateExpression != null ? dateExpression.get() : null;
+        }
+
+        Date get() {
+            ResolvedDate resolvedDate = this.resolvedDate;
+            long now = System.currentTimeMillis();
+            if (resolvedDate == null || (relative && now >= resolvedDate.expiration)) {
+                resolvedDate = new ResolvedDate(getDate(value), now + RELATIVE_DATE_TTL_MS);
+                this.resolvedDate = resolvedDate;
+            }
+            return resolvedDate.date;
+        }
+    }
+
+    private static class ResolvedDate {
+        private final Date date;
+        private final long expiration;
+
+        private ResolvedDate(Date date, long expiration) {
+            this.date = date;
+            this.expiration = expiration;
+        }
+    }
+
+    private Object getActualValue(Item item, String name) {
+        Object actualValue;
+        if (item instanceof Event && "eventType".equals(name)) {
+            actualValue = ((Event) item).getEventType();
+        } else {
+            try {
+                long time = System.nanoTime();
+                //actualValue = beanUtilsBean.getPropertyUtils().getProperty(item, name);
+                actualValue = getPropertyValue(item, name);
+                time = System.nanoTime() - time;
+                if (time > 5000000L) {
+                    logger.info("eval took {} ms for {} {}", time / 1000000L, item.getClass().getName(), name);
+                }
+            } catch (NullPointerException e) {
+                // property not found
+                actualValue = null;
+            } catch (Exception e) {
+                if (!(e instanceof OgnlException)
+                        || (!StringUtils.startsWith(e.getMessage(),
+                        "source is null for getProperty(null"))) {
+                    logger.warn("Error evaluating value for " + item.getClass().getName() + " " + name, e);
+                }
+                actualValue = null;
+            }
+        }
+        if (actualValue instanceof String) {
+            actualValue = ConditionContextHelper.foldToASCII((String) actualValue);
+        }
+        return actualValue;
+    }
+
+    private static Object getBound(List<?> values, List<?> expressions, int index) {
+        if (values != null && values.size() > index) {
+            return values.get(index);
+        }
+        return (expressions != null && expressions.size() > index) ? expressions.get(index) : null;
     }
 
     protected Object getPropertyValue(Item item, String expression) throws Exception {
         if (usePropertyConditionOptimizations) {
-            Object result = getHardcodedPropertyValue(item, expression);
-            if (!NOT_OPTIMIZED_MARKER.equals(result)) {
-                return result;
+            PropertyAccessor accessor = getCachedPropertyAccessor(item.getClass(), expression);
+            if (accessor != null) {
+                Object value = accessor.getValue(item);
+                if (value != PropertyAccessor.UNRESOLVED) {
+                    return value;
+                }
             }
         }
         return getOGNLPropertyValue(item, expression);
     }
 
     protected Object getHardcodedPropertyValue(Item item, String expression) {
-        // the following are optimizations to avoid using the expressions that are slower. The main objective here is
-        // to avoid the most used expression that may also trigger calls to the Java Reflection API.
-        if (item instanceof Event) {
-            Event event = (Event) item;
-            if (expression.startsWith("properties.")) {
-                return getNestedPropertyValue(expression.substring("properties.".length()), event.getProperties());
-            }
-            if ("target.itemId".equals(expression)) {
-                return event.getTarget().getItemId();
-            }
-            if (expression.startsWith("target.properties.")) {
-                if (event.getTarget() instanceof CustomItem) {
-                    CustomItem customItem = (CustomItem) event.getTarget();
-                    String expressionPart = expression.substring("target.properties.".length());
-                    return getNestedPropertyValue(expressionPart, customItem.getProperties());
-                }
-            }
-            if ("target.scope".equals(expression)) {
-                return event.getTarget().getScope();
-            }
-            if ("scope".equals(expression)) {
-                return event.getScope();
-            }
-        } else if (item instanceof Session) {
-            Session session = (Session) item;
-            if ("timeStamp".equals(expression)) {
-                return session.getTimeStamp();
-            }
-            if ("duration".equals(expression)) {
-                return session.getDuration();
-            }
-            if ("size".equals(expression)) {
-                return session.getSize();
-            }
-            if (expression.startsWith("properties.")) {
-                return getNestedPropertyValue(expression.substring("properties.".length()), session.getProperties());
-            }
-            if (expression.startsWith("systemProperties.")) {
-                return getNestedPropertyValue(expression.substring("systemProperties.".length()), session.getSystemProperties());
-            }
-        } else if (item instanceof Profile) {
-            Profile profile = (Profile) item;
-            if ("segments".equals(expression)) {
-                return profile.getSegments();
-            }
-            if ("consents".equals(expression)) {
-                return profile.getConsents();
-            }
-            if (expression.startsWith("scores.")) {
-                return profile.getScores().get(expression.substring("scores.".length()));
-            }
-            if (expression.startsWith("properties.")) {
-                return getNestedPropertyValue(expression.substring("properties.".length()), profile.getProperties());
-            }
-            if (expression.startsWith("systemProperties.")) {
-                return getNestedPropertyValue(expression.substring("systemProperties.".length()), profile.getSystemProperties());
-            }
-        } else if (item instanceof CustomItem) {
-            CustomItem customItem = (CustomItem) item;
-            if (expression.startsWith("properties.")) {
-                return getNestedPropertyValue(expression.substring("properties.".length()), customItem.getProperties());
+        // the most used item properties are resolved through pre-built accessors to avoid evaluating the expressions
+        // with OGNL, which is slower and may also trigger calls to the Java Reflection API.
+        PropertyAccessor accessor = getCachedPropertyAccessor(item.getClass(), expression);
+        if (accessor != null && accessor.isWellKnownRoot()) {
+            try {
+                Object value = accessor.getValue(item);
+                return value != PropertyAccessor.UNRESOLVED ? value : NOT_OPTIMIZED_MARKER;
+            } catch (Exception e) {
+                logger.warn("Error evaluating value for " + item.getClass().getName() + " " + expression, e);
+                return null;
             }
         }
         return NOT_OPTIMIZED_MARKER;
@@ -330,31 +453,25 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         return accessor != null ? accessor.get((OgnlContext) Ognl.createDefaultContext(null), item) : null;
     }
 
-    private Object getNestedPropertyValue(String expressionPart, Map<String, Object> properties) {
-        int nextDotPos = expressionPart.indexOf(".");
-        if (nextDotPos > -1) {
-            String mapKey = expressionPart.substring(0, nextDotPos);
-            Object mapValue = properties.get(mapKey);
-            if (mapValue == null) {
-                return null;
-            }
-            String nextExpression = expressionPart.substring(nextDotPos+1);
-            return getNestedPropertyValue(nextExpression, (Map<String,Object>) mapValue);
-        } else {
-            return properties.get(expressionPart);
+    private PropertyAccessor getCachedPropertyAccessor(Class<?> itemClass, String expression) {
+        Map<String, Optional<PropertyAccessor>> accessors = propertyAccessorCache.get(itemClass);
+        if (accessors == null) {
+            accessors = propertyAccessorCache.computeIfAbsent(itemClass, clazz -> new ConcurrentHashMap<>());
+        }
+        Optional<PropertyAccessor> accessor = accessors.get(expression);
+        if (accessor == null) {
+            accessor = accessors.computeIfAbsent(expression, e -> Optional.ofNullable(propertyAccessorResolver.build(itemClass, e)));
         }
+        return accessor.orElse(null);
     }
 
     private ExpressionAccessor getPropertyAccessor(Item item, String expression) throws Exception {
-        ExpressionAccessor accessor = null;
         String clazz = item.getClass().getName();
         Map<String, ExpressionAccessor> expressions = expressionCache.get(clazz);
         if (expressions == null) {
-            expressions = new HashMap<>();
-            expressionCache.put(clazz, expressions);
-        } else {
-            accessor = expressions.get(expression);
+            expressions = expressionCache.computeIfAbsent(clazz, c -> new ConcurrentHashMap<>());
         }
+        ExpressionAccessor accessor = expressions.get(expression);
         if (accessor == null) {
             long time = System.nanoTime();
             Thread current = Thread.currentThread();
@@ -380,16 +497,15 @@ public class PropertyConditionEvaluator implements ConditionEvaluator {
         return accessor;
     }
 
-    private Date getDate(Object value) {
+    private static Date getDate(Object value) {
         if (value == null) {
             return null;
         }
         if (value instanceof Date) {
             return ((Date) value);
         } else {
-            JodaDateMathParser parser = new JodaDateMathParser(Joda.forPattern("strictDateOptionalTime||epoch_millis"));
             try {
-                return new Date(parser.parse(value.toString(), System::currentTimeMillis).getEpochSecond());
+                return new Date(dateMathParser.parse(value.toString(), System::currentTimeMillis).toEpochMilli());
             } catch (ElasticsearchParseException e) {
                 logger.warn("unable to parse date " + value.toString(), e);
             }
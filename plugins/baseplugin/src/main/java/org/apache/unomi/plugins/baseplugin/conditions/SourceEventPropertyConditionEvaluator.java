@@ -21,7 +21,8 @@ import org.apache.unomi.api.Item;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.api.services.DefinitionsService;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompilableConditionEvaluator;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 
 import java.util.ArrayList;
@@ -29,7 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class SourceEventPropertyConditionEvaluator implements ConditionEvaluator {
+public class SourceEventPropertyConditionEvaluator implements CompilableConditionEvaluator {
     private static final Map<String,String> MAPPED_PROPERTIES;
     static {
         MAPPED_PROPERTIES = new HashMap<>(4);
@@ -52,8 +53,7 @@ public class SourceEventPropertyConditionEvaluator implements ConditionEvaluator
         }
     }
 
-    @Override
-    public boolean eval(Condition condition, Item item, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+    private Condition getPropertiesCondition(Condition condition) {
         Condition andCondition = new Condition(definitionsService.getConditionType("booleanCondition"));
         andCondition.setParameter("operator", "and");
         ArrayList<Condition> conditions = new ArrayList<Condition>();
@@ -64,12 +64,24 @@ public class SourceEventPropertyConditionEvaluator implements ConditionEvaluator
 
         if(conditions.size() > 0){
             andCondition.setParameter("subConditions", conditions);
-            return dispatcher.eval(andCondition, item);
+            return andCondition;
         } else {
-            return true;
+            return null;
         }
     }
 
+    @Override
+    public boolean eval(Condition condition, Item item, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        Condition propertiesCondition = getPropertiesCondition(condition);
+        return propertiesCondition == null || dispatcher.eval(propertiesCondition, item);
+    }
+
+    @Override
+    public CompiledCondition compile(Condition condition, Map<String, Object> context, ConditionEvaluatorDispatcher dispatcher) {
+        Condition propertiesCondition = getPropertiesCondition(condition);
+        return propertiesCondition != null ? dispatcher.compile(propertiesCondition, new HashMap<String, Object>()) : CompiledCondition.TRUE;
+    }
+
     public DefinitionsService getDefinitionsService() {
         return definitionsService;
     }
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.persistence.elasticsearch.conditions.CompiledCondition;
+import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+
+public class CompiledConditionEvaluatorTest {
+
+    private Map<String, ConditionType> conditionTypes = new HashMap<>();
+    private ConditionEvaluatorDispatcher compilingDispatcher;
+    private ConditionEvaluatorDispatcher dynamicDispatcher;
+
+    @Before
+    public void setUp() {
+        compilingDispatcher = createDispatcher(true);
+        dynamicDispatcher = createDispatcher(false);
+
+        createConditionType("booleanCondition", "booleanConditionEvaluator", null);
+        createConditionType("notCondition", "notConditionEvaluator", null);
+        createConditionType("matchAllCondition", "matchAllConditionEvaluator", null);
+        createConditionType("profilePropertyCondition", "propertyConditionEvaluator", null);
+
+        Condition parentCondition = new Condition(conditionTypes.get("profilePropertyCondition"));
+        parentCondition.setParameter("propertyName", "properties.firstName");
+        parentCondition.setParameter("comparisonOperator", "equals");
+        parentCondition.setParameter("propertyValue", "parameter::firstName");
+        createConditionType("firstNameCondition", null, parentCondition);
+    }
+
+    @Test
+    public void testCompiledConditionsMatchDispatcher() {
+        Profile profile = generateProfile();
+        List<Condition> conditions = Arrays.asList(
+                profilePropertyCondition("properties.firstName", "equals", "Sérge"),
+                profilePropertyCondition("properties.firstName", "equals", "John"),
+                profilePropertyCondition("properties.lastName", "missing", null),
+                profilePropertyCondition("properties.firstName", "exists", null),
+                profilePropertyCondition("segments", "equals", "segment2"),
+                profilePropertyCondition("properties.age", "greaterThan", 30),
+                profilePropertyCondition("properties.age", "lessThan", 30),
+                profilePropertyCondition("properties.city", "in", Arrays.asList("paris", "Genève")),
+                profilePropertyCondition("properties.city", "notIn", Arrays.asList("paris", "london")),
+                booleanCondition("and", profilePropertyCondition("properties.firstName", "startsWith", "ser"), profilePropertyCondition("properties.age", "equals", 42)),
+                booleanCondition("or", profilePropertyCondition("properties.firstName", "equals", "John"), profilePropertyCondition("properties.age", "equals", 42)),
+                booleanCondition("or", profilePropertyCondition("properties.firstName", "equals", "John"), notCondition(new Condition(conditionTypes.get("matchAllCondition")))),
+                notCondition(profilePropertyCondition("properties.city", "equals", "geneve")),
+                firstNameCondition("serge"),
+                firstNameCondition("John")
+        );
+        boolean[] expectedResults = {true, false, true, true, true, true, false, true, true, true, true, false, false, true, false};
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
+            assertEquals("Dispatcher result is not correct for " + condition, expectedResults[i], dynamicDispatcher.eval(condition, profile));
+            assertEquals("Compiled condition result differs for " + condition, expectedResults[i], compilingDispatcher.eval(condition, profile));
+        }
+    }
+
+    @Test
+    public void testPreparedComparisonValues() {
+        Profile profile = generateProfile();
+        List<Condition> conditions = Arrays.asList(
+                propertyCondition("properties.lastVisit", "greaterThan", "propertyValueDateExpr", "now-30d"),
+                propertyCondition("properties.lastVisit", "greaterThan", "propertyValueDateExpr", "now-5d"),
+                propertyCondition("properties.lastVisit", "between", "propertyValuesDateExpr", Arrays.asList("now-30d", "now")),
+                propertyCondition("properties.lastVisit", "isDay", "propertyValueDate", new Date(System.currentTimeMillis() - 10L * 24 * 3600 * 1000)),
+                propertyCondition("properties.firstName", "matchesRegex", "propertyValue", "^s.*e$"),
+                propertyCondition("properties.city", "matchesRegex", "propertyValue", "^g.n.v.$"),
+                propertyCondition("segments", "hasSomeOf", "propertyValues", Arrays.asList("segment2", "segment3")),
+                propertyCondition("segments", "hasNoneOf", "propertyValues", Arrays.asList("segment2", "segment3")),
+                propertyCondition("segments", "all", "propertyValues", Arrays.asList("segment1", "segment2")),
+                propertyCondition("properties.age", "in", "propertyValuesInteger", Arrays.asList(40, 42))
+        );
+        boolean[] expectedResults = {true, false, true, true, true, true, true, false, true, true};
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition condition = conditions.get(i);
+            assertEquals("Dispatcher result is not correct for " + condition, expectedResults[i], dynamicDispatcher.eval(condition, profile));
+            assertEquals("Compiled condition result differs for " + condition, expectedResults[i], compilingDispatcher.eval(condition, profile));
+        }
+    }
+
+    @Test
+    public void testCompiledConditionsAreSharedByEqualConditions() {
+        Profile profile = generateProfile();
+        CompiledCondition compiledCondition = compilingDispatcher.getCompiledCondition(complexCondition("Serge"));
+
+        // conditions built again on each call share the compilation of the first one
+        assertSame(compiledCondition, compilingDispatcher.getCompiledCondition(complexCondition("Serge")));
+        assertEquals(true, compiledCondition.eval(profile));
+
+        CompiledCondition otherCompiledCondition = compilingDispatcher.getCompiledCondition(complexCondition("John"));
+        assertNotSame(compiledCondition, otherCompiledCondition);
+        assertEquals(false, otherCompiledCondition.eval(profile));
+    }
+
+    @Test
+    public void testRedefinedConditionTypesAreCompiledAgain() {
+        Profile profile = generateProfile();
+        CompiledCondition compiledCondition = compilingDispatcher.getCompiledCondition(firstNameCondition("Serge"));
+        assertEquals(true, compiledCondition.eval(profile));
+
+        Condition parentCondition = new Condition(conditionTypes.get("profilePropertyCondition"));
+        parentCondition.setParameter("propertyName", "properties.city");
+        parentCondition.setParameter("comparisonOperator", "equals");
+        parentCondition.setParameter("propertyValue", "parameter::firstName");
+        createConditionType("firstNameCondition", null, parentCondition);
+
+        CompiledCondition redefinedCompiledCondition = compilingDispatcher.getCompiledCondition(firstNameCondition("Serge"));
+        assertNotSame(compiledCondition, redefinedCompiledCondition);
+        assertEquals(false, redefinedCompiledCondition.eval(profile));
+    }
+
+    private Condition complexCondition(String firstName) {
+        return booleanCondition("and",
+                firstNameCondition(firstName),
+                booleanCondition("or",
+                        profilePropertyCondition("properties.age", "greaterThan", 40),
+                        profilePropertyCondition("properties.city", "in", Arrays.asList("paris", "london"))),
+                notCondition(profilePropertyCondition("segments", "equals", "segment4")));
+    }
+
+    private ConditionEvaluatorDispatcher createDispatcher(boolean useCompiledConditions) {
+        ConditionEvaluatorDispatcher dispatcher = new ConditionEvaluatorDispatcher();
+        dispatcher.setUseCompiledConditions(useCompiledConditions);
+        dispatcher.addEvaluator("booleanConditionEvaluator", new BooleanConditionEvaluator());
+        dispatcher.addEvaluator("notConditionEvaluator", new NotConditionEvaluator());
+        dispatcher.addEvaluator("matchAllConditionEvaluator", new MatchAllConditionEvaluator());
+        dispatcher.addEvaluator("propertyConditionEvaluator", new PropertyConditionEvaluator());
+        return dispatcher;
+    }
+
+    private void createConditionType(String id, String conditionEvaluator, Condition parentCondition) {
+        ConditionType conditionType = new ConditionType(new Metadata(id));
+        conditionType.setConditionEvaluator(conditionEvaluator);
+        conditionType.setParentCondition(parentCondition);
+        conditionTypes.put(id, conditionType);
+    }
+
+    private Condition profilePropertyCondition(String propertyName, String comparisonOperator, Object value) {
+        Condition condition = new Condition(conditionTypes.get("profilePropertyCondition"));
+        condition.setParameter("propertyName", propertyName);
+        condition.setParameter("comparisonOperator", comparisonOperator);
+        if (value instanceof Integer) {
+            condition.setParameter("propertyValueInteger", value);
+        } else if (value instanceof List) {
+            condition.setParameter("propertyValues", value);
+        } else if (value != null) {
+            condition.setParameter("propertyValue", value);
+        }
+        return condition;
+    }
+
+    private Condition propertyCondition(String propertyName, String comparisonOperator, String parameterName, Object value) {
+        Condition condition = new Condition(conditionTypes.get("profilePropertyCondition"));
+        condition.setParameter("propertyName", propertyName);
+        condition.setParameter("comparisonOperator", comparisonOperator);
+        condition.setParameter(parameterName, value);
+        return condition;
+    }
+
+    private Condition firstNameCondition(String firstName) {
+        Condition condition = new Condition(conditionTypes.get("firstNameCondition"));
+        condition.setParameter("firstName", firstName);
+        return condition;
+    }
+
+    private Condition booleanCondition(String operator, Condition... subConditions) {
+        Condition condition = new Condition(conditionTypes.get("booleanCondition"));
+        condition.setParameter("operator", operator);
+        condition.setParameter("subConditions", Arrays.asList(subConditions));
+        return condition;
+    }
+
+    private Condition notCondition(Condition subCondition) {
+        Condition condition = new Condition(conditionTypes.get("notCondition"));
+        condition.setParameter("subCondition", subCondition);
+        return condition;
+    }
+
+    private Profile generateProfile() {
+        Profile profile = new Profile("profileId");
+        profile.setProperty("firstName", "Serge");
+        profile.setProperty("age", 42);
+        profile.setProperty("city", "Genève");
+        profile.setProperty("lastVisit", new Date(System.currentTimeMillis() - 10L * 24 * 3600 * 1000));
+        profile.getSegments().add("segment1");
+        profile.getSegments().add("segment2");
+        return profile;
+    }
+}
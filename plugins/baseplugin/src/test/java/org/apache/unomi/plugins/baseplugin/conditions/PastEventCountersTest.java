@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.plugins.baseplugin.conditions;
+
+import org.apache.unomi.api.Profile;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class PastEventCountersTest {
+
+    public static final String KEY = "eventTriggeredTest";
+
+    @Test
+    public void testCountsWithinWindow() {
+        Profile profile = new Profile("profileId");
+        assertFalse(PastEventCounters.hasDailyCounts(profile, KEY));
+
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Map<LocalDate, Long> countsByDay = new LinkedHashMap<>();
+        countsByDay.put(today.minusDays(40), 5L);
+        countsByDay.put(today.minusDays(10), 3L);
+        countsByDay.put(today.minusDays(1), 2L);
+        PastEventCounters.setDailyCounts(profile, KEY, 30, countsByDay);
+
+        assertTrue(PastEventCounters.hasDailyCounts(profile, KEY));
+        assertEquals(5L, PastEventCounters.getCount(profile, KEY, 30));
+        assertEquals(2L, PastEventCounters.getCount(profile, KEY, 5));
+
+        PastEventCounters.increment(profile, KEY, 30, new Date());
+        PastEventCounters.increment(profile, KEY, 30, new Date());
+        assertEquals(7L, PastEventCounters.getCount(profile, KEY, 30));
+        assertEquals(7L, getPastEventsCount(profile));
+    }
+
+    @Test
+    public void testCountsWithoutWindow() {
+        Profile profile = new Profile("profileId");
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Map<LocalDate, Long> countsByDay = new LinkedHashMap<>();
+        countsByDay.put(today.minusDays(400), 5L);
+        countsByDay.put(today.minusDays(10), 3L);
+        PastEventCounters.setDailyCounts(profile, KEY, null, countsByDay);
+        PastEventCounters.increment(profile, KEY, null, new Date());
+
+        assertEquals(9L, PastEventCounters.getCount(profile, KEY, null));
+        assertEquals(9L, getPastEventsCount(profile));
+    }
+
+    @Test
+    public void testInvalidatedCountsAreRebuilt() {
+        Profile profile = new Profile("profileId");
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        PastEventCounters.setDailyCounts(profile, KEY, 30, Collections.singletonMap(today.minusDays(2), 4L));
+
+        // the recalculation of the past event conditions stores a null entry for the key, as a partial update would
+        Map<String, Object> dailyCounts = new LinkedHashMap<>();
+        dailyCounts.put(KEY, null);
+        profile.getSystemProperties().put(PastEventCounters.PAST_EVENT_DAILY_COUNTS, dailyCounts);
+        assertFalse(PastEventCounters.hasDailyCounts(profile, KEY));
+        assertEquals(0L, PastEventCounters.getCount(profile, KEY, 30));
+
+        PastEventCounters.setDailyCounts(profile, KEY, 30, Collections.singletonMap(today.minusDays(2), 3L));
+        PastEventCounters.increment(profile, KEY, 30, new Date());
+        assertTrue(PastEventCounters.hasDailyCounts(profile, KEY));
+        assertEquals(4L, getPastEventsCount(profile));
+    }
+
+    @SuppressWarnings("unchecked")
+    private long getPastEventsCount(Profile profile) {
+        Map<String, Object> pastEvents = (Map<String, Object>) profile.getSystemProperties().get(PastEventCounters.PAST_EVENTS);
+        return ((Number) pastEvents.get(KEY)).longValue();
+    }
+}
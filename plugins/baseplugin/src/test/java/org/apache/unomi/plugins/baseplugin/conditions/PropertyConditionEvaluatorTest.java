@@ -105,6 +105,24 @@ public class PropertyConditionEvaluatorTest {
 
         assertEquals("Session size should be 10", 10, propertyConditionEvaluator.getPropertyValue(mockSession, "size"));
         assertEquals("Session last event date is not right", SESSION_LAST_EVENT_DATE, propertyConditionEvaluator.getPropertyValue(mockSession, "lastEventDate"));
+        assertEquals("Session profile id is not right", "mockProfileId", propertyConditionEvaluator.getPropertyValue(mockSession, "profile.itemId"));
+    }
+
+    @Test
+    public void testNestedPropertyEvaluator() throws Exception {
+        Profile profile = generateMockProfileWithNestedProperties();
+        assertEquals("Profile score is not right", 12, propertyConditionEvaluator.getPropertyValue(profile, "scores.score1"));
+        assertEquals("Profile nested property is not right", "Geneva", propertyConditionEvaluator.getPropertyValue(profile, "properties.address.city"));
+        assertNull("Unexisting nested property should be null", propertyConditionEvaluator.getPropertyValue(profile, "properties.unknown.city"));
+
+        // dynamic expressions are still evaluated with OGNL
+        assertEquals("Segment count is not right", 3, propertyConditionEvaluator.getPropertyValue(profile, "segments.size()"));
+
+        // properties that don't exist on a bean are left to OGNL
+        assertEquals("Unknown bean property should be evaluated with OGNL", propertyConditionEvaluator.getOGNLPropertyValue(profile, "properties.address.city.name"),
+                propertyConditionEvaluator.getPropertyValue(profile, "properties.address.city.name"));
+        assertEquals("Should have received the non-optimized marker string", NOT_OPTIMIZED_MARKER,
+                propertyConditionEvaluator.getHardcodedPropertyValue(profile, "properties.address.city.name"));
     }
 
     private void runHardcodedTest(int workerCount, ExecutorService executorService) throws InterruptedException {
@@ -151,6 +169,15 @@ public class PropertyConditionEvaluatorTest {
         return mockProfile;
     }
 
+    private static Profile generateMockProfileWithNestedProperties() {
+        Profile mockProfile = generateMockProfile();
+        mockProfile.setScores(Collections.singletonMap("score1", 12));
+        Map<String,Object> addressMap = new HashMap<>();
+        addressMap.put("city", "Geneva");
+        mockProfile.setProperty("address", addressMap);
+        return mockProfile;
+    }
+
     public static Session generateMockSession() {
         Session mockSession = new Session("mockSessionId", generateMockProfile(), new Date(), "digitall");
         mockSession.setSize(10);
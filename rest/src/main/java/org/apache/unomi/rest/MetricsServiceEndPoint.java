@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest;
+
+import org.apache.cxf.rs.security.cors.CrossOriginResourceSharing;
+import org.apache.unomi.metrics.Metric;
+import org.apache.unomi.metrics.MetricsService;
+import org.apache.unomi.metrics.PrometheusExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jws.WebMethod;
+import javax.jws.WebService;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A JAX-RS endpoint to access the timers recorded by the metrics service, including their latency percentiles.
+ */
+@WebService
+@Produces(MediaType.APPLICATION_JSON)
+@CrossOriginResourceSharing(
+        allowAllOrigins = true,
+        allowCredentials = true
+)
+public class MetricsServiceEndPoint {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServiceEndPoint.class.getName());
+
+    private MetricsService metricsService;
+
+    public MetricsServiceEndPoint() {
+        logger.info("Initializing metrics service endpoint...");
+    }
+
+    @WebMethod(exclude = true)
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Retrieves all the recorded metrics, sorted by name. Each metric contains its call count, total time, p50, p90,
+     * p99 and p999 latencies and maximum latency in milliseconds, as well as the sampled callers if caller tracking
+     * is activated for it.
+     *
+     * @return a map of metrics, keyed by metric name
+     */
+    @GET
+    @Path("/")
+    public Map<String, Metric> getMetrics() {
+        return new TreeMap<>(metricsService.getMetrics());
+    }
+
+    /**
+     * Exports all the timers and the registered gauges in the Prometheus text exposition format, so that this
+     * endpoint can be used as a Prometheus or OpenMetrics scrape target.
+     *
+     * @return the exported metrics, written as they are produced
+     */
+    @GET
+    @Path("/prometheus")
+    @Produces(PrometheusExporter.CONTENT_TYPE)
+    public StreamingOutput getPrometheusMetrics() {
+        return outputStream -> new PrometheusExporter(metricsService).write(
+                new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Retrieves a single metric.
+     *
+     * @param metricName the name of the metric to retrieve
+     * @return the metric, or {@code null} if no metric was recorded with this name
+     */
+    @GET
+    @Path("/{metricName}")
+    public Metric getMetric(@PathParam("metricName") String metricName) {
+        return metricsService.getMetrics().get(metricName);
+    }
+
+}
@@ -36,10 +36,13 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A JAX-RS endpoint to manage {@link Profile}s and {@link Persona}s.
@@ -113,15 +116,16 @@ public class ProfileServiceEndPoint {
     /**
      * Retrieves an export of profiles matching the specified query as a downloadable file using the comma-separated values (CSV) format.
      *
-     * @param query a String JSON representation of the query the profiles to export should match
+     * @param query          a String JSON representation of the query the profiles to export should match
+     * @param acceptEncoding the encodings accepted by the client
      * @return a Response object configured to allow caller to download the CSV export file
      */
     @GET
     @Path("/export")
     @Produces("text/csv")
-    public Response getExportProfiles(@QueryParam("query") String query) {
+    public Response getExportProfiles(@QueryParam("query") String query, @HeaderParam("Accept-Encoding") String acceptEncoding) {
         try {
-            return exportProfiles(CustomObjectMapper.getObjectMapper().readValue(query, Query.class));
+            return exportProfiles(CustomObjectMapper.getObjectMapper().readValue(query, Query.class), acceptEncoding);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             return Response.serverError().build();
@@ -129,18 +133,19 @@ public class ProfileServiceEndPoint {
     }
 
     /**
-     * A version of {@link #getExportProfiles(String)} suitable to be called from an HTML form.
+     * A version of {@link #getExportProfiles(String, String)} suitable to be called from an HTML form.
      *
-     * @param query a form-encoded representation of the query the profiles to export should match
+     * @param query          a form-encoded representation of the query the profiles to export should match
+     * @param acceptEncoding the encodings accepted by the client
      * @return a Response object configured to allow caller to download the CSV export file
      */
     @GET
     @Path("/export")
     @Produces("text/csv")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    public Response formExportProfiles(@FormParam("query") String query) {
+    public Response formExportProfiles(@FormParam("query") String query, @HeaderParam("Accept-Encoding") String acceptEncoding) {
         try {
-            return exportProfiles(CustomObjectMapper.getObjectMapper().readValue(query, Query.class));
+            return exportProfiles(CustomObjectMapper.getObjectMapper().readValue(query, Query.class), acceptEncoding);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             return Response.serverError().build();
@@ -148,19 +153,32 @@ public class ProfileServiceEndPoint {
     }
 
     /**
-     * Retrieves an export of profiles matching the specified query as a downloadable file using the comma-separated values (CSV) format.
+     * Retrieves an export of profiles matching the specified query as a downloadable file using the comma-separated values (CSV) format. The
+     * export is written as the profiles are retrieved, and compressed when the client accepts the gzip encoding.
      *
-     * @param query a String JSON representation of the query the profiles to export should match
+     * @param query          a String JSON representation of the query the profiles to export should match
+     * @param acceptEncoding the encodings accepted by the client
      * @return a Response object configured to allow caller to download the CSV export file
      */
     @POST
     @Path("/export")
     @Produces("text/csv")
-    public Response exportProfiles(Query query) {
-        String toCsv = profileService.exportProfilesPropertiesToCsv(query);
-        Response.ResponseBuilder response = Response.ok(toCsv);
+    public Response exportProfiles(Query query, @HeaderParam("Accept-Encoding") String acceptEncoding) {
+        final boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        StreamingOutput csv = outputStream -> {
+            OutputStream csvOutputStream = gzip ? new GZIPOutputStream(outputStream, 8192) : outputStream;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(csvOutputStream, StandardCharsets.UTF_8));
+            profileService.exportProfilesPropertiesToCsv(query, writer);
+            if (gzip) {
+                ((GZIPOutputStream) csvOutputStream).finish();
+            }
+        };
+        Response.ResponseBuilder response = Response.ok(csv);
         response.header("Content-Disposition",
                 "attachment; filename=Profiles_export_" + new SimpleDateFormat("yyyy-MM-dd-HH-mm").format(new Date()) + ".csv");
+        if (gzip) {
+            response.header("Content-Encoding", "gzip");
+        }
         return response.build();
     }
 
@@ -24,6 +24,7 @@ import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.query.Query;
 import org.apache.unomi.api.segments.DependentMetadata;
 import org.apache.unomi.api.segments.Segment;
+import org.apache.unomi.api.segments.SegmentUpdateJob;
 import org.apache.unomi.api.services.SegmentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -145,6 +146,29 @@ public class SegmentServiceEndPoint {
         segmentService.setSegmentDefinition(segment);
     }
 
+    /**
+     * Retrieves the progress of the profile update triggered by the last modification of the segment identified by the specified identifier.
+     *
+     * @param segmentId the segment identifier
+     * @return the segment update job or {@code null} if no update was ever performed for this segment
+     */
+    @GET
+    @Path("/{segmentID}/updateJob")
+    public SegmentUpdateJob getSegmentUpdateJob(@PathParam("segmentID") String segmentId) {
+        return segmentService.getSegmentUpdateJob(segmentId);
+    }
+
+    /**
+     * Retrieves the progress and throughput of all the segment update jobs, including the pending and running ones.
+     *
+     * @return a list of segment update jobs
+     */
+    @GET
+    @Path("/updateJobs")
+    public List<SegmentUpdateJob> getSegmentUpdateJobs() {
+        return segmentService.getSegmentUpdateJobs();
+    }
+
     /**
      * Retrieves the metadata for segments matching the specified {@link Query}.
      *
@@ -26,15 +26,12 @@ import org.apache.unomi.api.actions.ActionExecutor;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.metrics.MetricAdapter;
 import org.apache.unomi.metrics.MetricsService;
-import org.mvel2.MVEL;
-import org.mvel2.ParserConfiguration;
-import org.mvel2.ParserContext;
+import org.apache.unomi.persistence.spi.ScriptExecutor;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
@@ -43,12 +40,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ActionExecutorDispatcher {
     private static final Logger logger = LoggerFactory.getLogger(ActionExecutorDispatcher.class.getName());
     private static final String VALUE_NAME_SEPARATOR = "::";
-    private final Map<String, Serializable> mvelExpressions = new ConcurrentHashMap<>();
     private final Map<String, ValueExtractor> valueExtractors = new HashMap<>(11);
     private Map<String, ActionExecutor> executors = new ConcurrentHashMap<>();
     private MetricsService metricsService;
     private Map<String, ActionDispatcher> actionDispatchers = new ConcurrentHashMap<>();
     private BundleContext bundleContext;
+    private ScriptExecutor scriptExecutor;
 
     public void setMetricsService(MetricsService metricsService) {
         this.metricsService = metricsService;
@@ -58,6 +55,10 @@ public class ActionExecutorDispatcher {
         this.bundleContext = bundleContext;
     }
 
+    public void setScriptExecutor(ScriptExecutor scriptExecutor) {
+        this.scriptExecutor = scriptExecutor;
+    }
+
     public ActionExecutorDispatcher() {
         valueExtractors.put("profileProperty", new ValueExtractor() {
             @Override
@@ -98,22 +99,11 @@ public class ActionExecutorDispatcher {
         valueExtractors.put("script", new ValueExtractor() {
             @Override
             public Object extract(String valueAsString, Event event) throws IllegalAccessException, NoSuchMethodException, InvocationTargetException {
-                final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
-                try {
-                    Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-                    if (!mvelExpressions.containsKey(valueAsString)) {
-                        ParserConfiguration parserConfiguration = new ParserConfiguration();
-                        parserConfiguration.setClassLoader(getClass().getClassLoader());
-                        mvelExpressions.put(valueAsString, MVEL.compileExpression(valueAsString, new ParserContext(parserConfiguration)));
-                    }
-                    Map<String, Object> ctx = new HashMap<>();
-                    ctx.put("event", event);
-                    ctx.put("session", event.getSession());
-                    ctx.put("profile", event.getProfile());
-                    return MVEL.executeExpression(mvelExpressions.get(valueAsString), ctx);
-                } finally {
-                    Thread.currentThread().setContextClassLoader(tccl);
-                }
+                Map<String, Object> ctx = new HashMap<>();
+                ctx.put("event", event);
+                ctx.put("session", event.getSession());
+                ctx.put("profile", event.getProfile());
+                return scriptExecutor.execute(valueAsString, ctx);
             }
         });
     }
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl;
+
+import org.apache.unomi.api.Item;
+import org.apache.unomi.persistence.spi.PersistenceService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Tracks the change generation of the items of a class that a service keeps in memory, so that its periodic refresh
+ * only reloads the items that changed since the last successful reload, or nothing when nothing changed. Instances are
+ * meant to be used by a single refresh task.
+ */
+public class ItemChangeTracker {
+
+    private final PersistenceService persistenceService;
+    private final Class<? extends Item> itemClass;
+    private long loadedGeneration = -1L;
+    private long checkedGeneration = -1L;
+
+    public ItemChangeTracker(PersistenceService persistenceService, Class<? extends Item> itemClass) {
+        this.persistenceService = persistenceService;
+        this.itemClass = itemClass;
+    }
+
+    /**
+     * Checks the items that changed since the last call to {@link #reloaded()}.
+     *
+     * @return an empty set if nothing changed, the identifiers of the changed items, or {@code null} if all the items
+     * must be reloaded, which is always the case when the changes of the class are not tracked
+     */
+    public Set<String> getChangedItemIds() {
+        checkedGeneration = persistenceService.getChangeGeneration(itemClass);
+        if (checkedGeneration < 0 || loadedGeneration < 0) {
+            return null;
+        }
+        if (checkedGeneration == loadedGeneration) {
+            return Collections.emptySet();
+        }
+        return persistenceService.getChangedItemIds(itemClass, loadedGeneration);
+    }
+
+    /**
+     * Checks whether any item changed since the previous call to this method, for services that depend on the items
+     * of the class without keeping them in memory. The first call, as well as any call for a class whose changes are
+     * not tracked, returns false.
+     *
+     * @return true if some items changed since the previous call
+     */
+    public boolean hasChangedSinceLastCheck() {
+        long generation = persistenceService.getChangeGeneration(itemClass);
+        boolean changed = generation >= 0 && loadedGeneration >= 0 && generation != loadedGeneration;
+        checkedGeneration = generation;
+        loadedGeneration = generation;
+        return changed;
+    }
+
+    /**
+     * Marks the items as reloaded up to the generation read by the last call to {@link #getChangedItemIds()}.
+     */
+    public void reloaded() {
+        loadedGeneration = checkedGeneration;
+    }
+
+    /**
+     * Builds a new list from the given items, where the changed items are replaced by their new version. Items that
+     * cannot be loaded anymore were removed and are not part of the returned list.
+     *
+     * @param items          the items currently in memory
+     * @param changedItemIds the identifiers of the changed items
+     * @param loader         the function loading an item from its identifier, returning null if it doesn't exist
+     * @param <T>            the type of the items
+     * @return the updated list of items
+     */
+    public static <T extends Item> List<T> replaceChangedItems(List<T> items, Set<String> changedItemIds, Function<String, T> loader) {
+        List<T> updatedItems = new ArrayList<>(items.size() + changedItemIds.size());
+        for (T item : items) {
+            if (!changedItemIds.contains(item.getItemId())) {
+                updatedItems.add(item);
+            }
+        }
+        for (String changedItemId : changedItemIds) {
+            T item = loader.apply(changedItemId);
+            if (item != null) {
+                updatedItems.add(item);
+            }
+        }
+        return updatedItems;
+    }
+}
@@ -27,6 +27,7 @@ import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.api.services.SchedulerService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.services.impl.ItemChangeTracker;
 import org.apache.unomi.services.impl.ParserHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -55,6 +56,9 @@ public class DefinitionsServiceImpl implements DefinitionsService, SynchronousBu
     private Map<Long, List<PluginType>> pluginTypes = new HashMap<>();
     private Map<String, PropertyMergeStrategyType> propertyMergeStrategyTypeById = new HashMap<>();
 
+    private ItemChangeTracker conditionTypesChangeTracker;
+    private ItemChangeTracker actionTypesChangeTracker;
+
     private long definitionsRefreshInterval = 10000;
 
     private BundleContext bundleContext;
@@ -81,6 +85,8 @@ public class DefinitionsServiceImpl implements DefinitionsService, SynchronousBu
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
+        conditionTypesChangeTracker = new ItemChangeTracker(persistenceService, ConditionType.class);
+        actionTypesChangeTracker = new ItemChangeTracker(persistenceService, ActionType.class);
         processBundleStartup(bundleContext);
 
         // process already started bundles
@@ -106,39 +112,50 @@ public class DefinitionsServiceImpl implements DefinitionsService, SynchronousBu
         logger.info("Scheduled task for condition type loading each 10s");
     }
 
-    public void reloadTypes(boolean refresh) {
+    public synchronized void reloadTypes(boolean refresh) {
         try {
             if (refresh) {
                 persistenceService.refresh();
             }
-            loadConditionTypesFromPersistence();
-            loadActionTypesFromPersistence();
+            // the periodic reload only reads the types again when they changed, a forced refresh always does
+            Set<String> changedConditionTypeIds = conditionTypesChangeTracker.getChangedItemIds();
+            if ((refresh || changedConditionTypeIds == null || !changedConditionTypeIds.isEmpty()) && loadConditionTypesFromPersistence()) {
+                conditionTypesChangeTracker.reloaded();
+            }
+            Set<String> changedActionTypeIds = actionTypesChangeTracker.getChangedItemIds();
+            if ((refresh || changedActionTypeIds == null || !changedActionTypeIds.isEmpty()) && loadActionTypesFromPersistence()) {
+                actionTypesChangeTracker.reloaded();
+            }
         } catch (Throwable t) {
             logger.error("Error loading definitions from persistence back-end", t);
         }
     }
 
-    private void loadConditionTypesFromPersistence() {
+    private boolean loadConditionTypesFromPersistence() {
         try {
             Map<String, ConditionType> newConditionTypesById = new ConcurrentHashMap<>();
             for (ConditionType conditionType : getAllConditionTypes()) {
                 newConditionTypesById.put(conditionType.getItemId(), conditionType);
             }
             this.conditionTypeById = newConditionTypesById;
+            return true;
         } catch (Exception e) {
             logger.error("Error loading condition types from persistence service", e);
+            return false;
         }
     }
 
-    private void loadActionTypesFromPersistence() {
+    private boolean loadActionTypesFromPersistence() {
         try {
             Map<String, ActionType> newActionTypesById = new ConcurrentHashMap<>();
             for (ActionType actionType : getAllActionTypes()) {
                 newActionTypesById.put(actionType.getItemId(), actionType);
             }
             this.actionTypeById = newActionTypesById;
+            return true;
         } catch (Exception e) {
             logger.error("Error loading action types from persistence service", e);
+            return false;
         }
     }
 
@@ -32,12 +32,16 @@ import org.apache.unomi.api.services.SegmentService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.PropertyHelper;
+import org.apache.unomi.services.impl.ItemChangeTracker;
 import org.apache.unomi.services.impl.ParserHelper;
 import org.osgi.framework.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -172,6 +176,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     private long propertiesRefreshInterval = 10000;
 
     private PropertyTypes propertyTypes;
+    private ItemChangeTracker propertyTypesChangeTracker;
 
     private boolean forceRefreshOnSave = false;
 
@@ -210,6 +215,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
+        propertyTypesChangeTracker = new ItemChangeTracker(persistenceService, PropertyType.class);
         loadPropertyTypesFromPersistence();
         processBundleStartup(bundleContext);
         for (Bundle bundle : bundleContext.getBundles()) {
@@ -266,22 +272,28 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         logger.info("Scheduled task for property type loading each 10s");
     }
 
-    public void reloadPropertyTypes(boolean refresh) {
+    public synchronized void reloadPropertyTypes(boolean refresh) {
         try {
             if (refresh) {
                 persistenceService.refresh();
             }
-            loadPropertyTypesFromPersistence();
+            // the periodic reload only reads the property types again when they changed, a forced refresh always does
+            Set<String> changedPropertyTypeIds = propertyTypesChangeTracker.getChangedItemIds();
+            if ((refresh || changedPropertyTypeIds == null || !changedPropertyTypeIds.isEmpty()) && loadPropertyTypesFromPersistence()) {
+                propertyTypesChangeTracker.reloaded();
+            }
         } catch (Throwable t) {
             logger.error("Error loading property types from persistence back-end", t);
         }
     }
 
-    private void loadPropertyTypesFromPersistence() {
+    private boolean loadPropertyTypesFromPersistence() {
         try {
             this.propertyTypes = new PropertyTypes(persistenceService.getAllItems(PropertyType.class, 0, -1, "rank").getList());
+            return true;
         } catch (Exception e) {
             logger.error("Error loading property types from persistence service", e);
+            return false;
         }
     }
 
@@ -338,6 +350,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
                         if (purgeSessionsAndEventsTime > 0) {
                             persistenceService.purge(getMonth(-purgeSessionsAndEventsTime).getTime());
+                            invalidatePastEventDailyCounts();
                         }
 
                         logger.info("Profile purge: purge executed in {} ms", System.currentTimeMillis() - purgeStartTime);
@@ -346,7 +359,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
                     }
                 }
             };
-            schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 1, purgeProfileInterval, TimeUnit.DAYS);
+            schedulerService.getScheduleExecutorService(SchedulerService.BATCH_LANE).scheduleAtFixedRate(task, 1, purgeProfileInterval, TimeUnit.DAYS);
 
             logger.info("Profile purge: purge scheduled with an interval of {} days", purgeProfileInterval);
         } else {
@@ -354,6 +367,22 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         }
     }
 
+    /**
+     * Drops the daily past event counters of the profiles once events were purged, as they still count the purged
+     * events. They are rebuilt from the remaining events on the next matching event of each profile.
+     */
+    private void invalidatePastEventDailyCounts() {
+        Condition dailyCountsCondition = new Condition(definitionsService.getConditionType("profilePropertyCondition"));
+        dailyCountsCondition.setParameter("propertyName", "systemProperties.pastEventDailyCounts");
+        dailyCountsCondition.setParameter("comparisonOperator", "exists");
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] scriptParams = new Map[]{Collections.emptyMap()};
+        if (!persistenceService.updateWithQueryAndScript(null, Profile.class, new String[]{"ctx._source.systemProperties.remove(\"pastEventDailyCounts\")"},
+                scriptParams, new Condition[]{dailyCountsCondition})) {
+            logger.warn("Profile purge: couldn't invalidate the past event counters of the profiles");
+        }
+    }
+
     private GregorianCalendar getMonth(int offset) {
         GregorianCalendar gc = new GregorianCalendar();
         gc = new GregorianCalendar(gc.get(Calendar.YEAR), gc.get(Calendar.MONTH), 1);
@@ -436,65 +465,108 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public String exportProfilesPropertiesToCsv(Query query) {
-        StringBuilder sb = new StringBuilder();
-        Set<PropertyType> propertyTypes = getExistingProperties("profileProperties", Profile.ITEM_TYPE);
-        PartialList<Profile> profiles = search(query, Profile.class);
+        StringWriter writer = new StringWriter();
+        try {
+            exportProfilesPropertiesToCsv(query, writer);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw IOExceptions, only a failed retrieval of the profiles can get here
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
 
-        HashMap<String, PropertyType> propertyTypesById = new LinkedHashMap<>();
+    public void exportProfilesPropertiesToCsv(Query query, Writer writer) throws IOException {
+        Set<PropertyType> propertyTypes = getExistingProperties("profileProperties", Profile.ITEM_TYPE);
+        Map<String, PropertyType> propertyTypesById = new LinkedHashMap<>();
         for (PropertyType propertyType : propertyTypes) {
             propertyTypesById.put(propertyType.getMetadata().getId(), propertyType);
         }
-        for (Profile profile : profiles.getList()) {
-            for (String key : profile.getProperties().keySet()) {
-                if (!propertyTypesById.containsKey(key)) {
-                    propertyTypesById.put(key, null);
+        Map<String, String> segmentNames = new HashMap<>();
+
+        if (query.getLimit() == -1 && query.getOffset() == 0 && StringUtils.isBlank(query.getText()) && StringUtils.isBlank(query.getSortby())
+                && (query.getCondition() == null || definitionsService.resolveConditionType(query.getCondition()))) {
+            // all the matching profiles are exported in no particular order, so they are streamed instead of being
+            // loaded at once, a first pass collecting the untyped properties to write the header
+            Condition condition = query.getCondition() != null ? query.getCondition() : new Condition(definitionsService.getConditionType("matchAllCondition"));
+            if (persistenceService.forEach(condition, Profile.class, profile -> addUntypedProperties(profile, propertyTypesById)) < 0) {
+                throw new IOException("Couldn't retrieve the profiles to export");
+            }
+            writeCsvHeader(writer, propertyTypesById);
+            long exportedProfiles = persistenceService.forEach(condition, Profile.class, profile -> {
+                try {
+                    writeCsvRow(writer, profile, propertyTypesById, segmentNames);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            });
+            if (exportedProfiles < 0) {
+                throw new IOException("Couldn't export all the profiles");
+            }
+        } else {
+            PartialList<Profile> profiles = search(query, Profile.class);
+            for (Profile profile : profiles.getList()) {
+                addUntypedProperties(profile, propertyTypesById);
+            }
+            writeCsvHeader(writer, propertyTypesById);
+            for (Profile profile : profiles.getList()) {
+                writeCsvRow(writer, profile, propertyTypesById, segmentNames);
+            }
+        }
+        writer.flush();
+    }
+
+    private void addUntypedProperties(Profile profile, Map<String, PropertyType> propertyTypesById) {
+        for (String key : profile.getProperties().keySet()) {
+            if (!propertyTypesById.containsKey(key)) {
+                propertyTypesById.put(key, null);
             }
         }
+    }
 
-        sb.append("profileId;");
-        // headers
+    private void writeCsvHeader(Writer writer, Map<String, PropertyType> propertyTypesById) throws IOException {
+        writer.append("profileId;");
         for (String propertyId : propertyTypesById.keySet()) {
-            sb.append(propertyId);
-            sb.append(";");
-        }
-        sb.append("segments\n");
-
-        // rows
-        for (Profile profile : profiles.getList()) {
-            sb.append(profile.getItemId());
-            sb.append(";");
-            for (Map.Entry<String, PropertyType> propertyIdAndType : propertyTypesById.entrySet()) {
-                String propertyId = propertyIdAndType.getKey();
-                if (profile.getProperties().get(propertyId) != null) {
-                    handleExportProperty(sb, profile.getProperties().get(propertyId), propertyIdAndType.getValue());
-                } else {
-                    sb.append("");
-                }
-                sb.append(";");
+            writer.append(propertyId);
+            writer.append(";");
+        }
+        writer.append("segments\n");
+    }
+
+    private void writeCsvRow(Writer writer, Profile profile, Map<String, PropertyType> propertyTypesById, Map<String, String> segmentNames) throws IOException {
+        writer.append(profile.getItemId());
+        writer.append(";");
+        for (Map.Entry<String, PropertyType> propertyIdAndType : propertyTypesById.entrySet()) {
+            Object propertyValue = profile.getProperties().get(propertyIdAndType.getKey());
+            if (propertyValue != null) {
+                handleExportProperty(writer, propertyValue, propertyIdAndType.getValue());
             }
-            List<String> segmentNames = new ArrayList<String>();
-            for (String segment : profile.getSegments()) {
+            writer.append(";");
+        }
+        List<String> profileSegmentNames = new ArrayList<String>();
+        for (String segment : profile.getSegments()) {
+            String segmentName = segmentNames.get(segment);
+            if (segmentName == null) {
                 Segment s = segmentService.getSegmentDefinition(segment);
-                segmentNames.add(csvEncode(s.getMetadata().getName()));
+                segmentName = csvEncode(s != null ? s.getMetadata().getName() : segment);
+                segmentNames.put(segment, segmentName);
             }
-            sb.append(csvEncode(StringUtils.join(segmentNames, ",")));
-            sb.append('\n');
+            profileSegmentNames.add(segmentName);
         }
-        return sb.toString();
+        writer.append(csvEncode(StringUtils.join(profileSegmentNames, ",")));
+        writer.append('\n');
     }
 
     // TODO may be moved this in a specific Export Utils Class and improve it to handle date format, ...
-    private void handleExportProperty(StringBuilder sb, Object propertyValue, PropertyType propertyType) {
+    private void handleExportProperty(Writer writer, Object propertyValue, PropertyType propertyType) throws IOException {
         if (propertyValue instanceof Collection && propertyType != null && propertyType.isMultivalued() != null && propertyType.isMultivalued()) {
             Collection propertyValues = (Collection) propertyValue;
             Collection encodedValues = new ArrayList(propertyValues.size());
             for (Object value : propertyValues) {
                 encodedValues.add(csvEncode(value.toString()));
             }
-            sb.append(csvEncode(StringUtils.join(encodedValues, ",")));
+            writer.append(csvEncode(StringUtils.join(encodedValues, ",")));
         } else {
-            sb.append(csvEncode(propertyValue.toString()));
+            writer.append(csvEncode(propertyValue.toString()));
         }
     }
 
@@ -521,7 +593,8 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         if (profile.getItemId() == null) {
             return null;
         }
-        if (persistenceService.save(profile)) {
+        // a refresh needs the profile to be written right away, and not returned from the identity map of the write buffer
+        if (forceRefresh ? persistenceService.save(profile, false) : persistenceService.save(profile)) {
             if (forceRefresh) {
                 // triggering a load will force an in-place refresh, that may be expensive in performance but will make data immediately available.
                 return persistenceService.load(profile.getItemId(), Profile.class);
@@ -774,13 +847,11 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     public void batchProfilesUpdate(BatchUpdate update) {
         ParserHelper.resolveConditionType(definitionsService, update.getCondition());
-        List<Profile> profiles = persistenceService.query(update.getCondition(), null, Profile.class);
-
-        for (Profile profile : profiles) {
+        persistenceService.forEach(update.getCondition(), Profile.class, profile -> {
             if (PropertyHelper.setProperty(profile, update.getPropertyName(), update.getPropertyValue(), update.getStrategy())) {
                 save(profile);
             }
-        }
+        });
     }
 
     public Persona loadPersona(String personaId) {
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.services.DefinitionsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of the loaded rules, compiled into {@link RulePlan}s and indexed by scope and by the event types
+ * their event condition can match. Rules for which no event type restriction can be determined are stored in a wildcard
+ * bucket and are always candidates for their scope.
+ */
+class RuleIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleIndex.class.getName());
+
+    static final RuleIndex EMPTY = new RuleIndex(Collections.<Rule>emptyList(), Collections.<RulePlan>emptyList(),
+            new ScopeCandidates(Collections.<String, List<RulePlan>>emptyMap(), Collections.<RulePlan>emptyList()),
+            Collections.<String, ScopeCandidates>emptyMap());
+
+    private static final String PARAMETER_PREFIX = "parameter::";
+    private static final String SCRIPT_PREFIX = "script::";
+
+    private final List<Rule> allRules;
+    private final List<RulePlan> enabledRulePlans;
+    private final ScopeCandidates systemScopeCandidates;
+    private final Map<String, ScopeCandidates> candidatesByScope;
+
+    private RuleIndex(List<Rule> allRules, List<RulePlan> enabledRulePlans, ScopeCandidates systemScopeCandidates,
+                      Map<String, ScopeCandidates> candidatesByScope) {
+        this.allRules = allRules;
+        this.enabledRulePlans = enabledRulePlans;
+        this.systemScopeCandidates = systemScopeCandidates;
+        this.candidatesByScope = candidatesByScope;
+    }
+
+    /**
+     * Builds an index for the given rules. The rules are expected to be sorted by priority and their condition types
+     * must already be resolved.
+     *
+     * @param rules              the rules to index, in evaluation order
+     * @param definitionsService the definitions service used to compile the rules
+     * @return the new index
+     */
+    static RuleIndex build(List<Rule> rules, DefinitionsService definitionsService) {
+        List<RulePlan> enabledRulePlans = new ArrayList<>();
+        Map<String, ScopeBucket> buckets = new HashMap<>();
+        int ordinal = 0;
+        for (Rule rule : rules) {
+            ordinal++;
+            if (!rule.getMetadata().isEnabled() || rule.getCondition() == null) {
+                continue;
+            }
+            RulePlan rulePlan;
+            Set<String> eventTypes = null;
+            try {
+                rulePlan = RulePlan.compile(ordinal, rule, definitionsService);
+            } catch (RuntimeException e) {
+                // the rule keeps being evaluated, failing for each event as it would without compilation
+                logger.debug("Couldn't compile condition of rule {}, it will be interpreted for all events", rule.getItemId(), e);
+                rulePlan = RulePlan.interpret(ordinal, rule, definitionsService);
+            }
+            enabledRulePlans.add(rulePlan);
+            if (rulePlan.isCompiled()) {
+                if (rulePlan.getEventCondition() == null) {
+                    // such a rule can never match an event, no need to index it
+                    continue;
+                }
+                try {
+                    eventTypes = getEventTypes(rulePlan.getEventCondition(), Collections.<String, Object>emptyMap());
+                } catch (RuntimeException e) {
+                    logger.warn("Couldn't determine event types for rule {}, it will be evaluated for all events", rule.getItemId());
+                    logger.debug("Error while analyzing rule condition", e);
+                }
+            }
+            String scope = rule.getMetadata().getScope();
+            ScopeBucket bucket = buckets.get(scope);
+            if (bucket == null) {
+                bucket = new ScopeBucket();
+                buckets.put(scope, bucket);
+            }
+            bucket.add(rulePlan, eventTypes);
+        }
+
+        ScopeBucket systemScopeBucket = buckets.remove(Metadata.SYSTEM_SCOPE);
+        if (systemScopeBucket == null) {
+            systemScopeBucket = new ScopeBucket();
+        }
+        ScopeCandidates systemScopeCandidates = ScopeCandidates.merge(systemScopeBucket, null);
+        Map<String, ScopeCandidates> candidatesByScope = new HashMap<>();
+        for (Map.Entry<String, ScopeBucket> entry : buckets.entrySet()) {
+            candidatesByScope.put(entry.getKey(), ScopeCandidates.merge(systemScopeBucket, entry.getValue()));
+        }
+        return new RuleIndex(Collections.unmodifiableList(new ArrayList<>(rules)), Collections.unmodifiableList(enabledRulePlans),
+                systemScopeCandidates, Collections.unmodifiableMap(candidatesByScope));
+    }
+
+    List<Rule> getAllRules() {
+        return allRules;
+    }
+
+    /**
+     * @return the compiled plans of all the enabled rules, in evaluation order
+     */
+    List<RulePlan> getEnabledRulePlans() {
+        return enabledRulePlans;
+    }
+
+    /**
+     * Returns the rules that may match the given event, in evaluation order. The returned lists are computed when the
+     * index is built, so this method doesn't allocate anything.
+     *
+     * @param event the event to find candidate rules for
+     * @return the compiled candidate rules, sorted as in the original rule list
+     */
+    List<RulePlan> getCandidateRulePlans(Event event) {
+        ScopeCandidates scopeCandidates = event.getScope() != null ? candidatesByScope.get(event.getScope()) : null;
+        if (scopeCandidates == null) {
+            scopeCandidates = systemScopeCandidates;
+        }
+        List<RulePlan> candidates = event.getEventType() != null ? scopeCandidates.rulePlansByEventType.get(event.getEventType()) : null;
+        return candidates != null ? candidates : scopeCandidates.wildcardRulePlans;
+    }
+
+    /**
+     * Determines the set of event types a condition can match.
+     *
+     * @param condition       the condition to analyze
+     * @param parameterValues the parameter values of the enclosing condition, used to resolve parameter references
+     * @return the event types, or null if the condition cannot be restricted to a known set of event types
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<String> getEventTypes(Condition condition, Map<String, Object> parameterValues) {
+        if (condition == null || condition.getConditionTypeId() == null) {
+            return null;
+        }
+        switch (condition.getConditionTypeId()) {
+            case "eventTypeCondition":
+                Object eventTypeId = resolveValue(condition.getParameter("eventTypeId"), parameterValues);
+                return eventTypeId instanceof String ? Collections.singleton((String) eventTypeId) : null;
+            case "eventPropertyCondition":
+                if (!"eventType".equals(resolveValue(condition.getParameter("propertyName"), parameterValues))) {
+                    return null;
+                }
+                Object operator = resolveValue(condition.getParameter("comparisonOperator"), parameterValues);
+                if ("equals".equals(operator)) {
+                    Object value = resolveValue(condition.getParameter("propertyValue"), parameterValues);
+                    return value instanceof String ? Collections.singleton((String) value) : null;
+                } else if ("in".equals(operator)) {
+                    Object values = resolveValue(condition.getParameter("propertyValues"), parameterValues);
+                    if (!(values instanceof Collection)) {
+                        return null;
+                    }
+                    Set<String> eventTypes = new HashSet<>();
+                    for (Object value : (Collection<Object>) values) {
+                        Object resolvedValue = resolveValue(value, parameterValues);
+                        if (!(resolvedValue instanceof String)) {
+                            return null;
+                        }
+                        eventTypes.add((String) resolvedValue);
+                    }
+                    return eventTypes;
+                }
+                return null;
+            case "booleanCondition":
+                Object subConditions = resolveValue(condition.getParameter("subConditions"), parameterValues);
+                if (!(subConditions instanceof List)) {
+                    return null;
+                }
+                boolean and = "and".equals(resolveValue(condition.getParameter("operator"), parameterValues));
+                Set<String> result = null;
+                for (Object subCondition : (List<Object>) subConditions) {
+                    Set<String> subEventTypes = subCondition instanceof Condition ? getEventTypes((Condition) subCondition, parameterValues) : null;
+                    if (and) {
+                        if (subEventTypes != null) {
+                            if (result == null) {
+                                result = new HashSet<>(subEventTypes);
+                            } else {
+                                result.retainAll(subEventTypes);
+                            }
+                        }
+                    } else {
+                        if (subEventTypes == null) {
+                            return null;
+                        }
+                        if (result == null) {
+                            result = new HashSet<>();
+                        }
+                        result.addAll(subEventTypes);
+                    }
+                }
+                return result;
+            default:
+                if (condition.getConditionType() != null && condition.getConditionType().getParentCondition() != null) {
+                    Map<String, Object> resolvedParameterValues = new HashMap<>();
+                    for (Map.Entry<String, Object> entry : condition.getParameterValues().entrySet()) {
+                        resolvedParameterValues.put(entry.getKey(), resolveValue(entry.getValue(), parameterValues));
+                    }
+                    return getEventTypes(condition.getConditionType().getParentCondition(), resolvedParameterValues);
+                }
+                return null;
+        }
+    }
+
+    private static Object resolveValue(Object value, Map<String, Object> parameterValues) {
+        if (value instanceof String && ((String) value).startsWith(PARAMETER_PREFIX)) {
+            Object resolvedValue = parameterValues.get(((String) value).substring(PARAMETER_PREFIX.length()));
+            // unresolved references can't be used to restrict event types
+            return resolvedValue instanceof String && ((String) resolvedValue).startsWith(PARAMETER_PREFIX) ? null : resolvedValue;
+        }
+        if (value instanceof String && ((String) value).startsWith(SCRIPT_PREFIX)) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * The rules of a single scope, before being merged with the rules of the system scope.
+     */
+    private static class ScopeBucket {
+        private final Map<String, List<RulePlan>> rulePlansByEventType = new HashMap<>();
+        private final List<RulePlan> wildcardRulePlans = new ArrayList<>();
+
+        void add(RulePlan rulePlan, Set<String> eventTypes) {
+            if (eventTypes == null) {
+                wildcardRulePlans.add(rulePlan);
+                return;
+            }
+            for (String eventType : eventTypes) {
+                List<RulePlan> rulePlans = rulePlansByEventType.get(eventType);
+                if (rulePlans == null) {
+                    rulePlans = new ArrayList<>();
+                    rulePlansByEventType.put(eventType, rulePlans);
+                }
+                rulePlans.add(rulePlan);
+            }
+        }
+    }
+
+    /**
+     * The candidate rules for the events of a scope, including the rules of the system scope.
+     */
+    private static class ScopeCandidates {
+        private final Map<String, List<RulePlan>> rulePlansByEventType;
+        private final List<RulePlan> wildcardRulePlans;
+
+        ScopeCandidates(Map<String, List<RulePlan>> rulePlansByEventType, List<RulePlan> wildcardRulePlans) {
+            this.rulePlansByEventType = rulePlansByEventType;
+            this.wildcardRulePlans = wildcardRulePlans;
+        }
+
+        static ScopeCandidates merge(ScopeBucket systemScopeBucket, ScopeBucket scopeBucket) {
+            Set<String> eventTypes = new HashSet<>(systemScopeBucket.rulePlansByEventType.keySet());
+            if (scopeBucket != null) {
+                eventTypes.addAll(scopeBucket.rulePlansByEventType.keySet());
+            }
+            Map<String, List<RulePlan>> rulePlansByEventType = new HashMap<>();
+            for (String eventType : eventTypes) {
+                rulePlansByEventType.put(eventType, mergeBuckets(systemScopeBucket, scopeBucket, eventType));
+            }
+            return new ScopeCandidates(Collections.unmodifiableMap(rulePlansByEventType), mergeBuckets(systemScopeBucket, scopeBucket, null));
+        }
+
+        private static List<RulePlan> mergeBuckets(ScopeBucket systemScopeBucket, ScopeBucket scopeBucket, String eventType) {
+            List<RulePlan> rulePlans = new ArrayList<>();
+            addBucket(systemScopeBucket, eventType, rulePlans);
+            if (scopeBucket != null) {
+                addBucket(scopeBucket, eventType, rulePlans);
+            }
+            Collections.sort(rulePlans);
+            return Collections.unmodifiableList(rulePlans);
+        }
+
+        private static void addBucket(ScopeBucket bucket, String eventType, List<RulePlan> rulePlans) {
+            rulePlans.addAll(bucket.wildcardRulePlans);
+            if (eventType != null && bucket.rulePlansByEventType.containsKey(eventType)) {
+                rulePlans.addAll(bucket.rulePlansByEventType.get(eventType));
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.services.DefinitionsService;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A rule compiled once when the rules are loaded: its condition is pre-split into the sub-conditions matching each
+ * system tag used during event processing, so that they don't need to be extracted again for each event, and the
+ * scripts it uses are collected so that they can be compiled ahead of time.
+ * <p>
+ * Rules whose condition cannot be split when they are loaded get an interpreted plan, that extracts the sub-conditions
+ * again each time they are used, failing the same way for each event.
+ */
+class RulePlan implements Comparable<RulePlan> {
+
+    private static final String SCRIPT_PREFIX = "script::";
+
+    private final int ordinal;
+    private final Rule rule;
+    private final Condition eventCondition;
+    private final Condition sourceEventCondition;
+    private final Condition profileCondition;
+    private final Condition sessionCondition;
+    private final Condition trackedCondition;
+    private final Set<String> scripts = new LinkedHashSet<>();
+    // only set for interpreted plans
+    private final DefinitionsService definitionsService;
+
+    private RulePlan(int ordinal, Rule rule, DefinitionsService definitionsService, boolean compiled) {
+        this.ordinal = ordinal;
+        this.rule = rule;
+        Condition condition = rule.getCondition();
+        if (compiled) {
+            this.definitionsService = null;
+            this.eventCondition = definitionsService.extractConditionBySystemTag(condition, "eventCondition");
+            this.sourceEventCondition = definitionsService.extractConditionBySystemTag(condition, "sourceEventCondition");
+            this.profileCondition = definitionsService.extractConditionBySystemTag(condition, "profileCondition");
+            this.sessionCondition = definitionsService.extractConditionBySystemTag(condition, "sessionCondition");
+            this.trackedCondition = definitionsService.extractConditionBySystemTag(condition, "trackedCondition");
+        } else {
+            this.definitionsService = definitionsService;
+            this.eventCondition = null;
+            this.sourceEventCondition = null;
+            this.profileCondition = null;
+            this.sessionCondition = null;
+            this.trackedCondition = null;
+        }
+        collectConditionScripts(condition);
+        if (rule.getActions() != null) {
+            for (Action action : rule.getActions()) {
+                collectScripts(action.getParameterValues());
+            }
+        }
+    }
+
+    private void collectConditionScripts(Condition condition) {
+        if (condition == null) {
+            return;
+        }
+        collectScripts(condition.getParameterValues());
+        if (condition.getConditionType() != null) {
+            collectConditionScripts(condition.getConditionType().getParentCondition());
+        }
+    }
+
+    private void collectScripts(Object value) {
+        if (value instanceof String) {
+            String s = (String) value;
+            if (s.startsWith(SCRIPT_PREFIX)) {
+                scripts.add(s.substring(SCRIPT_PREFIX.length()));
+            }
+        } else if (value instanceof Condition) {
+            collectConditionScripts((Condition) value);
+        } else if (value instanceof Map) {
+            for (Object o : ((Map<?, ?>) value).values()) {
+                collectScripts(o);
+            }
+        } else if (value instanceof Collection) {
+            for (Object o : ((Collection<?>) value)) {
+                collectScripts(o);
+            }
+        }
+    }
+
+    /**
+     * Compiles a rule. The condition types of the rule must already be resolved.
+     *
+     * @param ordinal            the position of the rule in the evaluation order
+     * @param rule               the rule to compile
+     * @param definitionsService the definitions service used to extract the sub-conditions
+     * @return the compiled rule
+     * @throws IllegalArgumentException if the rule condition cannot be split by system tag
+     */
+    static RulePlan compile(int ordinal, Rule rule, DefinitionsService definitionsService) {
+        return new RulePlan(ordinal, rule, definitionsService, true);
+    }
+
+    /**
+     * Builds a plan that extracts the sub-conditions of the rule each time they are used, for rules that cannot be
+     * compiled.
+     *
+     * @param ordinal            the position of the rule in the evaluation order
+     * @param rule               the rule
+     * @param definitionsService the definitions service used to extract the sub-conditions
+     * @return the interpreted rule
+     */
+    static RulePlan interpret(int ordinal, Rule rule, DefinitionsService definitionsService) {
+        return new RulePlan(ordinal, rule, definitionsService, false);
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return false if the sub-conditions of the rule are extracted each time they are used
+     */
+    boolean isCompiled() {
+        return definitionsService == null;
+    }
+
+    Condition getEventCondition() {
+        return getCondition(eventCondition, "eventCondition");
+    }
+
+    Condition getSourceEventCondition() {
+        return getCondition(sourceEventCondition, "sourceEventCondition");
+    }
+
+    Condition getProfileCondition() {
+        return getCondition(profileCondition, "profileCondition");
+    }
+
+    Condition getSessionCondition() {
+        return getCondition(sessionCondition, "sessionCondition");
+    }
+
+    Condition getTrackedCondition() {
+        return getCondition(trackedCondition, "trackedCondition");
+    }
+
+    private Condition getCondition(Condition compiledCondition, String systemTag) {
+        return definitionsService != null ? definitionsService.extractConditionBySystemTag(rule.getCondition(), systemTag) : compiledCondition;
+    }
+
+    /**
+     * @return the scripts used in the condition and in the action parameters of the rule, without their
+     * <code>script::</code> prefix
+     */
+    Set<String> getScripts() {
+        return scripts;
+    }
+
+    @Override
+    public int compareTo(RulePlan o) {
+        return Integer.compare(ordinal, o.ordinal);
+    }
+}
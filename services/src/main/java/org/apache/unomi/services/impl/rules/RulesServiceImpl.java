@@ -22,14 +22,19 @@ import org.apache.unomi.api.Item;
 import org.apache.unomi.api.Metadata;
 import org.apache.unomi.api.PartialList;
 import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.actions.ActionType;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.api.query.Query;
 import org.apache.unomi.api.rules.Rule;
 import org.apache.unomi.api.rules.RuleStatistics;
 import org.apache.unomi.api.services.*;
+import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.persistence.spi.ScriptExecutor;
 import org.apache.unomi.services.actions.ActionExecutorDispatcher;
+import org.apache.unomi.services.impl.ItemChangeTracker;
 import org.apache.unomi.services.impl.ParserHelper;
 import org.osgi.framework.*;
 import org.slf4j.Logger;
@@ -45,6 +50,8 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
 
     public static final String RULE_QUERY_PREFIX = "rule_";
     private static final Logger logger = LoggerFactory.getLogger(RulesServiceImpl.class.getName());
+    private static final String RULES_GAUGE_NAME = "rules.count";
+    private static final String ENABLED_RULES_GAUGE_NAME = "rules.enabled.count";
 
     private BundleContext bundleContext;
 
@@ -54,12 +61,22 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
     private SchedulerService schedulerService;
 
     private ActionExecutorDispatcher actionExecutorDispatcher;
-    private List<Rule> allRules;
+    private ScriptExecutor scriptExecutor;
+    private MetricsService metricsService;
+    private volatile RuleIndex ruleIndex = RuleIndex.EMPTY;
+    private ItemChangeTracker rulesChangeTracker;
+    private ItemChangeTracker conditionTypesChangeTracker;
+    private ItemChangeTracker actionTypesChangeTracker;
+    private boolean typesChangedSinceLastReload = false;
 
     private Map<String,RuleStatistics> allRuleStatistics = new ConcurrentHashMap<>();
 
     private Integer rulesRefreshInterval = 1000;
     private Integer rulesStatisticsRefreshInterval = 10000;
+    private boolean precompileScripts = true;
+    private final Set<String> invalidScripts = ConcurrentHashMap.newKeySet();
+    private final Set<String> reportedNonLocalRules = ConcurrentHashMap.newKeySet();
+    private final Set<String> reportedUncompiledRules = ConcurrentHashMap.newKeySet();
 
     private List<RuleListenerService> ruleListeners = new ArrayList<RuleListenerService>();
 
@@ -87,6 +104,14 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         this.actionExecutorDispatcher = actionExecutorDispatcher;
     }
 
+    public void setScriptExecutor(ScriptExecutor scriptExecutor) {
+        this.scriptExecutor = scriptExecutor;
+    }
+
+    public void setPrecompileScripts(boolean precompileScripts) {
+        this.precompileScripts = precompileScripts;
+    }
+
     public void setRulesRefreshInterval(Integer rulesRefreshInterval) {
         this.rulesRefreshInterval = rulesRefreshInterval;
     }
@@ -95,6 +120,10 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         this.rulesStatisticsRefreshInterval = rulesStatisticsRefreshInterval;
     }
 
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
@@ -107,11 +136,22 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
 
         bundleContext.addBundleListener(this);
 
+        rulesChangeTracker = new ItemChangeTracker(persistenceService, Rule.class);
+        conditionTypesChangeTracker = new ItemChangeTracker(persistenceService, ConditionType.class);
+        actionTypesChangeTracker = new ItemChangeTracker(persistenceService, ActionType.class);
         initializeTimers();
+        if (metricsService != null) {
+            metricsService.registerGauge(RULES_GAUGE_NAME, "Number of rules loaded", () -> ruleIndex.getAllRules().size());
+            metricsService.registerGauge(ENABLED_RULES_GAUGE_NAME, "Number of enabled rules evaluated on events", () -> ruleIndex.getEnabledRulePlans().size());
+        }
         logger.info("Rule service initialized.");
     }
 
     public void preDestroy() {
+        if (metricsService != null) {
+            metricsService.unregisterGauge(RULES_GAUGE_NAME);
+            metricsService.unregisterGauge(ENABLED_RULES_GAUGE_NAME);
+        }
         bundleContext.removeBundleListener(this);
         logger.info("Rule service shutdown.");
     }
@@ -160,64 +200,60 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         Boolean hasEventAlreadyBeenRaisedForSession = null;
         Boolean hasEventAlreadyBeenRaisedForProfile = null;
 
-        List<Rule> allItems = allRules;
+        RuleIndex currentRuleIndex = ruleIndex;
+        // the rules that can't match the event are skipped: they are not reported to the rule listeners as evaluated, and
+        // their statistics are left unchanged as no time is spent on their conditions
+        List<RulePlan> candidateRulePlans = currentRuleIndex.getCandidateRulePlans(event);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Skipped {} of {} enabled rules for event {} of type {}", currentRuleIndex.getEnabledRulePlans().size() - candidateRulePlans.size(),
+                    currentRuleIndex.getEnabledRulePlans().size(), event.getItemId(), event.getEventType());
+        }
 
-        for (Rule rule : allItems) {
-            if (!rule.getMetadata().isEnabled()) {
-                continue;
-            }
+        for (RulePlan rulePlan : candidateRulePlans) {
+            Rule rule = rulePlan.getRule();
             RuleStatistics ruleStatistics = getLocalRuleStatistics(rule);
             long ruleConditionStartTime = System.currentTimeMillis();
-            String scope = rule.getMetadata().getScope();
-            if (scope.equals(Metadata.SYSTEM_SCOPE) || scope.equals(event.getScope())) {
-                Condition eventCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "eventCondition");
 
-                if (eventCondition == null) {
-                    updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
-                    continue;
-                }
+            fireEvaluate(rule, event);
 
-                fireEvaluate(rule, event);
-
-                if (!persistenceService.testMatch(eventCondition, event)) {
-                    updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
-                    continue;
-                }
-
-                Condition sourceCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sourceEventCondition");
-                if (sourceCondition != null && !persistenceService.testMatch(sourceCondition, event.getSource())) {
-                    updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
-                    continue;
-                }
+            if (!persistenceService.testMatch(rulePlan.getEventCondition(), event)) {
+                updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                continue;
+            }
 
-                if (rule.isRaiseEventOnlyOnceForProfile()) {
-                    hasEventAlreadyBeenRaisedForProfile = hasEventAlreadyBeenRaisedForProfile != null ? hasEventAlreadyBeenRaisedForProfile : eventService.hasEventAlreadyBeenRaised(event, false);
-                    if (hasEventAlreadyBeenRaisedForProfile) {
-                        updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
-                        fireAlreadyRaised(RuleListenerService.AlreadyRaisedFor.PROFILE, rule, event);
-                        continue;
-                    }
-                } else if (rule.isRaiseEventOnlyOnceForSession()) {
-                    hasEventAlreadyBeenRaisedForSession = hasEventAlreadyBeenRaisedForSession != null ? hasEventAlreadyBeenRaisedForSession : eventService.hasEventAlreadyBeenRaised(event, true);
-                    if (hasEventAlreadyBeenRaisedForSession) {
-                        updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
-                        fireAlreadyRaised(RuleListenerService.AlreadyRaisedFor.SESSION, rule, event);
-                        continue;
-                    }
-                }
+            Condition sourceCondition = rulePlan.getSourceEventCondition();
+            if (sourceCondition != null && !persistenceService.testMatch(sourceCondition, event.getSource())) {
+                updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                continue;
+            }
 
-                Condition profileCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "profileCondition");
-                if (profileCondition != null && !persistenceService.testMatch(profileCondition, event.getProfile())) {
+            if (rule.isRaiseEventOnlyOnceForProfile()) {
+                hasEventAlreadyBeenRaisedForProfile = hasEventAlreadyBeenRaisedForProfile != null ? hasEventAlreadyBeenRaisedForProfile : eventService.hasEventAlreadyBeenRaised(event, false);
+                if (hasEventAlreadyBeenRaisedForProfile) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                    fireAlreadyRaised(RuleListenerService.AlreadyRaisedFor.PROFILE, rule, event);
                     continue;
                 }
-                Condition sessionCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sessionCondition");
-                if (sessionCondition != null && !persistenceService.testMatch(sessionCondition, event.getSession())) {
+            } else if (rule.isRaiseEventOnlyOnceForSession()) {
+                hasEventAlreadyBeenRaisedForSession = hasEventAlreadyBeenRaisedForSession != null ? hasEventAlreadyBeenRaisedForSession : eventService.hasEventAlreadyBeenRaised(event, true);
+                if (hasEventAlreadyBeenRaisedForSession) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                    fireAlreadyRaised(RuleListenerService.AlreadyRaisedFor.SESSION, rule, event);
                     continue;
                 }
-                matchedRules.add(rule);
             }
+
+            Condition profileCondition = rulePlan.getProfileCondition();
+            if (profileCondition != null && !persistenceService.testMatch(profileCondition, event.getProfile())) {
+                updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                continue;
+            }
+            Condition sessionCondition = rulePlan.getSessionCondition();
+            if (sessionCondition != null && !persistenceService.testMatch(sessionCondition, event.getSession())) {
+                updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
+                continue;
+            }
+            matchedRules.add(rule);
         }
 
         return matchedRules;
@@ -357,15 +393,11 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
 
     public Set<Condition> getTrackedConditions(Item source){
         Set<Condition> trackedConditions = new HashSet<>();
-        for (Rule r : allRules) {
-            if (!r.getMetadata().isEnabled()) {
-                continue;
-            }
-            Condition trackedCondition = definitionsService.extractConditionBySystemTag(r.getCondition(), "trackedCondition");
+        for (RulePlan rulePlan : ruleIndex.getEnabledRulePlans()) {
+            Condition trackedCondition = rulePlan.getTrackedCondition();
             if(trackedCondition != null){
-                Condition sourceEventPropertyCondition = definitionsService.extractConditionBySystemTag(r.getCondition(), "sourceEventCondition");
+                Condition sourceEventPropertyCondition = rulePlan.getSourceEventCondition();
                 if(source != null && sourceEventPropertyCondition != null) {
-                    ParserHelper.resolveConditionType(definitionsService, sourceEventPropertyCondition);
                     if(persistenceService.testMatch(sourceEventPropertyCondition, source)){
                         trackedConditions.add(trackedCondition);
                     }
@@ -382,12 +414,76 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         persistenceService.remove(ruleId, Rule.class);
     }
 
+    private void precompileScripts(RuleIndex ruleIndex) {
+        for (RulePlan rulePlan : ruleIndex.getEnabledRulePlans()) {
+            for (String script : rulePlan.getScripts()) {
+                if (invalidScripts.contains(script)) {
+                    continue;
+                }
+                try {
+                    scriptExecutor.precompile(script);
+                } catch (Exception e) {
+                    // only report invalid scripts once, as the rules are reloaded very often
+                    invalidScripts.add(script);
+                    logger.warn("Error compiling script {} of rule {}", script, rulePlan.getRule().getItemId(), e);
+                }
+            }
+        }
+    }
+
+    private void reportNonLocalConditions(RuleIndex ruleIndex) {
+        for (RulePlan rulePlan : ruleIndex.getEnabledRulePlans()) {
+            Rule rule = rulePlan.getRule();
+            if (rulePlan.isCompiled()) {
+                reportedUncompiledRules.remove(rule.getItemId());
+            } else if (reportedUncompiledRules.add(rule.getItemId())) {
+                logger.warn("Couldn't compile condition of rule {}, its sub-conditions will be extracted again for each event", rule.getItemId());
+            }
+            if (reportedNonLocalRules.contains(rule.getItemId())) {
+                continue;
+            }
+            Set<String> nonLocalConditionTypeIds = persistenceService.getNonLocalConditionTypeIds(rule.getCondition());
+            if (!nonLocalConditionTypeIds.isEmpty()) {
+                // only report each rule once, as the rules are reloaded whenever any of them changes
+                reportedNonLocalRules.add(rule.getItemId());
+                logger.warn("Rule {} uses condition types that cannot be evaluated in memory {}, it will query the persistence back-end for each event",
+                        rule.getItemId(), nonLocalConditionTypeIds);
+            }
+        }
+    }
+
+    private void refreshRules() {
+        if (conditionTypesChangeTracker.hasChangedSinceLastCheck() | actionTypesChangeTracker.hasChangedSinceLastCheck()) {
+            // the rules must be resolved again against the new types, which the definitions service may not have seen yet
+            definitionsService.refresh();
+            typesChangedSinceLastReload = true;
+        }
+        Set<String> changedRuleIds = rulesChangeTracker.getChangedItemIds();
+        List<Rule> rules;
+        if (changedRuleIds == null || typesChangedSinceLastReload) {
+            rules = getAllRules();
+        } else if (changedRuleIds.isEmpty()) {
+            return;
+        } else {
+            rules = ItemChangeTracker.replaceChangedItems(ruleIndex.getAllRules(), changedRuleIds, this::getRule);
+            rules.sort(Comparator.comparingInt(Rule::getPriority));
+        }
+        RuleIndex newRuleIndex = RuleIndex.build(rules, definitionsService);
+        if (precompileScripts) {
+            precompileScripts(newRuleIndex);
+        }
+        reportNonLocalConditions(newRuleIndex);
+        ruleIndex = newRuleIndex;
+        rulesChangeTracker.reloaded();
+        typesChangedSinceLastReload = false;
+    }
+
     private void initializeTimers() {
         TimerTask task = new TimerTask() {
             @Override
             public void run() {
                 try {
-                    allRules = getAllRules();
+                    refreshRules();
                 } catch (Throwable t) {
                     logger.error("Error loading rules from persistence back-end", t);
                 }
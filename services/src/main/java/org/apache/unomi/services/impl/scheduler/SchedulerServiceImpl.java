@@ -14,35 +14,167 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.unomi.services.impl.scheduler;
 
 import org.apache.unomi.api.services.SchedulerService;
+import org.apache.unomi.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Scheduler service running tasks in separate lanes, each lane having its own pool of threads so that long batch tasks
+ * never delay the frequent refresh tasks. Each lane tracks the duration of its last run and counts the tasks that
+ * started later than the overrun threshold, which happens when the previous runs or the other tasks of the lane take
+ * longer than their period.
+ *
  * @author dgaillard
  */
 public class SchedulerServiceImpl implements SchedulerService {
     private static final Logger logger = LoggerFactory.getLogger(SchedulerServiceImpl.class.getName());
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, LaneExecutor> lanes = new LinkedHashMap<>();
+
+    private MetricsService metricsService;
+    private int refreshPoolSize = 1;
+    private int batchPoolSize = 1;
+    private long overrunThreshold = 1000L;
+
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void setRefreshPoolSize(int refreshPoolSize) {
+        this.refreshPoolSize = refreshPoolSize;
+    }
+
+    public void setBatchPoolSize(int batchPoolSize) {
+        this.batchPoolSize = batchPoolSize;
+    }
+
+    public void setOverrunThreshold(long overrunThreshold) {
+        this.overrunThreshold = overrunThreshold;
+    }
 
     public void postConstruct() {
-        logger.info("Scheduler service initialized.");
+        lanes.put(REFRESH_LANE, new LaneExecutor(REFRESH_LANE, refreshPoolSize));
+        lanes.put(BATCH_LANE, new LaneExecutor(BATCH_LANE, batchPoolSize));
+        if (metricsService != null) {
+            for (LaneExecutor lane : lanes.values()) {
+                lane.registerGauges();
+            }
+        }
+        logger.info("Scheduler service initialized with lanes {}.", lanes.keySet());
     }
 
     public void preDestroy() {
-        scheduler.shutdown();
+        for (LaneExecutor lane : lanes.values()) {
+            if (metricsService != null) {
+                lane.unregisterGauges();
+            }
+            lane.shutdown();
+        }
         logger.info("Scheduler service shutdown.");
     }
 
     @Override
     public ScheduledExecutorService getScheduleExecutorService() {
-        return scheduler;
+        return getScheduleExecutorService(REFRESH_LANE);
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduleExecutorService(String lane) {
+        LaneExecutor laneExecutor = lanes.get(lane);
+        if (laneExecutor == null) {
+            throw new IllegalArgumentException("Unknown scheduler lane " + lane + ", available lanes are " + lanes.keySet());
+        }
+        return laneExecutor;
+    }
+
+    private class LaneExecutor extends ScheduledThreadPoolExecutor {
+
+        private final String name;
+        private final String timerName;
+        private final ThreadLocal<Long> runStartTimes = new ThreadLocal<>();
+        private final AtomicLong overruns = new AtomicLong();
+        private volatile long lastRunDuration = 0L;
+
+        LaneExecutor(String name, int poolSize) {
+            super(Math.max(1, poolSize), new LaneThreadFactory(name));
+            this.name = name;
+            this.timerName = SchedulerServiceImpl.class.getName() + "." + name;
+            setRemoveOnCancelPolicy(true);
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            if (runnable instanceof Delayed) {
+                // the trigger time of periodic tasks is only moved after the run, so this is how late the run starts
+                long lateness = -((Delayed) runnable).getDelay(TimeUnit.MILLISECONDS);
+                if (lateness > overrunThreshold) {
+                    overruns.incrementAndGet();
+                    logger.warn("A task of the {} scheduler lane started {}ms late, the previous tasks of the lane took longer than expected", name, lateness);
+                }
+            }
+            runStartTimes.set(System.nanoTime());
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            Long runStartTime = runStartTimes.get();
+            if (runStartTime != null) {
+                runStartTimes.remove();
+                lastRunDuration = System.nanoTime() - runStartTime;
+                if (metricsService != null && metricsService.isActivated()) {
+                    metricsService.updateTimerNanos(timerName, runStartTime);
+                }
+            }
+            super.afterExecute(runnable, throwable);
+        }
+
+        private String getGaugeName(String gauge) {
+            return "scheduler." + name + "." + gauge;
+        }
+
+        void registerGauges() {
+            metricsService.registerGauge(getGaugeName("queueSize"), "Number of tasks waiting in the " + name + " scheduler lane", () -> getQueue().size());
+            metricsService.registerGauge(getGaugeName("activeTasks"), "Number of tasks currently running in the " + name + " scheduler lane", this::getActiveCount);
+            metricsService.registerGauge(getGaugeName("lastRunDuration"), "Duration in milliseconds of the last task run in the " + name + " scheduler lane",
+                    () -> TimeUnit.NANOSECONDS.toMillis(lastRunDuration));
+            metricsService.registerGauge(getGaugeName("overruns"), "Number of tasks of the " + name + " scheduler lane that started more than "
+                    + overrunThreshold + "ms late", overruns::get);
+        }
+
+        void unregisterGauges() {
+            metricsService.unregisterGauge(getGaugeName("queueSize"));
+            metricsService.unregisterGauge(getGaugeName("activeTasks"));
+            metricsService.unregisterGauge(getGaugeName("lastRunDuration"));
+            metricsService.unregisterGauge(getGaugeName("overruns"));
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final String laneName;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        LaneThreadFactory(String laneName) {
+            this.laneName = laneName;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "unomi-scheduler-" + laneName + "-" + threadCount.incrementAndGet());
+        }
     }
 }
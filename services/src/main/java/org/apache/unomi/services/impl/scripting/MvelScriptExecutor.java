@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.scripting;
+
+import org.apache.unomi.metrics.MetricsService;
+import org.apache.unomi.persistence.spi.ScriptExecutor;
+import org.mvel2.MVEL;
+import org.mvel2.ParserConfiguration;
+import org.mvel2.ParserContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Script executor compiling MVEL scripts once and keeping them in a bounded cache. When a script is requested by
+ * several threads at the same time, only one of them compiles it while the other ones wait for the result. When the
+ * cache is full, the least recently used scripts are evicted.
+ */
+public class MvelScriptExecutor implements ScriptExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MvelScriptExecutor.class.getName());
+
+    private static final String HIT_TIMER_NAME = MvelScriptExecutor.class.getName() + ".cache.hit";
+    private static final String MISS_TIMER_NAME = MvelScriptExecutor.class.getName() + ".cache.miss";
+    private static final String COMPILE_TIMER_NAME = MvelScriptExecutor.class.getName() + ".compile";
+    private static final String CACHE_SIZE_GAUGE_NAME = "scripts.mvel.cache.size";
+
+    private final ConcurrentMap<String, CompiledScript> compiledScripts = new ConcurrentHashMap<>();
+    private final AtomicLong accessCounter = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private MetricsService metricsService;
+    private int maxSize = 1000;
+
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void postConstruct() {
+        if (metricsService != null) {
+            metricsService.registerGauge(CACHE_SIZE_GAUGE_NAME, "Number of compiled MVEL scripts in the cache", this::getCacheSize);
+        }
+    }
+
+    public void preDestroy() {
+        if (metricsService != null) {
+            metricsService.unregisterGauge(CACHE_SIZE_GAUGE_NAME);
+        }
+    }
+
+    @Override
+    public Object execute(String script, Map<String, Object> context) {
+        return MVEL.executeExpression(getCompiledScript(script, true), context);
+    }
+
+    @Override
+    public void precompile(String script) {
+        getCompiledScript(script, false);
+    }
+
+    /**
+     * @return the number of compiled scripts currently in the cache
+     */
+    public int getCacheSize() {
+        return compiledScripts.size();
+    }
+
+    private Serializable getCompiledScript(String script, boolean updateHitMetric) {
+        long startTime = System.nanoTime();
+        CompiledScript compiledScript = compiledScripts.get(script);
+        if (compiledScript == null) {
+            CompiledScript newCompiledScript = new CompiledScript(script);
+            compiledScript = compiledScripts.putIfAbsent(script, newCompiledScript);
+            if (compiledScript == null) {
+                compiledScript = newCompiledScript;
+                updateTimer(MISS_TIMER_NAME, startTime);
+                compiledScript.compilation.run();
+                // mark the new script as used before evicting, so that it is not the first one to go
+                compiledScript.lastAccess = accessCounter.incrementAndGet();
+                evictIfNeeded();
+            } else if (updateHitMetric) {
+                updateTimer(HIT_TIMER_NAME, startTime);
+            }
+        } else if (updateHitMetric) {
+            updateTimer(HIT_TIMER_NAME, startTime);
+        }
+        compiledScript.lastAccess = accessCounter.incrementAndGet();
+        try {
+            return compiledScript.compilation.get();
+        } catch (ExecutionException e) {
+            // don't keep failed compilations, they will be retried the next time the script is used
+            compiledScripts.remove(script, compiledScript);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Error compiling script " + script, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the compilation of script " + script, e);
+        }
+    }
+
+    private Serializable compile(String script) {
+        long startTime = System.nanoTime();
+        ClassLoader classLoader = MvelScriptExecutor.class.getClassLoader();
+        ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            ParserConfiguration parserConfiguration = new ParserConfiguration();
+            parserConfiguration.setClassLoader(classLoader);
+            return MVEL.compileExpression(script, new ParserContext(parserConfiguration));
+        } finally {
+            Thread.currentThread().setContextClassLoader(tccl);
+            updateTimer(COMPILE_TIMER_NAME, startTime);
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (compiledScripts.size() <= maxSize || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // evict down to 90% of the maximum size so that we don't have to evict again on the next compilation
+            int toEvict = compiledScripts.size() - (maxSize * 9 / 10);
+            if (toEvict <= 0) {
+                return;
+            }
+            List<Map.Entry<String, Long>> lastAccesses = new ArrayList<>(compiledScripts.size());
+            for (Map.Entry<String, CompiledScript> entry : compiledScripts.entrySet()) {
+                lastAccesses.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().lastAccess));
+            }
+            lastAccesses.sort(Map.Entry.comparingByValue());
+            for (int i = 0; i < toEvict && i < lastAccesses.size(); i++) {
+                compiledScripts.remove(lastAccesses.get(i).getKey());
+            }
+            logger.debug("Evicted {} scripts from the compiled script cache", toEvict);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void updateTimer(String timerName, long startTime) {
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateTimerNanos(timerName, startTime);
+        }
+    }
+
+    private class CompiledScript {
+        private final FutureTask<Serializable> compilation;
+        private volatile long lastAccess;
+
+        CompiledScript(String script) {
+            this.compilation = new FutureTask<>(() -> compile(script));
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.unomi.services.impl.segments;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.unomi.api.Event;
 import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.MetadataItem;
 import org.apache.unomi.api.PartialList;
 import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.actions.Action;
@@ -35,6 +36,7 @@ import org.apache.unomi.api.services.SegmentService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
 import org.apache.unomi.services.impl.AbstractServiceImpl;
+import org.apache.unomi.services.impl.ItemChangeTracker;
 import org.apache.unomi.services.impl.ParserHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -47,7 +49,11 @@ import java.io.IOException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentService, SynchronousBundleListener {
 
@@ -62,9 +68,27 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     private long taskExecutionPeriod = 1;
     private List<Segment> allSegments;
     private List<Scoring> allScoring;
+    private ItemChangeTracker segmentsChangeTracker;
+    private ItemChangeTracker scoringChangeTracker;
+    private ItemChangeTracker conditionTypesChangeTracker;
+    private boolean conditionTypesChangedSinceLastReload = false;
+    private final Set<String> reportedNonLocalItems = new HashSet<>();
     private int segmentUpdateBatchSize = 1000;
     private long segmentRefreshInterval = 1000;
     private int aggregateQueryBucketSize = 5000;
+    private int segmentUpdateWorkers = 1;
+    private boolean sendProfileUpdateEventForSegmentUpdate = true;
+    private long segmentUpdateLeaseDuration = 300000;
+
+    // identifies this node as the owner of the segment update jobs it runs
+    private final String nodeId = UUID.randomUUID().toString();
+    private ExecutorService segmentUpdateExecutor;
+    private final Map<String, Segment> queuedSegmentUpdates = new ConcurrentHashMap<>();
+    private final Set<String> runningSegmentUpdates = ConcurrentHashMap.newKeySet();
+    private final Map<String, SegmentUpdateJob> segmentUpdateJobs = new ConcurrentHashMap<>();
+
+    private static final String ADD_SEGMENT_SCRIPT = "if (ctx._source.segments == null) { ctx._source.segments = [] } if (ctx._source.segments.contains(params.segmentId)) { ctx.op = 'noop' } else { ctx._source.segments.add(params.segmentId) }";
+    private static final String REMOVE_SEGMENT_SCRIPT = "int idx = ctx._source.segments == null ? -1 : ctx._source.segments.indexOf(params.segmentId); if (idx < 0) { ctx.op = 'noop' } else { ctx._source.segments.remove(idx) }";
 
     public SegmentServiceImpl() {
         logger.info("Initializing segment service...");
@@ -98,8 +122,23 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         this.segmentRefreshInterval = segmentRefreshInterval;
     }
 
+    public void setSegmentUpdateWorkers(int segmentUpdateWorkers) {
+        this.segmentUpdateWorkers = segmentUpdateWorkers;
+    }
+
+    public void setSendProfileUpdateEventForSegmentUpdate(boolean sendProfileUpdateEventForSegmentUpdate) {
+        this.sendProfileUpdateEventForSegmentUpdate = sendProfileUpdateEventForSegmentUpdate;
+    }
+
+    public void setSegmentUpdateLeaseDuration(long segmentUpdateLeaseDuration) {
+        this.segmentUpdateLeaseDuration = segmentUpdateLeaseDuration;
+    }
+
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
+        final AtomicInteger segmentUpdateThreadCount = new AtomicInteger();
+        segmentUpdateExecutor = Executors.newFixedThreadPool(Math.max(1, segmentUpdateWorkers),
+                runnable -> new Thread(runnable, "unomi-segment-update-" + segmentUpdateThreadCount.incrementAndGet()));
         loadPredefinedSegments(bundleContext);
         loadPredefinedScorings(bundleContext);
         for (Bundle bundle : bundleContext.getBundles()) {
@@ -109,12 +148,19 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             }
         }
         bundleContext.addBundleListener(this);
+        segmentsChangeTracker = new ItemChangeTracker(persistenceService, Segment.class);
+        scoringChangeTracker = new ItemChangeTracker(persistenceService, Scoring.class);
+        conditionTypesChangeTracker = new ItemChangeTracker(persistenceService, ConditionType.class);
         initializeTimer();
         logger.info("Segment service initialized.");
     }
 
     public void preDestroy() {
         bundleContext.removeBundleListener(this);
+        if (segmentUpdateExecutor != null) {
+            // running jobs stay persisted as running and will be resumed on the next start
+            segmentUpdateExecutor.shutdownNow();
+        }
         logger.info("Segment service shutdown.");
     }
 
@@ -229,7 +275,189 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         // make sure we update the name and description metadata that might not match, so first we remove the entry from the map
         persistenceService.save(segment);
 
-        updateExistingProfilesForSegment(segment);
+        scheduleSegmentUpdate(segment);
+    }
+
+    public SegmentUpdateJob getSegmentUpdateJob(String segmentId) {
+        SegmentUpdateJob job = segmentUpdateJobs.get(segmentId);
+        if (job == null) {
+            job = persistenceService.load(segmentId, SegmentUpdateJob.class);
+        }
+        return job;
+    }
+
+    public List<SegmentUpdateJob> getSegmentUpdateJobs() {
+        Map<String, SegmentUpdateJob> jobs = new TreeMap<>();
+        for (SegmentUpdateJob job : persistenceService.getAllItems(SegmentUpdateJob.class)) {
+            jobs.put(job.getItemId(), job);
+        }
+        jobs.putAll(segmentUpdateJobs);
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void scheduleSegmentUpdate(final Segment segment) {
+        final String segmentId = segment.getItemId();
+        synchronized (segmentUpdateJobs) {
+            if (queuedSegmentUpdates.put(segmentId, segment) != null) {
+                // an update is already waiting for this segment, it will pick up this definition
+                return;
+            }
+            SegmentUpdateJob job = segmentUpdateJobs.get(segmentId);
+            if (job == null) {
+                job = persistenceService.load(segmentId, SegmentUpdateJob.class);
+                if (job != null && job.getStatus() == SegmentUpdateJob.Status.RUNNING) {
+                    // the job was interrupted by a restart, it waits to be resumed
+                    job.setStatus(SegmentUpdateJob.Status.PENDING);
+                }
+            }
+            if (job == null || job.getStatus() == SegmentUpdateJob.Status.COMPLETED || job.getStatus() == SegmentUpdateJob.Status.FAILED) {
+                job = new SegmentUpdateJob(segmentId);
+                job.setSendProfileUpdatedEvents(sendProfileUpdateEventForSegmentUpdate);
+                job.setCreationDate(new Date());
+            }
+            // a running job is kept as is, it becomes pending again when it ends and runs once more for this definition
+            if (job.getStatus() != SegmentUpdateJob.Status.RUNNING) {
+                saveSegmentUpdateJob(job);
+            }
+        }
+        segmentUpdateExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                runQueuedSegmentUpdates(segmentId);
+            }
+        });
+    }
+
+    private void runQueuedSegmentUpdates(String segmentId) {
+        // updates of the same segment are serialized, a definition queued while the segment is being updated is run
+        // afterwards by the thread updating it
+        while (!Thread.currentThread().isInterrupted() && queuedSegmentUpdates.containsKey(segmentId) && runningSegmentUpdates.add(segmentId)) {
+            try {
+                Segment segmentToUpdate;
+                while (!Thread.currentThread().isInterrupted() && (segmentToUpdate = queuedSegmentUpdates.remove(segmentId)) != null) {
+                    runSegmentUpdateJob(segmentToUpdate);
+                }
+            } finally {
+                runningSegmentUpdates.remove(segmentId);
+            }
+            // loop in case a definition was queued, and its own task skipped, right before the segment was released
+        }
+    }
+
+    private void renewAndResumeSegmentUpdateJobs() {
+        try {
+            synchronized (segmentUpdateJobs) {
+                for (SegmentUpdateJob job : segmentUpdateJobs.values()) {
+                    if (isActive(job)) {
+                        saveSegmentUpdateJob(job);
+                    }
+                }
+            }
+            for (SegmentUpdateJob job : persistenceService.getAllItems(SegmentUpdateJob.class)) {
+                if (!isActive(job) || isActive(segmentUpdateJobs.get(job.getItemId()))) {
+                    continue;
+                }
+                if (job.getLeaseExpirationDate() != null && job.getLeaseExpirationDate().after(new Date())) {
+                    // the job is run by another node
+                    continue;
+                }
+                if (!claimSegmentUpdateJob(job)) {
+                    logger.debug("Profile update for segment {} was resumed by another node", job.getItemId());
+                    continue;
+                }
+                Segment segment = getSegmentDefinition(job.getItemId());
+                if (segment == null) {
+                    job.setStatus(SegmentUpdateJob.Status.FAILED);
+                    job.setErrorMessage("Segment " + job.getItemId() + " no longer exists");
+                    saveSegmentUpdateJob(job);
+                    continue;
+                }
+                logger.info("Resuming profile update for segment {}, previously run by node {}", job.getItemId(), job.getLeaseOwner());
+                scheduleSegmentUpdate(segment);
+            }
+        } catch (Exception e) {
+            logger.error("Error while resuming segment update jobs", e);
+        }
+    }
+
+    private static boolean isActive(SegmentUpdateJob job) {
+        return job != null && (job.getStatus() == SegmentUpdateJob.Status.PENDING || job.getStatus() == SegmentUpdateJob.Status.RUNNING);
+    }
+
+    private boolean claimSegmentUpdateJob(SegmentUpdateJob job) {
+        if (job.getVersion() == null) {
+            return false;
+        }
+        // only one node wins the update of the version of the job it read
+        Map<String, Object> lease = new HashMap<>();
+        lease.put("leaseOwner", nodeId);
+        lease.put("leaseExpirationDate", new Date(System.currentTimeMillis() + segmentUpdateLeaseDuration));
+        return persistenceService.updateIfUnchanged(job.getItemId(), null, SegmentUpdateJob.class, lease, job.getVersion());
+    }
+
+    private void runSegmentUpdateJob(Segment segment) {
+        String segmentId = segment.getItemId();
+        SegmentUpdateJob job;
+        synchronized (segmentUpdateJobs) {
+            job = segmentUpdateJobs.get(segmentId);
+            if (job == null || job.getStatus() == SegmentUpdateJob.Status.COMPLETED || job.getStatus() == SegmentUpdateJob.Status.FAILED) {
+                job = new SegmentUpdateJob(segmentId);
+                job.setSendProfileUpdatedEvents(sendProfileUpdateEventForSegmentUpdate);
+                job.setCreationDate(new Date());
+            }
+            if (job.getEndDate() != null) {
+                // the previous pass of the job ended while a newer definition was waiting, this pass starts over
+                job.setProfilesAdded(0);
+                job.setProfilesRemoved(0);
+                job.setStartDate(null);
+                job.setEndDate(null);
+            }
+            if (job.getStartDate() == null) {
+                job.setStartDate(new Date());
+            }
+            // counts of a job interrupted by a restart are kept, its conditions skip the profiles already updated
+            job.setStatus(SegmentUpdateJob.Status.RUNNING);
+            saveSegmentUpdateJob(job);
+        }
+        SegmentUpdateJob.Status status;
+        String errorMessage = null;
+        try {
+            updateExistingProfilesForSegment(segment, job);
+            status = SegmentUpdateJob.Status.COMPLETED;
+        } catch (Throwable t) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("Profile update for segment {} interrupted, it will be resumed on the next start", segmentId);
+                return;
+            }
+            logger.error("Error while updating profiles for segment {}", segmentId, t);
+            status = SegmentUpdateJob.Status.FAILED;
+            errorMessage = t.getMessage();
+        }
+        synchronized (segmentUpdateJobs) {
+            // keep the job pending if a newer definition was submitted in the meantime, so that it is resumed after a restart
+            job.setStatus(queuedSegmentUpdates.containsKey(segmentId) ? SegmentUpdateJob.Status.PENDING : status);
+            job.setErrorMessage(errorMessage);
+            job.setEndDate(new Date());
+            saveSegmentUpdateJob(job);
+        }
+    }
+
+    private void saveSegmentUpdateJob(SegmentUpdateJob job) {
+        Date now = new Date();
+        job.setLastUpdateDate(now);
+        if (job.getStartDate() != null) {
+            long elapsed = Math.max(1, now.getTime() - job.getStartDate().getTime());
+            job.setProfilesPerSecond((job.getProfilesAdded() + job.getProfilesRemoved()) * 1000.0 / elapsed);
+        }
+        if (isActive(job)) {
+            job.setLeaseOwner(nodeId);
+            job.setLeaseExpirationDate(new Date(now.getTime() + segmentUpdateLeaseDuration));
+        } else {
+            job.setLeaseOwner(null);
+            job.setLeaseExpirationDate(null);
+        }
+        segmentUpdateJobs.put(job.getItemId(), job);
+        persistenceService.save(job);
     }
 
     private boolean checkSegmentDeletionImpact(Condition condition, String segmentToDeleteId) {
@@ -766,8 +994,9 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             Condition numberOfDaysCondition = new Condition();
             numberOfDaysCondition.setConditionType(definitionsService.getConditionType("sessionPropertyCondition"));
             numberOfDaysCondition.setParameter("propertyName", "timeStamp");
-            numberOfDaysCondition.setParameter("comparisonOperator", "greaterThan");
-            numberOfDaysCondition.setParameter("propertyValue", "now-" + numberOfDays + "d");
+            numberOfDaysCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+            // the window starts at the beginning of its first UTC day, like the daily counters of the profiles
+            numberOfDaysCondition.setParameter("propertyValue", "now-" + numberOfDays + "d/d");
             l.add(numberOfDaysCondition);
         }
         String propertyKey = (String) parentCondition.getParameter("generatedPropertyKey");
@@ -778,6 +1007,7 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         int numParts = (int) (card / aggregateQueryBucketSize) + 2;
         for (int i = 0; i < numParts; i++) {
             Map<String, Long> eventCountByProfile = persistenceService.aggregateWithOptimizedQuery(andCondition, new TermsAggregate("profileId", i, numParts), Event.ITEM_TYPE);
+            Map<String, Map<String, Object>> updates = new HashMap<>();
             for (Map.Entry<String, Long> entry : eventCountByProfile.entrySet()) {
                 String profileId = entry.getKey();
                 if (!profileId.startsWith("_")) {
@@ -785,11 +1015,15 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                     pastEventCounts.put(propertyKey, entry.getValue());
                     Map<String, Object> systemProperties = new HashMap<>();
                     systemProperties.put("pastEvents", pastEventCounts);
-                    try {
-                        persistenceService.update(profileId, null, Profile.class, "systemProperties", systemProperties);
-                    } catch (Exception e) {
-                        logger.error("Error updating profile {} past event system properties", profileId, e);
-                    }
+                    // the daily counters are rebuilt from the events on the next matching event, until then the
+                    // recalculated count is used
+                    systemProperties.put("pastEventDailyCounts", Collections.singletonMap(propertyKey, null));
+                    updates.put(profileId, Collections.<String, Object>singletonMap("systemProperties", systemProperties));
+                }
+            }
+            for (Map.Entry<String, Boolean> updated : persistenceService.updateAll(null, Profile.class, updates).entrySet()) {
+                if (!updated.getValue()) {
+                    logger.error("Error updating profile {} past event system properties", updated.getKey());
                 }
             }
         }
@@ -824,12 +1058,10 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
         }
     }
 
-    private void updateExistingProfilesForSegment(Segment segment) {
+    private void updateExistingProfilesForSegment(Segment segment, SegmentUpdateJob job) {
         long t = System.currentTimeMillis();
         Condition segmentCondition = new Condition();
 
-        long updatedProfileCount = 0;
-
         segmentCondition.setConditionType(definitionsService.getConditionType("profilePropertyCondition"));
         segmentCondition.setParameter("propertyName", "segments");
         segmentCondition.setParameter("comparisonOperator", "equals");
@@ -858,57 +1090,93 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
             profilesToRemoveSubConditions.add(notNewSegmentCondition);
             profilesToRemoveCondition.setParameter("subConditions", profilesToRemoveSubConditions);
 
-            PartialList<Profile> profilesToRemove = persistenceService.query(profilesToRemoveCondition, null, Profile.class, 0, segmentUpdateBatchSize, "10m");
-            PartialList<Profile> profilesToAdd = persistenceService.query(profilesToAddCondition, null, Profile.class, 0, segmentUpdateBatchSize, "10m");
-
-            while (profilesToAdd.getList().size() > 0) {
-                long t2= System.currentTimeMillis();
-                for (Profile profileToAdd : profilesToAdd.getList()) {
-                    profileToAdd.getSegments().add(segment.getItemId());
-                    persistenceService.update(profileToAdd.getItemId(), null, Profile.class, "segments", profileToAdd.getSegments());
-                    Event profileUpdated = new Event("profileUpdated", null, profileToAdd, null, null, profileToAdd, new Date());
-                    profileUpdated.setPersistent(false);
-                    eventService.send(profileUpdated);
-                    updatedProfileCount++;
-                }
-                logger.info("{} profiles added in segment in {}ms", profilesToAdd.size(), System.currentTimeMillis() - t2);
-                profilesToAdd = persistenceService.continueScrollQuery(Profile.class, profilesToAdd.getScrollIdentifier(), profilesToAdd.getScrollTimeValidity());
-                if (profilesToAdd == null || profilesToAdd.getList().size() == 0) {
-                    break;
-                }
+            job.setProfilesToAdd(persistenceService.queryCount(profilesToAddCondition, Profile.ITEM_TYPE));
+            job.setProfilesToRemove(persistenceService.queryCount(profilesToRemoveCondition, Profile.ITEM_TYPE));
+            saveSegmentUpdateJob(job);
+
+            if (job.isSendProfileUpdatedEvents()) {
+                // both conditions exclude the profiles that were already updated, so a restarted job simply continues
+                // with the profiles that are left
+                updateProfilesInBatches(segment.getItemId(), profilesToAddCondition, true, job);
+                updateProfilesInBatches(segment.getItemId(), profilesToRemoveCondition, false, job);
+            } else {
+                updateProfilesWithQuery(segment.getItemId(), new Condition[]{profilesToAddCondition, profilesToRemoveCondition}, new String[]{ADD_SEGMENT_SCRIPT, REMOVE_SEGMENT_SCRIPT});
+                job.setProfilesAdded(job.getProfilesToAdd());
+                job.setProfilesRemoved(job.getProfilesToRemove());
+            }
+        } else {
+            job.setProfilesToRemove(persistenceService.queryCount(segmentCondition, Profile.ITEM_TYPE));
+            saveSegmentUpdateJob(job);
+            updateProfilesWithQuery(segment.getItemId(), new Condition[]{segmentCondition}, new String[]{REMOVE_SEGMENT_SCRIPT});
+            job.setProfilesRemoved(job.getProfilesToRemove());
+        }
+        logger.info("{} profiles updated in {}ms", job.getProfilesAdded() + job.getProfilesRemoved(), System.currentTimeMillis() - t);
+    }
+
+    private static Set<String> getFailedItemIds(Map<String, Boolean> results) {
+        Set<String> failedItemIds = new HashSet<>();
+        for (Map.Entry<String, Boolean> result : results.entrySet()) {
+            if (!result.getValue()) {
+                failedItemIds.add(result.getKey());
             }
-            while (profilesToRemove.getList().size() > 0) {
-                long t2= System.currentTimeMillis();
-                for (Profile profileToRemove : profilesToRemove.getList()) {
-                    profileToRemove.getSegments().remove(segment.getItemId());
-                    persistenceService.update(profileToRemove.getItemId(), null, Profile.class, "segments", profileToRemove.getSegments());
-                    Event profileUpdated = new Event("profileUpdated", null, profileToRemove, null, null, profileToRemove, new Date());
-                    profileUpdated.setPersistent(false);
-                    eventService.send(profileUpdated);
-                    updatedProfileCount++;
+        }
+        return failedItemIds;
+    }
+
+    private void updateProfilesInBatches(String segmentId, Condition condition, boolean add, SegmentUpdateJob job) {
+        PartialList<Profile> profiles = persistenceService.query(condition, null, Profile.class, 0, segmentUpdateBatchSize, "10m");
+        while (profiles != null && profiles.getList().size() > 0) {
+            long t = System.currentTimeMillis();
+            Map<String, Map<String, Object>> updates = new HashMap<>();
+            for (Profile profile : profiles.getList()) {
+                if (add) {
+                    profile.getSegments().add(segmentId);
+                } else {
+                    profile.getSegments().remove(segmentId);
                 }
-                logger.info("{} profiles removed from segment in {}ms", profilesToRemove.size(), System.currentTimeMillis() - t2);
-                profilesToRemove = persistenceService.continueScrollQuery(Profile.class, profilesToRemove.getScrollIdentifier(), profilesToRemove.getScrollTimeValidity());
-                if (profilesToRemove == null || profilesToRemove.getList().size() == 0) {
-                    break;
+                updates.put(profile.getItemId(), Collections.<String, Object>singletonMap("segments", profile.getSegments()));
+            }
+            Set<String> failedProfileIds = getFailedItemIds(persistenceService.updateAll(null, Profile.class, updates));
+            if (!failedProfileIds.isEmpty()) {
+                // retry once, the failures are usually conflicts with concurrent writes of the same profiles
+                updates.keySet().retainAll(failedProfileIds);
+                failedProfileIds = getFailedItemIds(persistenceService.updateAll(null, Profile.class, updates));
+                for (String failedProfileId : failedProfileIds) {
+                    logger.error("Couldn't update the segments of profile {} for segment {}", failedProfileId, segmentId);
                 }
             }
-
-        } else {
-            PartialList<Profile> profilesToRemove = persistenceService.query(segmentCondition, null, Profile.class, 0, 200, "10m");
-            while (profilesToRemove.getList().size() > 0) {
-                for (Profile profileToRemove : profilesToRemove.getList()) {
-                    profileToRemove.getSegments().remove(segment.getItemId());
-                    persistenceService.update(profileToRemove.getItemId(), null, Profile.class, "segments", profileToRemove.getSegments());
-                    updatedProfileCount++;
-                }
-                profilesToRemove = persistenceService.continueScrollQuery(Profile.class, profilesToRemove.getScrollIdentifier(), profilesToRemove.getScrollTimeValidity());
-                if (profilesToRemove == null || profilesToRemove.getList().size() == 0) {
-                    break;
+            // events are sent once the whole batch has been written
+            int updatedProfiles = 0;
+            for (Profile profile : profiles.getList()) {
+                if (failedProfileIds.contains(profile.getItemId())) {
+                    continue;
                 }
+                Event profileUpdated = new Event("profileUpdated", null, profile, null, null, profile, new Date());
+                profileUpdated.setPersistent(false);
+                eventService.send(profileUpdated);
+                updatedProfiles++;
             }
+            if (add) {
+                job.setProfilesAdded(job.getProfilesAdded() + updatedProfiles);
+            } else {
+                job.setProfilesRemoved(job.getProfilesRemoved() + updatedProfiles);
+            }
+            saveSegmentUpdateJob(job);
+            logger.info("{} profiles {} segment in {}ms", updatedProfiles, add ? "added in" : "removed from", System.currentTimeMillis() - t);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Segment update interrupted");
+            }
+            profiles = persistenceService.continueScrollQuery(Profile.class, profiles.getScrollIdentifier(), profiles.getScrollTimeValidity());
+        }
+    }
+
+    private void updateProfilesWithQuery(String segmentId, Condition[] conditions, String[] scripts) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] scriptParams = new HashMap[scripts.length];
+        for (int i = 0; i < scripts.length; i++) {
+            scriptParams[i] = Collections.<String, Object>singletonMap("segmentId", segmentId);
         }
-        logger.info("{} profiles updated in {}ms", updatedProfileCount, System.currentTimeMillis() - t);
+        persistenceService.updateWithQueryAndScript(null, Profile.class, scripts, scriptParams, conditions);
     }
 
     private void updateExistingProfilesForScoring(Scoring scoring) {
@@ -997,20 +1265,92 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                 }
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 1, taskExecutionPeriod, TimeUnit.DAYS);
+        schedulerService.getScheduleExecutorService(SchedulerService.BATCH_LANE).scheduleAtFixedRate(task, 1, taskExecutionPeriod, TimeUnit.DAYS);
 
         task = new TimerTask() {
             @Override
             public void run() {
                 try {
-                    allSegments = getAllSegmentDefinitions();
-                    allScoring = getAllScoringDefinitions();
+                    refreshSegmentsAndScoring();
                 } catch (Throwable t) {
                     logger.error("Error while loading segments and scoring definitions from persistence back-end", t);
                 }
             }
         };
         schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 0, segmentRefreshInterval, TimeUnit.MILLISECONDS);
+
+        task = new TimerTask() {
+            @Override
+            public void run() {
+                renewAndResumeSegmentUpdateJobs();
+            }
+        };
+        // leases are renewed several times before they expire
+        long leaseRenewalInterval = Math.max(1000, segmentUpdateLeaseDuration / 3);
+        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 0, leaseRenewalInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshSegmentsAndScoring() {
+        if (conditionTypesChangeTracker.hasChangedSinceLastCheck()) {
+            // the conditions must be resolved again against the new types
+            definitionsService.refresh();
+            conditionTypesChangedSinceLastReload = true;
+        }
+        Set<String> changedSegmentIds = segmentsChangeTracker.getChangedItemIds();
+        if (changedSegmentIds == null || conditionTypesChangedSinceLastReload) {
+            allSegments = getAllSegmentDefinitions();
+            reportNonLocalSegmentConditions();
+        } else if (!changedSegmentIds.isEmpty()) {
+            allSegments = ItemChangeTracker.replaceChangedItems(allSegments, changedSegmentIds, this::getSegmentDefinition);
+            reportNonLocalSegmentConditions();
+        }
+        segmentsChangeTracker.reloaded();
+
+        Set<String> changedScoringIds = scoringChangeTracker.getChangedItemIds();
+        if (changedScoringIds == null || conditionTypesChangedSinceLastReload) {
+            allScoring = getAllScoringDefinitions();
+            reportNonLocalScoringConditions();
+        } else if (!changedScoringIds.isEmpty()) {
+            allScoring = ItemChangeTracker.replaceChangedItems(allScoring, changedScoringIds, this::getScoringDefinition);
+            reportNonLocalScoringConditions();
+        }
+        scoringChangeTracker.reloaded();
+        conditionTypesChangedSinceLastReload = false;
+    }
+
+    private void reportNonLocalSegmentConditions() {
+        for (Segment segment : allSegments) {
+            if (segment.getMetadata().isEnabled() && !reportedNonLocalItems.contains(segment.getItemId())) {
+                reportNonLocalCondition(segment, segment.getCondition());
+            }
+        }
+    }
+
+    private void reportNonLocalScoringConditions() {
+        for (Scoring scoring : allScoring) {
+            if (scoring.getMetadata().isEnabled() && !reportedNonLocalItems.contains(scoring.getItemId())) {
+                for (ScoringElement element : scoring.getElements()) {
+                    if (reportNonLocalCondition(scoring, element.getCondition())) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean reportNonLocalCondition(MetadataItem item, Condition condition) {
+        if (condition == null) {
+            return false;
+        }
+        Set<String> nonLocalConditionTypeIds = persistenceService.getNonLocalConditionTypeIds(condition);
+        if (nonLocalConditionTypeIds.isEmpty()) {
+            return false;
+        }
+        // only report each item once, as the definitions are reloaded whenever any of them changes
+        reportedNonLocalItems.add(item.getItemId());
+        logger.warn("{} {} uses condition types that cannot be evaluated in memory {}, it will query the persistence back-end for each profile update",
+                item.getItemType(), item.getItemId(), nonLocalConditionTypeIds);
+        return true;
     }
 
     public void setTaskExecutionPeriod(long taskExecutionPeriod) {
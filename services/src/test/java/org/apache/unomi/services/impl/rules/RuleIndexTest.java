@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.rules;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.services.DefinitionsService;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RuleIndexTest {
+
+    // the whole rule condition is used as event condition
+    private final DefinitionsService definitionsService = (DefinitionsService) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{DefinitionsService.class}, (proxy, method, args) -> {
+                if ("extractConditionBySystemTag".equals(method.getName())) {
+                    return "eventCondition".equals(args[1]) ? args[0] : null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    @Test
+    public void testCandidatesByEventType() {
+        Rule viewRule = rule("site1", "viewRule", eventTypeCondition("view"));
+        Rule formRule = rule("site1", "formRule", eventTypeCondition("form"));
+        Rule anyEventRule = rule("site1", "anyEventRule", condition("matchAllCondition"));
+        RuleIndex ruleIndex = RuleIndex.build(Arrays.asList(viewRule, formRule, anyEventRule), definitionsService);
+
+        assertEquals(Arrays.asList(viewRule, anyEventRule), getCandidateRules(ruleIndex, "view", "site1"));
+        assertEquals(Arrays.asList(formRule, anyEventRule), getCandidateRules(ruleIndex, "form", "site1"));
+        assertEquals(Arrays.asList(anyEventRule), getCandidateRules(ruleIndex, "login", "site1"));
+        assertEquals(3, ruleIndex.getEnabledRulePlans().size());
+    }
+
+    @Test
+    public void testCandidatesByScope() {
+        Rule systemRule = rule(Metadata.SYSTEM_SCOPE, "systemRule", eventTypeCondition("view"));
+        Rule site1Rule = rule("site1", "site1Rule", eventTypeCondition("view"));
+        Rule site2Rule = rule("site2", "site2Rule", eventTypeCondition("view"));
+        RuleIndex ruleIndex = RuleIndex.build(Arrays.asList(site1Rule, systemRule, site2Rule), definitionsService);
+
+        // rules of the system scope apply to all scopes and keep their priority order
+        assertEquals(Arrays.asList(site1Rule, systemRule), getCandidateRules(ruleIndex, "view", "site1"));
+        assertEquals(Arrays.asList(systemRule, site2Rule), getCandidateRules(ruleIndex, "view", "site2"));
+        assertEquals(Arrays.asList(systemRule), getCandidateRules(ruleIndex, "view", "unknownSite"));
+    }
+
+    @Test
+    public void testDisabledRulesAreNotCandidates() {
+        Rule enabledRule = rule("site1", "enabledRule", eventTypeCondition("view"));
+        Rule disabledRule = rule("site1", "disabledRule", eventTypeCondition("view"));
+        disabledRule.getMetadata().setEnabled(false);
+        RuleIndex ruleIndex = RuleIndex.build(Arrays.asList(enabledRule, disabledRule), definitionsService);
+
+        assertEquals(Arrays.asList(enabledRule), getCandidateRules(ruleIndex, "view", "site1"));
+        assertEquals(2, ruleIndex.getAllRules().size());
+        assertEquals(1, ruleIndex.getEnabledRulePlans().size());
+    }
+
+    @Test
+    public void testEventTypesOfCompositeConditions() {
+        Condition eventTypeIn = condition("eventPropertyCondition");
+        eventTypeIn.setParameter("propertyName", "eventType");
+        eventTypeIn.setParameter("comparisonOperator", "in");
+        eventTypeIn.setParameter("propertyValues", Arrays.asList("view", "form"));
+        Rule inRule = rule("site1", "inRule", eventTypeIn);
+
+        Rule andRule = rule("site1", "andRule", booleanCondition("and", eventTypeCondition("login"), condition("profilePropertyCondition")));
+        // an or condition with a branch matching any event type can't be restricted
+        Rule orRule = rule("site1", "orRule", booleanCondition("or", eventTypeCondition("login"), condition("profilePropertyCondition")));
+
+        ConditionType parentConditionType = new ConditionType(new Metadata("customEventTypeCondition"));
+        Condition parentCondition = condition("eventTypeCondition");
+        parentCondition.setParameter("eventTypeId", "parameter::type");
+        parentConditionType.setParentCondition(parentCondition);
+        Condition customCondition = new Condition(parentConditionType);
+        customCondition.setParameter("type", "download");
+        Rule customRule = rule("site1", "customRule", customCondition);
+
+        RuleIndex ruleIndex = RuleIndex.build(Arrays.asList(inRule, andRule, orRule, customRule), definitionsService);
+
+        assertEquals(Arrays.asList(inRule, orRule), getCandidateRules(ruleIndex, "view", "site1"));
+        assertEquals(Arrays.asList(andRule, orRule), getCandidateRules(ruleIndex, "login", "site1"));
+        assertEquals(Arrays.asList(orRule, customRule), getCandidateRules(ruleIndex, "download", "site1"));
+    }
+
+    private List<Rule> getCandidateRules(RuleIndex ruleIndex, String eventType, String scope) {
+        Event event = new Event(eventType, null, new Profile("profileId"), scope, null, null, new Date());
+        List<Rule> rules = new ArrayList<>();
+        for (RulePlan rulePlan : ruleIndex.getCandidateRulePlans(event)) {
+            rules.add(rulePlan.getRule());
+        }
+        return rules;
+    }
+
+    private static Rule rule(String scope, String id, Condition condition) {
+        Rule rule = new Rule(new Metadata(scope, id, id, null));
+        rule.setCondition(condition);
+        return rule;
+    }
+
+    private static Condition condition(String conditionTypeId) {
+        Condition condition = new Condition();
+        condition.setConditionTypeId(conditionTypeId);
+        return condition;
+    }
+
+    private static Condition eventTypeCondition(String eventType) {
+        Condition condition = condition("eventTypeCondition");
+        condition.setParameter("eventTypeId", eventType);
+        return condition;
+    }
+
+    private static Condition booleanCondition(String operator, Condition... subConditions) {
+        Condition condition = condition("booleanCondition");
+        condition.setParameter("operator", operator);
+        condition.setParameter("subConditions", Arrays.asList(subConditions));
+        return condition;
+    }
+}
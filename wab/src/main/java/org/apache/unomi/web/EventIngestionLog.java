@@ -0,0 +1,518 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local queue of the event batches accepted without waiting for their processing. Batches are appended to
+ * memory-mapped segment files, read back in order and handed to a pool of workers, the batches sharing a key (the
+ * session identifier) always going to the same worker so that they are processed in order.
+ * <p>
+ * Each record is marked as processed in its segment once its handler succeeds. A failed record is retried with an
+ * increasing delay, holding back the records of the same worker, until its handler succeeds or the log is closed. A
+ * segment file is deleted once all its batches have been processed. The records not marked as processed in the segments
+ * left when the log is closed, or when the process stops, are processed when it is opened again. The segment files are
+ * forced to the disk at a regular interval, so batches are processed at least once: only the records processed or
+ * appended since the last force may be processed again, or lost, if the host stops. Appends are refused once the segment
+ * files would use more than the maximum disk usage, until the workers catch up.
+ * <p>
+ * Each record is made of its length, the CRC32 of its content, its processed flag, then the key length, the key and the
+ * payload. Records that don't match their checksum when a segment is recovered, which happens for records being written
+ * when the process stopped, end the segment.
+ */
+public class EventIngestionLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EventIngestionLog.class.getName());
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int PROCESSED_FLAG_OFFSET = 8;
+    private static final byte PROCESSED = 1;
+    private static final int WORKER_QUEUE_CAPACITY = 100;
+    private static final long POLL_TIMEOUT_MILLIS = 500L;
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+
+    /**
+     * Processes the payload of a record. Exceptions are logged and the record is processed again after a delay.
+     */
+    public interface RecordHandler {
+        void handle(byte[] payload) throws Exception;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxDiskUsage;
+    private final long forceIntervalMillis;
+    private final RecordHandler handler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsAvailable = lock.newCondition();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment writeSegment;
+    private Segment readSegment;
+    private int readPosition;
+    private volatile boolean running = true;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private final List<BlockingQueue<Record>> workerQueues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicLong failedAttempts = new AtomicLong();
+
+    /**
+     * Opens the log, recovering the segments left in its directory, and starts processing them.
+     *
+     * @param directory           the directory of the segment files, created if needed
+     * @param segmentSize         the size of each segment file, which is also the maximum size of a record
+     * @param maxDiskUsage        the maximum size of all the segment files
+     * @param workers             the number of workers processing the records
+     * @param forceIntervalMillis the interval between two forces of the segment files to the disk
+     * @param handler             the processing of the records
+     * @throws IOException if the directory or the segment files cannot be accessed
+     */
+    public EventIngestionLog(Path directory, int segmentSize, long maxDiskUsage, int workers, long forceIntervalMillis,
+                             RecordHandler handler) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxDiskUsage = maxDiskUsage;
+        this.forceIntervalMillis = forceIntervalMillis;
+        this.handler = handler;
+
+        Files.createDirectories(directory);
+        recoverSegments();
+        long nextSegmentId = segments.isEmpty() ? 0L : segments.lastKey() + 1;
+        writeSegment = Segment.create(directory, nextSegmentId, segmentSize);
+        segments.put(writeSegment.id, writeSegment);
+        readSegment = segments.firstEntry().getValue();
+        readPosition = 0;
+
+        for (int i = 1; i <= Math.max(1, workers); i++) {
+            BlockingQueue<Record> workerQueue = new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY);
+            workerQueues.add(workerQueue);
+            threads.add(new Thread(() -> processRecords(workerQueue), "unomi-event-ingestion-" + i));
+        }
+        threads.add(new Thread(this::dispatchRecords, "unomi-event-ingestion-reader"));
+        threads.add(new Thread(this::forceSegments, "unomi-event-ingestion-sync"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param key     the key of the record, records with the same key are processed in order
+     * @param payload the payload of the record
+     * @return true if the record was appended, false if the log is full
+     * @throws PayloadTooLargeException if the record doesn't fit in a segment
+     * @throws IOException              if the log is closed or a new segment cannot be created
+     */
+    public boolean append(String key, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int contentSize = 2 + keyBytes.length + payload.length;
+        if (keyBytes.length > Short.MAX_VALUE || RECORD_HEADER_SIZE + contentSize > segmentSize) {
+            throw new PayloadTooLargeException(segmentSize - RECORD_HEADER_SIZE - 2 - keyBytes.length);
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer content = ByteBuffer.allocate(contentSize);
+        content.putShort((short) keyBytes.length).put(keyBytes).put(payload);
+        crc.update(content.array(), 0, contentSize);
+
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IOException("Event ingestion log is closed");
+            }
+            if (writeSegment.writePosition + RECORD_HEADER_SIZE + contentSize > segmentSize) {
+                if ((segments.size() + 1) * (long) segmentSize > maxDiskUsage) {
+                    return false;
+                }
+                writeSegment.seal();
+                writeSegment = Segment.create(directory, writeSegment.id + 1, segmentSize);
+                segments.put(writeSegment.id, writeSegment);
+            }
+            ByteBuffer buffer = writeSegment.buffer.duplicate();
+            buffer.position(writeSegment.writePosition);
+            buffer.putInt(contentSize).putInt((int) crc.getValue()).put((byte) 0).put(content.array());
+            writeSegment.writePosition = buffer.position();
+            writeSegment.dirty = true;
+            recordsAvailable.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of failed processing attempts since the log was opened, a record failing several times is
+     * counted each time
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * @return the number of segment files of the log, including the one being written
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the processing of the records, waiting for the records being processed, and closes the segment files. The
+     * records that were not processed, including the ones waiting for a retry, stay in the segment files and will be
+     * processed when the log is opened again.
+     * <p>
+     * No segment file is deleted once the log is closed, even by a worker still processing a record after the wait, so
+     * that the log can be opened again on the same directory right away.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            recordsAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closed.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+                if (thread.isAlive()) {
+                    logger.warn("Thread {} of the event ingestion log is still processing a record, its segment will be processed again", thread.getName());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.forceIfDirty();
+                    segment.close();
+                } catch (IOException e) {
+                    logger.error("Couldn't close segment {} of the event ingestion log", segment.path, e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recoverSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                long id;
+                try {
+                    id = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {} in event ingestion log", file);
+                    continue;
+                }
+                Segment segment = Segment.recover(file, id);
+                if (segment.unprocessedRecords == 0) {
+                    segment.close();
+                    Files.delete(file);
+                } else {
+                    segments.put(id, segment);
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Recovered {} segments of the event ingestion log in {}, their unprocessed events will be processed", segments.size(), directory);
+        }
+    }
+
+    private void dispatchRecords() {
+        while (running) {
+            Record record;
+            lock.lock();
+            try {
+                while (running && readPosition >= readSegment.writePosition) {
+                    if (readSegment.sealed) {
+                        // all the records of the segment were dispatched, move on to the next one
+                        Segment readCompleteSegment = readSegment;
+                        readSegment = segments.higherEntry(readSegment.id).getValue();
+                        readPosition = 0;
+                        readCompleteSegment.readComplete = true;
+                        deleteIfProcessed(readCompleteSegment);
+                    } else {
+                        recordsAvailable.await(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                record = readRecord();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (record == null) {
+                continue;
+            }
+
+            BlockingQueue<Record> workerQueue = workerQueues.get(Math.floorMod(record.key.hashCode(), workerQueues.size()));
+            try {
+                while (!workerQueue.offer(record, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the record at the read position and moves the read position after it.
+     *
+     * @return the record, or null if it was already processed before the log was opened
+     */
+    private Record readRecord() {
+        int position = readPosition;
+        ByteBuffer buffer = readSegment.buffer.duplicate();
+        buffer.position(position);
+        int contentSize = buffer.getInt();
+        buffer.getInt();
+        if (buffer.get() == PROCESSED) {
+            readPosition = position + RECORD_HEADER_SIZE + contentSize;
+            return null;
+        }
+        byte[] keyBytes = new byte[buffer.getShort()];
+        buffer.get(keyBytes);
+        byte[] payload = new byte[contentSize - 2 - keyBytes.length];
+        buffer.get(payload);
+        readPosition = buffer.position();
+        readSegment.pendingRecords.incrementAndGet();
+        return new Record(readSegment, position, new String(keyBytes, StandardCharsets.UTF_8), payload);
+    }
+
+    private void processRecords(BlockingQueue<Record> workerQueue) {
+        while (running) {
+            Record record;
+            try {
+                record = workerQueue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (record == null) {
+                continue;
+            }
+            if (!running) {
+                // the record stays in its segment and will be processed when the log is opened again
+                return;
+            }
+            if (!handleWithRetries(record)) {
+                // closed before the record could be processed, it stays in its segment
+                return;
+            }
+            record.segment.markProcessed(record.position);
+            if (record.segment.pendingRecords.decrementAndGet() == 0) {
+                lock.lock();
+                try {
+                    deleteIfProcessed(record.segment);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private boolean handleWithRetries(Record record) {
+        long retryDelay = INITIAL_RETRY_DELAY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                handler.handle(record.payload);
+                return true;
+            } catch (Throwable t) {
+                failedAttempts.incrementAndGet();
+                logger.error("Error processing queued events for key {} (attempt {}), retrying in {} ms", record.key, attempt, retryDelay, t);
+            }
+            try {
+                if (closed.await(retryDelay, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private void forceSegments() {
+        try {
+            while (!closed.await(forceIntervalMillis, TimeUnit.MILLISECONDS)) {
+                List<Segment> openSegments;
+                lock.lock();
+                try {
+                    openSegments = new ArrayList<>(segments.values());
+                } finally {
+                    lock.unlock();
+                }
+                for (Segment segment : openSegments) {
+                    segment.forceIfDirty();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteIfProcessed(Segment segment) {
+        if (running && segment.readComplete && segment.pendingRecords.get() == 0 && segments.remove(segment.id) != null) {
+            try {
+                segment.close();
+                Files.delete(segment.path);
+            } catch (IOException e) {
+                logger.error("Couldn't delete processed segment {} of the event ingestion log", segment.path, e);
+            }
+        }
+    }
+
+    private static class Record {
+        final Segment segment;
+        final int position;
+        final String key;
+        final byte[] payload;
+
+        Record(Segment segment, int position, String key, byte[] payload) {
+            this.segment = segment;
+            this.position = position;
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final AtomicInteger pendingRecords = new AtomicInteger();
+        volatile boolean dirty;
+        int unprocessedRecords;
+        // guarded by the lock of the log
+        int writePosition;
+        boolean sealed;
+        boolean readComplete;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long id, int segmentSize) throws IOException {
+            Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+
+        static Segment recover(Path path, long id) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            ByteBuffer buffer = segment.buffer.duplicate();
+            CRC32 crc = new CRC32();
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+                int contentSize = buffer.getInt(position);
+                if (contentSize <= 0 || position + RECORD_HEADER_SIZE + contentSize > buffer.limit()) {
+                    break;
+                }
+                byte[] content = new byte[contentSize];
+                buffer.position(position + RECORD_HEADER_SIZE);
+                buffer.get(content);
+                crc.reset();
+                crc.update(content, 0, contentSize);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    logger.warn("Ignoring incomplete record at position {} of event ingestion log segment {}", position, path);
+                    break;
+                }
+                if (buffer.get(position + PROCESSED_FLAG_OFFSET) != PROCESSED) {
+                    segment.unprocessedRecords++;
+                }
+                position += RECORD_HEADER_SIZE + contentSize;
+            }
+            segment.writePosition = position;
+            segment.sealed = true;
+            return segment;
+        }
+
+        void seal() {
+            sealed = true;
+            forceIfDirty();
+        }
+
+        void markProcessed(int position) {
+            buffer.duplicate().put(position + PROCESSED_FLAG_OFFSET, PROCESSED);
+            dirty = true;
+        }
+
+        void forceIfDirty() {
+            if (dirty) {
+                dirty = false;
+                buffer.force();
+            }
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
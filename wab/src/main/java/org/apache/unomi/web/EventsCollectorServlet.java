@@ -17,14 +17,15 @@
 
 package org.apache.unomi.web;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.unomi.api.*;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.api.services.PrivacyService;
 import org.apache.unomi.api.services.ProfileService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.apache.unomi.persistence.spi.PersistenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,39 +36,74 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class EventsCollectorServlet extends HttpServlet {
     private static final long serialVersionUID = 2008054804885122957L;
     private static final Logger logger = LoggerFactory.getLogger(EventsCollectorServlet.class.getName());
 
+    private static final ObjectReader EVENTS_COLLECTOR_REQUEST_READER = CustomObjectMapper.getObjectMapper().readerFor(EventsCollectorRequest.class);
+    private static final ObjectReader QUEUED_EVENTS_READER = CustomObjectMapper.getObjectMapper().readerFor(QueuedEvents.class);
+    private static final ObjectWriter QUEUED_EVENTS_WRITER = CustomObjectMapper.getObjectMapper().writerFor(QueuedEvents.class);
+
     private String profileIdCookieName = "context-profile-id";
+    private long maxPayloadSize = 0;
+    private boolean eventIngestionEnabled = false;
+    private String eventIngestionDirectory;
+    private int eventIngestionSegmentSize = 16 * 1024 * 1024;
+    private long eventIngestionMaxDiskUsage = 1024L * 1024 * 1024;
+    private int eventIngestionWorkers = 4;
+    private long eventIngestionForceIntervalMillis = 1000L;
+    private int eventIngestionRetryAfterSeconds = 5;
 
     private EventService eventService;
+    private PersistenceService persistenceService;
     private ProfileService profileService;
     private PrivacyService privacyService;
+    private RequestExecutor requestExecutor;
+    private transient EventIngestionLog eventIngestionLog;
 
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
+        if (eventIngestionEnabled) {
+            Path directory = StringUtils.isNotBlank(eventIngestionDirectory) ? Paths.get(eventIngestionDirectory)
+                    : Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "event-ingestion");
+            try {
+                eventIngestionLog = new EventIngestionLog(directory, eventIngestionSegmentSize, eventIngestionMaxDiskUsage,
+                        eventIngestionWorkers, eventIngestionForceIntervalMillis, this::processQueuedEvents);
+                logger.info("Event ingestion log opened in {}, fire and forget requests are enabled.", directory);
+            } catch (IOException e) {
+                logger.error("Couldn't open event ingestion log in {}, all events will be processed synchronously", directory, e);
+            }
+        }
         logger.info("Event collector servlet initialized.");
     }
 
     @Override
     public void destroy() {
+        if (eventIngestionLog != null) {
+            eventIngestionLog.close();
+            eventIngestionLog = null;
+        }
         super.destroy();
         logger.info("Event collector servlet shutdown.");
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        doEvent(req, resp);
+        requestExecutor.execute(req, resp, this::doEvent);
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        doEvent(req, resp);
+        requestExecutor.execute(req, resp, this::doEvent);
     }
 
     @Override
@@ -85,24 +121,24 @@ public class EventsCollectorServlet extends HttpServlet {
 
         HttpUtils.setupCORSHeaders(request, response);
 
-        String payload = HttpUtils.getPayload(request);
-        if (payload == null) {
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
-            logger.error("No event payload found for request, aborting !");
-            return;
-        }
-
-        ObjectMapper mapper = CustomObjectMapper.getObjectMapper();
-        JsonFactory factory = mapper.getFactory();
         EventsCollectorRequest eventsCollectorRequest;
         try {
-            eventsCollectorRequest = mapper.readValue(factory.createParser(payload), EventsCollectorRequest.class);
+            eventsCollectorRequest = HttpUtils.readPayload(request, EVENTS_COLLECTOR_REQUEST_READER, maxPayloadSize);
+        } catch (PayloadTooLargeException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            logger.error("Cannot read payload", e);
+            return;
         } catch (Exception e) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
-            logger.error("Cannot read payload " + payload, e);
+            logger.error("Cannot read payload", e);
             return;
         }
-        if (eventsCollectorRequest == null || eventsCollectorRequest.getEvents() == null) {
+        if (eventsCollectorRequest == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
+            logger.error("No event payload found for request, aborting !");
+            return;
+        }
+        if (eventsCollectorRequest.getEvents() == null) {
             response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
             logger.error("No events found in payload");
             return;
@@ -121,79 +157,161 @@ public class EventsCollectorServlet extends HttpServlet {
             return;
         }
 
-        Session session = profileService.loadSession(sessionId, timestamp);
-        Profile profile = null;
-        if (session == null) {
-            String scope = "systemscope";
-            // Get the first available scope that is not equal to systemscope to create the session otherwise systemscope will be used
-            for (Event event : eventsCollectorRequest.getEvents()) {
-                if (StringUtils.isNotBlank(event.getEventType())) {
-                    if (StringUtils.isNotBlank(event.getScope()) && !event.getScope().equals("systemscope")) {
-                        scope = event.getScope();
-                        break;
-                    } else if (event.getSource() != null && StringUtils.isNotBlank(event.getSource().getScope()) && !event.getSource().getScope().equals("systemscope")) {
-                        scope = event.getSource().getScope();
-                        break;
+        String cookieProfileId = ServletCommon.getProfileIdCookieValue(request, profileIdCookieName);
+        String thirdPartyId = eventService.authenticateThirdPartyServer(request.getHeader("X-Unomi-Peer"), request.getRemoteAddr());
+
+        if (eventIngestionLog != null && "true".equals(request.getParameter("fireAndForget"))) {
+            queueEvents(eventsCollectorRequest.getEvents(), sessionId, cookieProfileId, thirdPartyId, timestamp, response);
+            return;
+        }
+
+        Integer changes = processEvents(eventsCollectorRequest.getEvents(), sessionId, cookieProfileId, thirdPartyId, timestamp, request, response);
+        if (changes == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
+            return;
+        }
+
+        response.setContentType("application/json");
+        PrintWriter responseWriter = response.getWriter();
+        responseWriter.append("{\"updated\":" + changes + "}");
+        responseWriter.flush();
+    }
+
+    private void queueEvents(List<Event> events, String sessionId, String cookieProfileId, String thirdPartyId, Date timestamp,
+                             HttpServletResponse response) throws IOException {
+        QueuedEvents queuedEvents = new QueuedEvents();
+        queuedEvents.setSessionId(sessionId);
+        queuedEvents.setCookieProfileId(cookieProfileId);
+        queuedEvents.setThirdPartyId(thirdPartyId);
+        queuedEvents.setTimestamp(timestamp);
+        queuedEvents.setEvents(events);
+        boolean queued;
+        try {
+            // events are queued by session, so that the events of a session are processed in order
+            queued = eventIngestionLog.append(sessionId, QUEUED_EVENTS_WRITER.writeValueAsBytes(queuedEvents));
+        } catch (PayloadTooLargeException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            logger.error("Cannot queue events", e);
+            return;
+        }
+        if (!queued) {
+            response.setHeader("Retry-After", Integer.toString(eventIngestionRetryAfterSeconds));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many events waiting, retry later");
+            logger.warn("Event ingestion log is full, rejecting events of session {}", sessionId);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setContentType("application/json");
+        PrintWriter responseWriter = response.getWriter();
+        responseWriter.append("{\"queued\":" + events.size() + "}");
+        responseWriter.flush();
+    }
+
+    private void processQueuedEvents(byte[] payload) throws IOException {
+        QueuedEvents queuedEvents = QUEUED_EVENTS_READER.readValue(payload);
+        processEvents(queuedEvents.getEvents(), queuedEvents.getSessionId(), queuedEvents.getCookieProfileId(),
+                queuedEvents.getThirdPartyId(), queuedEvents.getTimestamp(), null, null);
+    }
+
+    /**
+     * Sends events for a session, loading the session and its profile first and saving them if the events changed
+     * them. The request and response are null for queued events.
+     *
+     * @return the changes made by the events, or null if no valid profile was found for the session
+     */
+    private Integer processEvents(List<Event> events, String sessionId, String cookieProfileId, String thirdPartyId, Date timestamp,
+                                  HttpServletRequest request, HttpServletResponse response) {
+        int changes;
+        // the profile and session are loaded once for the whole request, and the profile, session and event writes are
+        // sent together in a single bulk request before the response is written
+        persistenceService.openWriteBuffer();
+        try {
+            Session session = profileService.loadSession(sessionId, timestamp);
+            Profile profile = null;
+            if (session == null) {
+                String scope = "systemscope";
+                // Get the first available scope that is not equal to systemscope to create the session otherwise systemscope will be used
+                for (Event event : events) {
+                    if (StringUtils.isNotBlank(event.getEventType())) {
+                        if (StringUtils.isNotBlank(event.getScope()) && !event.getScope().equals("systemscope")) {
+                            scope = event.getScope();
+                            break;
+                        } else if (event.getSource() != null && StringUtils.isNotBlank(event.getSource().getScope()) && !event.getSource().getScope().equals("systemscope")) {
+                            scope = event.getSource().getScope();
+                            break;
+                        }
                     }
                 }
-            }
-            // Create non persisted profile to create the session
-            profile = new Profile("temp_" + UUID.randomUUID().toString());
-            profile.setProperty("firstVisit", timestamp);
-            // Create anonymous profile so we don't keep track of the temp profile anywhere
-            Profile anonymousProfile = privacyService.getAnonymousProfile(profile);
-            // Create new session which should not be persisted as well as the temp profile
-            session = new Session(sessionId, anonymousProfile, timestamp, scope);
-            if (logger.isDebugEnabled()) {
-                logger.debug("No session found for sessionId={}, creating new session!", sessionId);
-            }
-        } else {
-            Profile sessionProfile = session.getProfile();
-            if (sessionProfile.getItemId() != null) {
-                // Reload up-to-date profile
-                profile = profileService.load(sessionProfile.getItemId());
-                if (profile == null || profile instanceof Persona) {
-                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
-                    logger.error("No valid profile found or persona found for profileId={}, aborting request !", session.getProfileId());
-                    return;
+                // Create non persisted profile to create the session
+                profile = new Profile("temp_" + UUID.randomUUID().toString());
+                profile.setProperty("firstVisit", timestamp);
+                // Create anonymous profile so we don't keep track of the temp profile anywhere
+                Profile anonymousProfile = privacyService.getAnonymousProfile(profile);
+                // Create new session which should not be persisted as well as the temp profile
+                session = new Session(sessionId, anonymousProfile, timestamp, scope);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("No session found for sessionId={}, creating new session!", sessionId);
                 }
             } else {
-                // Session uses anonymous profile, try to find profile from cookie
-                String cookieProfileId = ServletCommon.getProfileIdCookieValue(request, profileIdCookieName);
-                if (StringUtils.isNotBlank(cookieProfileId)) {
-                    profile = profileService.load(cookieProfileId);
-                }
+                Profile sessionProfile = session.getProfile();
+                if (sessionProfile.getItemId() != null) {
+                    // Reload up-to-date profile
+                    profile = profileService.load(sessionProfile.getItemId());
+                    if (profile == null || profile instanceof Persona) {
+                        logger.error("No valid profile found or persona found for profileId={}, aborting request !", session.getProfileId());
+                        return null;
+                    }
+                } else {
+                    // Session uses anonymous profile, try to find profile from cookie
+                    if (StringUtils.isNotBlank(cookieProfileId)) {
+                        profile = profileService.load(cookieProfileId);
+                    }
 
-                if (profile == null) {
-                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Check logs for more details");
-                    logger.error("No valid profile found or persona found for profileId={}, aborting request !", session.getProfileId());
-                    return;
+                    if (profile == null) {
+                        logger.error("No valid profile found or persona found for profileId={}, aborting request !", session.getProfileId());
+                        return null;
+                    }
                 }
             }
-        }
 
-        Changes changesObject = ServletCommon.handleEvents(eventsCollectorRequest.getEvents(), session, profile, request, response,
-                timestamp, privacyService, eventService);
-        int changes = changesObject.getChangeType();
-        profile = changesObject.getProfile();
+            Changes changesObject = ServletCommon.handleEvents(events, session, profile, request, response,
+                    thirdPartyId, timestamp, privacyService, eventService);
+            changes = changesObject.getChangeType();
+            profile = changesObject.getProfile();
 
-        if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
-            profileService.save(profile);
-        }
-        if ((changes & EventService.SESSION_UPDATED) == EventService.SESSION_UPDATED) {
-            profileService.saveSession(session);
+            if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
+                profileService.save(profile);
+            }
+            if ((changes & EventService.SESSION_UPDATED) == EventService.SESSION_UPDATED) {
+                profileService.saveSession(session);
+            }
+        } finally {
+            logFailedWrites(persistenceService.flushWriteBuffer());
         }
+        return changes;
+    }
 
-        response.setContentType("application/json");
-        PrintWriter responseWriter = response.getWriter();
-        responseWriter.append("{\"updated\":" + changes + "}");
-        responseWriter.flush();
+    private static void logFailedWrites(Map<String, Boolean> writeResults) {
+        if (writeResults.containsValue(false)) {
+            List<String> failedItemIds = new ArrayList<>();
+            for (Map.Entry<String, Boolean> writeResult : writeResults.entrySet()) {
+                if (!writeResult.getValue()) {
+                    failedItemIds.add(writeResult.getKey());
+                }
+            }
+            logger.error("Couldn't save the changes made to items {}", failedItemIds);
+        }
     }
 
     public void setEventService(EventService eventService) {
         this.eventService = eventService;
     }
 
+    public void setPersistenceService(PersistenceService persistenceService) {
+        this.persistenceService = persistenceService;
+    }
+
     public void setProfileService(ProfileService profileService) {
         this.profileService = profileService;
     }
@@ -202,6 +320,42 @@ public class EventsCollectorServlet extends HttpServlet {
         this.privacyService = privacyService;
     }
 
+    public void setRequestExecutor(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    public void setMaxPayloadSize(long maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    public void setEventIngestionEnabled(boolean eventIngestionEnabled) {
+        this.eventIngestionEnabled = eventIngestionEnabled;
+    }
+
+    public void setEventIngestionDirectory(String eventIngestionDirectory) {
+        this.eventIngestionDirectory = eventIngestionDirectory;
+    }
+
+    public void setEventIngestionSegmentSize(int eventIngestionSegmentSize) {
+        this.eventIngestionSegmentSize = eventIngestionSegmentSize;
+    }
+
+    public void setEventIngestionMaxDiskUsage(long eventIngestionMaxDiskUsage) {
+        this.eventIngestionMaxDiskUsage = eventIngestionMaxDiskUsage;
+    }
+
+    public void setEventIngestionWorkers(int eventIngestionWorkers) {
+        this.eventIngestionWorkers = eventIngestionWorkers;
+    }
+
+    public void setEventIngestionForceIntervalMillis(long eventIngestionForceIntervalMillis) {
+        this.eventIngestionForceIntervalMillis = eventIngestionForceIntervalMillis;
+    }
+
+    public void setEventIngestionRetryAfterSeconds(int eventIngestionRetryAfterSeconds) {
+        this.eventIngestionRetryAfterSeconds = eventIngestionRetryAfterSeconds;
+    }
+
     public void setProfileIdCookieName(String profileIdCookieName) {
         this.profileIdCookieName = profileIdCookieName;
     }
@@ -17,6 +17,8 @@
 
 package org.apache.unomi.web;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.unomi.api.Persona;
 import org.apache.unomi.api.Profile;
 
@@ -24,11 +26,16 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class HttpUtils {
 
@@ -46,7 +53,7 @@ public class HttpUtils {
             } else {
                 httpServletResponse.setHeader("Access-Control-Allow-Origin", "*");
             }
-            httpServletResponse.setHeader("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept");
+            httpServletResponse.setHeader("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Content-Encoding, Accept");
             httpServletResponse.setHeader("Access-Control-Allow-Credentials", "true");
             httpServletResponse.setHeader("Access-Control-Allow-Methods", "OPTIONS, POST, GET");
             // httpServletResponse.setHeader("Access-Control-Max-Age", "600");
@@ -146,20 +153,124 @@ public class HttpUtils {
         return cookieMap;
     }
 
-    public static String getPayload(HttpServletRequest request) throws IOException {
+    /**
+     * Reads the JSON payload of a request directly from the request stream, without copying it in memory first. POST
+     * payloads may be gzip compressed, in which case the request must have a gzip Content-Encoding header, and are
+     * decoded with the charset of the request if it declares one.
+     *
+     * @param request        the request to read the payload from
+     * @param objectReader   the reader of the expected payload type
+     * @param maxPayloadSize the maximum size of the payload in bytes, after decompression, or 0 for no limit
+     * @param <T>            the type of the payload
+     * @return the payload, or null if the request has none
+     * @throws PayloadTooLargeException if the payload is larger than the maximum size
+     * @throws IOException              if the payload cannot be read or is not valid
+     */
+    public static <T> T readPayload(HttpServletRequest request, ObjectReader objectReader, long maxPayloadSize) throws IOException {
         if ("post".equals(request.getMethod().toLowerCase())) {
-            StringBuilder buffer = new StringBuilder();
-            String line;
-            BufferedReader reader = request.getReader();
-            while ((line = reader.readLine()) != null) {
-                buffer.append(line);
+            if (maxPayloadSize > 0 && request.getContentLength() > maxPayloadSize) {
+                throw new PayloadTooLargeException(maxPayloadSize);
+            }
+            InputStream inputStream = request.getInputStream();
+            if (isGzipEncoded(request.getHeader("Content-Encoding"))) {
+                inputStream = new GZIPInputStream(inputStream);
             }
-            if (buffer.length() > 0) {
-                return buffer.toString();
+            if (maxPayloadSize > 0) {
+                inputStream = new LimitedInputStream(inputStream, maxPayloadSize);
             }
+            String characterEncoding = request.getCharacterEncoding();
+            if (characterEncoding != null) {
+                return readPayload(objectReader.getFactory().createParser(new InputStreamReader(inputStream, characterEncoding)), objectReader);
+            }
+            // without a declared charset, the parser detects the UTF encoding of the payload
+            return readPayload(objectReader.getFactory().createParser(inputStream), objectReader);
         } else if ("get".equals(request.getMethod().toLowerCase()) && request.getParameter("payload") != null) {
-            return request.getParameter("payload");
+            String payload = request.getParameter("payload");
+            if (maxPayloadSize > 0 && payload.length() > maxPayloadSize) {
+                throw new PayloadTooLargeException(maxPayloadSize);
+            }
+            return readPayload(objectReader.getFactory().createParser(payload), objectReader);
         }
         return null;
     }
+
+    private static <T> T readPayload(JsonParser parser, ObjectReader objectReader) throws IOException {
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return objectReader.readValue(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Opens the stream to write the body of a response, gzip compressed if the client accepts it. The returned stream
+     * must be closed to complete the response.
+     *
+     * @param request      the request the response is written for
+     * @param response     the response to write
+     * @param gzipResponse whether the response may be compressed
+     * @return the stream to write the response body to
+     * @throws IOException if the stream cannot be opened
+     */
+    public static OutputStream openResponseStream(HttpServletRequest request, HttpServletResponse response, boolean gzipResponse) throws IOException {
+        if (gzipResponse && isGzipEncoded(request.getHeader("Accept-Encoding"))) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.addHeader("Vary", "Accept-Encoding");
+            return new GZIPOutputStream(response.getOutputStream());
+        }
+        return response.getOutputStream();
+    }
+
+    private static boolean isGzipEncoded(String encodingHeader) {
+        return encodingHeader != null && encodingHeader.toLowerCase().contains("gzip");
+    }
+
+    /**
+     * Fails the read of a payload as soon as it exceeds the maximum size, instead of buffering it all.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxSize;
+        private long size = 0;
+
+        LimitedInputStream(InputStream inputStream, long maxSize) {
+            super(inputStream);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long read) throws PayloadTooLargeException {
+            size += read;
+            if (size > maxSize) {
+                throw new PayloadTooLargeException(maxSize);
+            }
+        }
+    }
 }
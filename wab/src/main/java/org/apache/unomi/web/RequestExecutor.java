@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.web;
+
+import org.apache.unomi.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.ServletOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the processing of the context and event collector requests. In async mode, the requests are processed on a
+ * bounded pool of threads instead of the container threads, so that slow persistence calls don't exhaust the container
+ * thread pool. When too many requests are waiting, new requests are rejected with a 503 status and a Retry-After
+ * header so that clients back off. Otherwise requests are processed on the calling thread.
+ * <p>
+ * A request that times out while waiting for a thread is dropped without being processed and answered with a 503 status,
+ * so that it can safely be retried. A request that is already being processed when it times out is answered with a 503
+ * status right away without blocking the container thread, and its processing goes on in the background: the handler
+ * writes its response into a buffer that is only sent if the processing ends before the timeout, and once the timeout
+ * answered the request any further access of the handler to the request or the response fails or is ignored, so that
+ * the container can recycle them.
+ */
+public class RequestExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(RequestExecutor.class.getName());
+
+    private static final String GAUGE_PREFIX = "web.requests.";
+
+    /**
+     * Processes a request, on whatever thread the executor runs it.
+     */
+    public interface RequestHandler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+    }
+
+    private MetricsService metricsService;
+    private boolean asyncEnabled = false;
+    private int poolSize = 50;
+    private int maxQueueDepth = 1000;
+    private long asyncTimeout = 30000L;
+    private int retryAfterSeconds = 1;
+
+    private ThreadPoolExecutor executor;
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong timedOutRequests = new AtomicLong();
+
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void setAsyncEnabled(boolean asyncEnabled) {
+        this.asyncEnabled = asyncEnabled;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public void postConstruct() {
+        if (!asyncEnabled) {
+            logger.info("Request executor initialized, requests are processed on the container threads.");
+            return;
+        }
+        // the queue is the back-pressure threshold: once it is full new requests are rejected instead of waiting
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueueDepth)), new RequestThreadFactory());
+        if (metricsService != null) {
+            metricsService.registerGauge(GAUGE_PREFIX + "queueSize", "Number of requests waiting for a processing thread", () -> executor.getQueue().size());
+            metricsService.registerGauge(GAUGE_PREFIX + "activeRequests", "Number of requests being processed", executor::getActiveCount);
+            metricsService.registerGauge(GAUGE_PREFIX + "rejectedRequests", "Number of requests rejected because too many requests were waiting", rejectedRequests::get);
+            metricsService.registerGauge(GAUGE_PREFIX + "timedOutRequests", "Number of requests answered with a 503 status because they timed out", timedOutRequests::get);
+        }
+        logger.info("Request executor initialized with {} threads and a maximum queue depth of {}.", poolSize, maxQueueDepth);
+    }
+
+    public void preDestroy() {
+        if (executor == null) {
+            return;
+        }
+        if (metricsService != null) {
+            metricsService.unregisterGauge(GAUGE_PREFIX + "queueSize");
+            metricsService.unregisterGauge(GAUGE_PREFIX + "activeRequests");
+            metricsService.unregisterGauge(GAUGE_PREFIX + "rejectedRequests");
+            metricsService.unregisterGauge(GAUGE_PREFIX + "timedOutRequests");
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Request executor shutdown.");
+    }
+
+    /**
+     * Processes a request, asynchronously if the async mode is enabled and the request supports it.
+     *
+     * @param request  the request to process
+     * @param response the response of the request
+     * @param handler  the processing of the request
+     * @throws IOException if the request is processed synchronously and fails
+     */
+    public void execute(HttpServletRequest request, HttpServletResponse response, RequestHandler handler) throws IOException {
+        if (executor == null || !request.isAsyncSupported()) {
+            handler.handle(request, response);
+            return;
+        }
+        if (executor.getQueue().size() >= maxQueueDepth) {
+            reject(request, response);
+            return;
+        }
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(asyncTimeout);
+        RequestTask task = new RequestTask(asyncContext, handler);
+        asyncContext.addListener(new TimeoutListener(task));
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the queue filled up between the check and the submission, or the executor is shutting down
+            if (task.state.compareAndSet(RequestTask.WAITING, RequestTask.DROPPED)) {
+                reject(task.containerRequest(), task.containerResponse());
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        rejectedRequests.incrementAndGet();
+        HttpUtils.setupCORSHeaders(request, response);
+        response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests waiting, retry later");
+    }
+
+    /**
+     * The processing of an async request, which only touches the request once it was able to move from the waiting to
+     * the running state, the timeout moving it to the dropped state otherwise. While running, the handler gets guarded
+     * views of the request and response, the timeout moving the task to the timed out state under the task lock so that
+     * the handler never writes to the container response at the same time as the timeout answer.
+     */
+    private static class RequestTask implements Runnable {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int DROPPED = 2;
+        private static final int DONE = 3;
+        private static final int TIMED_OUT = 4;
+
+        private final AsyncContext asyncContext;
+        private final RequestHandler handler;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private RequestTask(AsyncContext asyncContext, RequestHandler handler) {
+            this.asyncContext = asyncContext;
+            this.handler = handler;
+            this.request = (HttpServletRequest) Proxy.newProxyInstance(RequestTask.class.getClassLoader(),
+                    new Class<?>[]{HttpServletRequest.class}, new GuardedRequest());
+            this.response = (HttpServletResponse) Proxy.newProxyInstance(RequestTask.class.getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class}, new GuardedResponse());
+        }
+
+        private HttpServletRequest containerRequest() {
+            return (HttpServletRequest) asyncContext.getRequest();
+        }
+
+        private HttpServletResponse containerResponse() {
+            return (HttpServletResponse) asyncContext.getResponse();
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(WAITING, RUNNING)) {
+                // the request timed out while waiting and was already answered
+                return;
+            }
+            try {
+                handler.handle(request, response);
+            } catch (Throwable t) {
+                if (state.get() == TIMED_OUT) {
+                    logger.warn("Request processing failed after the request timed out: {}", t.getMessage());
+                } else {
+                    logger.error("Error processing request", t);
+                    try {
+                        if (!response.isCommitted()) {
+                            response.reset();
+                            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        logger.debug("Couldn't send error response", e);
+                    }
+                }
+            } finally {
+                complete();
+            }
+        }
+
+        /**
+         * Sends the buffered response and completes the request, unless the request timed out in the meantime, in which
+         * case the timeout already answered and completed it.
+         */
+        private void complete() {
+            synchronized (this) {
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    return;
+                }
+            }
+            try {
+                if (writer != null) {
+                    writer.flush();
+                }
+                if (body.size() > 0) {
+                    body.writeTo(containerResponse().getOutputStream());
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Couldn't send response", e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        /**
+         * Moves a running task to the timed out state, after which the handler can't touch the request or the
+         * response anymore.
+         *
+         * @return true if the task was running and is now timed out, false if it already completed
+         */
+        private synchronized boolean timeOutRunning() {
+            return state.compareAndSet(RUNNING, TIMED_OUT);
+        }
+
+        private class GuardedRequest implements InvocationHandler {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (state.get() == TIMED_OUT) {
+                    throw new IllegalStateException("The request timed out");
+                }
+                return invokeOn(containerRequest(), method, args);
+            }
+        }
+
+        /**
+         * Buffers the response body and forwards the other calls to the container response, ignoring them once the
+         * request timed out.
+         */
+        private class GuardedResponse implements InvocationHandler {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                synchronized (RequestTask.this) {
+                    String name = method.getName();
+                    if (state.get() == TIMED_OUT) {
+                        if ("getOutputStream".equals(name) || "getWriter".equals(name)) {
+                            // the body is discarded anyway
+                            return "getWriter".equals(name) ? new PrintWriter(new ByteArrayOutputStream()) : new BufferedOutputStream(new ByteArrayOutputStream());
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                    switch (name) {
+                        case "getOutputStream":
+                            if (writer != null) {
+                                throw new IllegalStateException("getWriter() has already been called");
+                            }
+                            if (outputStream == null) {
+                                outputStream = new BufferedOutputStream(body);
+                            }
+                            return outputStream;
+                        case "getWriter":
+                            if (outputStream != null) {
+                                throw new IllegalStateException("getOutputStream() has already been called");
+                            }
+                            if (writer == null) {
+                                writer = new PrintWriter(new OutputStreamWriter(body, containerResponse().getCharacterEncoding()));
+                            }
+                            return writer;
+                        case "flushBuffer":
+                            // the buffered body is sent once the processing is over
+                            return null;
+                        case "reset":
+                        case "resetBuffer":
+                            if (writer != null) {
+                                writer.flush();
+                            }
+                            body.reset();
+                            break;
+                        default:
+                            break;
+                    }
+                    return invokeOn(containerResponse(), method, args);
+                }
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static class BufferedOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream buffer;
+
+        private BufferedOutputStream(ByteArrayOutputStream buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+    }
+
+    private class TimeoutListener implements AsyncListener {
+
+        private final RequestTask task;
+
+        private TimeoutListener(RequestTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            String reason;
+            if (task.state.compareAndSet(RequestTask.WAITING, RequestTask.DROPPED)) {
+                logger.warn("Request dropped after waiting {}ms for a processing thread", asyncTimeout);
+                reason = "Request timed out, retry later";
+            } else if (task.timeOutRunning()) {
+                // the processing goes on in the background but its response is discarded
+                logger.warn("Request still being processed after {}ms, answering it with a timeout", asyncTimeout);
+                reason = "Request timed out";
+            } else {
+                // the processing just ended and completes the request itself
+                return;
+            }
+            timedOutRequests.incrementAndGet();
+            AsyncContext asyncContext = event.getAsyncContext();
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            try {
+                if (!response.isCommitted()) {
+                    response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, reason);
+                }
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private static class RequestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "unomi-request-" + threadCount.incrementAndGet());
+        }
+    }
+}
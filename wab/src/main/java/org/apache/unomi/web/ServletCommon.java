@@ -57,10 +57,20 @@ public class ServletCommon {
     public static Changes handleEvents(List<Event> events, Session session, Profile profile,
                                     ServletRequest request, ServletResponse response, Date timestamp,
                                     PrivacyService privacyService, EventService eventService) {
-        List<String> filteredEventTypes = privacyService.getFilteredEventTypes(profile);
-
         String thirdPartyId = eventService.authenticateThirdPartyServer(((HttpServletRequest) request).getHeader("X-Unomi-Peer"),
                 request.getRemoteAddr());
+        return handleEvents(events, session, profile, request, response, thirdPartyId, timestamp, privacyService, eventService);
+    }
+
+    /**
+     * Sends events for a session and profile. The request and response are null for queued events, which are
+     * processed after the request completed, in which case the events don't have the HTTP request and response
+     * attributes.
+     */
+    public static Changes handleEvents(List<Event> events, Session session, Profile profile,
+                                       ServletRequest request, ServletResponse response, String thirdPartyId, Date timestamp,
+                                       PrivacyService privacyService, EventService eventService) {
+        List<String> filteredEventTypes = privacyService.getFilteredEventTypes(profile);
 
         int changes = EventService.NO_CHANGE;
         // execute provided events if any
@@ -82,8 +92,10 @@ public class ServletCommon {
                         eventToSend.setProfileId(null);
                     }
 
-                    eventToSend.getAttributes().put(Event.HTTP_REQUEST_ATTRIBUTE, request);
-                    eventToSend.getAttributes().put(Event.HTTP_RESPONSE_ATTRIBUTE, response);
+                    if (request != null) {
+                        eventToSend.getAttributes().put(Event.HTTP_REQUEST_ATTRIBUTE, request);
+                        eventToSend.getAttributes().put(Event.HTTP_RESPONSE_ATTRIBUTE, response);
+                    }
                     logger.debug("Received event " + event.getEventType() + " for profile=" + profile.getItemId() + " session="
                             + session.getItemId() + " target=" + event.getTarget() + " timestamp=" + timestamp);
                     changes = eventService.send(eventToSend);
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.web;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventIngestionLogTest {
+
+    private Path directory;
+    private EventIngestionLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("event-ingestion-log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testAppendAndProcess() throws Exception {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 1, 100, payload -> processed.add(toString(payload)));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(log.append("session", toBytes("event-" + i)));
+        }
+        waitFor(() -> processed.size() == 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("event-" + i, processed.get(i));
+        }
+        assertEquals(0, log.getFailedAttempts());
+    }
+
+    @Test
+    public void testFailedRecordsAreRetried() throws Exception {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        AtomicInteger failures = new AtomicInteger(2);
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 1, 100, payload -> {
+            if (toString(payload).equals("flaky") && failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Temporary failure");
+            }
+            processed.add(toString(payload));
+        });
+        log.append("session", toBytes("flaky"));
+        log.append("session", toBytes("next"));
+        waitFor(() -> processed.size() == 2);
+        // the failed record is processed again before the next record of the same key
+        assertEquals(Arrays.asList("flaky", "next"), processed);
+        assertEquals(2, log.getFailedAttempts());
+    }
+
+    @Test
+    public void testRestartResumesAfterProcessedRecords() throws Exception {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        // the records of session-b never succeed before the restart, they must not be lost; the two sessions are
+        // handled by different workers so that the records of session-a are processed meanwhile
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 2, 100, payload -> {
+            if (toString(payload).startsWith("failing")) {
+                throw new IllegalStateException("Unavailable");
+            }
+            processed.add(toString(payload));
+        });
+        for (int i = 0; i < 5; i++) {
+            log.append("session-a", toBytes("ok-" + i));
+            log.append("session-b", toBytes("failing-" + i));
+        }
+        waitFor(() -> processed.size() == 5);
+        waitFor(() -> log.getFailedAttempts() > 0);
+        log.close();
+        log = null;
+        assertEquals(1, listSegmentFiles().size());
+
+        List<String> processedAfterRestart = new CopyOnWriteArrayList<>();
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 2, 100, payload -> processedAfterRestart.add(toString(payload)));
+        waitFor(() -> processedAfterRestart.size() == 5);
+        Thread.sleep(200);
+        // the records processed before the restart are not processed again
+        assertEquals(Arrays.asList("failing-0", "failing-1", "failing-2", "failing-3", "failing-4"), processedAfterRestart);
+        waitFor(() -> log.getSegmentCount() == 1);
+    }
+
+    @Test
+    public void testSegmentOfFailedRecordIsKept() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        List<String> processed = new CopyOnWriteArrayList<>();
+        // each record takes 9 + 2 + 7 + 8 = 26 bytes, so 4 records fit in a segment
+        log = new EventIngestionLog(directory, 104, 1024 * 1024, 1, 100, payload -> {
+            if (failing.get() && toString(payload).equals("event-00")) {
+                throw new IllegalStateException("Unavailable");
+            }
+            processed.add(toString(payload));
+        });
+        for (int i = 0; i < 6; i++) {
+            assertTrue(log.append("session", toBytes(String.format("event-%02d", i))));
+        }
+        waitFor(() -> log.getFailedAttempts() > 1);
+        assertEquals(2, log.getSegmentCount());
+        assertTrue(processed.isEmpty());
+
+        failing.set(false);
+        waitFor(() -> processed.size() == 6);
+        waitFor(() -> log.getSegmentCount() == 1);
+    }
+
+    @Test(expected = PayloadTooLargeException.class)
+    public void testPayloadTooLarge() throws Exception {
+        log = new EventIngestionLog(directory, 64, 1024 * 1024, 1, 100, payload -> {
+        });
+        log.append("session", new byte[64]);
+    }
+
+    @Test
+    public void testSegmentRollAndDelete() throws Exception {
+        List<String> processed = new CopyOnWriteArrayList<>();
+        // each record takes 9 + 2 + 7 + 8 = 26 bytes, so 4 records fit in a segment
+        log = new EventIngestionLog(directory, 104, 1024 * 1024, 2, 100, payload -> processed.add(toString(payload)));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(log.append("session", toBytes(String.format("event-%02d", i))));
+        }
+        waitFor(() -> processed.size() == 20);
+        // all the segments but the one being written are deleted once processed
+        waitFor(() -> log.getSegmentCount() == 1);
+        assertEquals(1, listSegmentFiles().size());
+    }
+
+    @Test
+    public void testPerKeyOrdering() throws Exception {
+        Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 4, 100, payload -> {
+            String[] parts = toString(payload).split(":");
+            processed.computeIfAbsent(parts[0], key -> new CopyOnWriteArrayList<>()).add(Integer.parseInt(parts[1]));
+            Thread.sleep(Integer.parseInt(parts[1]) % 2);
+        });
+        int keys = 10;
+        int recordsPerKey = 50;
+        for (int i = 0; i < recordsPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "session-" + k;
+                while (!log.append(key, toBytes(key + ":" + i))) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+        waitFor(() -> processed.values().stream().mapToInt(List::size).sum() == keys * recordsPerKey);
+        for (int k = 0; k < keys; k++) {
+            List<Integer> sequence = processed.get("session-" + k);
+            assertEquals(recordsPerKey, sequence.size());
+            for (int i = 0; i < recordsPerKey; i++) {
+                assertEquals(Integer.valueOf(i), sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDiskUsage() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> processed = new CopyOnWriteArrayList<>();
+        log = new EventIngestionLog(directory, 104, 208, 1, 100, payload -> {
+            release.await();
+            processed.add(toString(payload));
+        });
+        int appended = 0;
+        while (log.append("session", toBytes(String.format("event-%02d", appended)))) {
+            appended++;
+            if (appended > 100) {
+                fail("The log should be full");
+            }
+        }
+        // two segments of four records
+        assertEquals(8, appended);
+        assertEquals(2, log.getSegmentCount());
+
+        release.countDown();
+        waitFor(() -> processed.size() == 8);
+        waitFor(() -> log.getSegmentCount() == 1);
+        assertTrue(log.append("session", toBytes("event-08")));
+        waitFor(() -> processed.size() == 9);
+    }
+
+    @Test
+    public void testRecoveryIgnoresTornRecords() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 1, 100, payload -> {
+            started.countDown();
+            release.await();
+        });
+        for (int i = 0; i < 3; i++) {
+            log.append("k", toBytes("event-" + i));
+        }
+        started.await(10, TimeUnit.SECONDS);
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        log.close();
+        log = null;
+
+        // each record takes 9 + 2 + 1 + 7 = 19 bytes, corrupt the payload of the third one
+        List<Path> segmentFiles = listSegmentFiles();
+        assertEquals(1, segmentFiles.size());
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles.get(0).toFile(), "rw")) {
+            file.seek(2 * 19 + 13);
+            file.write('X');
+        }
+
+        List<String> processed = new CopyOnWriteArrayList<>();
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 1, 100, payload -> processed.add(toString(payload)));
+        waitFor(() -> processed.size() == 1);
+        Thread.sleep(200);
+        // the first record was processed before the log was closed, it is not processed again
+        assertEquals(Collections.singletonList("event-1"), processed);
+        // records appended after the torn record go to a new segment
+        log.append("k", toBytes("event-3"));
+        waitFor(() -> processed.size() == 2);
+        assertEquals("event-3", processed.get(1));
+    }
+
+    @Test
+    public void testCloseWaitsForRecordsBeingProcessed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean completed = new AtomicBoolean();
+        log = new EventIngestionLog(directory, 4096, 1024 * 1024, 1, 100, payload -> {
+            started.countDown();
+            Thread.sleep(300);
+            completed.set(true);
+        });
+        log.append("session", toBytes("event"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        log.close();
+        assertTrue(completed.get());
+        // the segment files are kept for the next opening of the log
+        assertFalse(listSegmentFiles().isEmpty());
+        log = null;
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met after 10 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String toString(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.Test;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpUtilsTest {
+
+    private static final ObjectReader MAP_READER = new ObjectMapper().readerFor(Map.class);
+
+    @Test
+    public void testReadPayload() throws IOException {
+        Map<?, ?> payload = HttpUtils.readPayload(postRequest(utf8("{\"name\":\"Genève\"}"), null, null, true), MAP_READER, 1000);
+        assertEquals("Genève", payload.get("name"));
+
+        assertNull(HttpUtils.readPayload(postRequest(new byte[0], null, null, true), MAP_READER, 1000));
+    }
+
+    @Test
+    public void testReadPayloadFromParameter() throws IOException {
+        Map<?, ?> payload = HttpUtils.readPayload(request("GET", null, null, null, "{\"name\":\"Genève\"}", -1), MAP_READER, 1000);
+        assertEquals("Genève", payload.get("name"));
+
+        try {
+            HttpUtils.readPayload(request("GET", null, null, null, "{\"name\":\"Genève\"}", -1), MAP_READER, 10);
+            fail("The payload parameter is larger than the maximum size");
+        } catch (PayloadTooLargeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadPayloadWithDeclaredCharset() throws IOException {
+        byte[] body = "{\"name\":\"Genève\"}".getBytes(StandardCharsets.ISO_8859_1);
+        Map<?, ?> payload = HttpUtils.readPayload(postRequest(body, "ISO-8859-1", null, true), MAP_READER, 1000);
+        assertEquals("Genève", payload.get("name"));
+    }
+
+    @Test
+    public void testReadGzipPayload() throws IOException {
+        Map<?, ?> payload = HttpUtils.readPayload(postRequest(gzip(utf8("{\"name\":\"Genève\"}")), null, "gzip", true), MAP_READER, 1000);
+        assertEquals("Genève", payload.get("name"));
+    }
+
+    @Test
+    public void testPayloadSizeLimit() throws IOException {
+        byte[] body = utf8("{\"name\":\"" + repeat('a', 200) + "\"}");
+
+        // declared content length
+        assertTooLarge(postRequest(body, null, null, true), 100);
+        // content length not declared, the payload is only known to be too large while reading it
+        assertTooLarge(postRequest(body, null, null, false), 100);
+        // the limit applies to the decompressed payload
+        byte[] compressedBody = gzip(body);
+        assertTrue(compressedBody.length < 100);
+        assertTooLarge(postRequest(compressedBody, null, "gzip", true), 100);
+
+        // no limit
+        Map<?, ?> payload = HttpUtils.readPayload(postRequest(body, null, null, true), MAP_READER, 0);
+        assertEquals(200, ((String) payload.get("name")).length());
+    }
+
+    private static void assertTooLarge(HttpServletRequest request, long maxPayloadSize) throws IOException {
+        try {
+            HttpUtils.readPayload(request, MAP_READER, maxPayloadSize);
+            fail("The payload is larger than the maximum size");
+        } catch (PayloadTooLargeException e) {
+            // expected
+        }
+    }
+
+    private static HttpServletRequest postRequest(byte[] body, String characterEncoding, String contentEncoding, boolean declareLength) {
+        return request("POST", body, characterEncoding, contentEncoding, null, declareLength ? body.length : -1);
+    }
+
+    private static HttpServletRequest request(String method, byte[] body, String characterEncoding, String contentEncoding, String payloadParameter, int contentLength) {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpUtilsTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "getMethod":
+                    return method;
+                case "getContentLength":
+                    return contentLength;
+                case "getCharacterEncoding":
+                    return characterEncoding;
+                case "getHeader":
+                    return "Content-Encoding".equals(args[0]) ? contentEncoding : null;
+                case "getParameter":
+                    return "payload".equals(args[0]) ? payloadParameter : null;
+                case "getInputStream":
+                    ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
+                    return new ServletInputStream() {
+                        @Override
+                        public int read() {
+                            return inputStream.read();
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len) {
+                            return inputStream.read(b, off, len);
+                        }
+                    };
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] value) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(value);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.web;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestExecutorTest {
+
+    private RequestExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new RequestExecutor();
+        executor.setAsyncEnabled(true);
+        executor.setPoolSize(1);
+        executor.setMaxQueueDepth(10);
+        executor.postConstruct();
+    }
+
+    @After
+    public void tearDown() {
+        executor.preDestroy();
+    }
+
+    @Test
+    public void testCompletedRequestIsAnswered() throws Exception {
+        FakeExchange exchange = new FakeExchange();
+        executor.execute(exchange.request, exchange.response, (request, response) -> {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.getWriter().write("ok " + request.getParameter("id"));
+        });
+
+        assertTrue(exchange.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(HttpServletResponse.SC_ACCEPTED, exchange.status);
+        assertEquals("ok 42", exchange.body());
+
+        // a timeout firing after the processing ended doesn't touch the response anymore
+        exchange.timeOut();
+        assertEquals(HttpServletResponse.SC_ACCEPTED, exchange.status);
+        assertEquals(1, exchange.completions);
+    }
+
+    @Test
+    public void testQueuedRequestIsDroppedOnTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakeExchange running = new FakeExchange();
+        executor.execute(running.request, running.response, (request, response) -> await(release));
+
+        AtomicBoolean processed = new AtomicBoolean();
+        FakeExchange queued = new FakeExchange();
+        executor.execute(queued.request, queued.response, (request, response) -> processed.set(true));
+
+        queued.timeOut();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, queued.status);
+        assertEquals("1", queued.headers.get("Retry-After"));
+        assertEquals(1, queued.completions);
+
+        release.countDown();
+        assertTrue(running.completed.await(10, TimeUnit.SECONDS));
+        executor.preDestroy();
+        assertFalse(processed.get());
+        assertEquals(1, queued.completions);
+    }
+
+    @Test
+    public void testRunningRequestIsAnsweredOnTimeoutWithoutWaiting() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(1);
+        AtomicReference<Exception> lateRequestAccess = new AtomicReference<>();
+        FakeExchange exchange = new FakeExchange();
+        executor.execute(exchange.request, exchange.response, (request, response) -> {
+            response.getWriter().write("late");
+            started.countDown();
+            await(release);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setHeader("X-Late", "true");
+            try {
+                request.getParameter("id");
+            } catch (IllegalStateException e) {
+                lateRequestAccess.set(e);
+            }
+            handled.countDown();
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the timeout answers right away while the handler is still blocked
+        exchange.timeOut();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+        assertEquals(1, exchange.completions);
+
+        release.countDown();
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        executor.preDestroy();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+        assertFalse(exchange.headers.containsKey("X-Late"));
+        assertEquals("", exchange.body());
+        assertTrue(lateRequestAccess.get() != null);
+        assertEquals(1, exchange.completions);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A request, response and async context that record what is done with them.
+     */
+    private static class FakeExchange {
+        private final Map<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile int status = HttpServletResponse.SC_OK;
+        private volatile boolean committed;
+        private volatile int completions;
+        private AsyncListener listener;
+
+        private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setStatus":
+                            status = (Integer) args[0];
+                            return null;
+                        case "sendError":
+                            status = (Integer) args[0];
+                            committed = true;
+                            return null;
+                        case "setHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "isCommitted":
+                            return committed;
+                        case "getCharacterEncoding":
+                            return "UTF-8";
+                        case "getOutputStream":
+                            return new ServletOutputStream() {
+                                @Override
+                                public void write(int b) {
+                                    output.write(b);
+                                }
+                            };
+                        default:
+                            return null;
+                    }
+                });
+
+        private final AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "addListener":
+                            listener = (AsyncListener) args[0];
+                            return null;
+                        case "getRequest":
+                            return FakeExchange.this.request;
+                        case "getResponse":
+                            return response;
+                        case "complete":
+                            synchronized (FakeExchange.this) {
+                                completions++;
+                            }
+                            committed = true;
+                            completed.countDown();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+
+        private final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isAsyncSupported":
+                            return true;
+                        case "startAsync":
+                            return asyncContext;
+                        case "getParameter":
+                            return "42";
+                        default:
+                            return null;
+                    }
+                });
+
+        private void timeOut() throws IOException {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        private String body() {
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}